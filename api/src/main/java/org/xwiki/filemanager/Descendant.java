@@ -0,0 +1,134 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A file or folder from the sub-tree of a folder, along with its parent folder and its depth relative to the root of
+ * the sub-tree. A file that has multiple parent folders in the sub-tree appears once for each of them.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class Descendant
+{
+    /**
+     * The file or folder reference.
+     */
+    private final DocumentReference reference;
+
+    /**
+     * The parent folder in the sub-tree.
+     */
+    private final DocumentReference parentReference;
+
+    /**
+     * Whether this is a folder or a file.
+     */
+    private final boolean folder;
+
+    /**
+     * The depth relative to the root of the sub-tree.
+     */
+    private final int depth;
+
+    /**
+     * Creates a new descendant.
+     * 
+     * @param reference the file or folder reference
+     * @param parentReference the parent folder in the sub-tree
+     * @param folder {@code true} if this descendant is a folder, {@code false} if it's a file
+     * @param depth the depth relative to the root of the sub-tree, {@code 1} for the direct children
+     */
+    public Descendant(DocumentReference reference, DocumentReference parentReference, boolean folder, int depth)
+    {
+        this.reference = reference;
+        this.parentReference = parentReference;
+        this.folder = folder;
+        this.depth = depth;
+    }
+
+    /**
+     * @return the file or folder reference
+     */
+    public DocumentReference getReference()
+    {
+        return reference;
+    }
+
+    /**
+     * @return the parent folder in the sub-tree
+     */
+    public DocumentReference getParentReference()
+    {
+        return parentReference;
+    }
+
+    /**
+     * @return {@code true} if this descendant is a folder, {@code false} if it's a file
+     */
+    public boolean isFolder()
+    {
+        return folder;
+    }
+
+    /**
+     * @return the depth relative to the root of the sub-tree, {@code 1} for the direct children
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder().append(reference).append(parentReference).append(folder).append(depth)
+            .toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        Descendant other = (Descendant) obj;
+        return new EqualsBuilder().append(reference, other.reference).append(parentReference, other.parentReference)
+            .append(folder, other.folder).append(depth, other.depth).isEquals();
+    }
+
+    @Override
+    public String toString()
+    {
+        return (folder ? "folder " : "file ") + reference + " in " + parentReference + " at depth " + depth;
+    }
+}
@@ -46,4 +46,10 @@ public interface File extends Document
      * @since 2.0M2
      */
     InputStream getContent();
+
+    /**
+     * @return the size of the file content, in bytes
+     * @since 2.2
+     */
+    long getSize();
 }
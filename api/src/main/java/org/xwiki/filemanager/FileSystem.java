@@ -19,6 +19,9 @@
  */
 package org.xwiki.filemanager;
 
+import java.util.List;
+import java.util.Map;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.stability.Unstable;
@@ -51,6 +54,51 @@ public interface FileSystem
      */
     boolean exists(DocumentReference reference);
 
+    /**
+     * Returns the materialized path of a folder, i.e. the list of its ancestors on the same drive. The path is indexed
+     * so calling this method doesn't load the ancestor folders.
+     * 
+     * @param folderReference a folder reference
+     * @return the references of the ancestors of the specified folder, starting with the top most ancestor (which can
+     *         be the drive itself) and ending with the direct parent; {@code null} if the specified document is neither
+     *         a folder nor a drive
+     * @since 2.2
+     */
+    List<DocumentReference> getAncestorReferences(DocumentReference folderReference);
+
+    /**
+     * Returns the entire sub-tree of a folder at once, so that recursive operations can plan their work (and compute
+     * their exact progress) up front instead of discovering the sub-tree one level at a time. The folder hierarchy is
+     * indexed and the child files of all the folders from the sub-tree are retrieved with a few bulk queries.
+     * 
+     * @param folderReference a folder reference
+     * @return the files and folders from the sub-tree of the specified folder (excluding the folder itself), in
+     *         pre-order: each folder is followed by its child folders (and their sub-trees) and then by its child files
+     * @since 2.2
+     */
+    List<Descendant> getDescendants(DocumentReference folderReference);
+
+    /**
+     * Returns the child folders of a folder indexed by their name, without loading them, so that the name conflicts
+     * can be detected before copying or moving folders to the specified folder.
+     * 
+     * @param folderReference a folder reference
+     * @return the child folders of the specified folder, indexed by name
+     * @since 2.2
+     */
+    Map<String, DocumentReference> getChildFoldersByName(DocumentReference folderReference);
+
+    /**
+     * Returns the child files of a folder indexed by their name, without loading them, so that the name conflicts can
+     * be detected before copying or moving files to the specified folder. The files that don't have content (no
+     * attachment) are not included.
+     * 
+     * @param folderReference a folder reference
+     * @return the child files of the specified folder, indexed by name
+     * @since 2.2
+     */
+    Map<String, DocumentReference> getChildFilesByName(DocumentReference folderReference);
+
     /**
      * @param reference a reference to a file or folder
      * @return {@code true} if the referenced entity can be viewed by the current user
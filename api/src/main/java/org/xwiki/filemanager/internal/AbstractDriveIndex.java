@@ -0,0 +1,317 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Base class for the in-memory indexes of the drive documents. The index of a drive is loaded with a single query the
+ * first time it is needed and then kept up to date from the document events. An index loaded while the drive changes
+ * may miss the change so it is not cached, and neither is an index whose query failed.
+ *
+ * @param <T> the type of index kept for each drive
+ * @version $Id$
+ * @since 2.2
+ */
+public abstract class AbstractDriveIndex<T> implements EventListener, Initializable, Disposable
+{
+    /**
+     * Used to load the index of a drive.
+     */
+    @Inject
+    protected QueryManager queryManager;
+
+    /**
+     * Used to log the query failures.
+     */
+    @Inject
+    protected Logger logger;
+
+    /**
+     * Used to resolve the parent references.
+     */
+    @Inject
+    @Named("explicit")
+    protected DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * Used to serialize the drive reference passed to the query.
+     */
+    @Inject
+    @Named("local")
+    protected EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    /**
+     * Used to create the cache.
+     */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * The index of the drives that have been used recently.
+     */
+    private Cache<T> cache;
+
+    /**
+     * The drives whose index is being loaded.
+     */
+    private final Map<String, IndexLoad> loads = new HashMap<String, IndexLoad>();
+
+    /**
+     * Counts the changes of a drive while its index is being loaded.
+     */
+    private static final class IndexLoad
+    {
+        /**
+         * The number of changes notified since the first load started.
+         */
+        private long changes;
+
+        /**
+         * The number of threads loading the index.
+         */
+        private int loaders;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        String key = getKey(document.getDocumentReference().getLastSpaceReference());
+        // Record the change before updating the cache so that an index loaded in the meantime is not cached.
+        synchronized (this.loads) {
+            IndexLoad load = this.loads.get(key);
+            if (load != null) {
+                load.changes++;
+            }
+        }
+        // Don't load the index if it's not already loaded.
+        T index = this.cache.get(key);
+        if (index != null) {
+            update(index, event, document);
+        }
+    }
+
+    /**
+     * Reloads the index of the specified drive from the database.
+     *
+     * @param driveReference a drive reference
+     */
+    public void rebuild(SpaceReference driveReference)
+    {
+        load(driveReference);
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the index of the specified drive
+     */
+    protected T getIndex(SpaceReference driveReference)
+    {
+        T index = this.cache.get(getKey(driveReference));
+        return index != null ? index : load(driveReference);
+    }
+
+    /**
+     * Loads the index of a drive from the database and caches it if the drive didn't change in the meantime.
+     *
+     * @param driveReference a drive reference
+     * @return the loaded index, which is empty if the query failed
+     */
+    private T load(SpaceReference driveReference)
+    {
+        String key = getKey(driveReference);
+        long changes;
+        synchronized (this.loads) {
+            IndexLoad load = this.loads.get(key);
+            if (load == null) {
+                load = new IndexLoad();
+                this.loads.put(key, load);
+            }
+            load.loaders++;
+            changes = load.changes;
+        }
+
+        T index = newIndex();
+        boolean loaded = false;
+        try {
+            loaded = load(driveReference, index);
+        } finally {
+            synchronized (this.loads) {
+                IndexLoad load = this.loads.get(key);
+                if (load.changes != changes) {
+                    // The cached index may be stale too so the next call reloads it.
+                    this.cache.remove(key);
+                } else if (loaded) {
+                    this.cache.set(key, index);
+                }
+                if (--load.loaders == 0) {
+                    this.loads.remove(key);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @param index where to load the index of the specified drive
+     * @return {@code true} if the index has been loaded, {@code false} if the query failed
+     */
+    private boolean load(SpaceReference driveReference, T index)
+    {
+        try {
+            Query query = this.queryManager.createQuery(getStatement(), Query.HQL);
+            query.bindValue("space", this.localEntityReferenceSerializer.serialize(driveReference));
+            query.setWiki(driveReference.getWikiReference().getName());
+            for (Object result : query.execute()) {
+                Object[] row = (Object[]) result;
+                DocumentReference reference = new DocumentReference((String) row[0], driveReference);
+                add(index, reference, getParentName(reference, (String) row[1]), row);
+            }
+        } catch (QueryException e) {
+            // The index is not cached so the next call tries again.
+            this.logger.error("Failed to load the [{}] index of [{}].", getName(), driveReference, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param reference a document reference
+     * @param parent the serialized parent reference
+     * @return the name of the parent document if it's on the same drive, {@code null} otherwise
+     */
+    protected String getParentName(DocumentReference reference, String parent)
+    {
+        if (parent == null || parent.isEmpty()) {
+            return null;
+        }
+        DocumentReference parentReference = this.documentReferenceResolver.resolve(parent, reference);
+        return parentReference.getLastSpaceReference().equals(reference.getLastSpaceReference())
+            ? parentReference.getName() : null;
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the key used to cache the index of the specified drive
+     */
+    private String getKey(SpaceReference driveReference)
+    {
+        return driveReference.toString();
+    }
+
+    /**
+     * @return the query used to load the index of a drive; it has a {@code space} parameter for the drive and selects
+     *         the name and the parent of the documents first, followed by any other column needed to index them
+     */
+    protected abstract String getStatement();
+
+    /**
+     * @return the identifier of the cache configuration
+     */
+    protected abstract String getCacheId();
+
+    /**
+     * @return a new empty index
+     */
+    protected abstract T newIndex();
+
+    /**
+     * Adds a document loaded from the database to the index of its drive.
+     *
+     * @param index the index of the drive
+     * @param reference the document reference
+     * @param parentName the name of the parent document if it's on the same drive, {@code null} otherwise
+     * @param row the query result
+     */
+    protected abstract void add(T index, DocumentReference reference, String parentName, Object[] row);
+
+    /**
+     * Updates the index of a drive after one of its documents has been created, updated or deleted.
+     *
+     * @param index the index of the drive
+     * @param event the document event
+     * @param document the document that has been created, updated or deleted
+     */
+    protected abstract void update(T index, Event event, XWikiDocument document);
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId(getCacheId());
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(100);
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+
+        try {
+            this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to initialize the [" + getCacheId() + "] cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+}
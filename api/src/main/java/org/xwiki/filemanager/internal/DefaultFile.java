@@ -189,4 +189,11 @@ public class DefaultFile extends AbstractDocument implements File
             return new ByteArrayInputStream(new byte[] {});
         }
     }
+
+    @Override
+    public long getSize()
+    {
+        List<XWikiAttachment> attachments = getDocument().getAttachmentList();
+        return attachments.size() > 0 ? attachments.get(0).getLongSize() : 0;
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Reads the file manager configuration from {@code xwiki.properties}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Singleton
+public class DefaultFileManagerConfiguration implements FileManagerConfiguration
+{
+    /**
+     * The prefix of all the file manager configuration properties.
+     */
+    private static final String PREFIX = "filemanager.";
+
+    /**
+     * Used to read the configuration properties from {@code xwiki.properties}.
+     */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Override
+    public int getCopyThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "copy.threads", 0);
+    }
+
+    @Override
+    public int getMaxHeavyJobsPerUser()
+    {
+        return this.configuration.getProperty(PREFIX + "scheduler.maxHeavyJobsPerUser", 2);
+    }
+
+    @Override
+    public int getMaxHeavyJobsPerDrive()
+    {
+        return this.configuration.getProperty(PREFIX + "scheduler.maxHeavyJobsPerDrive", 1);
+    }
+
+    @Override
+    public int getMaxJobLogSize()
+    {
+        return this.configuration.getProperty(PREFIX + "job.log.maxSize", 1000);
+    }
+
+    @Override
+    public int getMaxJobLogSamples()
+    {
+        return this.configuration.getProperty(PREFIX + "job.log.maxSamples", 10);
+    }
+
+    @Override
+    public long getJobProgressInterval()
+    {
+        return this.configuration.getProperty(PREFIX + "job.progress.interval", 500L);
+    }
+
+    @Override
+    public int getJobProgressItems()
+    {
+        return this.configuration.getProperty(PREFIX + "job.progress.items", 1000);
+    }
+
+    @Override
+    public String getActiveJobStore()
+    {
+        return this.configuration.getProperty(PREFIX + "job.activeStore", "memory");
+    }
+
+    @Override
+    public long getDriveLockTimeout()
+    {
+        return this.configuration.getProperty(PREFIX + "job.driveLockTimeout", 3600000L);
+    }
+
+    @Override
+    public long getJobLease()
+    {
+        return this.configuration.getProperty(PREFIX + "job.lease", 60000L);
+    }
+
+    @Override
+    public String getReservationStore()
+    {
+        return this.configuration.getProperty(PREFIX + "reference.reservationStore", "memory");
+    }
+
+    @Override
+    public long getReservationLease()
+    {
+        return this.configuration.getProperty(PREFIX + "reference.reservationLease", 600000L);
+    }
+}
@@ -19,18 +19,34 @@
  */
 package org.xwiki.filemanager.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.filemanager.Descendant;
 import org.xwiki.filemanager.Document;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -46,6 +62,42 @@ import com.xpn.xwiki.doc.XWikiDocument;
 @Singleton
 public class DefaultFileSystem implements FileSystem
 {
+    /**
+     * The statement used to select the child files of multiple folders at once.
+     */
+    private static final String SELECT_CHILD_FILES_OF_FOLDERS = "select tag, doc.name from XWikiDocument doc,"
+        + " BaseObject fileObj, BaseObject tagObj, DBStringListProperty tags join tags.list tag"
+        + " where doc.space = :space and fileObj.name = doc.fullName"
+        + " and fileObj.className = 'FileManagerCode.FileClass' and tagObj.name = doc.fullName"
+        + " and tagObj.className = 'XWiki.TagClass' and tags.id.id = tagObj.id and tags.id.name = 'tags'"
+        + " and tag in (:folders) order by doc.name";
+
+    /**
+     * The statement used to select the name of the content (the first attachment) of the child files of a folder.
+     */
+    private static final String SELECT_CHILD_FILE_NAMES = "select doc.name, attach.filename from XWikiDocument doc,"
+        + " BaseObject fileObj, BaseObject tagObj, DBStringListProperty tags join tags.list tag, XWikiAttachment attach"
+        + " where doc.space = :space and doc.translation = 0 and fileObj.name = doc.fullName"
+        + " and fileObj.className = 'FileManagerCode.FileClass' and tagObj.name = doc.fullName"
+        + " and tagObj.className = 'XWiki.TagClass' and tags.id.id = tagObj.id and tags.id.name = 'tags'"
+        + " and tag = :folder and attach.docId = doc.id order by attach.filename";
+
+    /**
+     * The statement used to select the titles of some folders.
+     */
+    private static final String SELECT_FOLDER_TITLES = "select doc.name, doc.title from XWikiDocument doc"
+        + " where doc.space = :space and doc.translation = 0 and doc.name in (:names)";
+
+    /**
+     * The maximum number of folders whose child files are retrieved with a single query.
+     */
+    private static final int FOLDER_BATCH_SIZE = 1000;
+
+    /**
+     * The space query parameter.
+     */
+    private static final String PARAMETER_SPACE = "space";
+
     /**
      * Used to log messages.
      */
@@ -64,6 +116,19 @@ public class DefaultFileSystem implements FileSystem
     @Inject
     private Provider<ComponentManager> componentManagerProvider;
 
+    /**
+     * Used to retrieve the child files of multiple folders at once.
+     */
+    @Inject
+    private QueryManager queryManager;
+
+    /**
+     * Used to retrieve the ancestors of a folder.
+     */
+    @Inject
+    @Named(FolderIndex.NAME)
+    private FolderIndex folderIndex;
+
     @Override
     public Folder getFolder(DocumentReference folderReference)
     {
@@ -125,6 +190,164 @@ public class DefaultFileSystem implements FileSystem
         }
     }
 
+    @Override
+    public List<DocumentReference> getAncestorReferences(DocumentReference folderReference)
+    {
+        return folderIndex.getAncestors(folderReference);
+    }
+
+    @Override
+    public List<Descendant> getDescendants(DocumentReference folderReference)
+    {
+        // Collect the folders from the sub-tree using the index.
+        Set<DocumentReference> folderReferences = new LinkedHashSet<DocumentReference>();
+        folderReferences.add(folderReference);
+        collectDescendantFolders(folderReference, folderReferences);
+
+        Map<String, List<DocumentReference>> childFiles;
+        try {
+            childFiles = getChildFiles(folderReference.getLastSpaceReference(), folderReferences);
+        } catch (QueryException e) {
+            logger.error("Failed to retrieve the files from the sub-tree of [{}].", folderReference, e);
+            return Collections.emptyList();
+        }
+
+        List<Descendant> descendants = new ArrayList<Descendant>();
+        addDescendants(folderReference, 1, childFiles, new LinkedHashSet<DocumentReference>(), descendants);
+        return descendants;
+    }
+
+    @Override
+    public Map<String, DocumentReference> getChildFoldersByName(DocumentReference folderReference)
+    {
+        // The child folders are indexed so we only have to query their titles.
+        List<String> childFolderNames = new ArrayList<String>();
+        for (DocumentReference childFolderReference : folderIndex.getChildFolders(folderReference)) {
+            childFolderNames.add(childFolderReference.getName());
+        }
+        SpaceReference driveReference = folderReference.getLastSpaceReference();
+        Map<String, DocumentReference> childFolders = new HashMap<String, DocumentReference>();
+        try {
+            for (int start = 0; start < childFolderNames.size(); start += FOLDER_BATCH_SIZE) {
+                Query query = queryManager.createQuery(SELECT_FOLDER_TITLES, Query.HQL);
+                query.bindValue(PARAMETER_SPACE, driveReference.getName());
+                query.bindValue("names",
+                    childFolderNames.subList(start, Math.min(start + FOLDER_BATCH_SIZE, childFolderNames.size())));
+                query.setWiki(driveReference.getWikiReference().getName());
+                for (Object result : query.execute()) {
+                    Object[] row = (Object[]) result;
+                    // The folder name is its title, or the document name if the folder doesn't have a title.
+                    childFolders.put(StringUtils.defaultIfEmpty((String) row[1], (String) row[0]),
+                        new DocumentReference((String) row[0], driveReference));
+                }
+            }
+        } catch (QueryException e) {
+            logger.error("Failed to retrieve the names of the child folders of [{}].", folderReference, e);
+        }
+        return childFolders;
+    }
+
+    @Override
+    public Map<String, DocumentReference> getChildFilesByName(DocumentReference folderReference)
+    {
+        SpaceReference driveReference = folderReference.getLastSpaceReference();
+        Map<String, String> fileNames = new HashMap<String, String>();
+        try {
+            Query query = queryManager.createQuery(SELECT_CHILD_FILE_NAMES, Query.HQL);
+            query.bindValue(PARAMETER_SPACE, driveReference.getName());
+            query.bindValue("folder", folderReference.getName());
+            query.setWiki(driveReference.getWikiReference().getName());
+            for (Object result : query.execute()) {
+                Object[] row = (Object[]) result;
+                // The attachments are ordered by name and the file name is the name of the first one.
+                if (!fileNames.containsKey(row[0])) {
+                    fileNames.put((String) row[0], (String) row[1]);
+                }
+            }
+        } catch (QueryException e) {
+            logger.error("Failed to retrieve the names of the child files of [{}].", folderReference, e);
+        }
+        Map<String, DocumentReference> childFiles = new HashMap<String, DocumentReference>();
+        for (Map.Entry<String, String> fileName : fileNames.entrySet()) {
+            childFiles.put(fileName.getValue(), new DocumentReference(fileName.getKey(), driveReference));
+        }
+        return childFiles;
+    }
+
+    /**
+     * @param folderReference a folder reference
+     * @param folderReferences where to collect the descendant folders of the specified folder
+     */
+    private void collectDescendantFolders(DocumentReference folderReference, Set<DocumentReference> folderReferences)
+    {
+        for (DocumentReference childFolderReference : folderIndex.getChildFolders(folderReference)) {
+            // Prevent cycles.
+            if (folderReferences.add(childFolderReference)) {
+                collectDescendantFolders(childFolderReference, folderReferences);
+            }
+        }
+    }
+
+    /**
+     * Adds the sub-tree of the specified folder to the given list of descendants, in pre-order.
+     * 
+     * @param folderReference a folder reference
+     * @param depth the depth of the children of the specified folder
+     * @param childFiles the child files of all the folders from the sub-tree, grouped by folder name
+     * @param visited the folders that have been visited already, used to prevent cycles
+     * @param descendants where to add the descendants
+     */
+    private void addDescendants(DocumentReference folderReference, int depth,
+        Map<String, List<DocumentReference>> childFiles, Set<DocumentReference> visited, List<Descendant> descendants)
+    {
+        visited.add(folderReference);
+        for (DocumentReference childFolderReference : folderIndex.getChildFolders(folderReference)) {
+            if (!visited.contains(childFolderReference)) {
+                descendants.add(new Descendant(childFolderReference, folderReference, true, depth));
+                addDescendants(childFolderReference, depth + 1, childFiles, visited, descendants);
+            }
+        }
+        List<DocumentReference> fileReferences = childFiles.get(folderReference.getName());
+        if (fileReferences != null) {
+            for (DocumentReference childFileReference : fileReferences) {
+                descendants.add(new Descendant(childFileReference, folderReference, false, depth));
+            }
+        }
+    }
+
+    /**
+     * @param driveReference the drive that contains the specified folders
+     * @param folderReferences the folders whose child files to return
+     * @return the child files, grouped by the name of their parent folder
+     * @throws QueryException if retrieving the child files fails
+     */
+    private Map<String, List<DocumentReference>> getChildFiles(SpaceReference driveReference,
+        Collection<DocumentReference> folderReferences) throws QueryException
+    {
+        Map<String, List<DocumentReference>> childFiles = new HashMap<String, List<DocumentReference>>();
+        List<String> folderNames = new ArrayList<String>(folderReferences.size());
+        for (DocumentReference folderReference : folderReferences) {
+            folderNames.add(folderReference.getName());
+        }
+        for (int start = 0; start < folderNames.size(); start += FOLDER_BATCH_SIZE) {
+            Query query = queryManager.createQuery(SELECT_CHILD_FILES_OF_FOLDERS, Query.HQL);
+            query.bindValue(PARAMETER_SPACE, driveReference.getName());
+            query.bindValue("folders",
+                folderNames.subList(start, Math.min(start + FOLDER_BATCH_SIZE, folderNames.size())));
+            query.setWiki(driveReference.getWikiReference().getName());
+            for (Object result : query.execute()) {
+                Object[] row = (Object[]) result;
+                List<DocumentReference> fileReferences = childFiles.get(row[0]);
+                if (fileReferences == null) {
+                    fileReferences = new ArrayList<DocumentReference>();
+                    childFiles.put((String) row[0], fileReferences);
+                }
+                fileReferences.add(new DocumentReference((String) row[1], driveReference));
+            }
+        }
+        return childFiles;
+    }
+
     @Override
     public boolean canView(DocumentReference reference)
     {
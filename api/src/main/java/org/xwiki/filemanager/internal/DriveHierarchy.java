@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The in-memory hierarchy of the folders of a drive. Each folder (and the drive itself) is identified by its document
+ * name and stores only the name of its parent. The materialized path of a folder (the list of its ancestors) is
+ * computed on demand and kept until the hierarchy changes. The reverse relation (the child folders) is maintained
+ * along, in order to retrieve sub-trees.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class DriveHierarchy
+{
+    /**
+     * Maps the name of a folder (or the drive) to the name of its parent. The parent is {@code null} if it's not on the
+     * same drive.
+     */
+    private final Map<String, String> parents = new HashMap<String, String>();
+
+    /**
+     * The materialized paths, i.e. maps the name of a folder to the names of its ancestors, starting from the root.
+     */
+    private final Map<String, List<String>> ancestors = new HashMap<String, List<String>>();
+
+    /**
+     * Maps the name of a folder to the names of its child folders.
+     */
+    private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+
+    /**
+     * Adds a folder to the hierarchy, or updates its parent if the folder is already present.
+     * 
+     * @param name the folder name
+     * @param parentName the name of the parent folder, {@code null} if the parent is not on the same drive
+     */
+    public synchronized void put(String name, String parentName)
+    {
+        if (!this.parents.containsKey(name) || !Objects.equals(this.parents.get(name), parentName)) {
+            removeChild(this.parents.put(name, parentName), name);
+            if (parentName != null) {
+                Set<String> siblings = this.children.get(parentName);
+                if (siblings == null) {
+                    siblings = new TreeSet<String>();
+                    this.children.put(parentName, siblings);
+                }
+                siblings.add(name);
+            }
+            // The change affects the entire sub-tree of the folder.
+            this.ancestors.clear();
+        }
+    }
+
+    /**
+     * Removes a folder from the hierarchy.
+     * 
+     * @param name the folder name
+     */
+    public synchronized void remove(String name)
+    {
+        if (this.parents.containsKey(name)) {
+            removeChild(this.parents.remove(name), name);
+            this.ancestors.clear();
+        }
+    }
+
+    /**
+     * Removes a folder from the child folders of its parent.
+     * 
+     * @param parentName the name of the parent folder, {@code null} if the parent is not on the same drive
+     * @param name the name of the child folder
+     */
+    private void removeChild(String parentName, String name)
+    {
+        Set<String> siblings = parentName != null ? this.children.get(parentName) : null;
+        if (siblings != null) {
+            siblings.remove(name);
+            if (siblings.isEmpty()) {
+                this.children.remove(parentName);
+            }
+        }
+    }
+
+    /**
+     * @param name a folder name
+     * @return the names of the ancestors of the specified folder, starting from the root and ending with the direct
+     *         parent, or {@code null} if the specified folder is not part of this hierarchy
+     */
+    public synchronized List<String> getAncestors(String name)
+    {
+        if (!this.parents.containsKey(name)) {
+            return null;
+        }
+
+        List<String> path = this.ancestors.get(name);
+        if (path == null) {
+            // Walk up the hierarchy, stopping if there's a cycle or if we reach a parent that is not a folder.
+            Set<String> visited = new LinkedHashSet<String>();
+            visited.add(name);
+            String parentName = this.parents.get(name);
+            while (parentName != null && this.parents.containsKey(parentName) && visited.add(parentName)) {
+                parentName = this.parents.get(parentName);
+            }
+            path = new ArrayList<String>(visited);
+            path.remove(0);
+            Collections.reverse(path);
+            path = Collections.unmodifiableList(path);
+            this.ancestors.put(name, path);
+        }
+        return path;
+    }
+
+    /**
+     * @param name a folder name
+     * @return the names of the child folders of the specified folder, in alphabetical order
+     */
+    public synchronized List<String> getChildren(String name)
+    {
+        Set<String> childNames = this.children.get(name);
+        return childNames != null ? new ArrayList<String>(childNames) : Collections.<String>emptyList();
+    }
+
+    /**
+     * @param name a folder name
+     * @return {@code true} if the specified folder has child folders, {@code false} otherwise
+     */
+    public synchronized boolean hasChildren(String name)
+    {
+        Set<String> childNames = this.children.get(name);
+        return childNames != null && !childNames.isEmpty();
+    }
+}
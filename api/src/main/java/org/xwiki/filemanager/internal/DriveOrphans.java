@@ -0,0 +1,221 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The orphan folders and the orphan files of a drive. A folder or a file is orphan if its parent is not set, or if its
+ * parent is neither the drive home page nor a folder from the same drive. Each document is identified by its name and
+ * stores only the name of its parent, and the reverse relation is maintained along so that the orphan status of the
+ * children can be updated when a folder is created or deleted.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class DriveOrphans
+{
+    /**
+     * Maps the name of a folder or a file to the name of its parent. The parent is {@code null} if it's not set or if
+     * it's not on the same drive.
+     */
+    private final Map<String, String> parents = new HashMap<String, String>();
+
+    /**
+     * Maps the name of a document to the names of the folders and files that have it as parent, whether the parent
+     * exists or not.
+     */
+    private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+
+    /**
+     * The names of the documents that can be used as parent, i.e. the folders and the drive home page.
+     */
+    private final Set<String> containers = new HashSet<String>();
+
+    /**
+     * The names of the folders.
+     */
+    private final Set<String> folders = new HashSet<String>();
+
+    /**
+     * The names of the orphan folders, in alphabetical order.
+     */
+    private final Set<String> orphanFolders = new TreeSet<String>();
+
+    /**
+     * The names of the orphan files, in alphabetical order.
+     */
+    private final Set<String> orphanFiles = new TreeSet<String>();
+
+    /**
+     * Adds the drive home page, or a document that is not a folder but can be used as parent.
+     * 
+     * @param name the document name
+     */
+    public synchronized void putDrive(String name)
+    {
+        remove(name);
+        this.containers.add(name);
+        updateChildren(name);
+    }
+
+    /**
+     * Adds a folder, or updates its parent if the folder is already present.
+     * 
+     * @param name the folder name
+     * @param parentName the name of the parent, {@code null} if the parent is not set or is not on the same drive
+     */
+    public synchronized void putFolder(String name, String parentName)
+    {
+        remove(name);
+        this.folders.add(name);
+        this.containers.add(name);
+        putParent(name, parentName);
+        updateChildren(name);
+    }
+
+    /**
+     * Adds a file, or updates its parent if the file is already present.
+     * 
+     * @param name the file name
+     * @param parentName the name of the parent, {@code null} if the parent is not set or is not on the same drive
+     */
+    public synchronized void putFile(String name, String parentName)
+    {
+        remove(name);
+        putParent(name, parentName);
+    }
+
+    /**
+     * Removes a folder, a file or the drive home page.
+     * 
+     * @param name the document name
+     */
+    public synchronized void remove(String name)
+    {
+        this.folders.remove(name);
+        this.orphanFolders.remove(name);
+        this.orphanFiles.remove(name);
+        if (this.parents.containsKey(name)) {
+            String parentName = this.parents.remove(name);
+            Set<String> siblings = parentName != null ? this.children.get(parentName) : null;
+            if (siblings != null) {
+                siblings.remove(name);
+                if (siblings.isEmpty()) {
+                    this.children.remove(parentName);
+                }
+            }
+        }
+        if (this.containers.remove(name)) {
+            updateChildren(name);
+        }
+    }
+
+    /**
+     * @return the names of the orphan folders, in alphabetical order
+     */
+    public synchronized List<String> getOrphanFolders()
+    {
+        return new ArrayList<String>(this.orphanFolders);
+    }
+
+    /**
+     * @return the names of the orphan files, in alphabetical order
+     */
+    public synchronized List<String> getOrphanFiles()
+    {
+        return new ArrayList<String>(this.orphanFiles);
+    }
+
+    /**
+     * @return {@code true} if the drive has orphan folders, {@code false} otherwise
+     */
+    public synchronized boolean hasOrphanFolders()
+    {
+        return !this.orphanFolders.isEmpty();
+    }
+
+    /**
+     * @return {@code true} if the drive has orphan files, {@code false} otherwise
+     */
+    public synchronized boolean hasOrphanFiles()
+    {
+        return !this.orphanFiles.isEmpty();
+    }
+
+    /**
+     * Sets the parent of a folder or a file and updates its orphan status.
+     * 
+     * @param name the name of a folder or a file
+     * @param parentName the name of the parent, {@code null} if the parent is not set or is not on the same drive
+     */
+    private void putParent(String name, String parentName)
+    {
+        this.parents.put(name, parentName);
+        if (parentName != null) {
+            Set<String> siblings = this.children.get(parentName);
+            if (siblings == null) {
+                siblings = new HashSet<String>();
+                this.children.put(parentName, siblings);
+            }
+            siblings.add(name);
+        }
+        update(name);
+    }
+
+    /**
+     * Updates the orphan status of the children of the specified document, after the document has been added or
+     * removed.
+     * 
+     * @param name the document name
+     */
+    private void updateChildren(String name)
+    {
+        Set<String> childNames = this.children.get(name);
+        if (childNames != null) {
+            for (String childName : childNames) {
+                update(childName);
+            }
+        }
+    }
+
+    /**
+     * Updates the orphan status of the specified folder or file.
+     * 
+     * @param name the name of a folder or a file
+     */
+    private void update(String name)
+    {
+        String parentName = this.parents.get(name);
+        boolean orphan = parentName == null || !this.containers.contains(parentName);
+        Set<String> orphans = this.folders.contains(name) ? this.orphanFolders : this.orphanFiles;
+        if (orphan) {
+            orphans.add(name);
+        } else {
+            orphans.remove(name);
+        }
+    }
+}
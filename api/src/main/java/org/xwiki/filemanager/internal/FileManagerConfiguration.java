@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * The file manager configuration options.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Role
+public interface FileManagerConfiguration
+{
+    /**
+     * The copy job can copy the sub-trees of sibling folders in parallel, once the destination folder exists. The
+     * threads are shared by all the copy jobs. Each thread needs its own database connection so this value should be
+     * smaller than the size of the database connection pool.
+     * 
+     * @return the number of threads shared by the copy jobs to copy folders, {@code 0} or {@code 1} to copy on the job
+     *         thread
+     */
+    int getCopyThreads();
+
+    /**
+     * @return the maximum number of heavy jobs (copy and pack) of the same user that can run at the same time; the
+     *         other heavy jobs of the user wait in the file manager scheduler
+     */
+    int getMaxHeavyJobsPerUser();
+
+    /**
+     * @return the maximum number of heavy jobs (copy and pack) that can run at the same time on the same drive; the
+     *         jobs on the same drive are executed one after another so a small value lets the short operations (like
+     *         move and delete) run between the heavy jobs
+     */
+    int getMaxHeavyJobsPerDrive();
+
+    /**
+     * The jobs log the files and folders they process and the problems they encounter. The log is kept in memory while
+     * the job runs and it is stored with the job status so it has to be bounded for jobs that process many items.
+     * 
+     * @return the maximum number of log messages a job can produce, {@code 0} for no limit
+     */
+    int getMaxJobLogSize();
+
+    /**
+     * The log messages of a job are grouped by message (and error type) and only the first messages of each group are
+     * kept. The number of omitted messages is logged at the end of the job.
+     * 
+     * @return the maximum number of similar log messages a job can produce, {@code 0} for no limit
+     */
+    int getMaxJobLogSamples();
+
+    /**
+     * Each progress update of a job fires events, which is costly for jobs that process many files and folders, so the
+     * job progress is updated at most once per time interval.
+     * 
+     * @return the minimum time between two progress updates of a job, in milliseconds
+     */
+    long getJobProgressInterval();
+
+    /**
+     * @return the number of processed files and folders after which the progress of a job is updated even if the
+     *         {@link #getJobProgressInterval() time interval} hasn't elapsed
+     */
+    int getJobProgressItems();
+
+    /**
+     * The active file manager jobs (and the drive locks held by the running jobs) are kept in a store that can be
+     * shared by the nodes of a cluster.
+     * 
+     * @return the hint of the {@link org.xwiki.filemanager.job.ActiveJobStore} component to use, e.g. {@code memory}
+     *         (for a single node) or {@code database} (for a cluster)
+     */
+    String getActiveJobStore();
+
+    /**
+     * A job locks the drives it targets before it starts, so that jobs running on different cluster nodes don't modify
+     * the same drive at the same time. The job fails if it can't lock its drives in time.
+     * 
+     * @return how long a job waits for the drives it targets to be unlocked, in milliseconds, {@code 0} to not wait
+     */
+    long getDriveLockTimeout();
+
+    /**
+     * The active jobs and the drive locks are leases that the node running the jobs renews periodically, so that the
+     * jobs and the locks left by a node that stopped unexpectedly expire.
+     * 
+     * @return how long an active job and its drive locks last if the lease is not renewed, in milliseconds
+     */
+    long getJobLease();
+
+    /**
+     * The generated document references are reserved until the document is created, so that two users don't get the
+     * same reference. In a cluster the reservations must be shared by all the nodes.
+     * 
+     * @return the hint of the {@link org.xwiki.filemanager.reference.DocumentReservationStore} component to use, e.g.
+     *         {@code memory} (for a single node) or {@code database} (for a cluster)
+     */
+    String getReservationStore();
+
+    /**
+     * The reservation is a short-lived lease: it is released as soon as the document is created. A file reference is
+     * reserved before its content is uploaded and the file document is created when the upload ends, so the lease
+     * should be longer than the maximum time an upload can take. Defaults to 10 minutes.
+     * 
+     * @return how long a generated document reference stays reserved if the document is not created, in milliseconds
+     */
+    long getReservationLease();
+}
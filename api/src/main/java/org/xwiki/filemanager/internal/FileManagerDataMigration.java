@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+
+import com.xpn.xwiki.store.migration.DataMigrationException;
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+import com.xpn.xwiki.store.migration.hibernate.AbstractHibernateDataMigration;
+
+/**
+ * Creates the tables that the file manager uses to share data between the nodes of a cluster (the active jobs, the
+ * drive locks, the document reservations and the last document name suffixes), in the database of the main wiki. The
+ * tables are described with a Liquibase change log so that the column types are adapted to the database.
+ * <p>
+ * The migration is executed when the database is upgraded, at startup. If the database of the main wiki was already
+ * past this version when the file manager was installed, force the migration with
+ * {@code xwiki.store.migration.force=R161000100FileManager} in {@code xwiki.cfg}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named(FileManagerDataMigration.HINT)
+@Singleton
+public class FileManagerDataMigration extends AbstractHibernateDataMigration
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "R161000100FileManager";
+
+    /**
+     * The constraints of a primary key column.
+     */
+    private static final String PRIMARY_KEY = "primaryKey=\"true\" nullable=\"false\"";
+
+    /**
+     * The constraints of a mandatory column.
+     */
+    private static final String NOT_NULL = "nullable=\"false\"";
+
+    /**
+     * The constraints of an optional column.
+     */
+    private static final String NULLABLE = "nullable=\"true\"";
+
+    /**
+     * The varchar column type.
+     */
+    private static final String VARCHAR = "varchar(255)";
+
+    /**
+     * The type of the columns that hold a serialized drive reference.
+     */
+    private static final String DRIVE = "varchar(512)";
+
+    /**
+     * The type of the columns that hold a serialized document reference.
+     */
+    private static final String DOCUMENT = "varchar(768)";
+
+    /**
+     * The type of the columns that hold a time in milliseconds.
+     */
+    private static final String BIGINT = "bigint";
+
+    /**
+     * The tables to create: the table name followed by the description of its columns.
+     */
+    private static final String[][] TABLES = {
+        {"filemanager_active_jobs", column("FMJ_ID", VARCHAR, PRIMARY_KEY), column("FMJ_TYPE", VARCHAR, NULLABLE),
+            column("FMJ_USER", DOCUMENT, NULLABLE), column("FMJ_STATE", "varchar(32)", NULLABLE),
+            column("FMJ_PROGRESS", "double", NULLABLE), column("FMJ_DATE", BIGINT, NOT_NULL),
+            column("FMJ_EXPIRY", BIGINT, NOT_NULL)},
+        {"filemanager_active_job_drives", column("FMD_JOB", VARCHAR, PRIMARY_KEY),
+            column("FMD_DRIVE", DRIVE, PRIMARY_KEY)},
+        {"filemanager_drive_locks", column("FML_DRIVE", DRIVE, PRIMARY_KEY),
+            column("FML_JOB", VARCHAR, NOT_NULL), column("FML_EXPIRY", BIGINT, NOT_NULL)},
+        {"filemanager_reservations", column("FMR_DOCUMENT", DOCUMENT, PRIMARY_KEY),
+            column("FMR_OWNER", DOCUMENT, NULLABLE), column("FMR_EXPIRY", BIGINT, NOT_NULL)},
+        {"filemanager_name_suffixes", column("FMS_DOCUMENT", DOCUMENT, PRIMARY_KEY),
+            column("FMS_SUFFIX", "int", NOT_NULL)}};
+
+    @Override
+    public String getDescription()
+    {
+        return "Create the tables used by the file manager to share the active jobs, the drive locks, the document"
+            + " reservations and the document name suffixes between the nodes of a cluster.";
+    }
+
+    @Override
+    public XWikiDBVersion getVersion()
+    {
+        return new XWikiDBVersion(161000100);
+    }
+
+    @Override
+    public boolean shouldExecute(XWikiDBVersion startupVersion)
+    {
+        // The tables are shared by all the wikis.
+        return getXWikiContext().isMainWiki();
+    }
+
+    @Override
+    public String getLiquibaseChangeLog() throws DataMigrationException
+    {
+        StringBuilder changeLog = new StringBuilder();
+        for (String[] table : TABLES) {
+            changeLog.append(String.format("<changeSet author=\"xwiki\" id=\"%s-%s\">", HINT, table[0]));
+            changeLog.append(String.format(
+                "<preConditions onFail=\"MARK_RAN\"><not><tableExists tableName=\"%s\"/></not></preConditions>",
+                table[0]));
+            changeLog.append(String.format("<createTable tableName=\"%s\">", table[0]));
+            for (int i = 1; i < table.length; i++) {
+                changeLog.append(table[i]);
+            }
+            changeLog.append("</createTable></changeSet>");
+        }
+        return changeLog.toString();
+    }
+
+    @Override
+    protected void hibernateMigrate()
+    {
+        // The tables are created by the Liquibase change log.
+    }
+
+    /**
+     * @param name the column name
+     * @param type the column type
+     * @param constraints the column constraints
+     * @return the Liquibase description of the column
+     */
+    private static String column(String name, String type, String constraints)
+    {
+        return String.format("<column name=\"%s\" type=\"%s\"><constraints %s/></column>", name, type, constraints);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+
+/**
+ * Gives access to the tables that the file manager creates in the database of the main wiki in order to share data
+ * between the nodes of a cluster (e.g. the active jobs or the document reservations). The tables are created by the
+ * {@link FileManagerDataMigration} and accessed with native queries because they are not mapped with Hibernate. The
+ * stores that use them check that they exist when they are initialized.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = FileManagerDatabase.class)
+@Singleton
+public class FileManagerDatabase
+{
+    /**
+     * Provides an instance of the XWiki context.
+     */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Checks that the specified tables exist in the database of the main wiki. They are missing when the
+     * {@link FileManagerDataMigration} hasn't been executed, e.g. when the database of the main wiki was already past
+     * its version when the file manager was installed.
+     * 
+     * @param tables the names of the tables to check
+     * @throws InitializationException if one of the tables is missing or if the database can't be accessed
+     */
+    public void checkTables(String... tables) throws InitializationException
+    {
+        try {
+            executeRead(session -> {
+                for (String table : tables) {
+                    // Fails if the table doesn't exist.
+                    session.createNativeQuery("select count(*) from " + table + " where 1 = 0").getResultList();
+                }
+                return null;
+            });
+        } catch (XWikiException e) {
+            throw new InitializationException(String.format("The tables %s are missing from the database of the main"
+                + " wiki. Force their creation with [xwiki.store.migration.force=%s] in xwiki.cfg and restart.",
+                Arrays.toString(tables), FileManagerDataMigration.HINT), e);
+        }
+    }
+
+    /**
+     * @param callback the callback to execute in a read transaction on the database of the main wiki
+     * @param <T> the type of result
+     * @return the result of the callback
+     * @throws XWikiException if the callback fails
+     */
+    public <T> T executeRead(HibernateCallback<T> callback) throws XWikiException
+    {
+        return execute(callback, false);
+    }
+
+    /**
+     * @param callback the callback to execute in a write transaction on the database of the main wiki
+     * @param <T> the type of result
+     * @return the result of the callback
+     * @throws XWikiException if the callback fails
+     */
+    public <T> T executeWrite(HibernateCallback<T> callback) throws XWikiException
+    {
+        return execute(callback, true);
+    }
+
+    /**
+     * Executes a callback on the database of the main wiki.
+     * 
+     * @param callback the callback to execute
+     * @param write {@code true} to execute the callback in a write transaction, {@code false} for a read transaction
+     * @param <T> the type of result
+     * @return the result of the callback
+     * @throws XWikiException if the callback fails
+     */
+    private <T> T execute(HibernateCallback<T> callback, boolean write) throws XWikiException
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWiki = xcontext.getWikiId();
+        xcontext.setWikiId(xcontext.getMainXWiki());
+        try {
+            if (write) {
+                return xcontext.getWiki().getHibernateStore().executeWrite(xcontext, callback);
+            } else {
+                return xcontext.getWiki().getHibernateStore().executeRead(xcontext, callback);
+            }
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Indexes the folder hierarchy of each drive in memory so that the ancestors and the descendant folders of a folder
+ * can be retrieved without loading the folder documents. The hierarchy of a drive is loaded with a single query the
+ * first time it is needed and then kept up to date from the document events, which means bulk changes (like the
+ * update of the children of a renamed folder) are reflected without reloading the drive.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = {FolderIndex.class, EventListener.class})
+@Named(FolderIndex.NAME)
+@Singleton
+public class FolderIndex extends AbstractDriveIndex<DriveHierarchy>
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "FileManagerFolderIndex";
+
+    /**
+     * The class used to mark the folder documents.
+     */
+    static final EntityReference FOLDER_CLASS_REFERENCE = new EntityReference("FolderClass", EntityType.DOCUMENT,
+        new EntityReference("FileManagerCode", EntityType.SPACE));
+
+    /**
+     * The class used to mark the drive home page.
+     */
+    static final EntityReference DRIVE_CLASS_REFERENCE = new EntityReference("DriveClass", EntityType.DOCUMENT,
+        new EntityReference("FileManagerCode", EntityType.SPACE));
+
+    /**
+     * The query used to load the folder hierarchy of a drive.
+     */
+    private static final String SELECT_FOLDERS = "select doc.name, doc.parent from XWikiDocument doc, BaseObject obj"
+        + " where doc.space = :space and doc.fullName = obj.name"
+        + " and obj.className in ('FileManagerCode.FolderClass', 'FileManagerCode.DriveClass')";
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * @param folderReference a folder reference
+     * @return the references of the ancestors of the specified folder on the same drive, starting with the top most
+     *         ancestor and ending with the direct parent; {@code null} if the specified document is neither a folder
+     *         nor a drive
+     */
+    public List<DocumentReference> getAncestors(DocumentReference folderReference)
+    {
+        SpaceReference driveReference = folderReference.getLastSpaceReference();
+        List<String> ancestorNames = getIndex(driveReference).getAncestors(folderReference.getName());
+        if (ancestorNames == null) {
+            return null;
+        }
+
+        List<DocumentReference> ancestors = new ArrayList<DocumentReference>(ancestorNames.size());
+        for (String ancestorName : ancestorNames) {
+            ancestors.add(new DocumentReference(ancestorName, driveReference));
+        }
+        return ancestors;
+    }
+
+    /**
+     * @param folderReference a folder reference
+     * @return the references of the child folders of the specified folder, in alphabetical order
+     */
+    public List<DocumentReference> getChildFolders(DocumentReference folderReference)
+    {
+        SpaceReference driveReference = folderReference.getLastSpaceReference();
+        List<String> childNames = getIndex(driveReference).getChildren(folderReference.getName());
+        List<DocumentReference> childFolders = new ArrayList<DocumentReference>(childNames.size());
+        for (String childName : childNames) {
+            childFolders.add(new DocumentReference(childName, driveReference));
+        }
+        return childFolders;
+    }
+
+    /**
+     * @param folderReference a folder reference
+     * @return {@code true} if the specified folder has child folders, {@code false} otherwise
+     */
+    public boolean hasChildFolders(DocumentReference folderReference)
+    {
+        return getIndex(folderReference.getLastSpaceReference()).hasChildren(folderReference.getName());
+    }
+
+    @Override
+    protected String getStatement()
+    {
+        return SELECT_FOLDERS;
+    }
+
+    @Override
+    protected String getCacheId()
+    {
+        return "fileManager.folderHierarchy";
+    }
+
+    @Override
+    protected DriveHierarchy newIndex()
+    {
+        return new DriveHierarchy();
+    }
+
+    @Override
+    protected void add(DriveHierarchy hierarchy, DocumentReference reference, String parentName, Object[] row)
+    {
+        hierarchy.put(reference.getName(), parentName);
+    }
+
+    @Override
+    protected void update(DriveHierarchy hierarchy, Event event, XWikiDocument document)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        if (!(event instanceof DocumentDeletedEvent) && isFolderOrDrive(document)) {
+            hierarchy.put(reference.getName(), getParentName(reference, document.getParent()));
+        } else {
+            hierarchy.remove(reference.getName());
+        }
+    }
+
+    /**
+     * @param document a document
+     * @return {@code true} if the specified document is a folder or a drive home page, {@code false} otherwise
+     */
+    private boolean isFolderOrDrive(XWikiDocument document)
+    {
+        return document.getXObject(FOLDER_CLASS_REFERENCE) != null
+            || document.getXObject(DRIVE_CLASS_REFERENCE) != null;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Indexes the orphan folders and the orphan files of each drive in memory so that the drive root can be displayed
+ * without looking for the documents whose parent is not a folder, which requires a nested query over all the folders
+ * of the drive. The orphans of a drive are loaded with a single query the first time they are needed and then kept up
+ * to date from the document events. Use {@link #rebuild(SpaceReference)} to reload them if they get out of sync (e.g.
+ * after the documents have been modified directly in the database).
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = {OrphanIndex.class, EventListener.class})
+@Named(OrphanIndex.NAME)
+@Singleton
+public class OrphanIndex extends AbstractDriveIndex<DriveOrphans>
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "FileManagerOrphanIndex";
+
+    /**
+     * The class used to mark the file documents.
+     */
+    static final EntityReference FILE_CLASS_REFERENCE = new EntityReference("FileClass", EntityType.DOCUMENT,
+        new EntityReference("FileManagerCode", EntityType.SPACE));
+
+    /**
+     * The query used to load the folders and the files of a drive.
+     */
+    private static final String SELECT_DOCUMENTS = "select doc.name, doc.parent, obj.className"
+        + " from XWikiDocument doc, BaseObject obj where doc.space = :space and doc.fullName = obj.name"
+        + " and obj.className in ('FileManagerCode.FolderClass', 'FileManagerCode.FileClass',"
+        + " 'FileManagerCode.DriveClass')";
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the names of the orphan folders from the specified drive, in alphabetical order
+     */
+    public List<String> getOrphanFolders(SpaceReference driveReference)
+    {
+        return getIndex(driveReference).getOrphanFolders();
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the names of the orphan files from the specified drive, in alphabetical order
+     */
+    public List<String> getOrphanFiles(SpaceReference driveReference)
+    {
+        return getIndex(driveReference).getOrphanFiles();
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return {@code true} if the specified drive has orphan folders, {@code false} otherwise
+     */
+    public boolean hasOrphanFolders(SpaceReference driveReference)
+    {
+        return getIndex(driveReference).hasOrphanFolders();
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return {@code true} if the specified drive has orphan files, {@code false} otherwise
+     */
+    public boolean hasOrphanFiles(SpaceReference driveReference)
+    {
+        return getIndex(driveReference).hasOrphanFiles();
+    }
+
+    @Override
+    protected String getStatement()
+    {
+        return SELECT_DOCUMENTS;
+    }
+
+    @Override
+    protected String getCacheId()
+    {
+        return "fileManager.orphans";
+    }
+
+    @Override
+    protected DriveOrphans newIndex()
+    {
+        return new DriveOrphans();
+    }
+
+    @Override
+    protected void add(DriveOrphans orphans, DocumentReference reference, String parentName, Object[] row)
+    {
+        String className = (String) row[2];
+        if (className.endsWith(FolderIndex.FOLDER_CLASS_REFERENCE.getName())) {
+            orphans.putFolder(reference.getName(), parentName);
+        } else if (className.endsWith(FILE_CLASS_REFERENCE.getName())) {
+            orphans.putFile(reference.getName(), parentName);
+        } else {
+            orphans.putDrive(reference.getName());
+        }
+    }
+
+    @Override
+    protected void update(DriveOrphans orphans, Event event, XWikiDocument document)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        if (event instanceof DocumentDeletedEvent) {
+            orphans.remove(reference.getName());
+        } else if (document.getXObject(FolderIndex.FOLDER_CLASS_REFERENCE) != null) {
+            orphans.putFolder(reference.getName(), getParentName(reference, document.getParent()));
+        } else if (document.getXObject(FILE_CLASS_REFERENCE) != null) {
+            orphans.putFile(reference.getName(), getParentName(reference, document.getParent()));
+        } else if (document.getXObject(FolderIndex.DRIVE_CLASS_REFERENCE) != null) {
+            orphans.putDrive(reference.getName());
+        } else {
+            orphans.remove(reference.getName());
+        }
+    }
+}
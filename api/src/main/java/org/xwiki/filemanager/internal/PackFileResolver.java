@@ -79,4 +79,18 @@ public class PackFileResolver
         FileUtils.forceMkdirParent(file);
         return file;
     }
+
+    /**
+     * Deletes the specified ZIP archive, e.g. when the pack job that was writing it has been canceled.
+     *
+     * @param outputFileReference the reference to the ZIP archive produced by a pack job
+     * @return {@code true} if the ZIP archive has been deleted, {@code false} otherwise
+     * @throws IOException if the temporary file can't be resolved
+     * @since 2.2
+     */
+    public boolean deleteTemporaryFile(AttachmentReference outputFileReference) throws IOException
+    {
+        return FileUtils.deleteQuietly(
+            this.temporaryResourceStore.getTemporaryFile(getTemporaryResourceReference(outputFileReference)));
+    }
 }
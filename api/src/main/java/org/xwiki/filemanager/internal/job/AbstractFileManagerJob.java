@@ -0,0 +1,375 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.job.OperationPlan;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.GroupedJob;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobGroupPath;
+import org.xwiki.job.event.status.CancelableJobStatus;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LogQueue;
+import org.xwiki.logging.event.LogEvent;
+import org.xwiki.logging.event.LoggerListener;
+import org.xwiki.logging.tail.LogTail;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+
+/**
+ * Base class for the file manager jobs. The jobs are grouped by the drive they target so that jobs on different drives
+ * can run in parallel while jobs on the same drive are executed one after another. A job that targets multiple drives
+ * (e.g. a move between two drives) is assigned to the group of the wiki (or of the file manager) which prevents it
+ * from running at the same time as any job on those drives.
+ * <p>
+ * The jobs also count the documents and bytes they process, and the time they wait for the user to answer their
+ * questions, in order to collect the {@link FileManagerJobMetrics metrics} of the file manager jobs.
+ * <p>
+ * The jobs can be canceled. They check whether they have been canceled before processing each file or folder and stop
+ * as soon as possible, leaving the files and folders they have already processed in a consistent state.
+ * <p>
+ * The log of the jobs is bounded: similar messages (e.g. one message for each file that is processed) are logged only a
+ * few times and the number of omitted messages is logged at the end of the job. The progress of the jobs is throttled
+ * in order to limit the number of progress events.
+ * <p>
+ * The jobs lock the drives they target before they start, so that jobs running on different cluster nodes don't modify
+ * the same drive at the same time (the job groups prevent this only on the same node).
+ * <p>
+ * Some jobs can compute a {@link #plan() plan} of their operation: they run their usual logic, with the same checks,
+ * but they record the documents they would modify instead of modifying them.
+ * 
+ * @param <R> the request type
+ * @version $Id$
+ * @since 2.2
+ */
+public abstract class AbstractFileManagerJob<R extends BatchPathRequest> extends AbstractJob<R, DefaultJobStatus<R>>
+    implements GroupedJob
+{
+    /**
+     * The file manager configuration.
+     */
+    @Inject
+    protected FileManagerConfiguration configuration;
+
+    /**
+     * Used to lock the drives targeted by this job.
+     */
+    @Inject
+    @Named(ActiveJobRegistry.NAME)
+    private ActiveJobRegistry activeJobRegistry;
+
+    /**
+     * The number of documents (files and folders) processed by this job. Some jobs process documents in parallel.
+     */
+    private final AtomicLong processedDocuments = new AtomicLong();
+
+    /**
+     * The number of bytes (file content) processed by this job.
+     */
+    private final AtomicLong processedBytes = new AtomicLong();
+
+    /**
+     * The time this job waited for the user to answer its questions, in milliseconds.
+     */
+    private final AtomicLong questionWaitTime = new AtomicLong();
+
+    /**
+     * The number of warnings and errors logged by this job.
+     */
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * Limits the log of this job while it is running.
+     */
+    private BoundedLogListener logListener;
+
+    /**
+     * The plan being computed, {@code null} if this job modifies the file system.
+     */
+    private OperationPlan plan;
+
+    @Override
+    protected DefaultJobStatus<R> createNewStatus(R request)
+    {
+        DefaultJobStatus<R> jobStatus = super.createNewStatus(request);
+        jobStatus.setCancelable(true);
+        return jobStatus;
+    }
+
+    @Override
+    protected void jobStarting()
+    {
+        super.jobStarting();
+
+        // The job log is kept in memory and stored with the job status, so we limit it. The job status collects the
+        // log of the job thread (not only the messages of this job) so we limit the log at the same level.
+        LogTail logTail = getStatus().getLogTail();
+        if (logTail instanceof Logger) {
+            this.logListener = new BoundedLogListener(getClass().getName() + '_' + hashCode(),
+                new BoundedJobLogger((Logger) logTail, this.configuration.getMaxJobLogSize(),
+                    this.configuration.getMaxJobLogSamples()));
+            this.loggerManager.pushLogListener(this.logListener);
+        }
+
+        // The jobs update the progress for each file and folder they process, which fires many events.
+        this.progressManager = new ThrottledJobProgressManager(this.progressManager,
+            this.configuration.getJobProgressInterval(), this.configuration.getJobProgressItems());
+
+        try {
+            this.activeJobRegistry.lockDrives(getActiveJobId(), getRequest().getDriveReferences(),
+                this.configuration.getDriveLockTimeout());
+        } catch (JobException e) {
+            // The job fails without doing anything.
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void jobFinished(Throwable error)
+    {
+        this.activeJobRegistry.unlockDrives(getActiveJobId());
+
+        if (this.logListener != null) {
+            this.loggerManager.popLogListener();
+            BoundedJobLogger boundedLogger = this.logListener.getLogger();
+            boundedLogger.logSummary();
+            this.errorCount.set(boundedLogger.getErrorCount());
+            this.logListener = null;
+        }
+
+        if (this.progressManager instanceof ThrottledJobProgressManager) {
+            ThrottledJobProgressManager throttledProgressManager = (ThrottledJobProgressManager) this.progressManager;
+            throttledProgressManager.close(this);
+            this.progressManager = throttledProgressManager.getDelegate();
+        }
+
+        super.jobFinished(error);
+    }
+
+    @Override
+    public JobGroupPath getGroupPath()
+    {
+        List<String> groupPath = null;
+        Set<SpaceReference> driveReferences = getRequest().getDriveReferences();
+        for (SpaceReference driveReference : driveReferences) {
+            List<String> drivePath = getGroupPath(driveReference);
+            if (groupPath == null) {
+                groupPath = drivePath;
+            } else {
+                // Keep the common part.
+                int i = 0;
+                while (i < groupPath.size() && i < drivePath.size() && groupPath.get(i).equals(drivePath.get(i))) {
+                    i++;
+                }
+                groupPath = groupPath.subList(0, i);
+            }
+        }
+
+        if (groupPath == null || groupPath.isEmpty()) {
+            groupPath = new ArrayList<String>();
+            groupPath.add(FileManager.JOB_ID_PREFIX);
+        }
+        return new JobGroupPath(groupPath);
+    }
+
+    /**
+     * @return the number of documents (files and folders) processed by this job
+     */
+    public long getProcessedDocuments()
+    {
+        return this.processedDocuments.get();
+    }
+
+    /**
+     * @return the number of bytes (file content) processed by this job
+     */
+    public long getProcessedBytes()
+    {
+        return this.processedBytes.get();
+    }
+
+    /**
+     * @return the time this job waited for the user to answer its questions, in milliseconds
+     */
+    public long getQuestionWaitTime()
+    {
+        return this.questionWaitTime.get();
+    }
+
+    /**
+     * @return the number of warnings and errors logged by this job, available once the job is finished
+     */
+    public long getErrorCount()
+    {
+        return this.errorCount.get();
+    }
+
+    /**
+     * @return {@code true} if this job has been canceled, {@code false} otherwise
+     */
+    protected boolean isCanceled()
+    {
+        // See PackJob#getPackStatus() for the reason we cast 'this'.
+        JobStatus jobStatus = ((Job) this).getStatus();
+        return jobStatus instanceof CancelableJobStatus && ((CancelableJobStatus) jobStatus).isCanceled();
+    }
+
+    /**
+     * Computes what this job would do if it was executed now, without modifying anything. The job runs its usual logic
+     * in the current thread but records in the plan the documents it would modify instead of modifying them. The job
+     * doesn't ask questions and doesn't reserve document names while planning.
+     * 
+     * @return the plan of the operation requested by this job
+     * @throws JobException if the operation can't be planned
+     */
+    protected OperationPlan plan() throws JobException
+    {
+        this.plan = new OperationPlan();
+        // The plan reports the forbidden files and folders so we don't need the errors logged while planning.
+        this.loggerManager.pushLogListener(new LoggerListener(getClass().getName() + "_plan", new LogQueue()));
+        try {
+            runInternal();
+            return this.plan;
+        } catch (Exception e) {
+            throw new JobException("Failed to plan the operation.", e);
+        } finally {
+            this.loggerManager.popLogListener();
+            this.plan = null;
+        }
+    }
+
+    /**
+     * @return the plan being computed, {@code null} if this job modifies the file system
+     */
+    protected OperationPlan getPlan()
+    {
+        return this.plan;
+    }
+
+    /**
+     * Call this before modifying a document. When planning, the document is added to the plan and the caller must skip
+     * the modification.
+     * 
+     * @param reference the document to move, rename, copy or delete
+     * @param bytes the number of bytes copied or deleted with the document
+     * @return {@code true} if this job is planning the operation, in which case the document must not be modified,
+     *         {@code false} if the document must be modified
+     */
+    protected boolean addToPlan(DocumentReference reference, long bytes)
+    {
+        if (this.plan == null) {
+            return false;
+        }
+        this.plan.addDocument(reference);
+        this.plan.addBytes(bytes);
+        return true;
+    }
+
+    /**
+     * Reports a file or folder that the current user is not allowed to process. When planning, the file or folder is
+     * added to the plan.
+     * 
+     * @param message the error message, with a single parameter
+     * @param reference the file or folder that can't be processed
+     */
+    protected void forbid(String message, DocumentReference reference)
+    {
+        if (this.plan != null) {
+            this.plan.addForbidden(reference);
+        }
+        this.logger.error(message, reference);
+    }
+
+    /**
+     * Adds the log collected in another thread to the log of this job. The log events are not logged again, they only
+     * go through the limits of the job log.
+     * 
+     * @param log the log collected in another thread
+     */
+    protected void addLog(LogQueue log)
+    {
+        for (LogEvent logEvent : log) {
+            if (this.logListener != null) {
+                this.logListener.onEvent(logEvent, this, null);
+            } else {
+                logEvent.log(this.logger);
+            }
+        }
+    }
+
+    /**
+     * Counts a processed document.
+     * 
+     * @param bytes the number of bytes processed with the document (the size of the file content)
+     */
+    protected void countProcessedDocument(long bytes)
+    {
+        this.processedDocuments.incrementAndGet();
+        this.processedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Counts the time spent waiting for the user to answer a question.
+     * 
+     * @param askTime the time when the question was asked, in milliseconds
+     */
+    protected void countQuestionWait(long askTime)
+    {
+        this.questionWaitTime.addAndGet(System.currentTimeMillis() - askTime);
+    }
+
+    /**
+     * @return the id of this job in the {@link ActiveJobRegistry}, i.e. the last part of the job id
+     */
+    private String getActiveJobId()
+    {
+        List<String> jobId = getRequest().getId();
+        return jobId != null && !jobId.isEmpty() ? jobId.get(jobId.size() - 1) : null;
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the group path of the jobs that target only the specified drive
+     */
+    private List<String> getGroupPath(SpaceReference driveReference)
+    {
+        List<String> groupPath = new ArrayList<String>();
+        groupPath.add(FileManager.JOB_ID_PREFIX);
+        for (EntityReference reference : driveReference.getReversedReferenceChain()) {
+            groupPath.add(reference.getName());
+        }
+        return groupPath;
+    }
+}
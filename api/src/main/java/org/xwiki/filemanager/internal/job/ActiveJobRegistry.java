@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.job.ActiveJob;
+import org.xwiki.filemanager.job.ActiveJobStore;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.job.event.status.JobStatus.State;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+
+/**
+ * The active (unfinished) file system jobs, indexed by the drives they target, so that the active jobs of a drive can
+ * be retrieved without loading the status of each active job. The active
+ * jobs are kept in the configured {@link ActiveJobStore}, which can be shared by the nodes of a cluster.
+ * <p>
+ * The registry also manages the drive locks: a job locks the drives it targets before it starts and waits for them to
+ * be unlocked if they are locked by a job running on another node. The waiting jobs are woken up by the
+ * {@link DriveUnlockedEvent}, which is sent to the other nodes when the remote observation is enabled.
+ * <p>
+ * The active jobs and the drive locks are leases: the registry renews periodically the leases of the jobs added on
+ * this node, publishing their state and progress at the same time, so that the jobs and the locks left by a node that
+ * stopped unexpectedly expire.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = {ActiveJobRegistry.class, EventListener.class})
+@Named(ActiveJobRegistry.NAME)
+@Singleton
+public class ActiveJobRegistry implements EventListener, Initializable, Disposable
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "ActiveFileSystemJobRegistry";
+
+    /**
+     * How often a job that waits for its drives to be unlocked retries to lock them, in milliseconds, in case the
+     * {@link DriveUnlockedEvent} is not received (e.g. when the remote observation is disabled).
+     */
+    private static final long LOCK_RETRY_INTERVAL = 5000;
+
+    /**
+     * Used to log messages.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to get the configured active job store.
+     */
+    @Inject
+    private FileManagerConfiguration configuration;
+
+    /**
+     * Used to lookup the configured active job store.
+     */
+    @Inject
+    private ComponentManager componentManager;
+
+    /**
+     * Used to notify that the drive locks have been released. We use a provider to avoid a cycle, since this
+     * component is an event listener.
+     */
+    @Inject
+    private Provider<ObservationManager> observationManagerProvider;
+
+    /**
+     * Used to get the status of the jobs running on this node. We use a provider to avoid a cycle, since this
+     * component is an event listener.
+     */
+    @Inject
+    private Provider<JobExecutor> jobExecutorProvider;
+
+    /**
+     * Where the active jobs and the drive locks are kept.
+     */
+    private ActiveJobStore store;
+
+    /**
+     * The monitor used to wait for the drives to be unlocked.
+     */
+    private final Object lockMonitor = new Object();
+
+    /**
+     * How many times the drive locks have been released, used to detect the releases that happen while a job tries to
+     * lock its drives, before it starts to wait.
+     */
+    private long unlockCount;
+
+    /**
+     * The active jobs added on this node, whose leases are renewed by this node.
+     */
+    private final Map<String, ActiveJob> localJobs = new ConcurrentHashMap<String, ActiveJob>();
+
+    /**
+     * How long the leases of the active jobs and of the drive locks last, in milliseconds.
+     */
+    private long leaseDuration;
+
+    /**
+     * Renews periodically the leases of the local jobs.
+     */
+    private ScheduledExecutorService leaseRenewer;
+
+    @Override
+    public void initialize()
+    {
+        String hint = this.configuration.getActiveJobStore();
+        try {
+            this.store = this.componentManager.getInstance(ActiveJobStore.class, hint);
+        } catch (ComponentLookupException e) {
+            // The active jobs and the drive locks are not shared by the cluster nodes anymore.
+            this.logger.error("Failed to lookup the active job store [{}]. Using the in-memory store instead.", hint,
+                e);
+            this.store = new MemoryActiveJobStore();
+        }
+
+        this.leaseDuration = this.configuration.getJobLease();
+        // Renew the leases well before they expire, so that a slow renewal doesn't release them.
+        long renewInterval = Math.max(this.leaseDuration / 3, 1);
+        this.leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "File Manager Job Lease Renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.leaseRenewer.scheduleWithFixedDelay(this::renewLeases, renewInterval, renewInterval,
+            TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.leaseRenewer != null) {
+            this.leaseRenewer.shutdownNow();
+        }
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new JobFinishedEvent(), new DriveUnlockedEvent());
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof DriveUnlockedEvent) {
+            // The drive locks may have been released on another node.
+            synchronized (this.lockMonitor) {
+                this.unlockCount++;
+                this.lockMonitor.notifyAll();
+            }
+        } else {
+            List<String> jobId = ((JobFinishedEvent) event).getJobId();
+            if (jobId != null && jobId.size() == 2 && FileManager.JOB_ID_PREFIX.equals(jobId.get(0))) {
+                remove(jobId.get(1));
+            }
+        }
+    }
+
+    /**
+     * Adds a new active job.
+     * 
+     * @param request the job request
+     */
+    public void add(BatchPathRequest request)
+    {
+        String jobType = request.getProperty(DefaultFileManager.PROPERTY_JOB_TYPE);
+        DocumentReference userReference = request.getProperty(DefaultFileManager.PROPERTY_USER_REFERENCE);
+        ActiveJob job = new ActiveJob(request.getId().get(1), jobType, userReference, request.getDriveReferences());
+        this.localJobs.put(job.getId(), job);
+        this.store.add(job, this.leaseDuration);
+    }
+
+    /**
+     * Removes an active job.
+     * 
+     * @param jobId the job id
+     */
+    public void remove(String jobId)
+    {
+        this.localJobs.remove(jobId);
+        this.store.remove(jobId);
+    }
+
+    /**
+     * @param jobId the job id
+     * @return the specified active job, with the state and progress published by the node that runs it, {@code null}
+     *         if there's no such active job
+     */
+    public ActiveJob getJob(String jobId)
+    {
+        return this.store.getJob(jobId);
+    }
+
+    /**
+     * @return the ids of the active jobs, in the order they have been added
+     */
+    public List<String> getJobs()
+    {
+        return this.store.getJobs();
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the ids of the active jobs that target the specified drive
+     */
+    public List<String> getJobsByDrive(SpaceReference driveReference)
+    {
+        return this.store.getJobsByDrive(driveReference);
+    }
+
+    /**
+     * Locks the specified drives for the given job, waiting for them to be unlocked if they are locked by other jobs.
+     * 
+     * @param jobId the id of the job that wants to modify the specified drives
+     * @param driveReferences the drives to lock
+     * @param timeout how long to wait for the drives to be unlocked, in milliseconds
+     * @throws JobException if the drives are still locked by other jobs after the specified timeout
+     */
+    public void lockDrives(String jobId, Set<SpaceReference> driveReferences, long timeout) throws JobException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long previousUnlockCount;
+            synchronized (this.lockMonitor) {
+                previousUnlockCount = this.unlockCount;
+            }
+            // Don't hold the monitor while accessing the store, which can be slow.
+            if (this.store.lockDrives(jobId, driveReferences, this.leaseDuration)) {
+                return;
+            }
+            long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                throw new JobException(String.format("The drives %s are locked by other jobs.", driveReferences));
+            }
+            synchronized (this.lockMonitor) {
+                // Retry right away if some drives have been unlocked in the mean time.
+                if (previousUnlockCount == this.unlockCount) {
+                    waitForUnlock(driveReferences, Math.min(remainingTime, LOCK_RETRY_INTERVAL));
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for some drives to be unlocked. The caller must hold the lock monitor.
+     * 
+     * @param driveReferences the drives the current job wants to lock
+     * @param timeout how long to wait, in milliseconds
+     * @throws JobException if the current thread is interrupted
+     */
+    private void waitForUnlock(Set<SpaceReference> driveReferences, long timeout) throws JobException
+    {
+        try {
+            this.lockMonitor.wait(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JobException(
+                String.format("Interrupted while waiting for the drives %s to be unlocked.", driveReferences), e);
+        }
+    }
+
+    /**
+     * Releases the drive locks held by the specified job and notifies the jobs that wait for them (on all the nodes).
+     * 
+     * @param jobId the job id
+     */
+    public void unlockDrives(String jobId)
+    {
+        this.store.unlockDrives(jobId);
+        this.observationManagerProvider.get().notify(new DriveUnlockedEvent(), jobId, null);
+    }
+
+    /**
+     * Renews the leases of the jobs added on this node, publishing their current state and progress.
+     */
+    private void renewLeases()
+    {
+        try {
+            List<ActiveJob> jobs = new ArrayList<ActiveJob>();
+            for (ActiveJob job : this.localJobs.values()) {
+                Job runningJob = this.jobExecutorProvider.get().getJob(Arrays.asList(FileManager.JOB_ID_PREFIX,
+                    job.getId()));
+                JobStatus status = runningJob != null ? runningJob.getStatus() : null;
+                State state = status != null ? status.getState() : State.NONE;
+                double progress = status != null ? status.getProgress().getOffset() : 0;
+                jobs.add(new ActiveJob(job.getId(), job.getType(), job.getUserReference(), job.getDriveReferences(),
+                    state, progress));
+            }
+            this.store.renew(jobs, this.leaseDuration);
+        } catch (Exception e) {
+            // Keep the renewer alive: the next renewal may succeed.
+            this.logger.warn("Failed to renew the leases of the active jobs. Root cause: [{}]", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.AbstractLogger;
+
+/**
+ * Limits the log of a job that processes many files and folders. The log messages are grouped by level, message
+ * pattern and (root) error type. Only the first messages of each group are logged and there is a limit on the total
+ * number of logged messages. The number of omitted messages of each group is logged at the end of the job, by
+ * {@link #logSummary()}.
+ * <p>
+ * The warnings and errors are counted as they are logged, including the omitted ones, so that the job metrics don't
+ * depend on the size of the job log.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+public class BoundedJobLogger extends AbstractLogger
+{
+    /**
+     * Serialization identifier.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum number of groups we keep track of. The messages that don't fit in the existing groups once this limit
+     * is reached are counted in a single group.
+     */
+    private static final int MAX_GROUPS = 100;
+
+    /**
+     * The logger that receives the messages that are not omitted.
+     */
+    private final transient Logger delegate;
+
+    /**
+     * The maximum number of messages that can be logged, {@code 0} for no limit.
+     */
+    private final int maxSize;
+
+    /**
+     * The maximum number of messages that can be logged for each group, {@code 0} for no limit.
+     */
+    private final int maxSamples;
+
+    /**
+     * The groups of messages, by key.
+     */
+    private final Map<List<Object>, MessageGroup> groups = new LinkedHashMap<List<Object>, MessageGroup>();
+
+    /**
+     * The group of messages that don't fit in the other groups.
+     */
+    private final MessageGroup otherMessages = new MessageGroup(Level.INFO, "Other messages");
+
+    /**
+     * The number of logged messages.
+     */
+    private int size;
+
+    /**
+     * The number of warnings and errors, logged or omitted.
+     */
+    private int errorCount;
+
+    /**
+     * A group of similar messages.
+     */
+    private static final class MessageGroup
+    {
+        /**
+         * The level of the messages.
+         */
+        private final Level level;
+
+        /**
+         * The message pattern.
+         */
+        private final String pattern;
+
+        /**
+         * The number of logged messages.
+         */
+        private int logged;
+
+        /**
+         * The number of omitted messages.
+         */
+        private int omitted;
+
+        /**
+         * Creates a new group of messages.
+         * 
+         * @param level the level of the messages
+         * @param pattern the message pattern
+         */
+        MessageGroup(Level level, String pattern)
+        {
+            this.level = level;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * Creates a new logger.
+     * 
+     * @param delegate the logger that receives the messages that are not omitted
+     * @param maxSize the maximum number of messages that can be logged, {@code 0} for no limit
+     * @param maxSamples the maximum number of messages that can be logged for each group, {@code 0} for no limit
+     */
+    public BoundedJobLogger(Logger delegate, int maxSize, int maxSamples)
+    {
+        this.delegate = delegate;
+        this.name = delegate.getName();
+        this.maxSize = maxSize;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * @return the number of warnings and errors, including the omitted ones but not the summary
+     */
+    public synchronized int getErrorCount()
+    {
+        return this.errorCount;
+    }
+
+    /**
+     * Logs the number of omitted messages of each group.
+     */
+    public synchronized void logSummary()
+    {
+        for (MessageGroup group : this.groups.values()) {
+            logSummary(group);
+        }
+        logSummary(this.otherMessages);
+    }
+
+    @Override
+    protected synchronized void handleNormalizedLoggingCall(Level level, Marker marker, String messagePattern,
+        Object[] arguments, Throwable throwable)
+    {
+        if (level.toInt() >= Level.WARN.toInt()) {
+            this.errorCount++;
+        }
+        MessageGroup group = getGroup(level, messagePattern, throwable);
+        if ((this.maxSize > 0 && this.size >= this.maxSize)
+            || (this.maxSamples > 0 && group.logged >= this.maxSamples)) {
+            group.omitted++;
+        } else {
+            group.logged++;
+            this.size++;
+            log(level, marker, messagePattern,
+                throwable != null ? ArrayUtils.add(arguments, throwable) : arguments);
+        }
+    }
+
+    /**
+     * @param level the message level
+     * @param messagePattern the message pattern
+     * @param throwable the error associated with the message
+     * @return the group of the specified message
+     */
+    private MessageGroup getGroup(Level level, String messagePattern, Throwable throwable)
+    {
+        String errorType = null;
+        if (throwable != null) {
+            Throwable rootCause = ExceptionUtils.getRootCause(throwable);
+            errorType = (rootCause != null ? rootCause : throwable).getClass().getName();
+        }
+        List<Object> key = Arrays.<Object>asList(level, messagePattern, errorType);
+        MessageGroup group = this.groups.get(key);
+        if (group == null) {
+            if (this.groups.size() >= MAX_GROUPS) {
+                return this.otherMessages;
+            }
+            group = new MessageGroup(level, messagePattern);
+            this.groups.put(key, group);
+        }
+        return group;
+    }
+
+    /**
+     * Logs the number of omitted messages of the given group.
+     * 
+     * @param group a group of messages
+     */
+    private void logSummary(MessageGroup group)
+    {
+        if (group.omitted > 0) {
+            log(group.level, null, "[{}] more messages similar to [{}] have been omitted.",
+                new Object[] {group.omitted, group.pattern});
+        }
+    }
+
+    /**
+     * Forwards a message to the delegate logger.
+     * 
+     * @param level the message level
+     * @param marker the message marker
+     * @param messagePattern the message pattern
+     * @param arguments the message arguments, the last one being the error, if any
+     */
+    private void log(Level level, Marker marker, String messagePattern, Object[] arguments)
+    {
+        if (marker != null) {
+            this.delegate.atLevel(level).addMarker(marker).log(messagePattern, arguments);
+            return;
+        }
+        switch (level) {
+            case ERROR:
+                this.delegate.error(messagePattern, arguments);
+                break;
+            case WARN:
+                this.delegate.warn(messagePattern, arguments);
+                break;
+            case INFO:
+                this.delegate.info(messagePattern, arguments);
+                break;
+            case DEBUG:
+                this.delegate.debug(messagePattern, arguments);
+                break;
+            default:
+                this.delegate.trace(messagePattern, arguments);
+        }
+    }
+
+    @Override
+    protected String getFullyQualifiedCallerName()
+    {
+        return BoundedJobLogger.class.getName();
+    }
+
+    @Override
+    public boolean isTraceEnabled()
+    {
+        return this.delegate.isTraceEnabled();
+    }
+
+    @Override
+    public boolean isTraceEnabled(Marker marker)
+    {
+        return this.delegate.isTraceEnabled(marker);
+    }
+
+    @Override
+    public boolean isDebugEnabled()
+    {
+        return this.delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isDebugEnabled(Marker marker)
+    {
+        return this.delegate.isDebugEnabled(marker);
+    }
+
+    @Override
+    public boolean isInfoEnabled()
+    {
+        return this.delegate.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled(Marker marker)
+    {
+        return this.delegate.isInfoEnabled(marker);
+    }
+
+    @Override
+    public boolean isWarnEnabled()
+    {
+        return this.delegate.isWarnEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled(Marker marker)
+    {
+        return this.delegate.isWarnEnabled(marker);
+    }
+
+    @Override
+    public boolean isErrorEnabled()
+    {
+        return this.delegate.isErrorEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled(Marker marker)
+    {
+        return this.delegate.isErrorEnabled(marker);
+    }
+}
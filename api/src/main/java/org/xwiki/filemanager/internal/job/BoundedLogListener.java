@@ -19,59 +19,67 @@
  */
 package org.xwiki.filemanager.internal.job;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
-import javax.inject.Named;
-import javax.inject.Singleton;
-
-import org.xwiki.component.annotation.Component;
-import org.xwiki.filemanager.job.FileManager;
-import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.logging.event.LogEvent;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 
 /**
- * The queue of active file system jobs, i.e. the file system jobs that are currently running or are pending for
- * execution.
+ * Collects the log of a job thread through a {@link BoundedJobLogger}. The listener is pushed on top of the job status
+ * log listener so that the log of the job is bounded whatever the component that logs the messages.
  * 
  * @version $Id$
- * @since 2.0M1
+ * @since 2.2
  */
-@Component
-@Named(ActiveJobQueue.NAME)
-@Singleton
-public class ActiveJobQueue extends ConcurrentLinkedQueue<String> implements EventListener
+public class BoundedLogListener implements EventListener
 {
     /**
-     * The name of the event listener.
+     * The listener name.
      */
-    public static final String NAME = "ActiveFileSystemJobQueue";
+    private final String name;
 
     /**
-     * Unique version number used for serialization.
+     * The logger that limits the collected log.
      */
-    private static final long serialVersionUID = 1L;
+    private final BoundedJobLogger logger;
 
-    @Override
-    public List<Event> getEvents()
+    /**
+     * Creates a new listener.
+     * 
+     * @param name the listener name
+     * @param logger the logger that limits the collected log
+     */
+    public BoundedLogListener(String name, BoundedJobLogger logger)
     {
-        return Collections.<Event> singletonList(new JobFinishedEvent());
+        this.name = name;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the logger that limits the collected log
+     */
+    public BoundedJobLogger getLogger()
+    {
+        return this.logger;
     }
 
     @Override
     public String getName()
     {
-        return NAME;
+        return this.name;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new LogEvent());
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
-        List<String> jobId = ((JobFinishedEvent) event).getJobId();
-        if (jobId != null && jobId.size() == 2 && FileManager.JOB_ID_PREFIX.equals(jobId.get(0))) {
-            remove(jobId.get(1));
-        }
+        ((LogEvent) event).log(this.logger);
     }
 }
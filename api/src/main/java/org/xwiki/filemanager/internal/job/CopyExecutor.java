@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+
+/**
+ * The threads used by the copy jobs to copy sub-trees in parallel. The threads are shared by all the copy jobs so the
+ * number of threads (and database connections) used for copying doesn't grow with the number of copy jobs running at
+ * the same time. The threads are created on demand and stopped when they are idle.
+ *
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = CopyExecutor.class)
+@Named(CopyExecutor.NAME)
+@Singleton
+public class CopyExecutor implements Initializable, Disposable
+{
+    /**
+     * The component hint.
+     */
+    public static final String NAME = "FileManagerCopyExecutor";
+
+    /**
+     * The number of tasks that can wait for a thread, for each thread. The tasks that don't fit are rejected and the
+     * copy job executes them on its own thread.
+     */
+    private static final int QUEUE_SIZE_PER_THREAD = 4;
+
+    /**
+     * How long an idle thread is kept, in seconds.
+     */
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    /**
+     * Used to get the number of copy threads.
+     */
+    @Inject
+    private FileManagerConfiguration configuration;
+
+    /**
+     * The executor that runs the copy tasks.
+     */
+    private ThreadPoolExecutor executor;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int threads = Math.max(1, this.configuration.getCopyThreads());
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(threads * QUEUE_SIZE_PER_THREAD), new CopyThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Submits a copy task.
+     *
+     * @param task the task to execute
+     * @param <T> the type of result returned by the task
+     * @return the future result of the task
+     * @throws RejectedExecutionException if all the threads are busy and the queue is full, in which case the caller
+     *             should execute the task itself
+     */
+    public <T> Future<T> submit(Callable<T> task)
+    {
+        return this.executor.submit(task);
+    }
+
+    /**
+     * Creates the threads used to copy the sub-trees in parallel.
+     */
+    private static final class CopyThreadFactory implements ThreadFactory
+    {
+        /**
+         * The number of threads created so far.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "File Manager Copy " + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -19,17 +19,34 @@
  */
 package org.xwiki.filemanager.internal.job;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.filemanager.Descendant;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
+import org.xwiki.logging.LogQueue;
+import org.xwiki.logging.event.LoggerListener;
 import org.xwiki.model.reference.DocumentReference;
 
+import com.xpn.xwiki.XWikiContext;
+
 /**
  * Copy files and folders to a different parent, possibly with a different name if the target list contains one item.
  * 
@@ -45,6 +62,32 @@ public class CopyJob extends MoveJob
      */
     public static final String JOB_TYPE = "fileManager/copy";
 
+    /**
+     * Used to initialize the execution context of the threads that copy the sub-trees in parallel.
+     */
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    /**
+     * Used to clean the execution context of the threads that copy the sub-trees in parallel.
+     */
+    @Inject
+    private Execution execution;
+
+    /**
+     * Used to access the current wiki and user, in order to set them on the threads that copy the sub-trees in
+     * parallel.
+     */
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * The threads used to copy the sub-trees in parallel, shared by all the copy jobs.
+     */
+    @Inject
+    @Named(CopyExecutor.NAME)
+    private CopyExecutor copyExecutor;
+
     @Override
     public String getType()
     {
@@ -61,10 +104,17 @@ public class CopyJob extends MoveJob
             return;
         }
 
+        if (destination.getFileReference() == null) {
+            prepareOverwrites(paths, destination.getFolderReference());
+        }
+
         this.progressManager.pushLevelProgress(paths.size(), this);
 
         try {
             for (Path path : paths) {
+                if (isCanceled()) {
+                    break;
+                }
                 copy(path, destination);
                 this.progressManager.stepPropress(this);
             }
@@ -84,7 +134,10 @@ public class CopyJob extends MoveJob
         if (path.getFileReference() != null) {
             copyFile(path.getFileReference(), destination);
         } else if (path.getFolderReference() != null) {
-            copyFolder(path.getFolderReference(), destination);
+            DocumentReference copyReference = copyFolder(path.getFolderReference(), destination);
+            if (copyReference != null) {
+                copyContent(path.getFolderReference(), copyReference);
+            }
         }
     }
 
@@ -112,7 +165,7 @@ public class CopyJob extends MoveJob
                     copyFile(file, destination);
                 }
             } else {
-                this.logger.error("You are not allowed to copy the file [{}].", fileReference);
+                forbid("You are not allowed to copy the file [{}].", fileReference);
             }
         }
     }
@@ -125,13 +178,16 @@ public class CopyJob extends MoveJob
      */
     private void copyFile(File file, Path destination)
     {
+        // The destination folder doesn't exist if its copy is being planned.
         Folder folder = fileSystem.getFolder(destination.getFolderReference());
         if (!prepareOverwrite(destination.getFileReference().getName(), folder, file.getReference())) {
             return;
         }
 
         DocumentReference copyReference = getUniqueReference(destination.getFileReference());
-        if (fileSystem.canEdit(copyReference)) {
+        if (!fileSystem.canEdit(copyReference)) {
+            forbid("You are not allowed to create the file [{}].", copyReference);
+        } else if (!addToPlan(file.getReference(), file.getSize())) {
             fileSystem.copy(file.getReference(), copyReference);
             File copy = fileSystem.getFile(copyReference);
             if (copy != null) {
@@ -142,23 +198,24 @@ public class CopyJob extends MoveJob
                 parentReferences.clear();
                 parentReferences.add(destination.getFolderReference());
                 fileSystem.save(copy);
+                countProcessedDocument(copy.getSize());
             }
-        } else {
-            this.logger.error("You are not allowed to create the file [{}].", copyReference);
         }
     }
 
     /**
-     * Copy the specified folder to the given destination.
+     * Copy the specified folder to the given destination, without its content.
      * 
      * @param folderReference the folder to copy
      * @param destination the destination
+     * @return the folder where the content of the specified folder should be copied, {@code null} if the folder
+     *         couldn't be copied
      */
-    private void copyFolder(DocumentReference folderReference, Path destination)
+    private DocumentReference copyFolder(DocumentReference folderReference, Path destination)
     {
         if (isDescendantOrSelf(destination.getFolderReference(), folderReference)) {
             this.logger.error("Cannot copy [{}] to a sub-folder of itself.", folderReference);
-            return;
+            return null;
         }
 
         Folder folder = fileSystem.getFolder(folderReference);
@@ -169,74 +226,281 @@ public class CopyJob extends MoveJob
                     // Same name but a different folder.
                     DocumentReference copyReference =
                         new DocumentReference(folder.getName(), folderReference.getLastSpaceReference());
-                    copyFolder(folder, new Path(destination.getFolderReference(), copyReference));
+                    return copyFolder(folder, new Path(destination.getFolderReference(), copyReference));
                 } else if (destination.getFileReference() != null
                     && (!destination.getFileReference().getName().equals(folder.getName()) || copyToDifferentFolder)) {
                     // Either different name or different folder.
-                    copyFolder(folder, destination);
+                    return copyFolder(folder, destination);
                 }
             } else {
-                this.logger.error("You are not allowed to copy the folder [{}].", folderReference);
+                forbid("You are not allowed to copy the folder [{}].", folderReference);
             }
         }
+        return null;
     }
 
     /**
-     * Copy the given folder to the specified destination.
+     * Copy the given folder to the specified destination, without its content.
      * 
      * @param folder the folder to copy
      * @param destination the destination
+     * @return the folder where the content of the given folder should be copied, {@code null} if the folder couldn't
+     *         be copied
      */
-    private void copyFolder(Folder folder, Path destination)
+    private DocumentReference copyFolder(Folder folder, Path destination)
     {
-        // Check if the new parent has a child folder with the same name.
+        // Check if the new parent has a child folder with the same name. The new parent doesn't exist if its copy is
+        // being planned.
         Folder newParent = fileSystem.getFolder(destination.getFolderReference());
-        Folder child = getChildFolderByName(newParent, destination.getFileReference().getName());
+        Folder child = newParent != null ? getChildFolderByName(newParent, destination.getFileReference().getName())
+            : null;
         if (child != null) {
-            copyContent(folder, child.getReference());
+            // Merge the folders.
+            return child.getReference();
         } else {
             DocumentReference copyReference = getUniqueReference(destination.getFileReference());
-            if (fileSystem.canEdit(copyReference)) {
+            if (!fileSystem.canEdit(copyReference)) {
+                forbid("You are not allowed to create the folder [{}].", copyReference);
+            } else if (addToPlan(folder.getReference(), 0)) {
+                // Plan the copy of the folder content.
+                return copyReference;
+            } else {
                 fileSystem.copy(folder.getReference(), copyReference);
                 Folder copy = fileSystem.getFolder(copyReference);
                 if (copy != null) {
                     copy.setName(destination.getFileReference().getName());
                     copy.setParentReference(destination.getFolderReference());
                     fileSystem.save(copy);
-
-                    copyContent(folder, copyReference);
+                    countProcessedDocument(0);
+                    return copyReference;
                 }
-            } else {
-                this.logger.error("You are not allowed to create the folder [{}].", copyReference);
             }
         }
+        return null;
     }
 
     /**
-     * Copy the content of the given folder to the specified destination path.
+     * Copy the content of the given folder to the specified destination path. The entire sub-tree of the source folder
+     * is retrieved up front so that the progress is exact and we don't have to query the child files and folders one
+     * level at a time. Retrieving the sub-tree before copying also ensures the copies are not copied again when the
+     * destination is inside the source.
      * 
      * @param source the folder whose content is copied
      * @param destination the destination folder where to copy the content
      */
-    private void copyContent(Folder source, DocumentReference destination)
+    private void copyContent(DocumentReference source, DocumentReference destination)
     {
-        Path destinationPath = new Path(destination);
-        List<DocumentReference> childFolderReferences = source.getChildFolderReferences();
-        List<DocumentReference> childFileReferences = source.getChildFileReferences();
-        this.progressManager.pushLevelProgress(childFolderReferences.size() + childFileReferences.size(), this);
+        List<Descendant> descendants = fileSystem.getDescendants(source);
+        this.progressManager.pushLevelProgress(descendants.size(), this);
 
         try {
-            for (DocumentReference childFileReference : childFileReferences) {
-                copyFile(childFileReference, destinationPath);
-                this.progressManager.stepPropress(this);
+            int threads = this.configuration.getCopyThreads();
+            // The plan is computed on the current thread.
+            if (threads > 1 && getPlan() == null) {
+                copyContentInParallel(descendants, source, destination);
+            } else {
+                copyDescendants(descendants, source, destination, true);
             }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    /**
+     * Copy the given descendants of the source folder to the destination folder.
+     * 
+     * @param descendants the descendants to copy, in pre-order
+     * @param source the folder whose content is copied
+     * @param destination the destination folder where to copy the content
+     * @param stepProgress whether to step the job progress after each descendant; the progress can be updated only
+     *            from the job thread
+     */
+    private void copyDescendants(List<Descendant> descendants, DocumentReference source,
+        DocumentReference destination, boolean stepProgress)
+    {
+        // Maps the source folders to the folders where their content is copied. The descendants are in pre-order so a
+        // folder is always copied before its content.
+        Map<DocumentReference, DocumentReference> copies = new HashMap<DocumentReference, DocumentReference>();
+        copies.put(source, destination);
 
-            for (DocumentReference childFolderReference : childFolderReferences) {
-                copyFolder(childFolderReference, destinationPath);
+        for (Descendant descendant : descendants) {
+            if (isCanceled()) {
+                // The sub-trees copied in parallel check this too so they all stop.
+                break;
+            }
+            DocumentReference parentCopyReference = copies.get(descendant.getParentReference());
+            // Skip the content of the folders that couldn't be copied.
+            if (parentCopyReference != null) {
+                Path destinationPath = new Path(parentCopyReference);
+                if (descendant.isFolder()) {
+                    DocumentReference copyReference = copyFolder(descendant.getReference(), destinationPath);
+                    if (copyReference != null) {
+                        copies.put(descendant.getReference(), copyReference);
+                    }
+                } else {
+                    copyFile(descendant.getReference(), destinationPath);
+                }
+            }
+            if (stepProgress) {
                 this.progressManager.stepPropress(this);
             }
+        }
+    }
+
+    /**
+     * Copy the sub-trees of the child folders of the source folder in parallel. The sub-trees don't depend on each
+     * other once the destination folder exists. The child files, and the sub-trees that the shared copy threads can't
+     * accept, are copied on the job thread.
+     * 
+     * @param descendants the descendants of the source folder, in pre-order
+     * @param source the folder whose content is copied
+     * @param destination the destination folder where to copy the content
+     */
+    private void copyContentInParallel(List<Descendant> descendants, DocumentReference source,
+        DocumentReference destination)
+    {
+        List<Descendant> childFiles = new ArrayList<Descendant>();
+        List<List<Descendant>> subTrees = new ArrayList<List<Descendant>>();
+        for (Descendant descendant : descendants) {
+            if (descendant.getDepth() > 1) {
+                // The descendants are in pre-order so this belongs to the sub-tree of the last child folder.
+                subTrees.get(subTrees.size() - 1).add(descendant);
+            } else if (descendant.isFolder()) {
+                List<Descendant> subTree = new ArrayList<Descendant>();
+                subTree.add(descendant);
+                subTrees.add(subTree);
+            } else {
+                childFiles.add(descendant);
+            }
+        }
+
+        if (subTrees.size() < 2) {
+            copyDescendants(descendants, source, destination, true);
+            return;
+        }
+
+        List<Future<LogQueue>> results = new ArrayList<Future<LogQueue>>();
+        try {
+            List<List<Descendant>> rejectedSubTrees = new ArrayList<List<Descendant>>();
+            for (List<Descendant> subTree : subTrees) {
+                try {
+                    results.add(this.copyExecutor.submit(new CopySubTreeTask(subTree, source, destination)));
+                } catch (RejectedExecutionException e) {
+                    // All the copy threads are busy.
+                    rejectedSubTrees.add(subTree);
+                    results.add(null);
+                }
+            }
+
+            copyDescendants(childFiles, source, destination, true);
+            for (List<Descendant> subTree : rejectedSubTrees) {
+                copyDescendants(subTree, source, destination, true);
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) != null) {
+                    waitForSubTree(results.get(i), subTrees.get(i).size());
+                }
+            }
         } finally {
-            this.progressManager.popLevelProgress(this);
+            // Stop the tasks that are still running, e.g. if the job thread has been interrupted.
+            for (Future<LogQueue> result : results) {
+                if (result != null) {
+                    result.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a sub-tree to be copied and then adds its log to the job log and updates the job progress.
+     * 
+     * @param result the result of the task that copies the sub-tree
+     * @param size the number of descendants in the sub-tree
+     */
+    private void waitForSubTree(Future<LogQueue> result, int size)
+    {
+        try {
+            addLog(result.get());
+        } catch (InterruptedException e) {
+            this.logger.warn("The copy has been interrupted.");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            this.logger.error("Failed to copy a sub-tree.", e.getCause());
+        }
+        for (int i = 0; i < size; i++) {
+            this.progressManager.stepPropress(this);
+        }
+    }
+
+    /**
+     * Copies a sub-tree in a separate thread, with its own execution context.
+     */
+    private final class CopySubTreeTask implements Callable<LogQueue>
+    {
+        /**
+         * The sub-tree to copy, in pre-order.
+         */
+        private final List<Descendant> subTree;
+
+        /**
+         * The folder whose content is copied.
+         */
+        private final DocumentReference source;
+
+        /**
+         * The destination folder where to copy the content.
+         */
+        private final DocumentReference destination;
+
+        /**
+         * The current wiki, taken from the job thread.
+         */
+        private final String wikiId;
+
+        /**
+         * The user that triggered the copy, taken from the job thread.
+         */
+        private final DocumentReference userReference;
+
+        /**
+         * Creates a new task that copies the given sub-tree.
+         * 
+         * @param subTree the sub-tree to copy, in pre-order
+         * @param source the folder whose content is copied
+         * @param destination the destination folder where to copy the content
+         */
+        CopySubTreeTask(List<Descendant> subTree, DocumentReference source, DocumentReference destination)
+        {
+            this.subTree = subTree;
+            this.source = source;
+            this.destination = destination;
+            XWikiContext xcontext = xcontextProvider.get();
+            this.wikiId = xcontext.getWikiId();
+            this.userReference = xcontext.getUserReference();
+        }
+
+        @Override
+        public LogQueue call() throws Exception
+        {
+            // The job log is bound to the job thread so we collect the log of this thread and forward it afterwards.
+            LogQueue logQueue = new LogQueue();
+            executionContextManager.initialize(new ExecutionContext());
+            try {
+                XWikiContext xcontext = xcontextProvider.get();
+                xcontext.setWikiId(this.wikiId);
+                xcontext.setUserReference(this.userReference);
+
+                loggerManager.pushLogListener(new LoggerListener(Thread.currentThread().getName(), logQueue));
+                try {
+                    copyDescendants(this.subTree, this.source, this.destination, false);
+                } finally {
+                    loggerManager.popLogListener();
+                }
+            } finally {
+                execution.removeContext();
+            }
+            return logQueue;
         }
     }
 }
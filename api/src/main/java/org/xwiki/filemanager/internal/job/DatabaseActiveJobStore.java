@@ -0,0 +1,446 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.filemanager.internal.FileManagerDatabase;
+import org.xwiki.filemanager.job.ActiveJob;
+import org.xwiki.filemanager.job.ActiveJobStore;
+import org.xwiki.job.event.status.JobStatus.State;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.SpaceReferenceResolver;
+
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Keeps the active file system jobs and the drive locks in the database of the main wiki, so that they are shared by
+ * all the nodes of a cluster. The active jobs and the drive locks are leases: the rows have an expiry date which is
+ * pushed back each time the node running the job renews the lease. The expired rows are ignored and removed
+ * periodically, so a node that stops unexpectedly doesn't leave its drives locked.
+ * <p>
+ * The tables are created by the {@link org.xwiki.filemanager.internal.FileManagerDataMigration}. The store fails to
+ * initialize if they are missing.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named("database")
+@Singleton
+public class DatabaseActiveJobStore implements ActiveJobStore, Initializable
+{
+    /**
+     * The tables used by this store.
+     */
+    private static final String[] TABLES =
+        {"filemanager_active_jobs", "filemanager_active_job_drives", "filemanager_drive_locks"};
+
+    /**
+     * The statements used to remove an active job.
+     */
+    private static final String[] DELETE_JOB = {"delete from filemanager_active_job_drives where FMD_JOB = :job",
+        "delete from filemanager_active_jobs where FMJ_ID = :job"};
+
+    /**
+     * The statements used to remove the expired active jobs and drive locks.
+     */
+    private static final String[] DELETE_EXPIRED = {
+        "delete from filemanager_active_job_drives where FMD_JOB in"
+            + " (select FMJ_ID from filemanager_active_jobs where FMJ_EXPIRY <= :now)",
+        "delete from filemanager_active_jobs where FMJ_EXPIRY <= :now",
+        "delete from filemanager_drive_locks where FML_EXPIRY <= :now"};
+
+    /**
+     * The statement used to insert an active job.
+     */
+    private static final String INSERT_JOB = "insert into filemanager_active_jobs (FMJ_ID, FMJ_TYPE, FMJ_USER,"
+        + " FMJ_STATE, FMJ_PROGRESS, FMJ_DATE, FMJ_EXPIRY) values (:job, :type, :user, :state, :progress, :date,"
+        + " :expiry)";
+
+    /**
+     * The statement used to insert a drive targeted by an active job.
+     */
+    private static final String INSERT_JOB_DRIVE =
+        "insert into filemanager_active_job_drives (FMD_JOB, FMD_DRIVE) values (:job, :drive)";
+
+    /**
+     * The statement used to renew the lease of an active job and to update its state and progress.
+     */
+    private static final String RENEW_JOB = "update filemanager_active_jobs set FMJ_STATE = :state,"
+        + " FMJ_PROGRESS = :progress, FMJ_EXPIRY = :expiry where FMJ_ID = :job";
+
+    /**
+     * The statement used to renew the drive locks of some jobs.
+     */
+    private static final String RENEW_DRIVE_LOCKS =
+        "update filemanager_drive_locks set FML_EXPIRY = :expiry where FML_JOB in (:jobs)";
+
+    /**
+     * The statement used to select an active job.
+     */
+    private static final String SELECT_JOB = "select FMJ_TYPE, FMJ_USER, FMJ_STATE, FMJ_PROGRESS, FMD_DRIVE"
+        + " from filemanager_active_jobs left join filemanager_active_job_drives on FMD_JOB = FMJ_ID"
+        + " where FMJ_ID = :job and FMJ_EXPIRY > :now";
+
+    /**
+     * The statement used to select the active jobs.
+     */
+    private static final String SELECT_JOBS = "select FMJ_ID from filemanager_active_jobs";
+
+    /**
+     * The condition and the order of the selected active jobs.
+     */
+    private static final String WHERE_ACTIVE = " FMJ_EXPIRY > :now order by FMJ_DATE, FMJ_ID";
+
+    /**
+     * The statement used to select the active jobs that target a drive.
+     */
+    private static final String SELECT_JOBS_BY_DRIVE = SELECT_JOBS + ", filemanager_active_job_drives"
+        + " where FMD_JOB = FMJ_ID and FMD_DRIVE = :drive and" + WHERE_ACTIVE;
+
+    /**
+     * The statement used to select the locks of some drives.
+     */
+    private static final String SELECT_DRIVE_LOCKS =
+        "select FML_DRIVE, FML_JOB, FML_EXPIRY from filemanager_drive_locks where FML_DRIVE in (:drives)";
+
+    /**
+     * The statement used to lock a drive.
+     */
+    private static final String INSERT_DRIVE_LOCK =
+        "insert into filemanager_drive_locks (FML_DRIVE, FML_JOB, FML_EXPIRY) values (:drive, :job, :expiry)";
+
+    /**
+     * The statement used to take over or renew a drive lock. The condition makes sure the lock hasn't been taken over
+     * by another node since it was read.
+     */
+    private static final String UPDATE_DRIVE_LOCK = "update filemanager_drive_locks set FML_JOB = :job,"
+        + " FML_EXPIRY = :expiry where FML_DRIVE = :drive and (FML_JOB = :job or FML_EXPIRY <= :now)";
+
+    /**
+     * The statement used to release the drive locks held by a job.
+     */
+    private static final String DELETE_DRIVE_LOCKS = "delete from filemanager_drive_locks where FML_JOB = :job";
+
+    /**
+     * The job query parameter.
+     */
+    private static final String PARAMETER_JOB = "job";
+
+    /**
+     * The drive query parameter.
+     */
+    private static final String PARAMETER_DRIVE = "drive";
+
+    /**
+     * The current time query parameter.
+     */
+    private static final String PARAMETER_NOW = "now";
+
+    /**
+     * The expiry date query parameter.
+     */
+    private static final String PARAMETER_EXPIRY = "expiry";
+
+    /**
+     * The state query parameter.
+     */
+    private static final String PARAMETER_STATE = "state";
+
+    /**
+     * The progress query parameter.
+     */
+    private static final String PARAMETER_PROGRESS = "progress";
+
+    /**
+     * Used to log messages.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to access the tables.
+     */
+    @Inject
+    private FileManagerDatabase database;
+
+    /**
+     * Used to serialize the drive and user references.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * Used to resolve the stored user references.
+     */
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * Used to resolve the stored drive references.
+     */
+    @Inject
+    private SpaceReferenceResolver<String> spaceReferenceResolver;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.database.checkTables(TABLES);
+    }
+
+    @Override
+    public void add(ActiveJob job, long leaseDuration)
+    {
+        try {
+            this.database.executeWrite(session -> {
+                deleteJob(session, job.getId());
+                long now = System.currentTimeMillis();
+                session.createNativeQuery(INSERT_JOB).setParameter(PARAMETER_JOB, job.getId())
+                    .setParameter("type", job.getType()).setParameter("user", serialize(job.getUserReference()))
+                    .setParameter(PARAMETER_STATE, job.getState().name())
+                    .setParameter(PARAMETER_PROGRESS, job.getProgress()).setParameter("date", now)
+                    .setParameter(PARAMETER_EXPIRY, now + leaseDuration).executeUpdate();
+                for (SpaceReference driveReference : job.getDriveReferences()) {
+                    session.createNativeQuery(INSERT_JOB_DRIVE).setParameter(PARAMETER_JOB, job.getId())
+                        .setParameter(PARAMETER_DRIVE, serialize(driveReference)).executeUpdate();
+                }
+                return null;
+            });
+        } catch (XWikiException e) {
+            this.logger.error("Failed to store the active job [{}].", job.getId(), e);
+        }
+    }
+
+    @Override
+    public void renew(Collection<ActiveJob> jobs, long leaseDuration)
+    {
+        try {
+            this.database.executeWrite(session -> {
+                long now = System.currentTimeMillis();
+                List<String> jobIds = new ArrayList<String>();
+                for (ActiveJob job : jobs) {
+                    session.createNativeQuery(RENEW_JOB).setParameter(PARAMETER_STATE, job.getState().name())
+                        .setParameter(PARAMETER_PROGRESS, job.getProgress())
+                        .setParameter(PARAMETER_EXPIRY, now + leaseDuration).setParameter(PARAMETER_JOB, job.getId())
+                        .executeUpdate();
+                    jobIds.add(job.getId());
+                }
+                if (!jobIds.isEmpty()) {
+                    session.createNativeQuery(RENEW_DRIVE_LOCKS).setParameter(PARAMETER_EXPIRY, now + leaseDuration)
+                        .setParameterList("jobs", jobIds).executeUpdate();
+                }
+                for (String statement : DELETE_EXPIRED) {
+                    session.createNativeQuery(statement).setParameter(PARAMETER_NOW, now).executeUpdate();
+                }
+                return null;
+            });
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to renew the lease of the active jobs. Root cause: [{}]", e.getMessage());
+        }
+    }
+
+    @Override
+    public void remove(String jobId)
+    {
+        try {
+            this.database.executeWrite(session -> {
+                deleteJob(session, jobId);
+                session.createNativeQuery(DELETE_DRIVE_LOCKS).setParameter(PARAMETER_JOB, jobId).executeUpdate();
+                return null;
+            });
+        } catch (XWikiException e) {
+            this.logger.error("Failed to remove the active job [{}].", jobId, e);
+        }
+    }
+
+    @Override
+    public ActiveJob getJob(String jobId)
+    {
+        try {
+            return this.database.executeRead(session -> {
+                List<Object[]> rows = session.createNativeQuery(SELECT_JOB).setParameter(PARAMETER_JOB, jobId)
+                    .setParameter(PARAMETER_NOW, System.currentTimeMillis()).getResultList();
+                if (rows.isEmpty()) {
+                    return null;
+                }
+                Object[] row = rows.get(0);
+                Set<SpaceReference> driveReferences = new LinkedHashSet<SpaceReference>();
+                for (Object[] driveRow : rows) {
+                    if (driveRow[4] != null) {
+                        driveReferences.add(this.spaceReferenceResolver.resolve((String) driveRow[4]));
+                    }
+                }
+                DocumentReference userReference = StringUtils.isEmpty((String) row[1]) ? null
+                    : this.documentReferenceResolver.resolve((String) row[1]);
+                State state = row[2] != null ? State.valueOf((String) row[2]) : State.NONE;
+                double progress = row[3] != null ? ((Number) row[3]).doubleValue() : 0;
+                return new ActiveJob(jobId, (String) row[0], userReference, driveReferences, state, progress);
+            });
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to retrieve the active job [{}]. Root cause: [{}]", jobId, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public List<String> getJobs()
+    {
+        return select(SELECT_JOBS + " where" + WHERE_ACTIVE, null, null);
+    }
+
+    @Override
+    public List<String> getJobsByDrive(SpaceReference driveReference)
+    {
+        return select(SELECT_JOBS_BY_DRIVE, PARAMETER_DRIVE, serialize(driveReference));
+    }
+
+    @Override
+    public boolean lockDrives(String jobId, Set<SpaceReference> driveReferences, long leaseDuration)
+    {
+        List<String> drives = new ArrayList<String>();
+        for (SpaceReference driveReference : driveReferences) {
+            drives.add(serialize(driveReference));
+        }
+        if (drives.isEmpty()) {
+            return true;
+        }
+        try {
+            return this.database.executeWrite(session -> {
+                long now = System.currentTimeMillis();
+                // Check the current locks first, so that the drives locked by other jobs don't cause errors.
+                Set<String> lockedDrives = new LinkedHashSet<String>();
+                for (Object[] lock : (List<Object[]>) session.createNativeQuery(SELECT_DRIVE_LOCKS)
+                    .setParameterList("drives", drives).getResultList()) {
+                    boolean expired = ((Number) lock[2]).longValue() <= now;
+                    if (!jobId.equals(lock[1]) && !expired) {
+                        return false;
+                    }
+                    lockedDrives.add((String) lock[0]);
+                }
+                for (String drive : drives) {
+                    if (lockedDrives.contains(drive)) {
+                        // Renew our own locks and take over the expired locks.
+                        int updated = session.createNativeQuery(UPDATE_DRIVE_LOCK).setParameter(PARAMETER_DRIVE, drive)
+                            .setParameter(PARAMETER_JOB, jobId).setParameter(PARAMETER_EXPIRY, now + leaseDuration)
+                            .setParameter(PARAMETER_NOW, now).executeUpdate();
+                        if (updated != 1) {
+                            // Roll back the locks taken so far.
+                            throw new HibernateException("The lock of [" + drive + "] has been taken over.");
+                        }
+                    } else {
+                        session.createNativeQuery(INSERT_DRIVE_LOCK).setParameter(PARAMETER_DRIVE, drive)
+                            .setParameter(PARAMETER_JOB, jobId).setParameter(PARAMETER_EXPIRY, now + leaseDuration)
+                            .executeUpdate();
+                    }
+                }
+                return true;
+            });
+        } catch (XWikiException e) {
+            // Another node locked one of the drives in the mean time (the transaction has been rolled back).
+            this.logger.debug("Failed to lock the drives [{}] for the job [{}].", driveReferences, jobId, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void unlockDrives(String jobId)
+    {
+        try {
+            this.database.executeWrite(session -> session.createNativeQuery(DELETE_DRIVE_LOCKS)
+                .setParameter(PARAMETER_JOB, jobId).executeUpdate());
+        } catch (XWikiException e) {
+            this.logger.error("Failed to unlock the drives of the job [{}].", jobId, e);
+        }
+    }
+
+    /**
+     * Removes the specified active job, without releasing its drive locks.
+     * 
+     * @param session the database session
+     * @param jobId the job id
+     */
+    private void deleteJob(Session session, String jobId)
+    {
+        for (String statement : DELETE_JOB) {
+            session.createNativeQuery(statement).setParameter(PARAMETER_JOB, jobId).executeUpdate();
+        }
+    }
+
+    /**
+     * Selects the ids of the active jobs whose lease hasn't expired.
+     * 
+     * @param statement the select statement
+     * @param parameterName the name of the query parameter, {@code null} if the statement has only the current time
+     *            parameter
+     * @param parameterValue the value of the query parameter
+     * @return the selected job ids
+     */
+    private List<String> select(String statement, String parameterName, Object parameterValue)
+    {
+        try {
+            return this.database.executeRead(session -> {
+                NativeQuery<?> query = session.createNativeQuery(statement);
+                query.setParameter(PARAMETER_NOW, System.currentTimeMillis());
+                if (parameterName != null) {
+                    query.setParameter(parameterName, parameterValue);
+                }
+                List<String> jobIds = new ArrayList<String>();
+                for (Object jobId : query.getResultList()) {
+                    jobIds.add(String.valueOf(jobId));
+                }
+                return jobIds;
+            });
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to retrieve the active jobs.", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param reference a user or drive reference
+     * @return the serialized reference, the empty string if the reference is {@code null}
+     */
+    private String serialize(EntityReference reference)
+    {
+        return reference != null ? this.serializer.serialize(reference) : "";
+    }
+}
@@ -22,27 +22,47 @@ package org.xwiki.filemanager.internal.job;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Queue;
+import java.util.Objects;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.jgroups.util.UUID;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.job.ActiveJob;
+import org.xwiki.filemanager.job.BatchOverwriteQuestion;
 import org.xwiki.filemanager.job.BatchPathRequest;
 import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.job.JobStatusUpdate;
 import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.filemanager.job.OperationPlan;
+import org.xwiki.filemanager.job.OverwriteQuestion;
+import org.xwiki.filemanager.job.PackJobStatus;
 import org.xwiki.filemanager.job.PackRequest;
+import org.xwiki.filemanager.job.PathList;
+import org.xwiki.job.Job;
 import org.xwiki.job.JobException;
-import org.xwiki.job.JobManager;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.JobStatusStore;
+import org.xwiki.job.Request;
+import org.xwiki.job.event.status.CancelableJobStatus;
 import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.event.LogEvent;
+import org.xwiki.logging.tail.LogTail;
 import org.xwiki.model.reference.AttachmentReference;
-import org.xwiki.observation.EventListener;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 
 /**
  * Default {@link FileManager} implementation.
@@ -58,13 +78,35 @@ public class DefaultFileManager implements FileManager
      * The key under which we store the reference to the current user in the job request (in order to know the user that
      * triggered the job and to verify access rights when performing the job actions).
      */
-    private static final String PROPERTY_USER_REFERENCE = "user.reference";
+    static final String PROPERTY_USER_REFERENCE = "user.reference";
 
     /**
      * The key under which we store the job type in the job request. This is useful when different jobs use the same
      * type of request and we need to know the job type.
      */
-    private static final String PROPERTY_JOB_TYPE = "job.type";
+    static final String PROPERTY_JOB_TYPE = "job.type";
+
+    /**
+     * The key under which we store the time when the job has been scheduled in the job request. This is used to measure
+     * how long the job waits before being executed.
+     */
+    static final String PROPERTY_SCHEDULE_DATE = "job.scheduleDate";
+
+    /**
+     * The key under which we store the ids of the requests that have been merged into the job request. The job that
+     * performs the request also performs the merged requests.
+     */
+    static final String PROPERTY_MERGED_JOB_IDS = "job.mergedJobIds";
+
+    /**
+     * The maximum number of milliseconds to wait for a job status change.
+     */
+    private static final long MAX_STATUS_UPDATE_TIMEOUT = 30000;
+
+    /**
+     * Separates the parts of a job status cursor.
+     */
+    private static final String CURSOR_SEPARATOR = ":";
 
     /**
      * Used to access the current user reference.
@@ -73,34 +115,73 @@ public class DefaultFileManager implements FileManager
     private DocumentAccessBridge documentAccessBridge;
 
     /**
-     * Handles the execution of the file system jobs.
+     * Used to check if the current user can cancel a job triggered by someone else.
      */
     @Inject
-    private JobManager jobManager;
+    private ContextualAuthorizationManager authorization;
 
     /**
-     * The queue of active (unfinished) jobs.
+     * Handles the execution of the file system jobs. The jobs are grouped by drive so jobs on different drives can run
+     * in parallel.
      */
     @Inject
-    @Named("ActiveFileSystemJobQueue")
-    private EventListener activeJobQueue;
+    private JobExecutor jobExecutor;
+
+    /**
+     * Decides when the file system jobs are executed.
+     */
+    @Inject
+    @Named(FileManagerJobScheduler.NAME)
+    private FileManagerJobScheduler jobScheduler;
+
+    /**
+     * Used to retrieve the status of the finished jobs.
+     */
+    @Inject
+    private JobStatusStore jobStatusStore;
+
+    /**
+     * The active (unfinished) jobs.
+     */
+    @Inject
+    @Named(ActiveJobRegistry.NAME)
+    private ActiveJobRegistry activeJobRegistry;
+
+    /**
+     * Used to wait for a job status change.
+     */
+    @Inject
+    @Named(JobStatusWatcher.NAME)
+    private JobStatusWatcher jobStatusWatcher;
 
     @Override
     public String move(Collection<Path> paths, Path destination) throws JobException
+    {
+        return move(paths, destination, false);
+    }
+
+    @Override
+    public String move(Collection<Path> paths, Path destination, boolean interactive) throws JobException
     {
         MoveRequest moveRequest = createMoveRequest(paths, destination, MoveJob.JOB_TYPE);
+        moveRequest.setInteractive(interactive);
 
-        this.jobManager.addJob(MoveJob.JOB_TYPE, moveRequest);
-        return addToQueue(moveRequest);
+        return schedule(MoveJob.JOB_TYPE, moveRequest);
     }
 
     @Override
     public String copy(Collection<Path> paths, Path destination) throws JobException
+    {
+        return copy(paths, destination, false);
+    }
+
+    @Override
+    public String copy(Collection<Path> paths, Path destination, boolean interactive) throws JobException
     {
         MoveRequest moveRequest = createMoveRequest(paths, destination, CopyJob.JOB_TYPE);
+        moveRequest.setInteractive(interactive);
 
-        this.jobManager.addJob(CopyJob.JOB_TYPE, moveRequest);
-        return addToQueue(moveRequest);
+        return schedule(CopyJob.JOB_TYPE, moveRequest);
     }
 
     @Override
@@ -108,8 +189,7 @@ public class DefaultFileManager implements FileManager
     {
         BatchPathRequest deleteRequest = initBatchPathRequest(new BatchPathRequest(), paths, DeleteJob.JOB_TYPE);
 
-        this.jobManager.addJob(DeleteJob.JOB_TYPE, deleteRequest);
-        return addToQueue(deleteRequest);
+        return schedule(DeleteJob.JOB_TYPE, deleteRequest);
     }
 
     @Override
@@ -118,21 +198,181 @@ public class DefaultFileManager implements FileManager
         PackRequest packRequest = initBatchPathRequest(new PackRequest(), paths, PackJob.JOB_TYPE);
         packRequest.setOutputFileReference(outputFileReference);
 
-        this.jobManager.addJob(PackJob.JOB_TYPE, packRequest);
-        return addToQueue(packRequest);
+        return schedule(PackJob.JOB_TYPE, packRequest);
+    }
+
+    @Override
+    public OperationPlan planMove(Collection<Path> paths, Path destination) throws JobException
+    {
+        MoveJob moveJob = createJob(MoveJob.JOB_TYPE, createMoveRequest(paths, destination, MoveJob.JOB_TYPE));
+        return moveJob.plan();
+    }
+
+    @Override
+    public OperationPlan planCopy(Collection<Path> paths, Path destination) throws JobException
+    {
+        CopyJob copyJob = createJob(CopyJob.JOB_TYPE, createMoveRequest(paths, destination, CopyJob.JOB_TYPE));
+        return copyJob.plan();
+    }
+
+    @Override
+    public OperationPlan planDelete(Collection<Path> paths) throws JobException
+    {
+        DeleteJob deleteJob =
+            createJob(DeleteJob.JOB_TYPE, initBatchPathRequest(new BatchPathRequest(), paths, DeleteJob.JOB_TYPE));
+        return deleteJob.plan();
     }
 
     @Override
     public JobStatus getJobStatus(String jobId)
     {
-        return this.jobManager.getJobStatus(getJobStatusId(jobId));
+        List<String> jobStatusId = getJobStatusId(jobId);
+        Job job = getJob(jobStatusId);
+        return job != null ? job.getStatus() : this.jobStatusStore.getJobStatus(jobStatusId);
+    }
+
+    @Override
+    public boolean cancel(String jobId) throws AccessDeniedException
+    {
+        List<String> jobStatusId = getJobStatusId(jobId);
+        Job job = getJob(jobStatusId);
+        if (job == null || !(job.getStatus() instanceof CancelableJobStatus)) {
+            return false;
+        }
+
+        checkJobRight(job.getRequest());
+
+        CancelableJobStatus jobStatus = (CancelableJobStatus) job.getStatus();
+        if (!jobStatus.isCancelable() || jobStatus.getState() == JobStatus.State.FINISHED) {
+            return false;
+        }
+
+        jobStatus.cancel();
+        if (jobStatus.getQuestion() != null) {
+            // Don't leave the job waiting for an answer. The job checks if it has been canceled once it resumes.
+            jobStatus.answered();
+        }
+        this.jobScheduler.cancel(jobStatusId);
+        // Canceling a job doesn't fire an event.
+        this.jobStatusWatcher.notifyChange(job.getRequest().getId());
+        return true;
+    }
+
+    @Override
+    public boolean answerOverwrite(String jobId, Collection<Integer> overwrite, Boolean overwriteAll)
+        throws AccessDeniedException
+    {
+        Job job = getJob(getJobStatusId(jobId));
+        JobStatus jobStatus = job != null ? job.getStatus() : null;
+        if (jobStatus == null || jobStatus.getState() != JobStatus.State.WAITING) {
+            return false;
+        }
+
+        Object question = jobStatus.getQuestion();
+        if (question instanceof BatchOverwriteQuestion) {
+            checkJobRight(job.getRequest());
+            BatchOverwriteQuestion batchQuestion = (BatchOverwriteQuestion) question;
+            if (overwriteAll != null) {
+                batchQuestion.setOverwriteAll(overwriteAll);
+            } else {
+                List<OverwriteQuestion> conflicts = batchQuestion.getQuestions();
+                for (int i = 0; i < conflicts.size(); i++) {
+                    conflicts.get(i).setOverwrite(overwrite != null && overwrite.contains(i));
+                }
+            }
+        } else if (question instanceof OverwriteQuestion) {
+            checkJobRight(job.getRequest());
+            OverwriteQuestion overwriteQuestion = (OverwriteQuestion) question;
+            overwriteQuestion.setOverwrite(
+                overwriteAll != null ? overwriteAll : overwrite != null && overwrite.contains(0));
+            overwriteQuestion.setAskAgain(overwriteAll == null);
+        } else {
+            return false;
+        }
+
+        jobStatus.answered();
+        this.jobStatusWatcher.notifyChange(job.getRequest().getId());
+        return true;
+    }
+
+    @Override
+    public JobStatusUpdate getJobStatusUpdate(String jobId, String cursor, long timeout) throws InterruptedException
+    {
+        JobStatus jobStatus = getJobStatus(jobId);
+        if (timeout > 0 && !hasChanged(jobStatus, cursor) && jobStatus.getRequest() != null) {
+            // Sleep until the job notifies a change.
+            this.jobStatusWatcher.awaitChange(jobStatus.getRequest().getId(),
+                Math.min(timeout, MAX_STATUS_UPDATE_TIMEOUT), () -> hasChanged(getJobStatus(jobId), cursor));
+            jobStatus = getJobStatus(jobId);
+        }
+
+        if (jobStatus == null) {
+            return null;
+        }
+
+        int logOffset = getLogOffset(cursor);
+        LogTail log = jobStatus.getLogTail();
+        boolean full = logOffset < 0 || logOffset > log.size();
+        List<LogEvent> logEvents = new ArrayList<LogEvent>();
+        for (int i = full ? 0 : logOffset; i < log.size(); i++) {
+            logEvents.add(log.getLogEvent(i));
+        }
+        return new JobStatusUpdate(jobStatus, getCursor(jobStatus), full, logEvents);
+    }
+
+    /**
+     * @param jobStatus a job status, {@code null} if the job is not found
+     * @param cursor the cursor of the previous job status update
+     * @return {@code true} if the given job status has changed since the specified cursor, or if there's nothing to
+     *         wait for (the job is not found or is finished)
+     */
+    private boolean hasChanged(JobStatus jobStatus, String cursor)
+    {
+        return jobStatus == null || jobStatus.getState() == JobStatus.State.FINISHED
+            || !getCursor(jobStatus).equals(cursor);
+    }
+
+    /**
+     * The cursor identifies a job status state by the number of log events and a hash of the state, progress, question
+     * and cancel flag, which are the parts of the job status that change while the job runs.
+     * 
+     * @param jobStatus a job status
+     * @return the cursor that identifies the current state of the given job status
+     */
+    private String getCursor(JobStatus jobStatus)
+    {
+        long bytesWritten = jobStatus instanceof PackJobStatus ? ((PackJobStatus) jobStatus).getBytesWritten() : 0;
+        boolean canceled = jobStatus instanceof CancelableJobStatus && ((CancelableJobStatus) jobStatus).isCanceled();
+        int hash = Objects.hash(jobStatus.getState(), jobStatus.getProgress().getOffset(),
+            System.identityHashCode(jobStatus.getQuestion()), bytesWritten, canceled);
+        return jobStatus.getLogTail().size() + CURSOR_SEPARATOR + Integer.toHexString(hash);
+    }
+
+    /**
+     * @param cursor a job status cursor
+     * @return the number of log events the client has already seen, {@code -1} if the given cursor is not valid
+     */
+    private int getLogOffset(String cursor)
+    {
+        return NumberUtils.toInt(StringUtils.substringBefore(cursor, CURSOR_SEPARATOR), -1);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public List<String> getActiveJobs()
     {
-        return new ArrayList<String>((Queue<String>) activeJobQueue);
+        return this.activeJobRegistry.getJobs();
+    }
+
+    @Override
+    public List<String> getActiveJobs(SpaceReference driveReference)
+    {
+        return this.activeJobRegistry.getJobsByDrive(driveReference);
+    }
+
+    @Override
+    public ActiveJob getActiveJob(String jobId)
+    {
+        return this.activeJobRegistry.getJob(jobId);
     }
 
     /**
@@ -147,8 +387,9 @@ public class DefaultFileManager implements FileManager
     private <T extends BatchPathRequest> T initBatchPathRequest(T request, Collection<Path> paths, String jobType)
     {
         request.setId(getJobStatusId(UUID.randomUUID().toString()));
-        // Copy the collection of paths to make sure it isn't modified while we iterate it.
-        request.setPaths(new LinkedList<Path>(paths));
+        // Copy the collection of paths to make sure it isn't modified while we iterate it. The copy is compact because
+        // the request is kept and serialized with the job status, and a request can target many paths.
+        request.setPaths(new PathList(paths));
         request.setProperty(PROPERTY_USER_REFERENCE, this.documentAccessBridge.getCurrentUserReference());
         request.setProperty(PROPERTY_JOB_TYPE, jobType);
         return request;
@@ -168,6 +409,55 @@ public class DefaultFileManager implements FileManager
         return moveRequest;
     }
 
+    /**
+     * Creates a job without scheduling it. The job is used only to plan the operation.
+     * 
+     * @param jobType the job type
+     * @param request the job request
+     * @param <T> the job type
+     * @return the initialized job
+     * @throws JobException if the job can't be created
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Job> T createJob(String jobType, Request request) throws JobException
+    {
+        return (T) this.jobScheduler.createJob(jobType, request);
+    }
+
+    /**
+     * A job can be canceled, and its questions can be answered, by the user that triggered it or by an administrator of
+     * all the drives targeted by the job.
+     * 
+     * @param request the request of the job to cancel or to answer
+     * @throws AccessDeniedException if the current user is not allowed to cancel or to answer the job
+     */
+    private void checkJobRight(Request request) throws AccessDeniedException
+    {
+        DocumentReference currentUserReference = this.documentAccessBridge.getCurrentUserReference();
+        if (Objects.equals(currentUserReference, request.getProperty(PROPERTY_USER_REFERENCE))) {
+            return;
+        }
+
+        Set<SpaceReference> driveReferences = request instanceof BatchPathRequest
+            ? ((BatchPathRequest) request).getDriveReferences() : Collections.<SpaceReference>emptySet();
+        if (driveReferences.isEmpty()) {
+            throw new AccessDeniedException(Right.ADMIN, currentUserReference, null);
+        }
+        for (SpaceReference driveReference : driveReferences) {
+            this.authorization.checkAccess(Right.ADMIN, driveReference);
+        }
+    }
+
+    /**
+     * @param jobStatusId the job id
+     * @return the specified job if it is waiting to be executed or if it is running, {@code null} otherwise
+     */
+    private Job getJob(List<String> jobStatusId)
+    {
+        Job job = this.jobScheduler.getWaitingJob(jobStatusId);
+        return job != null ? job : this.jobExecutor.getJob(jobStatusId);
+    }
+
     /**
      * @param jobId the job id
      * @return the id used to retrieve the status of the job with the given id
@@ -178,14 +468,31 @@ public class DefaultFileManager implements FileManager
     }
 
     /**
-     * @param request the request to add to the queue
-     * @return the id of the job that will perform the request; use this id to get the job status
+     * Schedules a job and registers it as active.
+     * 
+     * @param jobType the job type
+     * @param request the job request
+     * @return the id of the job that will perform the request, which is the id of an active job if the request has been
+     *         merged into it; use this id to get the job status
+     * @throws JobException if the job can't be created
      */
-    @SuppressWarnings("unchecked")
-    private String addToQueue(BatchPathRequest request)
+    private String schedule(String jobType, BatchPathRequest request) throws JobException
     {
         String jobId = request.getId().get(1);
-        ((Queue<String>) activeJobQueue).offer(jobId);
-        return jobId;
+        request.setProperty(PROPERTY_SCHEDULE_DATE, System.currentTimeMillis());
+        // Register the job before scheduling it in order to not miss the end of a job that finishes right away.
+        this.activeJobRegistry.add(request);
+        List<String> jobStatusId;
+        try {
+            jobStatusId = this.jobScheduler.schedule(jobType, request);
+        } catch (JobException e) {
+            this.activeJobRegistry.remove(jobId);
+            throw e;
+        }
+        if (!jobStatusId.equals(request.getId())) {
+            // The request has been merged into a job that is already active.
+            this.activeJobRegistry.remove(jobId);
+        }
+        return jobStatusId.get(1);
     }
 }
@@ -20,19 +20,21 @@
 package org.xwiki.filemanager.internal.job;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.Descendant;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
 import org.xwiki.filemanager.job.BatchPathRequest;
-import org.xwiki.job.AbstractJob;
-import org.xwiki.job.DefaultJobStatus;
 import org.xwiki.model.reference.DocumentReference;
 
 /**
@@ -43,7 +45,7 @@ import org.xwiki.model.reference.DocumentReference;
  */
 @Component
 @Named(DeleteJob.JOB_TYPE)
-public class DeleteJob extends AbstractJob<BatchPathRequest, DefaultJobStatus<BatchPathRequest>>
+public class DeleteJob extends AbstractFileManagerJob<BatchPathRequest>
 {
     /**
      * The id of the job.
@@ -74,6 +76,9 @@ public class DeleteJob extends AbstractJob<BatchPathRequest, DefaultJobStatus<Ba
 
         try {
             for (Path path : paths) {
+                if (isCanceled()) {
+                    break;
+                }
                 delete(path);
                 this.progressManager.stepPropress(this);
             }
@@ -103,31 +108,42 @@ public class DeleteJob extends AbstractJob<BatchPathRequest, DefaultJobStatus<Ba
      * @param fileReference the file to delete
      * @param parentReference the folder the file should be deleted from, {@code null} if the file should be delete from
      *            all parents
+     * @return {@code true} if the file has been deleted from the specified parent folder, {@code false} if the current
+     *         user is not allowed to delete it
      */
-    private void deleteFile(DocumentReference fileReference, DocumentReference parentReference)
+    private boolean deleteFile(DocumentReference fileReference, DocumentReference parentReference)
     {
         File file = fileSystem.getFile(fileReference);
         if (file != null) {
             Collection<DocumentReference> parentReferences = file.getParentReferences();
-            boolean save = parentReferences.remove(parentReference);
-            if (parentReferences.isEmpty() || parentReference == null) {
-                if (fileSystem.canDelete(fileReference)) {
+            boolean save = parentReferences.contains(parentReference);
+            if (parentReference == null || parentReferences.isEmpty()
+                || (save && parentReferences.size() == 1)) {
+                if (!fileSystem.canDelete(fileReference)) {
+                    forbid("You are not allowed to delete the file [{}].", fileReference);
+                    return false;
+                } else if (!addToPlan(fileReference, file.getSize())) {
                     fileSystem.delete(fileReference);
-                } else {
-                    this.logger.error("You are not allowed to delete the file [{}].", fileReference);
+                    countProcessedDocument(0);
                 }
             } else if (save) {
-                if (fileSystem.canEdit(fileReference)) {
+                if (!fileSystem.canEdit(fileReference)) {
+                    forbid("You are not allowed to edit the file [{}].", fileReference);
+                    return false;
+                } else if (!addToPlan(fileReference, 0)) {
+                    parentReferences.remove(parentReference);
                     fileSystem.save(file);
-                } else {
-                    this.logger.error("You are not allowed to edit the file [{}].", fileReference);
+                    countProcessedDocument(0);
                 }
             }
         }
+        return true;
     }
 
     /**
-     * Deletes the folder with the given reference.
+     * Deletes the folder with the given reference. The entire sub-tree of the folder is retrieved up front so that the
+     * progress is exact and we don't have to query the child files and folders one level at a time. The descendants
+     * are deleted bottom-up and a folder is deleted only if all its descendants have been deleted.
      * 
      * @param folderReference the reference to the folder to delete
      */
@@ -139,31 +155,91 @@ public class DeleteJob extends AbstractJob<BatchPathRequest, DefaultJobStatus<Ba
                 return;
             }
 
-            List<DocumentReference> childFolderReferences = folder.getChildFolderReferences();
-            List<DocumentReference> childFileReferences = folder.getChildFileReferences();
-            this.progressManager.pushLevelProgress(childFolderReferences.size() + childFileReferences.size() + 1, this);
+            List<Descendant> descendants = fileSystem.getDescendants(folderReference);
+            this.progressManager.pushLevelProgress(descendants.size() + 1, this);
 
             try {
-                for (DocumentReference childFolderReference : childFolderReferences) {
-                    deleteFolder(childFolderReference);
-                    this.progressManager.stepPropress(this);
-                }
-
-                for (DocumentReference childFileReference : childFileReferences) {
-                    deleteFile(childFileReference, folderReference);
+                // The folders that can't be deleted, along with their sub-trees.
+                Set<DocumentReference> protectedFolders = getProtectedFolders(descendants);
+                // The folders that still have children after their descendants have been deleted.
+                Set<DocumentReference> nonEmptyFolders = new HashSet<DocumentReference>();
+
+                // The descendants are in pre-order so we iterate them in reverse order to delete the children first.
+                ListIterator<Descendant> iterator = descendants.listIterator(descendants.size());
+                while (iterator.hasPrevious()) {
+                    if (isCanceled()) {
+                        // The descendants of the folders that have been deleted so far have been deleted first so we
+                        // can stop here without leaving orphan files or folders.
+                        return;
+                    }
+                    Descendant descendant = iterator.previous();
+                    DocumentReference parentReference = descendant.getParentReference();
+                    boolean deleted;
+                    if (protectedFolders.contains(parentReference)) {
+                        deleted = false;
+                    } else if (descendant.isFolder()) {
+                        deleted = deleteEmptyFolder(descendant.getReference(), protectedFolders, nonEmptyFolders);
+                    } else {
+                        deleted = deleteFile(descendant.getReference(), parentReference);
+                    }
+                    if (!deleted) {
+                        nonEmptyFolders.add(parentReference);
+                    }
                     this.progressManager.stepPropress(this);
                 }
 
                 // Delete the folder if it's empty.
-                if (folder.getChildFolderReferences().isEmpty() && folder.getChildFileReferences().isEmpty()) {
+                if (!nonEmptyFolders.contains(folderReference) && !addToPlan(folderReference, 0)) {
                     fileSystem.delete(folderReference);
+                    countProcessedDocument(0);
                 }
                 this.progressManager.stepPropress(this);
             } finally {
                 this.progressManager.popLevelProgress(this);
             }
         } else {
-            this.logger.error("You are not allowed to delete the folder [{}].", folderReference);
+            forbid("You are not allowed to delete the folder [{}].", folderReference);
+        }
+    }
+
+    /**
+     * Deletes a folder from the sub-tree of the folder being deleted, after its descendants have been deleted.
+     * 
+     * @param folderReference the folder to delete
+     * @param protectedFolders the folders that can't be deleted
+     * @param nonEmptyFolders the folders that still have children
+     * @return {@code true} if the folder has been deleted, {@code false} otherwise
+     */
+    private boolean deleteEmptyFolder(DocumentReference folderReference, Set<DocumentReference> protectedFolders,
+        Set<DocumentReference> nonEmptyFolders)
+    {
+        if (protectedFolders.contains(folderReference) || nonEmptyFolders.contains(folderReference)) {
+            return false;
+        } else if (!addToPlan(folderReference, 0)) {
+            fileSystem.delete(folderReference);
+            countProcessedDocument(0);
+        }
+        return true;
+    }
+
+    /**
+     * @param descendants the sub-tree of a folder, in pre-order
+     * @return the folders from the given sub-tree that the current user is not allowed to delete, along with all their
+     *         descendant folders
+     */
+    private Set<DocumentReference> getProtectedFolders(List<Descendant> descendants)
+    {
+        Set<DocumentReference> protectedFolders = new HashSet<DocumentReference>();
+        for (Descendant descendant : descendants) {
+            if (descendant.isFolder()) {
+                if (protectedFolders.contains(descendant.getParentReference())) {
+                    protectedFolders.add(descendant.getReference());
+                } else if (!fileSystem.canDelete(descendant.getReference())) {
+                    forbid("You are not allowed to delete the folder [{}].", descendant.getReference());
+                    protectedFolders.add(descendant.getReference());
+                }
+            }
         }
+        return protectedFolders;
     }
 }
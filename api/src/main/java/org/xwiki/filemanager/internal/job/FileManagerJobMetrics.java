@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.job.Job;
+import org.xwiki.job.Request;
+import org.xwiki.job.event.JobEvent;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Collects the metrics of the file manager jobs (queue wait, run time, documents and bytes processed, errors and the
+ * time spent waiting for the user to answer questions), by job type and drive, and exposes them through JMX.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = {FileManagerJobMetrics.class, EventListener.class})
+@Named(FileManagerJobMetrics.NAME)
+@Singleton
+public class FileManagerJobMetrics implements EventListener, JobMetricsMXBean, Initializable, Disposable
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "FileManagerJobMetrics";
+
+    /**
+     * The name under which the metrics are registered in the MBean server.
+     */
+    public static final String OBJECT_NAME = "org.xwiki.filemanager:type=JobMetrics";
+
+    /**
+     * Separates the job type from the drive in the metrics key, and the drives targeted by the same job.
+     */
+    private static final String SEPARATOR = ",";
+
+    /**
+     * Used to serialize the drive references.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * Used to log the JMX registration failures.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * The metrics, indexed by job type and drive.
+     */
+    private final Map<String, JobMetrics> metrics = new ConcurrentHashMap<String, JobMetrics>();
+
+    /**
+     * The time when the running jobs have started, indexed by job id.
+     */
+    private final Map<List<String>, Long> startTimes = new ConcurrentHashMap<List<String>, Long>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the file manager job metrics in the MBean server. Root cause: [{}]",
+                e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            this.logger.warn(
+                "Failed to unregister the file manager job metrics from the MBean server. Root cause: [{}]",
+                e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new JobStartedEvent(), new JobFinishedEvent());
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        List<String> jobId = ((JobEvent) event).getJobId();
+        if (jobId == null || jobId.size() != 2 || !FileManager.JOB_ID_PREFIX.equals(jobId.get(0))) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (event instanceof JobStartedEvent) {
+            this.startTimes.put(jobId, now);
+            Request request = ((JobStartedEvent) event).getRequest();
+            Long scheduleDate = request.getProperty(DefaultFileManager.PROPERTY_SCHEDULE_DATE);
+            if (scheduleDate != null) {
+                getMetrics(((JobEvent) event).getJobType(), request).recordQueueWait(now - scheduleDate);
+            }
+        } else {
+            Long startTime = this.startTimes.remove(jobId);
+            if (startTime != null && source instanceof Job) {
+                onJobFinished((JobFinishedEvent) event, (Job) source, now - startTime);
+            }
+        }
+    }
+
+    @Override
+    public List<JobMetrics> getJobMetrics()
+    {
+        return new ArrayList<JobMetrics>(this.metrics.values());
+    }
+
+    @Override
+    public void reset()
+    {
+        this.metrics.clear();
+    }
+
+    /**
+     * @param jobType the job type
+     * @param request the job request
+     * @return the metrics of the specified type of jobs that target the same drives as the given request
+     */
+    public JobMetrics getMetrics(String jobType, Request request)
+    {
+        String drive = getDrive(request);
+        return this.metrics.computeIfAbsent(jobType + SEPARATOR + drive, key -> new JobMetrics(jobType, drive));
+    }
+
+    /**
+     * Records a finished job.
+     * 
+     * @param event the event notified when the job has finished
+     * @param job the job
+     * @param duration the time the job took to run, in milliseconds
+     */
+    private void onJobFinished(JobFinishedEvent event, Job job, long duration)
+    {
+        long questionWaitTime = 0;
+        long documents = 0;
+        long bytes = 0;
+        long errors = 0;
+        if (job instanceof AbstractFileManagerJob) {
+            AbstractFileManagerJob<?> fileManagerJob = (AbstractFileManagerJob<?>) job;
+            questionWaitTime = fileManagerJob.getQuestionWaitTime();
+            documents = fileManagerJob.getProcessedDocuments();
+            bytes = fileManagerJob.getProcessedBytes();
+            // The jobs log the items they fail to process as warnings.
+            errors = fileManagerJob.getErrorCount();
+        }
+
+        getMetrics(event.getJobType(), event.getRequest()).recordJob(duration, questionWaitTime, documents, bytes,
+            errors);
+    }
+
+    /**
+     * @param request a job request
+     * @return the drives targeted by the given request, serialized and sorted
+     */
+    private String getDrive(Request request)
+    {
+        Set<String> drives = new TreeSet<String>();
+        if (request instanceof BatchPathRequest) {
+            for (SpaceReference driveReference : ((BatchPathRequest) request).getDriveReferences()) {
+                drives.add(this.serializer.serialize(driveReference));
+            }
+        }
+        return StringUtils.join(drives, SEPARATOR);
+    }
+}
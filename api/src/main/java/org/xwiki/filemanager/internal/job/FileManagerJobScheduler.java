@@ -0,0 +1,472 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.Request;
+import org.xwiki.job.event.JobEvent;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Decides when the file manager jobs are handed to the {@link JobExecutor}. The short operations (move and delete) are
+ * executed right away. The heavy operations (copy and pack) wait here until the user that triggered them and the
+ * drives they target are below their limit of running heavy jobs. This way a user starting many packs doesn't fill the
+ * job queue of a drive and the short operations on that drive don't wait behind more than one heavy job.
+ * <p>
+ * When multiple heavy jobs can be executed, the one with the highest priority is executed first. The priority of a job
+ * depends on its type (a copy is usually faster than a pack), on the number of heavy jobs its user is already running
+ * and on how long it has been waiting, so that no job waits forever.
+ * <p>
+ * The short operations that are still waiting in the job executor when a similar operation is scheduled (same type,
+ * user, drives, destination and interactivity) are merged: the paths of the new request are added to the waiting job
+ * and the id of the new request is recorded in the request of the waiting job, which then performs both requests. This
+ * way dragging items one after another doesn't create a job for each item.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = {FileManagerJobScheduler.class, EventListener.class})
+@Named(FileManagerJobScheduler.NAME)
+@Singleton
+public class FileManagerJobScheduler implements EventListener
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "FileManagerJobScheduler";
+
+    /**
+     * The waiting time (in milliseconds) after which the priority of a job is increased by one.
+     */
+    private static final long AGING_INTERVAL = 60000;
+
+    /**
+     * The priority of the heavy jobs, by job type. The job types that are not listed here are executed right away.
+     */
+    private static final Map<String, Integer> HEAVY_JOB_PRIORITY = new HashMap<String, Integer>();
+
+    /**
+     * The job types whose requests can be merged.
+     */
+    private static final List<String> MERGEABLE_JOB_TYPES = Arrays.asList(MoveJob.JOB_TYPE, DeleteJob.JOB_TYPE);
+
+    static {
+        HEAVY_JOB_PRIORITY.put(CopyJob.JOB_TYPE, 1);
+        HEAVY_JOB_PRIORITY.put(PackJob.JOB_TYPE, 0);
+    }
+
+    /**
+     * Used to execute the jobs.
+     */
+    @Inject
+    private JobExecutor jobExecutor;
+
+    /**
+     * Used to read the limits of running heavy jobs.
+     */
+    @Inject
+    private FileManagerConfiguration configuration;
+
+    /**
+     * Used to create the jobs.
+     */
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    /**
+     * The heavy jobs that wait to be executed, in the order they have been scheduled.
+     */
+    private final List<ScheduledJob> waitingJobs = new LinkedList<ScheduledJob>();
+
+    /**
+     * The heavy jobs that have been handed to the job executor and that are not finished yet, indexed by job id.
+     */
+    private final Map<List<String>, ScheduledJob> runningJobs = new HashMap<List<String>, ScheduledJob>();
+
+    /**
+     * The jobs that have been handed to the job executor but that haven't started yet, and whose request can still be
+     * extended, indexed by the type, user, drives and destination of their request.
+     */
+    private final Map<List<Object>, MergeableJob> mergeableJobs = new HashMap<List<Object>, MergeableJob>();
+
+    /**
+     * A job whose request can still be extended.
+     */
+    private static final class MergeableJob
+    {
+        /**
+         * The job.
+         */
+        private final Job job;
+
+        /**
+         * The paths targeted by the job request, used to skip the paths that are already targeted when merging a new
+         * request without scanning the request paths.
+         */
+        private final Set<Path> paths;
+
+        /**
+         * Creates a new mergeable job.
+         * 
+         * @param job the job
+         */
+        MergeableJob(Job job)
+        {
+            this.job = job;
+            this.paths = new LinkedHashSet<Path>(((BatchPathRequest) job.getRequest()).getPaths());
+        }
+
+        /**
+         * @param jobId a job id
+         * @return {@code true} if this is the specified job, {@code false} otherwise
+         */
+        boolean hasId(List<String> jobId)
+        {
+            return jobId.equals(this.job.getRequest().getId());
+        }
+    }
+
+    /**
+     * A scheduled job.
+     */
+    private static final class ScheduledJob
+    {
+        /**
+         * The scheduled job.
+         */
+        private final Job job;
+
+        /**
+         * The priority given by the job type.
+         */
+        private final int priority;
+
+        /**
+         * The user that triggered the job.
+         */
+        private final DocumentReference userReference;
+
+        /**
+         * The drives targeted by the job.
+         */
+        private final Set<SpaceReference> driveReferences;
+
+        /**
+         * When the job has been scheduled.
+         */
+        private final long scheduleTime = System.currentTimeMillis();
+
+        /**
+         * Creates a new scheduled job.
+         * 
+         * @param job the scheduled job
+         * @param priority the priority given by the job type
+         */
+        ScheduledJob(Job job, int priority)
+        {
+            this.job = job;
+            this.priority = priority;
+            this.userReference = job.getRequest().getProperty(DefaultFileManager.PROPERTY_USER_REFERENCE);
+            this.driveReferences = ((BatchPathRequest) job.getRequest()).getDriveReferences();
+        }
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new JobStartedEvent(), new JobFinishedEvent());
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        List<String> jobId = ((JobEvent) event).getJobId();
+        if (jobId == null) {
+            return;
+        }
+        synchronized (this) {
+            // The job reads its request once started so we can't add paths to it anymore. The events are notified
+            // synchronously, on the job thread, before the job reads its request.
+            this.mergeableJobs.values().removeIf(mergeableJob -> mergeableJob.hasId(jobId));
+            if (event instanceof JobFinishedEvent && this.runningJobs.remove(jobId) != null) {
+                executeWaitingJobs();
+            }
+        }
+    }
+
+    /**
+     * Creates a job without scheduling it.
+     * 
+     * @param jobType the job type
+     * @param request the job request
+     * @return the initialized job
+     * @throws JobException if the job can't be created
+     */
+    public Job createJob(String jobType, Request request) throws JobException
+    {
+        try {
+            Job job = this.componentManagerProvider.get().getInstance(Job.class, jobType);
+            job.initialize(request);
+            return job;
+        } catch (ComponentLookupException e) {
+            throw new JobException("Failed to create the job of type [" + jobType + "].", e);
+        }
+    }
+
+    /**
+     * Schedules a new job.
+     * 
+     * @param jobType the job type
+     * @param request the job request
+     * @return the id of the job that performs the given request: the id of the request if a new job has been scheduled,
+     *         or the id of the waiting job the request has been merged into
+     * @throws JobException if the job can't be created
+     */
+    public List<String> schedule(String jobType, BatchPathRequest request) throws JobException
+    {
+        Integer priority = HEAVY_JOB_PRIORITY.get(jobType);
+        List<Object> mergeKey = getMergeKey(jobType, request);
+        if (mergeKey != null) {
+            synchronized (this) {
+                MergeableJob mergeableJob = this.mergeableJobs.get(mergeKey);
+                if (mergeableJob != null) {
+                    merge(request, mergeableJob);
+                    return mergeableJob.job.getRequest().getId();
+                }
+                Job job = createJob(jobType, request);
+                this.mergeableJobs.put(mergeKey, new MergeableJob(job));
+                this.jobExecutor.execute(job);
+            }
+        } else if (priority == null) {
+            this.jobExecutor.execute(jobType, request);
+        } else {
+            ScheduledJob scheduledJob = new ScheduledJob(createJob(jobType, request), priority);
+            synchronized (this) {
+                this.waitingJobs.add(scheduledJob);
+                executeWaitingJobs();
+            }
+        }
+        return request.getId();
+    }
+
+    /**
+     * @param jobType the job type
+     * @param request the job request
+     * @return the key used to find a job whose request can be merged with the given request, {@code null} if the
+     *         given request can't be merged
+     */
+    private List<Object> getMergeKey(String jobType, BatchPathRequest request)
+    {
+        if (!MERGEABLE_JOB_TYPES.contains(jobType)) {
+            return null;
+        }
+        Path destination = request instanceof MoveRequest ? ((MoveRequest) request).getDestination() : null;
+        if (destination != null && destination.getFileReference() != null) {
+            // A rename targets a single path.
+            return null;
+        }
+        return Arrays.<Object>asList(jobType, request.getProperty(DefaultFileManager.PROPERTY_USER_REFERENCE),
+            request.getDriveReferences(), destination, request.isInteractive());
+    }
+
+    /**
+     * Adds the paths of the given request to the request of the specified job.
+     * 
+     * @param request the request to merge
+     * @param job the job that will perform the request
+     */
+    private void merge(BatchPathRequest request, MergeableJob job)
+    {
+        Request jobRequest = job.job.getRequest();
+        Collection<Path> paths = ((BatchPathRequest) jobRequest).getPaths();
+        for (Path path : request.getPaths()) {
+            if (job.paths.add(path)) {
+                paths.add(path);
+            }
+        }
+        // The merged request ids are kept with the job status, which is shared by the cluster nodes once stored.
+        List<String> mergedJobIds = new ArrayList<String>(
+            jobRequest.<List<String>>getProperty(DefaultFileManager.PROPERTY_MERGED_JOB_IDS, Collections.emptyList()));
+        mergedJobIds.add(request.getId().get(1));
+        jobRequest.setProperty(DefaultFileManager.PROPERTY_MERGED_JOB_IDS, mergedJobIds);
+    }
+
+    /**
+     * @param jobId the job id
+     * @return the specified job if it is waiting to be executed, {@code null} otherwise
+     */
+    public synchronized Job getWaitingJob(List<String> jobId)
+    {
+        for (ScheduledJob scheduledJob : this.waitingJobs) {
+            if (Objects.equals(jobId, scheduledJob.job.getRequest().getId())) {
+                return scheduledJob.job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cancels the specified job. A canceled job can't be extended with new requests anymore. If the job is waiting to
+     * be executed then it is handed to the job executor right away, without counting it as a running heavy job, so that
+     * it finishes and its status is stored like the status of any other finished job. Note that the job executor still
+     * runs the canceled job only after the running jobs of its group, and the job still has to lock its drives, but
+     * then it stops before processing anything.
+     * 
+     * @param jobId the job id
+     */
+    public synchronized void cancel(List<String> jobId)
+    {
+        this.mergeableJobs.values().removeIf(mergeableJob -> mergeableJob.hasId(jobId));
+        Iterator<ScheduledJob> iterator = this.waitingJobs.iterator();
+        while (iterator.hasNext()) {
+            ScheduledJob scheduledJob = iterator.next();
+            if (Objects.equals(jobId, scheduledJob.job.getRequest().getId())) {
+                iterator.remove();
+                this.jobExecutor.execute(scheduledJob.job);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Executes the waiting jobs that are allowed to run, highest priority first.
+     */
+    private void executeWaitingJobs()
+    {
+        long now = System.currentTimeMillis();
+        ScheduledJob next = getNextJob(now);
+        while (next != null) {
+            this.waitingJobs.remove(next);
+            this.runningJobs.put(next.job.getRequest().getId(), next);
+            this.jobExecutor.execute(next.job);
+            next = getNextJob(now);
+        }
+    }
+
+    /**
+     * @param now the current time
+     * @return the waiting job with the highest priority that is allowed to run, {@code null} if there's none
+     */
+    private ScheduledJob getNextJob(long now)
+    {
+        ScheduledJob next = null;
+        long nextPriority = Long.MIN_VALUE;
+        for (ScheduledJob scheduledJob : this.waitingJobs) {
+            if (canRun(scheduledJob)) {
+                long priority = scheduledJob.priority + (now - scheduledJob.scheduleTime) / AGING_INTERVAL
+                    - countRunningJobs(scheduledJob.userReference);
+                // The jobs are in the order they have been scheduled so the oldest job wins on equal priority.
+                if (next == null || priority > nextPriority) {
+                    next = scheduledJob;
+                    nextPriority = priority;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @param scheduledJob a waiting job
+     * @return {@code true} if the given job can run without exceeding the limits of its user and its drives
+     */
+    private boolean canRun(ScheduledJob scheduledJob)
+    {
+        if (countRunningJobs(scheduledJob.userReference) >= Math.max(1,
+            this.configuration.getMaxHeavyJobsPerUser())) {
+            return false;
+        }
+        int maxJobsPerDrive = Math.max(1, this.configuration.getMaxHeavyJobsPerDrive());
+        for (SpaceReference driveReference : scheduledJob.driveReferences) {
+            if (countRunningJobs(driveReference) >= maxJobsPerDrive) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param userReference a user reference
+     * @return the number of running heavy jobs triggered by the specified user
+     */
+    private int countRunningJobs(DocumentReference userReference)
+    {
+        int count = 0;
+        for (ScheduledJob runningJob : this.runningJobs.values()) {
+            if (Objects.equals(userReference, runningJob.userReference)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param driveReference a drive reference
+     * @return the number of running heavy jobs that target the specified drive
+     */
+    private int countRunningJobs(SpaceReference driveReference)
+    {
+        int count = 0;
+        for (ScheduledJob runningJob : this.runningJobs.values()) {
+            if (runningJob.driveReferences.contains(driveReference)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
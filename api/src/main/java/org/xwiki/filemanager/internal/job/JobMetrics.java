@@ -0,0 +1,207 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+/**
+ * The metrics of the file manager jobs of a given type that target a given drive (or set of drives).
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+public class JobMetrics
+{
+    /**
+     * The job type.
+     */
+    private final String jobType;
+
+    /**
+     * The drives targeted by the jobs.
+     */
+    private final String drive;
+
+    /**
+     * The time the jobs wait before being executed, from the moment they are scheduled.
+     */
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    /**
+     * The time the jobs take to run.
+     */
+    private final LatencyHistogram runTime = new LatencyHistogram();
+
+    /**
+     * The time the jobs wait for the user to answer their questions.
+     */
+    private final LatencyHistogram questionWait = new LatencyHistogram();
+
+    /**
+     * The number of finished jobs.
+     */
+    private long jobCount;
+
+    /**
+     * The number of errors logged by the jobs.
+     */
+    private long errorCount;
+
+    /**
+     * The number of documents (files and folders) processed by the jobs.
+     */
+    private long documentCount;
+
+    /**
+     * The number of bytes (file content) processed by the jobs.
+     */
+    private long byteCount;
+
+    /**
+     * The time spent running the jobs, in milliseconds.
+     */
+    private long busyTime;
+
+    /**
+     * Creates the metrics of the specified type of jobs.
+     * 
+     * @param jobType the job type
+     * @param drive the drives targeted by the jobs
+     */
+    public JobMetrics(String jobType, String drive)
+    {
+        this.jobType = jobType;
+        this.drive = drive;
+    }
+
+    /**
+     * Records the time a job waited before being executed.
+     * 
+     * @param duration the waiting time, in milliseconds
+     */
+    public void recordQueueWait(long duration)
+    {
+        this.queueWait.record(duration);
+    }
+
+    /**
+     * Records a finished job.
+     * 
+     * @param duration the time the job took to run, in milliseconds
+     * @param questionWaitTime the time the job waited for the user to answer its questions, in milliseconds
+     * @param documents the number of documents processed by the job
+     * @param bytes the number of bytes processed by the job
+     * @param errors the number of errors logged by the job
+     */
+    public void recordJob(long duration, long questionWaitTime, long documents, long bytes, long errors)
+    {
+        this.runTime.record(duration);
+        if (questionWaitTime > 0) {
+            this.questionWait.record(questionWaitTime);
+        }
+        synchronized (this) {
+            this.jobCount++;
+            this.documentCount += documents;
+            this.byteCount += bytes;
+            this.errorCount += errors;
+            // Don't count the time spent waiting for the user in the processing rate.
+            this.busyTime += Math.max(0, duration - questionWaitTime);
+        }
+    }
+
+    /**
+     * @return the job type
+     */
+    public String getJobType()
+    {
+        return this.jobType;
+    }
+
+    /**
+     * @return the drives targeted by the jobs
+     */
+    public String getDrive()
+    {
+        return this.drive;
+    }
+
+    /**
+     * @return the time the jobs wait before being executed
+     */
+    public LatencyHistogram getQueueWait()
+    {
+        return new LatencyHistogram(this.queueWait);
+    }
+
+    /**
+     * @return the time the jobs take to run
+     */
+    public LatencyHistogram getRunTime()
+    {
+        return new LatencyHistogram(this.runTime);
+    }
+
+    /**
+     * @return the time the jobs wait for the user to answer their questions
+     */
+    public LatencyHistogram getQuestionWait()
+    {
+        return new LatencyHistogram(this.questionWait);
+    }
+
+    /**
+     * @return the number of finished jobs
+     */
+    public synchronized long getJobCount()
+    {
+        return this.jobCount;
+    }
+
+    /**
+     * @return the number of errors logged by the jobs
+     */
+    public synchronized long getErrorCount()
+    {
+        return this.errorCount;
+    }
+
+    /**
+     * @return the number of documents processed by the jobs
+     */
+    public synchronized long getDocumentCount()
+    {
+        return this.documentCount;
+    }
+
+    /**
+     * @return the number of bytes processed by the jobs
+     */
+    public synchronized long getByteCount()
+    {
+        return this.byteCount;
+    }
+
+    /**
+     * @return the average number of documents processed per second while the jobs were running (without counting the
+     *         time spent waiting for the user to answer questions)
+     */
+    public synchronized double getDocumentsPerSecond()
+    {
+        return this.busyTime > 0 ? this.documentCount * 1000.0 / this.busyTime : 0;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.JobEvent;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
+import org.xwiki.job.event.status.EndStepProgressEvent;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.job.event.status.PopLevelProgressEvent;
+import org.xwiki.job.event.status.PushLevelProgressEvent;
+import org.xwiki.job.event.status.QuestionAskedEvent;
+import org.xwiki.job.event.status.StartStepProgressEvent;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Lets the threads that long-poll the status of a file manager job sleep until the job notifies a change (it starts,
+ * makes progress, asks a question or finishes) instead of checking the job status at fixed intervals. The messages
+ * logged by a job don't fire events so a waiting thread sees them with the next progress change.
+ *
+ * @version $Id$
+ * @since 2.2
+ */
+@Component(roles = {JobStatusWatcher.class, EventListener.class})
+@Named(JobStatusWatcher.NAME)
+@Singleton
+public class JobStatusWatcher implements EventListener
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "FileManagerJobStatusWatcher";
+
+    /**
+     * The maximum number of threads that can wait for a job status change at the same time. Each waiting thread holds
+     * a request thread of the servlet container so we don't let the long polls take all of them.
+     */
+    private static final int MAX_WAITERS = 50;
+
+    /**
+     * Limits the number of threads waiting for a job status change.
+     */
+    private final Semaphore waiters = new Semaphore(MAX_WAITERS);
+
+    /**
+     * The next change of each watched job. The future is completed and removed when the job notifies a change.
+     */
+    private final Map<List<String>, CompletableFuture<Void>> changes =
+        new ConcurrentHashMap<List<String>, CompletableFuture<Void>>();
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new JobStartedEvent(), new JobFinishedEvent(), new PushLevelProgressEvent(),
+            new PopLevelProgressEvent(), new StartStepProgressEvent(), new EndStepProgressEvent(),
+            new QuestionAskedEvent());
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        List<String> jobId = null;
+        if (event instanceof JobEvent) {
+            jobId = ((JobEvent) event).getJobId();
+        } else if (source instanceof Job && ((Job) source).getRequest() != null) {
+            jobId = ((Job) source).getRequest().getId();
+        } else if (source instanceof JobStatus && ((JobStatus) source).getRequest() != null) {
+            jobId = ((JobStatus) source).getRequest().getId();
+        }
+
+        if (jobId != null && jobId.size() == 2 && FileManager.JOB_ID_PREFIX.equals(jobId.get(0))) {
+            notifyChange(jobId);
+        }
+    }
+
+    /**
+     * Wakes up the threads waiting for a change of the specified job. Call this when the job status is modified
+     * without firing an event (e.g. when the job is canceled).
+     *
+     * @param jobId the job whose status has changed
+     */
+    public void notifyChange(List<String> jobId)
+    {
+        CompletableFuture<Void> change = this.changes.remove(jobId);
+        if (change != null) {
+            change.complete(null);
+        }
+    }
+
+    /**
+     * Waits until the status of the specified job changes. When too many threads are already waiting the method
+     * returns right away and the caller gets the current job status.
+     *
+     * @param jobId the job to watch
+     * @param timeout the maximum number of milliseconds to wait
+     * @param changed checks if the job status has changed, from the point of view of the caller
+     * @return {@code true} if the job status has changed, {@code false} otherwise
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitChange(List<String> jobId, long timeout, BooleanSupplier changed) throws InterruptedException
+    {
+        if (!this.waiters.tryAcquire()) {
+            return changed.getAsBoolean();
+        }
+
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                CompletableFuture<Void> change = this.changes.computeIfAbsent(jobId, key -> new CompletableFuture<>());
+                // Check after we start watching the job so that we don't miss a change that happens in between.
+                if (changed.getAsBoolean()) {
+                    // The job may have finished before we started watching it, so no event will remove the future.
+                    // Wake up the other threads waiting for this job: they check again and wait for the next change.
+                    notifyChange(jobId);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    change.get(remaining, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException e) {
+                    // Check the job status one last time.
+                }
+            }
+        } finally {
+            this.waiters.release();
+        }
+    }
+}
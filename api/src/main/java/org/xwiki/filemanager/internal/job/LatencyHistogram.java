@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations with fixed buckets, from ten milliseconds up to one hour. Each bucket counts the durations
+ * that are less than or equal to its upper bound and greater than the upper bound of the previous bucket. The last
+ * bucket counts the durations longer than one hour.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+public class LatencyHistogram
+{
+    /**
+     * The upper bounds of the buckets, in milliseconds.
+     */
+    private static final long[] BOUNDS = {10, 50, 100, 500, 1000, 5000, 10000, 60000, 300000, 1800000, 3600000};
+
+    /**
+     * The number of durations recorded in each bucket.
+     */
+    private final long[] counts;
+
+    /**
+     * The number of recorded durations.
+     */
+    private long count;
+
+    /**
+     * The sum of the recorded durations, in milliseconds.
+     */
+    private long sum;
+
+    /**
+     * The longest recorded duration, in milliseconds.
+     */
+    private long max;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        this.counts = new long[BOUNDS.length + 1];
+    }
+
+    /**
+     * Creates a copy of the given histogram.
+     * 
+     * @param histogram the histogram to copy
+     */
+    public LatencyHistogram(LatencyHistogram histogram)
+    {
+        synchronized (histogram) {
+            this.counts = histogram.counts.clone();
+            this.count = histogram.count;
+            this.sum = histogram.sum;
+            this.max = histogram.max;
+        }
+    }
+
+    /**
+     * Records a duration.
+     * 
+     * @param duration the duration to record, in milliseconds
+     */
+    public synchronized void record(long duration)
+    {
+        long value = Math.max(0, duration);
+        int index = Arrays.binarySearch(BOUNDS, value);
+        this.counts[index < 0 ? -index - 1 : index]++;
+        this.count++;
+        this.sum += value;
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * @return the upper bounds of the buckets, in milliseconds
+     */
+    public long[] getBounds()
+    {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * @return the number of durations recorded in each bucket; the last value counts the durations that exceed the
+     *         last bound
+     */
+    public synchronized long[] getCounts()
+    {
+        return this.counts.clone();
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public synchronized long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the sum of the recorded durations, in milliseconds
+     */
+    public synchronized long getSum()
+    {
+        return this.sum;
+    }
+
+    /**
+     * @return the longest recorded duration, in milliseconds
+     */
+    public synchronized long getMax()
+    {
+        return this.max;
+    }
+
+    /**
+     * @return the average recorded duration, in milliseconds
+     */
+    public synchronized long getMean()
+    {
+        return this.count > 0 ? this.sum / this.count : 0;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.job.ActiveJob;
+import org.xwiki.filemanager.job.ActiveJobStore;
+import org.xwiki.model.reference.SpaceReference;
+
+/**
+ * Keeps the active file system jobs and the drive locks in memory, indexed by the drives they target. Suited for a
+ * single node.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named(MemoryActiveJobStore.HINT)
+@Singleton
+public class MemoryActiveJobStore implements ActiveJobStore
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "memory";
+
+    /**
+     * The active jobs, indexed by id, in the order they have been added.
+     */
+    private final Map<String, Lease<ActiveJob>> jobs = new LinkedHashMap<String, Lease<ActiveJob>>();
+
+    /**
+     * The ids of the active jobs, indexed by the drives they target.
+     */
+    private final Map<SpaceReference, Set<String>> jobsByDrive = new HashMap<SpaceReference, Set<String>>();
+
+    /**
+     * The ids of the jobs that hold the drive locks, indexed by drive.
+     */
+    private final Map<SpaceReference, Lease<String>> driveLocks = new HashMap<SpaceReference, Lease<String>>();
+
+    /**
+     * A value that expires.
+     * 
+     * @param <T> the type of value
+     */
+    private static final class Lease<T>
+    {
+        /**
+         * The value.
+         */
+        private final T value;
+
+        /**
+         * When the value expires.
+         */
+        private long expiry;
+
+        /**
+         * Creates a new lease.
+         * 
+         * @param value the value
+         * @param leaseDuration how long the value lasts, in milliseconds
+         */
+        Lease(T value, long leaseDuration)
+        {
+            this.value = value;
+            this.expiry = System.currentTimeMillis() + leaseDuration;
+        }
+
+        /**
+         * @return {@code true} if the value has expired, {@code false} otherwise
+         */
+        boolean isExpired()
+        {
+            return this.expiry <= System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public synchronized void add(ActiveJob job, long leaseDuration)
+    {
+        String jobId = job.getId();
+        remove(jobId);
+        this.jobs.put(jobId, new Lease<ActiveJob>(job, leaseDuration));
+        for (SpaceReference driveReference : job.getDriveReferences()) {
+            index(driveReference, jobId);
+        }
+    }
+
+    @Override
+    public synchronized void renew(Collection<ActiveJob> jobs, long leaseDuration)
+    {
+        Set<String> renewedJobs = new HashSet<String>();
+        for (ActiveJob job : jobs) {
+            if (this.jobs.containsKey(job.getId())) {
+                // The order in which the jobs have been added is preserved.
+                this.jobs.put(job.getId(), new Lease<ActiveJob>(job, leaseDuration));
+            }
+            renewedJobs.add(job.getId());
+        }
+        for (Lease<String> lock : this.driveLocks.values()) {
+            if (renewedJobs.contains(lock.value)) {
+                lock.expiry = System.currentTimeMillis() + leaseDuration;
+            }
+        }
+
+        List<String> expiredJobs = new ArrayList<String>();
+        for (Lease<ActiveJob> lease : this.jobs.values()) {
+            if (lease.isExpired()) {
+                expiredJobs.add(lease.value.getId());
+            }
+        }
+        expiredJobs.forEach(this::remove);
+        this.driveLocks.values().removeIf(Lease::isExpired);
+    }
+
+    @Override
+    public synchronized void remove(String jobId)
+    {
+        Lease<ActiveJob> lease = this.jobs.remove(jobId);
+        if (lease != null) {
+            for (SpaceReference driveReference : lease.value.getDriveReferences()) {
+                unindex(driveReference, jobId);
+            }
+        }
+        unlockDrives(jobId);
+    }
+
+    @Override
+    public synchronized ActiveJob getJob(String jobId)
+    {
+        Lease<ActiveJob> lease = this.jobs.get(jobId);
+        return lease != null && !lease.isExpired() ? lease.value : null;
+    }
+
+    @Override
+    public synchronized List<String> getJobs()
+    {
+        return filterExpired(this.jobs.keySet());
+    }
+
+    @Override
+    public synchronized List<String> getJobsByDrive(SpaceReference driveReference)
+    {
+        Set<String> jobIds = this.jobsByDrive.get(driveReference);
+        return jobIds != null ? filterExpired(jobIds) : new ArrayList<String>();
+    }
+
+    @Override
+    public synchronized boolean lockDrives(String jobId, Set<SpaceReference> driveReferences, long leaseDuration)
+    {
+        for (SpaceReference driveReference : driveReferences) {
+            Lease<String> lock = this.driveLocks.get(driveReference);
+            if (lock != null && !lock.value.equals(jobId) && !lock.isExpired()) {
+                return false;
+            }
+        }
+        for (SpaceReference driveReference : driveReferences) {
+            this.driveLocks.put(driveReference, new Lease<String>(jobId, leaseDuration));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void unlockDrives(String jobId)
+    {
+        Iterator<Lease<String>> locks = this.driveLocks.values().iterator();
+        while (locks.hasNext()) {
+            if (locks.next().value.equals(jobId)) {
+                locks.remove();
+            }
+        }
+    }
+
+    /**
+     * Adds a job to the drive index.
+     * 
+     * @param driveReference the drive targeted by the job
+     * @param jobId the job id
+     */
+    private void index(SpaceReference driveReference, String jobId)
+    {
+        Set<String> jobIds = this.jobsByDrive.get(driveReference);
+        if (jobIds == null) {
+            jobIds = new LinkedHashSet<String>();
+            this.jobsByDrive.put(driveReference, jobIds);
+        }
+        jobIds.add(jobId);
+    }
+
+    /**
+     * Removes a job from the drive index.
+     * 
+     * @param driveReference the drive targeted by the job
+     * @param jobId the job id
+     */
+    private void unindex(SpaceReference driveReference, String jobId)
+    {
+        Set<String> jobIds = this.jobsByDrive.get(driveReference);
+        if (jobIds != null) {
+            jobIds.remove(jobId);
+            if (jobIds.isEmpty()) {
+                this.jobsByDrive.remove(driveReference);
+            }
+        }
+    }
+
+    /**
+     * @param jobIds some job ids
+     * @return the ids of the given jobs whose lease hasn't expired
+     */
+    private List<String> filterExpired(Collection<String> jobIds)
+    {
+        List<String> activeJobIds = new ArrayList<String>();
+        for (String jobId : jobIds) {
+            if (!this.jobs.get(jobId).isExpired()) {
+                activeJobIds.add(jobId);
+            }
+        }
+        return activeJobIds;
+    }
+}
@@ -19,8 +19,12 @@
  */
 package org.xwiki.filemanager.internal.job;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,12 +35,10 @@ import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
-import org.xwiki.filemanager.internal.reference.DocumentNameSequence;
+import org.xwiki.filemanager.job.BatchOverwriteQuestion;
 import org.xwiki.filemanager.job.MoveRequest;
 import org.xwiki.filemanager.job.OverwriteQuestion;
 import org.xwiki.filemanager.reference.UniqueDocumentReferenceGenerator;
-import org.xwiki.job.AbstractJob;
-import org.xwiki.job.DefaultJobStatus;
 import org.xwiki.model.reference.DocumentReference;
 
 /**
@@ -48,7 +50,7 @@ import org.xwiki.model.reference.DocumentReference;
  */
 @Component
 @Named(MoveJob.JOB_TYPE)
-public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveRequest>>
+public class MoveJob extends AbstractFileManagerJob<MoveRequest>
 {
     /**
      * The id of the job.
@@ -79,6 +81,12 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      */
     private Boolean overwriteAll;
 
+    /**
+     * The answers given up-front to the name conflicts found before starting the operation, indexed by the file being
+     * copied or moved.
+     */
+    private final Map<DocumentReference, Boolean> overwriteAnswers = new HashMap<DocumentReference, Boolean>();
+
     @Override
     public String getType()
     {
@@ -93,6 +101,7 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
         if (paths != null && destination != null) {
             if (destination.getFolderReference() != null && fileSystem.exists(destination.getFolderReference())
                 && destination.getFileReference() == null) {
+                prepareOverwrites(paths, destination.getFolderReference());
                 move(paths, destination.getFolderReference());
             } else if (paths.size() == 1 && destination.getFileReference() != null) {
                 rename(paths.iterator().next(), destination);
@@ -112,6 +121,9 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
 
         try {
             for (Path path : paths) {
+                if (isCanceled()) {
+                    break;
+                }
                 move(path, destination);
                 this.progressManager.stepPropress(this);
             }
@@ -140,12 +152,13 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      * 
      * @param folderReference the folder to move
      * @param newParentReference the destination folder
+     * @return {@code true} if the folder has been moved, {@code false} otherwise
      */
-    private void moveFolder(DocumentReference folderReference, DocumentReference newParentReference)
+    private boolean moveFolder(DocumentReference folderReference, DocumentReference newParentReference)
     {
         if (isDescendantOrSelf(newParentReference, folderReference)) {
             this.logger.error("Cannot move [{}] to a sub-folder of itself.", folderReference);
-            return;
+            return false;
         }
 
         Folder folder = fileSystem.getFolder(folderReference);
@@ -153,14 +166,15 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
             if (fileSystem.canEdit(folderReference)) {
                 Folder newParent = fileSystem.getFolder(newParentReference);
                 if (newParent != null) {
-                    moveFolder(folder, newParent);
+                    return moveFolder(folder, newParent);
                 } else {
                     this.logger.error(ERROR_DESTINATION_NOT_FOUND, newParentReference);
                 }
             } else {
-                this.logger.error("You are not allowed to move the folder [{}].", folderReference);
+                forbid("You are not allowed to move the folder [{}].", folderReference);
             }
         }
+        return false;
     }
 
     /**
@@ -170,16 +184,14 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      */
     protected boolean isDescendantOrSelf(DocumentReference aliceReference, DocumentReference bobReference)
     {
-        DocumentReference parentReference = aliceReference;
-        while (parentReference != null && !parentReference.equals(bobReference)) {
-            Folder parent = fileSystem.getFolder(parentReference);
-            if (parent == null) {
-                return false;
-            } else {
-                parentReference = parent.getParentReference();
-            }
+        if (aliceReference == null) {
+            return false;
+        } else if (aliceReference.equals(bobReference)) {
+            return true;
         }
-        return parentReference != null;
+        // The ancestors are indexed so we don't have to load them.
+        List<DocumentReference> ancestorReferences = fileSystem.getAncestorReferences(aliceReference);
+        return ancestorReferences != null && ancestorReferences.contains(bobReference);
     }
 
     /**
@@ -187,17 +199,20 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      * 
      * @param folder the folder to move
      * @param newParent the destination folder
+     * @return {@code true} if the folder has been moved, {@code false} otherwise
      */
-    private void moveFolder(Folder folder, Folder newParent)
+    private boolean moveFolder(Folder folder, Folder newParent)
     {
         // Check if the new parent has a child folder with the same name.
         Folder child = getChildFolderByName(newParent, folder.getName());
         if (child != null) {
-            mergeFolders(folder, child.getReference());
-        } else {
+            return mergeFolders(folder, child.getReference());
+        } else if (!addToPlan(folder.getReference(), 0)) {
             folder.setParentReference(newParent.getReference());
             fileSystem.save(folder);
+            countProcessedDocument(0);
         }
+        return true;
     }
 
     /**
@@ -225,33 +240,47 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      * 
      * @param source the folder whose content is moved
      * @param destination a reference to the destination folder
+     * @return {@code true} if the source folder has been emptied and deleted, {@code false} otherwise
      */
-    private void mergeFolders(Folder source, DocumentReference destination)
+    private boolean mergeFolders(Folder source, DocumentReference destination)
     {
         List<DocumentReference> childFolderReferences = source.getChildFolderReferences();
         List<DocumentReference> childFileReferences = source.getChildFileReferences();
         this.progressManager.pushLevelProgress(childFolderReferences.size() + childFileReferences.size() + 1, this);
 
         try {
+            // We don't look again at the children of the source folder because they are not moved when planning.
+            boolean empty = true;
             for (DocumentReference childReference : childFolderReferences) {
-                moveFolder(childReference, destination);
+                if (isCanceled()) {
+                    return false;
+                }
+                empty &= moveFolder(childReference, destination);
                 this.progressManager.stepPropress(this);
             }
 
             for (DocumentReference childReference : childFileReferences) {
-                moveFile(childReference, source.getReference(), destination);
+                if (isCanceled()) {
+                    return false;
+                }
+                empty &= moveFile(childReference, source.getReference(), destination);
                 this.progressManager.stepPropress(this);
             }
 
             // Delete the source folder if it's empty.
-            if (source.getChildFolderReferences().isEmpty() && source.getChildFileReferences().isEmpty()) {
+            boolean deleted = false;
+            if (empty) {
                 if (fileSystem.canDelete(source.getReference())) {
-                    fileSystem.delete(source.getReference());
+                    if (!addToPlan(source.getReference(), 0)) {
+                        fileSystem.delete(source.getReference());
+                    }
+                    deleted = true;
                 } else {
-                    this.logger.error("You are not allowed to delete the folder [{}].", source.getReference());
+                    forbid("You are not allowed to delete the folder [{}].", source.getReference());
                 }
             }
             this.progressManager.stepPropress(this);
+            return deleted;
         } finally {
             this.progressManager.popLevelProgress(this);
         }
@@ -264,8 +293,9 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      * @param fileReference the file to move
      * @param oldParentReference the parent folder to replace
      * @param newParentReference the new parent folder
+     * @return {@code true} if the file has been moved, {@code false} otherwise
      */
-    private void moveFile(DocumentReference fileReference, DocumentReference oldParentReference,
+    private boolean moveFile(DocumentReference fileReference, DocumentReference oldParentReference,
         DocumentReference newParentReference)
     {
         File file = fileSystem.getFile(fileReference);
@@ -273,14 +303,15 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
             if (fileSystem.canEdit(fileReference)) {
                 Folder newParent = fileSystem.getFolder(newParentReference);
                 if (newParent != null) {
-                    moveFile(file, oldParentReference, newParent);
+                    return moveFile(file, oldParentReference, newParent);
                 } else {
                     this.logger.error(ERROR_DESTINATION_NOT_FOUND, newParentReference);
                 }
             } else {
-                this.logger.error("You are not allowed to move the file [{}].", fileReference);
+                forbid("You are not allowed to move the file [{}].", fileReference);
             }
         }
+        return false;
     }
 
     /**
@@ -289,25 +320,51 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      * @param file the file to be moved
      * @param oldParentReference the parent folder to replace
      * @param newParent the new parent folder
+     * @return {@code true} if the file has been moved, {@code false} otherwise
      */
-    private void moveFile(File file, DocumentReference oldParentReference, Folder newParent)
+    private boolean moveFile(File file, DocumentReference oldParentReference, Folder newParent)
     {
         // Check if a file with the same name already exits under the new parent folder.
         if (!prepareOverwrite(file.getName(), newParent, file.getReference())) {
-            return;
+            return false;
         }
 
+        setParentReference(file, oldParentReference, newParent.getReference());
+        return true;
+    }
+
+    /**
+     * Replaces a parent folder of the given file.
+     * 
+     * @param file the file to update
+     * @param oldParentReference the parent folder to replace
+     * @param newParentReference the new parent folder
+     */
+    private void setParentReference(File file, DocumentReference oldParentReference,
+        DocumentReference newParentReference)
+    {
         Collection<DocumentReference> parentReferences = file.getParentReferences();
-        boolean save = parentReferences.remove(oldParentReference);
-        save |= parentReferences.add(newParent.getReference());
-        if (save) {
+        if ((parentReferences.contains(oldParentReference) || !parentReferences.contains(newParentReference))
+            && !addToPlan(file.getReference(), 0)) {
+            parentReferences.remove(oldParentReference);
+            parentReferences.add(newParentReference);
             fileSystem.save(file);
+            countProcessedDocument(0);
         }
     }
 
+    /**
+     * Makes room for a file in the given folder by deleting the existing file with the same name, if the user agrees.
+     * 
+     * @param fileName the name of the file that is moved or copied to the given folder
+     * @param parentFolder the folder where the file is moved or copied, {@code null} if the folder doesn't exist yet
+     *            because the operation is being planned
+     * @param newFileReference the file that is moved or copied
+     * @return {@code true} if the file can be moved or copied to the given folder, {@code false} otherwise
+     */
     protected boolean prepareOverwrite(String fileName, Folder parentFolder, DocumentReference newFileReference)
     {
-        File child = getChildFileByName(parentFolder, fileName);
+        File child = parentFolder != null ? getChildFileByName(parentFolder, fileName) : null;
         if (child != null) {
             boolean hasMoreParents = child.getParentReferences().size() > 1;
             if ((hasMoreParents && fileSystem.canEdit(child.getReference()))
@@ -318,7 +375,7 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
                     return false;
                 }
             } else {
-                this.logger.error("You are not allowed to overwrite the file [{}].", child.getReference());
+                forbid("You are not allowed to overwrite the file [{}].", child.getReference());
                 return false;
             }
         }
@@ -345,17 +402,132 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
     }
 
     /**
-     * Ask whether to overwrite or not the destination file with the source file.
+     * Looks for all the name conflicts between the given files and folders and the content of the destination folder,
+     * before the operation starts, and asks a single question for all of them. This way the operation doesn't have to
+     * stop and wait for an answer each time a file with the same name is found.
+     * 
+     * @param paths the files and folders being copied or moved
+     * @param destinationReference the destination folder
+     */
+    protected void prepareOverwrites(Collection<Path> paths, DocumentReference destinationReference)
+    {
+        if (getPlan() == null && (!getRequest().isInteractive() || getStatus() == null)) {
+            // Name conflicts are resolved by keeping the existing files, so there's no need to look for them.
+            return;
+        }
+
+        if (fileSystem.exists(destinationReference)) {
+            List<OverwriteQuestion> conflicts = new ArrayList<OverwriteQuestion>();
+            collectConflicts(paths, destinationReference, conflicts);
+            if (getPlan() != null) {
+                getPlan().addConflicts(conflicts);
+            } else if (!conflicts.isEmpty()) {
+                askOverwrite(new BatchOverwriteQuestion(conflicts));
+            }
+        }
+    }
+
+    /**
+     * Joins the names of the given files and folders with the names of the destination children. Folders with the same
+     * name are merged so their content is checked recursively.
+     * 
+     * @param paths the files and folders being copied or moved
+     * @param destination the destination folder
+     * @param conflicts where to collect the name conflicts
+     */
+    private void collectConflicts(Collection<Path> paths, DocumentReference destination,
+        List<OverwriteQuestion> conflicts)
+    {
+        // The names of the destination children are retrieved without loading them.
+        Map<String, DocumentReference> childFiles = null;
+        Map<String, DocumentReference> childFolders = null;
+        for (Path path : paths) {
+            if (path.getFileReference() != null) {
+                File file = fileSystem.getFile(path.getFileReference());
+                if (file != null) {
+                    if (childFiles == null) {
+                        childFiles = fileSystem.getChildFilesByName(destination);
+                    }
+                    DocumentReference existingFileReference = childFiles.get(file.getName());
+                    if (existingFileReference != null && !existingFileReference.equals(file.getReference())) {
+                        conflicts.add(new OverwriteQuestion(file.getReference(), existingFileReference));
+                    }
+                }
+            } else if (path.getFolderReference() != null) {
+                Folder folder = fileSystem.getFolder(path.getFolderReference());
+                if (folder != null) {
+                    if (childFolders == null) {
+                        childFolders = fileSystem.getChildFoldersByName(destination);
+                    }
+                    DocumentReference existingFolderReference = childFolders.get(folder.getName());
+                    if (existingFolderReference != null && !existingFolderReference.equals(folder.getReference())) {
+                        collectConflicts(getChildPaths(folder), existingFolderReference, conflicts);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param folder a folder
+     * @return the paths to the child folders and child files of the given folder
+     */
+    private Collection<Path> getChildPaths(Folder folder)
+    {
+        Collection<Path> childPaths = new LinkedList<Path>();
+        for (DocumentReference childFolderReference : folder.getChildFolderReferences()) {
+            childPaths.add(new Path(childFolderReference));
+        }
+        for (DocumentReference childFileReference : folder.getChildFileReferences()) {
+            childPaths.add(new Path(folder.getReference(), childFileReference));
+        }
+        return childPaths;
+    }
+
+    /**
+     * Asks a single question for all the name conflicts found before starting the operation and remembers the answers.
+     * 
+     * @param question the question to ask
+     */
+    private void askOverwrite(BatchOverwriteQuestion question)
+    {
+        long askTime = System.currentTimeMillis();
+        try {
+            getStatus().ask(question);
+            for (OverwriteQuestion conflict : question.getQuestions()) {
+                this.overwriteAnswers.put(conflict.getSource(), conflict.isOverwrite());
+            }
+            if (question.getOverwriteAll() != null) {
+                this.overwriteAll = question.getOverwriteAll();
+            }
+        } catch (InterruptedException e) {
+            this.logger.warn("Overwrite question has been interrupted.");
+        } finally {
+            countQuestionWait(askTime);
+        }
+    }
+
+    /**
+     * Ask whether to overwrite or not the destination file with the source file. The copy job can call this from
+     * multiple threads so the questions are asked one at a time.
      * 
      * @param source the file being moved or copied
      * @param destination a file with the same name that exists in the destination folder
      * @return {@code true} to overwrite the file, {@code false} otherwise
      */
-    protected boolean shouldOverwrite(DocumentReference source, DocumentReference destination)
+    protected synchronized boolean shouldOverwrite(DocumentReference source, DocumentReference destination)
     {
-        if (getRequest().isInteractive() && getStatus() != null) {
-            if (overwriteAll == null) {
+        if (getPlan() != null) {
+            // The plan lists the name conflicts separately and assumes the existing files are overwritten.
+            return true;
+        } else if (getRequest().isInteractive() && getStatus() != null) {
+            Boolean answer = this.overwriteAnswers.get(source);
+            if (answer != null) {
+                // The conflict has been answered before starting the operation.
+                return answer;
+            } else if (overwriteAll == null) {
                 OverwriteQuestion question = new OverwriteQuestion(source, destination);
+                long askTime = System.currentTimeMillis();
                 try {
                     getStatus().ask(question);
                     if (!question.isAskAgain()) {
@@ -364,6 +536,8 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
                     return question.isOverwrite();
                 } catch (InterruptedException e) {
                     this.logger.warn("Overwrite question has been interrupted.");
+                } finally {
+                    countQuestionWait(askTime);
                 }
             } else {
                 return overwriteAll;
@@ -383,8 +557,13 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
     private void deleteFile(File file, DocumentReference parentReference)
     {
         Collection<DocumentReference> parentReferences = file.getParentReferences();
+        boolean delete = parentReferences.isEmpty()
+            || (parentReferences.size() == 1 && parentReferences.contains(parentReference));
+        if (addToPlan(file.getReference(), delete ? file.getSize() : 0)) {
+            return;
+        }
         parentReferences.remove(parentReference);
-        if (parentReferences.isEmpty()) {
+        if (delete) {
             fileSystem.delete(file.getReference());
         } else {
             fileSystem.save(file);
@@ -437,7 +616,7 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
                     renameFolder(folder, newPath.getFileReference());
                 }
             } else {
-                this.logger.error("You are not allowed to rename the folder [{}].", oldReference);
+                forbid("You are not allowed to rename the folder [{}].", oldReference);
             }
         }
     }
@@ -454,7 +633,8 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
         Folder child = getChildFolderByName(newParent, newPath.getFileReference().getName());
         if (child == null) {
             // Move the folder first, if needed, because the rename must be performed inside the right parent.
-            if (!newParent.getReference().equals(folder.getParentReference())) {
+            if (!newParent.getReference().equals(folder.getParentReference())
+                && !addToPlan(folder.getReference(), 0)) {
                 folder.setParentReference(newParent.getReference());
                 fileSystem.save(folder);
             }
@@ -480,7 +660,17 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
     private void renameFolder(Folder folder, DocumentReference newReference)
     {
         DocumentReference actualNewReference = getUniqueReference(newReference);
-        if (fileSystem.canEdit(actualNewReference)) {
+        if (!fileSystem.canEdit(actualNewReference)) {
+            forbid("You are not allowed to create the folder [{}].", actualNewReference);
+        } else if (addToPlan(folder.getReference(), 0)) {
+            // The children are updated to point to the new folder reference.
+            for (DocumentReference childReference : folder.getChildFolderReferences()) {
+                addToPlan(childReference, 0);
+            }
+            for (DocumentReference childReference : folder.getChildFileReferences()) {
+                addToPlan(childReference, 0);
+            }
+        } else {
             // Update the folder reference.
             fileSystem.rename(folder.getReference(), actualNewReference);
 
@@ -488,12 +678,16 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
             Folder newFolder = fileSystem.getFolder(actualNewReference);
             newFolder.setName(newReference.getName());
             fileSystem.save(newFolder);
+            countProcessedDocument(0);
 
+            // The children are saved one by one through the file system, and not with a bulk update, so that each
+            // change gets its history entry and its document event, like any other document change.
             // Update the child folders.
             for (DocumentReference childFolderReference : folder.getChildFolderReferences()) {
                 Folder childFolder = fileSystem.getFolder(childFolderReference);
                 childFolder.setParentReference(actualNewReference);
                 fileSystem.save(childFolder);
+                countProcessedDocument(0);
             }
 
             // Update the child files.
@@ -502,9 +696,8 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
                 childFile.getParentReferences().remove(folder.getReference());
                 childFile.getParentReferences().add(actualNewReference);
                 fileSystem.save(childFile);
+                countProcessedDocument(0);
             }
-        } else {
-            this.logger.error("You are not allowed to create the folder [{}].", actualNewReference);
         }
     }
 
@@ -521,7 +714,7 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
             if (fileSystem.canDelete(file.getReference())) {
                 moveAndRenameFile(file, oldPath.getFolderReference(), newPath);
             } else {
-                this.logger.error("You are not allowed to rename the file [{}].", file.getReference());
+                forbid("You are not allowed to rename the file [{}].", file.getReference());
             }
         }
     }
@@ -539,12 +732,7 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
         // Move the file first, if needed, because the rename must be performed inside the right parents.
         if (newPath.getFolderReference() != null && parentReference != null
             && !newPath.getFolderReference().equals(parentReference)) {
-            Collection<DocumentReference> parentReferences = file.getParentReferences();
-            boolean save = parentReferences.remove(parentReference);
-            save |= parentReferences.add(newPath.getFolderReference());
-            if (save) {
-                fileSystem.save(file);
-            }
+            setParentReference(file, parentReference, newPath.getFolderReference());
         }
 
         // Rename the file.
@@ -573,16 +761,17 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
         }
 
         DocumentReference actualNewReference = getUniqueReference(newReference);
-        if (fileSystem.canEdit(actualNewReference)) {
-            // Update the file reference.
+        if (!fileSystem.canEdit(actualNewReference)) {
+            forbid("You are not allowed to create the file [{}].", actualNewReference);
+        } else if (!addToPlan(file.getReference(), file.getSize())) {
+            // Update the file reference (the file document is copied under the new name).
             fileSystem.rename(file.getReference(), actualNewReference);
 
             // Update the file pretty name.
             File newFile = fileSystem.getFile(actualNewReference);
             newFile.setName(newReference.getName());
             fileSystem.save(newFile);
-        } else {
-            this.logger.error("You are not allowed to create the file [{}].", actualNewReference);
+            countProcessedDocument(0);
         }
     }
 
@@ -592,7 +781,11 @@ public class MoveJob extends AbstractJob<MoveRequest, DefaultJobStatus<MoveReque
      */
     protected DocumentReference getUniqueReference(DocumentReference documentReference)
     {
-        return this.uniqueDocRefGenerator.generate(documentReference.getLastSpaceReference(), new DocumentNameSequence(
-            documentReference.getName()));
+        if (getPlan() != null) {
+            // Don't reserve document names while planning.
+            return documentReference;
+        }
+        return this.uniqueDocRefGenerator.generate(documentReference.getLastSpaceReference(),
+            documentReference.getName());
     }
 }
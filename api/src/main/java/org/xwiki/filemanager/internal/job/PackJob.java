@@ -22,7 +22,9 @@ package org.xwiki.filemanager.internal.job;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,13 +33,13 @@ import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.Descendant;
 import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
 import org.xwiki.filemanager.internal.PackFileResolver;
 import org.xwiki.filemanager.job.PackJobStatus;
 import org.xwiki.filemanager.job.PackRequest;
-import org.xwiki.job.AbstractJob;
 import org.xwiki.job.DefaultJobStatus;
 import org.xwiki.job.Job;
 import org.xwiki.job.event.status.JobStatus;
@@ -51,7 +53,7 @@ import org.xwiki.model.reference.DocumentReference;
  */
 @Component
 @Named(PackJob.JOB_TYPE + "/actual")
-public class PackJob extends AbstractJob<PackRequest, DefaultJobStatus<PackRequest>>
+public class PackJob extends AbstractFileManagerJob<PackRequest>
 {
     /**
      * The id of the job.
@@ -101,11 +103,18 @@ public class PackJob extends AbstractJob<PackRequest, DefaultJobStatus<PackReque
 
         try {
             for (Path path : paths) {
+                if (isCanceled()) {
+                    break;
+                }
                 pack(path, zip, pathPrefix);
                 this.progressManager.stepPropress(this);
             }
         } finally {
             IOUtils.closeQuietly(zip);
+            if (isCanceled()) {
+                // Reclaim the disk space right away since nobody is going to download the partial archive.
+                this.packFileResolver.deleteTemporaryFile(getRequest().getOutputFileReference());
+            }
             getPackStatus().setOutputFileSize(outputFile.length());
             this.progressManager.popLevelProgress(this);
         }
@@ -142,8 +151,9 @@ public class PackJob extends AbstractJob<PackRequest, DefaultJobStatus<PackReque
                 String path = pathPrefix + file.getName();
                 this.logger.info("Packing file [{}]", path);
                 zip.putArchiveEntry(new ZipArchiveEntry(path));
-                IOUtils.copy(file.getContent(), zip);
+                long size = IOUtils.copyLarge(file.getContent(), zip);
                 zip.closeArchiveEntry();
+                countProcessedDocument(size);
                 getPackStatus().setBytesWritten(zip.getBytesWritten());
             } catch (IOException e) {
                 this.logger.warn("Failed to pack file [{}].", fileReference, e);
@@ -152,7 +162,8 @@ public class PackJob extends AbstractJob<PackRequest, DefaultJobStatus<PackReque
     }
 
     /**
-     * Packs a folder.
+     * Packs a folder. The entire sub-tree of the folder is retrieved up front so that the progress is exact and we
+     * don't have to query the child files and folders one level at a time.
      * 
      * @param folderReference the folder to add to the ZIP archive
      * @param zip the ZIP archive to add the folder to
@@ -162,24 +173,29 @@ public class PackJob extends AbstractJob<PackRequest, DefaultJobStatus<PackReque
     {
         Folder folder = fileSystem.getFolder(folderReference);
         if (folder != null && fileSystem.canView(folderReference)) {
-            List<DocumentReference> childFolderReferences = folder.getChildFolderReferences();
-            List<DocumentReference> childFileReferences = folder.getChildFileReferences();
-            this.progressManager.pushLevelProgress(childFolderReferences.size() + childFileReferences.size() + 1, this);
+            List<Descendant> descendants = fileSystem.getDescendants(folderReference);
+            this.progressManager.pushLevelProgress(descendants.size() + 1, this);
 
             try {
-                String path = pathPrefix + folder.getName() + '/';
-                this.logger.info("Packing folder [{}]", path);
-                zip.putArchiveEntry(new ZipArchiveEntry(path));
-                zip.closeArchiveEntry();
+                // The path of each folder that has been packed. The descendants are in pre-order so the parent folder
+                // is always packed before its children.
+                Map<DocumentReference, String> folderPaths = new HashMap<DocumentReference, String>();
+                folderPaths.put(folderReference, packFolder(folder, zip, pathPrefix));
                 this.progressManager.stepPropress(this);
 
-                for (DocumentReference childFolderReference : childFolderReferences) {
-                    packFolder(childFolderReference, zip, path);
-                    this.progressManager.stepPropress(this);
-                }
-
-                for (DocumentReference childFileReference : childFileReferences) {
-                    packFile(childFileReference, zip, path);
+                for (Descendant descendant : descendants) {
+                    if (isCanceled()) {
+                        break;
+                    }
+                    String parentPath = folderPaths.get(descendant.getParentReference());
+                    // Skip the descendants of the folders that couldn't be packed.
+                    if (parentPath != null) {
+                        if (descendant.isFolder()) {
+                            packChildFolder(descendant.getReference(), zip, parentPath, folderPaths);
+                        } else {
+                            packFile(descendant.getReference(), zip, parentPath);
+                        }
+                    }
                     this.progressManager.stepPropress(this);
                 }
             } catch (IOException e) {
@@ -190,6 +206,46 @@ public class PackJob extends AbstractJob<PackRequest, DefaultJobStatus<PackReque
         }
     }
 
+    /**
+     * Packs a folder from the sub-tree of another folder that is being packed.
+     * 
+     * @param folderReference the folder to add to the ZIP archive
+     * @param zip the ZIP archive to add the folder to
+     * @param pathPrefix the folder path
+     * @param folderPaths where to store the path of the folder, if it is packed
+     */
+    private void packChildFolder(DocumentReference folderReference, ZipArchiveOutputStream zip, String pathPrefix,
+        Map<DocumentReference, String> folderPaths)
+    {
+        Folder folder = fileSystem.getFolder(folderReference);
+        if (folder != null && fileSystem.canView(folderReference)) {
+            try {
+                folderPaths.put(folderReference, packFolder(folder, zip, pathPrefix));
+            } catch (IOException e) {
+                this.logger.warn("Failed to pack folder [{}].", folderReference, e);
+            }
+        }
+    }
+
+    /**
+     * Adds the ZIP entry of a folder, without its content.
+     * 
+     * @param folder the folder to add to the ZIP archive
+     * @param zip the ZIP archive to add the folder to
+     * @param pathPrefix the folder path
+     * @return the path of the folder inside the ZIP archive
+     * @throws IOException if adding the folder entry fails
+     */
+    private String packFolder(Folder folder, ZipArchiveOutputStream zip, String pathPrefix) throws IOException
+    {
+        String path = pathPrefix + folder.getName() + '/';
+        this.logger.info("Packing folder [{}]", path);
+        zip.putArchiveEntry(new ZipArchiveEntry(path));
+        zip.closeArchiveEntry();
+        countProcessedDocument(0);
+        return path;
+    }
+
     /**
      * @return the extended job status
      */
@@ -23,7 +23,9 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.job.GroupedJob;
 import org.xwiki.job.Job;
+import org.xwiki.job.JobGroupPath;
 import org.xwiki.job.event.status.JobStatus;
 
 /**
@@ -37,7 +39,7 @@ import org.xwiki.job.event.status.JobStatus;
  */
 @Component
 @Named(PackJob.JOB_TYPE)
-public class PackJobAdapter extends AbstractJobAdapter
+public class PackJobAdapter extends AbstractJobAdapter implements GroupedJob
 {
     @Inject
     @Named(PackJob.JOB_TYPE + "/actual")
@@ -57,4 +59,10 @@ public class PackJobAdapter extends AbstractJobAdapter
         }
         return super.getStatus();
     }
+
+    @Override
+    public JobGroupPath getGroupPath()
+    {
+        return ((GroupedJob) this.actualPackJob).getGroupPath();
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.internal.OrphanIndex;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.DefaultRequest;
+import org.xwiki.model.reference.SpaceReference;
+
+/**
+ * Reloads the orphan folders and the orphan files of some drives from the database, in order to repair the
+ * {@link OrphanIndex} if it got out of sync.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named(RebuildOrphanIndexJob.JOB_TYPE)
+public class RebuildOrphanIndexJob extends AbstractJob<DefaultRequest, DefaultJobStatus<DefaultRequest>>
+{
+    /**
+     * The id of the job.
+     */
+    public static final String JOB_TYPE = "fileManager/rebuildOrphanIndex";
+
+    /**
+     * The request property that holds the collection of drives ({@link SpaceReference}) to rebuild.
+     */
+    public static final String PROPERTY_DRIVES = "drives";
+
+    /**
+     * The index to rebuild.
+     */
+    @Inject
+    @Named(OrphanIndex.NAME)
+    private OrphanIndex orphanIndex;
+
+    @Override
+    public String getType()
+    {
+        return JOB_TYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        Collection<SpaceReference> driveReferences = getRequest().getProperty(PROPERTY_DRIVES);
+        if (driveReferences == null) {
+            return;
+        }
+
+        this.progressManager.pushLevelProgress(driveReferences.size(), this);
+
+        try {
+            for (SpaceReference driveReference : driveReferences) {
+                this.logger.info("Rebuilding the orphan index of [{}].", driveReference);
+                this.orphanIndex.rebuild(driveReference);
+                this.progressManager.stepPropress(this);
+            }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.xwiki.job.event.status.JobProgressManager;
+import org.xwiki.logging.Message;
+
+/**
+ * Reduces the number of progress events fired by a job that processes many files and folders. The progress levels
+ * pushed by the job are tracked locally and the job progress is published as a single level with a fixed number of
+ * steps, at most once per time interval or number of processed items. The levels that are too deep to have a visible
+ * impact on the progress are only counted. The progress is published exactly when the job pops its outermost level.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+public class ThrottledJobProgressManager implements JobProgressManager
+{
+    /**
+     * The number of steps of the published progress level.
+     */
+    private static final int RESOLUTION = 1000;
+
+    /**
+     * The maximum number of levels that are tracked. The deeper levels are only counted.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * The progress manager used to publish the job progress.
+     */
+    private final JobProgressManager delegate;
+
+    /**
+     * The minimum time between two progress updates, in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     * The number of processed items after which the progress is updated even if the time interval hasn't elapsed.
+     */
+    private final int maxItems;
+
+    /**
+     * The tracked progress levels, outermost first.
+     */
+    private final List<Level> levels = new ArrayList<Level>();
+
+    /**
+     * The number of levels pushed after the maximum depth was reached.
+     */
+    private int ignoredLevels;
+
+    /**
+     * The number of steps of the published level that have been published.
+     */
+    private int publishedSteps;
+
+    /**
+     * When the progress was last published.
+     */
+    private long publishTime;
+
+    /**
+     * The number of steps made since the progress was last published.
+     */
+    private int items;
+
+    /**
+     * A progress level.
+     */
+    private static final class Level
+    {
+        /**
+         * The number of steps of this level, {@code 0} if unknown.
+         */
+        private final int steps;
+
+        /**
+         * The number of steps done.
+         */
+        private int done;
+
+        /**
+         * Creates a new level.
+         * 
+         * @param steps the number of steps of the level
+         */
+        Level(int steps)
+        {
+            this.steps = steps;
+        }
+    }
+
+    /**
+     * Creates a new progress manager.
+     * 
+     * @param delegate the progress manager used to publish the job progress
+     * @param interval the minimum time between two progress updates, in milliseconds
+     * @param maxItems the number of processed items after which the progress is updated even if the time interval
+     *            hasn't elapsed
+     */
+    public ThrottledJobProgressManager(JobProgressManager delegate, long interval, int maxItems)
+    {
+        this.delegate = delegate;
+        this.interval = interval;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * @return the progress manager used to publish the job progress
+     */
+    public JobProgressManager getDelegate()
+    {
+        return this.delegate;
+    }
+
+    @Override
+    public void pushLevelProgress(Object source)
+    {
+        pushLevelProgress(0, source);
+    }
+
+    @Override
+    public void pushLevelProgress(int steps, Object source)
+    {
+        if (this.levels.isEmpty()) {
+            this.delegate.pushLevelProgress(RESOLUTION, source);
+            this.publishedSteps = 0;
+            this.publishTime = System.currentTimeMillis();
+            this.items = 0;
+        }
+
+        if (this.levels.size() < MAX_DEPTH) {
+            this.levels.add(new Level(steps));
+        } else {
+            this.ignoredLevels++;
+        }
+    }
+
+    @Override
+    public void stepPropress(Object source)
+    {
+        if (this.levels.isEmpty()) {
+            return;
+        }
+
+        if (this.ignoredLevels == 0) {
+            Level level = this.levels.get(this.levels.size() - 1);
+            level.done++;
+        }
+
+        this.items++;
+        long now = System.currentTimeMillis();
+        if (now - this.publishTime >= this.interval || this.items >= this.maxItems) {
+            publish(source, (int) (getOffset() * RESOLUTION));
+            this.publishTime = now;
+            this.items = 0;
+        }
+    }
+
+    @Override
+    public void startStep(Object source)
+    {
+        // The progress is updated when the step ends.
+    }
+
+    @Override
+    public void startStep(Object source, String message)
+    {
+        // The progress is updated when the step ends.
+    }
+
+    @Override
+    public void startStep(Object source, String translationKey, String message, Object... arguments)
+    {
+        // The progress is updated when the step ends.
+    }
+
+    @Override
+    public void startStep(Object source, Message message)
+    {
+        // The progress is updated when the step ends.
+    }
+
+    @Override
+    public void endStep(Object source)
+    {
+        stepPropress(source);
+    }
+
+    @Override
+    public void popLevelProgress(Object source)
+    {
+        if (this.ignoredLevels > 0) {
+            this.ignoredLevels--;
+        } else if (!this.levels.isEmpty()) {
+            this.levels.remove(this.levels.size() - 1);
+            if (this.levels.isEmpty()) {
+                // The job is done so the progress must be exact.
+                publish(source, RESOLUTION);
+                this.delegate.popLevelProgress(source);
+            }
+        }
+    }
+
+    @Override
+    public <T> T call(Callable<T> task, Object source) throws Exception
+    {
+        return call(task, 0, source);
+    }
+
+    @Override
+    public <T> T call(Callable<T> task, int steps, Object source) throws Exception
+    {
+        pushLevelProgress(steps, source);
+        try {
+            return task.call();
+        } finally {
+            popLevelProgress(source);
+        }
+    }
+
+    /**
+     * Pops the levels that the job didn't pop, e.g. because it failed, so that the published progress is complete.
+     * 
+     * @param source the job
+     */
+    public void close(Object source)
+    {
+        this.ignoredLevels = 0;
+        while (!this.levels.isEmpty()) {
+            popLevelProgress(source);
+        }
+    }
+
+    /**
+     * @return the current progress, between 0 and 1
+     */
+    private double getOffset()
+    {
+        double offset = 0;
+        double scale = 1;
+        for (Level level : this.levels) {
+            if (level.steps <= 0) {
+                break;
+            }
+            offset += scale * Math.min(level.done, level.steps) / level.steps;
+            scale /= level.steps;
+        }
+        return Math.min(1, offset);
+    }
+
+    /**
+     * Steps the published level up to the given number of steps.
+     * 
+     * @param source the job
+     * @param steps the number of steps of the published level that should be done
+     */
+    private void publish(Object source, int steps)
+    {
+        while (this.publishedSteps < steps) {
+            this.delegate.stepPropress(source);
+            this.publishedSteps++;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.xwiki.filemanager.internal.FolderIndex;
+import org.xwiki.filemanager.internal.OrphanIndex;
+import org.xwiki.filemanager.listing.ListingPage;
+import org.xwiki.filemanager.listing.ListingRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Base class for the listing services. The pages are retrieved by keyset: the query continues from the sort value and
+ * the id of the document specified by the request cursor, so the database doesn't have to scan and discard the items
+ * that come before the requested page. The offset is used only when the request doesn't specify a cursor.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+public abstract class AbstractListingService
+{
+    /**
+     * The condition used to continue from the document specified by the cursor.
+     */
+    private static final String KEYSET_CONDITION = "(%1$s %2$s :keysetValue or (%1$s = :keysetValue and doc.id %2$s"
+        + " :keysetId))";
+
+    /**
+     * The condition used to continue from the document specified by the cursor, when its sort value is {@code null}.
+     */
+    private static final String NULL_KEYSET_CONDITION = "(%1$s is null and doc.id %2$s :keysetId)";
+
+    /**
+     * Sorts the {@code null} values before the other values, whatever the database. The comparison operators don't
+     * match the {@code null} values so they have to be ordered explicitly in order to be retrieved by keyset.
+     */
+    private static final String NULL_ORDER = "case when %s is null then 0 else 1 end";
+
+    /**
+     * The descending order.
+     */
+    private static final String DESC = " desc";
+
+    /**
+     * The maximum number of orphan names passed to a listing query. The orphans of the drives that have more are
+     * matched with a nested query.
+     */
+    private static final int MAX_ORPHAN_NAMES = 1000;
+
+    /**
+     * Used to log messages.
+     */
+    @Inject
+    protected Logger logger;
+
+    /**
+     * Used to serialize the references passed to the queries.
+     */
+    @Inject
+    @Named("local")
+    protected EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    /**
+     * Used to list the documents.
+     */
+    @Inject
+    protected QueryManager queryManager;
+
+    /**
+     * Used to list the orphan folders and files without a nested query.
+     */
+    @Inject
+    @Named(OrphanIndex.NAME)
+    protected OrphanIndex orphanIndex;
+
+    /**
+     * Used to get the folder hierarchy without querying the database.
+     */
+    @Inject
+    @Named(FolderIndex.NAME)
+    protected FolderIndex folderIndex;
+
+    /**
+     * Executes the given listing query.
+     * 
+     * @param listingQuery the listing query
+     * @param request specifies which page to return
+     * @return the requested page, empty if the query fails
+     */
+    protected ListingPage<DocumentReference> getPage(ListingQuery listingQuery, ListingRequest request)
+    {
+        SpaceReference spaceReference = listingQuery.getSpaceReference();
+        try {
+            ListingCursor after = ListingCursor.parse(request.getAfter());
+            ListingCursor before = after == null ? ListingCursor.parse(request.getBefore()) : null;
+            ListingCursor cursor = after != null ? after : before;
+            // The previous page is retrieved by reversing the order.
+            boolean reverse = listingQuery.isDescending() != (before != null);
+            // Counting the items is as costly as skipping them so we count them only once, when no cursor is
+            // specified, and reuse the total count passed back by the caller for the next pages.
+            long totalCount =
+                cursor != null && request.getTotalCount() >= 0 ? request.getTotalCount() : count(listingQuery);
+
+            String sort = listingQuery.getSort();
+            String direction = reverse ? DESC : "";
+            StringBuilder statement = new StringBuilder("select doc.name, ").append(sort).append(", doc.id ");
+            statement.append(listingQuery.getStatement());
+            if (cursor != null) {
+                statement.append(" and ").append(getKeysetCondition(listingQuery, reverse, cursor.getSortValue()));
+            }
+            statement.append(" order by ");
+            if (listingQuery.isNullable()) {
+                statement.append(String.format(NULL_ORDER, sort)).append(direction).append(", ");
+            }
+            statement.append(sort).append(direction).append(", doc.id").append(direction);
+
+            Query query = createQuery(statement.toString(), listingQuery);
+            if (cursor != null) {
+                if (cursor.getSortValue() != null) {
+                    query.bindValue("keysetValue", cursor.getSortValue());
+                }
+                query.bindValue("keysetId", cursor.getDocumentId());
+            } else {
+                query.setOffset(request.getOffset());
+            }
+            if (request.getLimit() > 0) {
+                query.setLimit(request.getLimit());
+            }
+            List<Object[]> rows = query.execute();
+            if (before != null) {
+                Collections.reverse(rows);
+            }
+
+            long offset;
+            if (after != null) {
+                offset = after.getPosition() + 1;
+            } else if (before != null) {
+                offset = Math.max(before.getPosition() - rows.size(), 0);
+            } else {
+                offset = request.getOffset();
+            }
+            return getPage(rows, spaceReference, totalCount, offset);
+        } catch (QueryException e) {
+            this.logger.error("Failed to list the documents from [{}].", spaceReference, e);
+            return getEmptyPage(request);
+        }
+    }
+
+    /**
+     * The {@code null} sort values come first in ascending order and last in descending order.
+     * 
+     * @param listingQuery the listing query
+     * @param reverse {@code true} if the documents are retrieved in descending order, {@code false} otherwise
+     * @param sortValue the sort value of the cursor
+     * @return the condition used to continue from the document specified by the cursor
+     */
+    private String getKeysetCondition(ListingQuery listingQuery, boolean reverse, Object sortValue)
+    {
+        String sort = listingQuery.getSort();
+        String operator = reverse ? "<" : ">";
+        if (sortValue == null) {
+            String condition = String.format(NULL_KEYSET_CONDITION, sort, operator);
+            // In ascending order the documents that have a sort value come after the cursor.
+            return reverse ? condition : '(' + condition + " or " + sort + " is not null)";
+        }
+        String condition = String.format(KEYSET_CONDITION, sort, operator);
+        if (reverse && listingQuery.isNullable()) {
+            // In descending order the documents that don't have a sort value come after the cursor.
+            condition = '(' + condition + " or " + sort + " is null)";
+        }
+        return condition;
+    }
+
+    /**
+     * Executes the given listing query, restricted to the specified orphan documents.
+     * 
+     * @param listingQuery the listing query
+     * @param orphanNames the names of the orphan documents, taken from the {@link OrphanIndex}
+     * @param driveReference the drive home page
+     * @param request specifies which page to return
+     * @return the requested page of orphan documents
+     */
+    protected ListingPage<DocumentReference> getOrphanPage(ListingQuery listingQuery, List<String> orphanNames,
+        DocumentReference driveReference, ListingRequest request)
+    {
+        if (orphanNames.isEmpty()) {
+            return getEmptyPage(request);
+        } else if (orphanNames.size() <= MAX_ORPHAN_NAMES) {
+            listingQuery.where("doc.name in (:orphans)").bind("orphans", orphanNames);
+        } else {
+            listingQuery.where(DefaultFolderListingService.HAS_NO_PARENT).bind("parent",
+                this.localEntityReferenceSerializer.serialize(driveReference));
+        }
+        return getPage(listingQuery, request);
+    }
+
+    /**
+     * @param documentReferences some document references
+     * @return the names of the given documents, grouped by drive (space)
+     */
+    protected Map<SpaceReference, List<String>> groupByDrive(Collection<DocumentReference> documentReferences)
+    {
+        Map<SpaceReference, List<String>> documentsByDrive = new LinkedHashMap<SpaceReference, List<String>>();
+        for (DocumentReference documentReference : documentReferences) {
+            List<String> documentNames = documentsByDrive.get(documentReference.getLastSpaceReference());
+            if (documentNames == null) {
+                documentNames = new ArrayList<String>();
+                documentsByDrive.put(documentReference.getLastSpaceReference(), documentNames);
+            }
+            documentNames.add(documentReference.getName());
+        }
+        return documentsByDrive;
+    }
+
+    /**
+     * @param request a listing request
+     * @return an empty page
+     */
+    private ListingPage<DocumentReference> getEmptyPage(ListingRequest request)
+    {
+        return new ListingPage<DocumentReference>(Collections.<DocumentReference>emptyList(), 0, request.getOffset(),
+            null, null);
+    }
+
+    /**
+     * @param listingQuery a listing query
+     * @return the number of documents matched by the given listing query
+     * @throws QueryException if the query fails
+     */
+    private long count(ListingQuery listingQuery) throws QueryException
+    {
+        List<Long> results = createQuery("select count(doc.id) " + listingQuery.getStatement(), listingQuery).execute();
+        return results.isEmpty() || results.get(0) == null ? 0 : results.get(0);
+    }
+
+    /**
+     * @param statement the statement to execute
+     * @param listingQuery the listing query that provides the parameters
+     * @return the query
+     * @throws QueryException if the query can't be created
+     */
+    private Query createQuery(String statement, ListingQuery listingQuery) throws QueryException
+    {
+        SpaceReference spaceReference = listingQuery.getSpaceReference();
+        Query query = this.queryManager.createQuery(statement, Query.HQL);
+        query.bindValue("space", this.localEntityReferenceSerializer.serialize(spaceReference));
+        for (Map.Entry<String, Object> parameter : listingQuery.getParameters().entrySet()) {
+            query.bindValue(parameter.getKey(), parameter.getValue());
+        }
+        query.setWiki(spaceReference.getWikiReference().getName());
+        return query;
+    }
+
+    /**
+     * @param rows the query results: document name, sort value and document id
+     * @param spaceReference the drive
+     * @param totalCount the total number of documents
+     * @param offset the index of the first row
+     * @return the page
+     */
+    private ListingPage<DocumentReference> getPage(List<Object[]> rows, SpaceReference spaceReference,
+        long totalCount, long offset)
+    {
+        List<DocumentReference> items = new ArrayList<DocumentReference>();
+        String previousCursor = null;
+        String nextCursor = null;
+        for (Object[] row : rows) {
+            items.add(new DocumentReference((String) row[0], spaceReference));
+            nextCursor = new ListingCursor(offset + items.size() - 1, ((Number) row[2]).longValue(), row[1])
+                .serialize();
+            if (previousCursor == null) {
+                previousCursor = nextCursor;
+            }
+        }
+        return new ListingPage<DocumentReference>(items, totalCount, offset, previousCursor, nextCursor);
+    }
+}
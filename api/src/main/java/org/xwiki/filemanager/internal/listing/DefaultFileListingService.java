@@ -0,0 +1,466 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.net.URLConnection;
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.listing.FileListingService;
+import org.xwiki.filemanager.listing.FileRow;
+import org.xwiki.filemanager.listing.ListingPage;
+import org.xwiki.filemanager.listing.ListingRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Default {@link FileListingService} implementation.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Singleton
+public class DefaultFileListingService extends AbstractListingService implements FileListingService
+{
+    /**
+     * The columns that can be used to sort and filter the files, and the corresponding query expressions.
+     */
+    private static final Map<String, String> COLUMNS = new HashMap<String, String>();
+
+    /**
+     * The prefix of the expressions that require the attachments to be joined.
+     */
+    private static final String ATTACHMENT_PREFIX = "attach.";
+
+    /**
+     * The columns that hold user references.
+     */
+    private static final List<String> USER_COLUMNS = Arrays.asList("creator", "author");
+
+    /**
+     * The name column.
+     */
+    private static final String COLUMN_NAME = "name";
+
+    /**
+     * Matches a date filter such as {@code *.5.2024} (day, month, year).
+     */
+    private static final Pattern DATE_PATTERN = Pattern.compile("^(\\*|\\d+).(\\*|\\d+).(\\*|\\d+)$");
+
+    /**
+     * Matches a relative period filter such as {@code -2w}.
+     */
+    private static final Pattern PERIOD_PATTERN = Pattern.compile("^-(\\d{1,4})([dwmy])$");
+
+    /**
+     * The fields of a date filter, in the order they are specified.
+     */
+    private static final String[] DATE_FIELDS = {"day", "month", "year"};
+
+    /**
+     * The percent sign, used to match the filter values partially.
+     */
+    private static final String PERCENT = "%";
+
+    /**
+     * Restricts the rows queries to the given files.
+     */
+    private static final String WHERE_FILES =
+        " where doc.space = :space and doc.translation = 0 and doc.name in (:names)";
+
+    /**
+     * The statement used to select the document data of the given files.
+     */
+    private static final String SELECT_DOCUMENTS = "select doc.name, doc.creationDate, doc.date, doc.creator,"
+        + " doc.author, doc.version, doc.content from XWikiDocument doc" + WHERE_FILES;
+
+    /**
+     * The statement used to select the attachments of the given files. The file content is stored in the first
+     * attachment.
+     */
+    private static final String SELECT_ATTACHMENTS = "select doc.name, attach.filename, attach.filesize,"
+        + " attach.mimeType from XWikiDocument doc, XWikiAttachment attach" + WHERE_FILES
+        + " and attach.docId = doc.id order by attach.filename";
+
+    /**
+     * The statement used to select the tags of the given files. The tags specify the parent folders.
+     */
+    private static final String SELECT_TAGS = "select doc.name, tag from XWikiDocument doc, BaseObject tagObj,"
+        + " DBStringListProperty tags join tags.list tag" + WHERE_FILES + " and tagObj.name = doc.fullName"
+        + " and tagObj.className = 'XWiki.TagClass' and tags.id.id = tagObj.id and tags.id.name = 'tags'";
+
+    static {
+        COLUMNS.put(COLUMN_NAME, "attach.filename");
+        COLUMNS.put("size", "attach.filesize");
+        COLUMNS.put("creationDate", "doc.creationDate");
+        COLUMNS.put("date", "doc.date");
+        for (String column : USER_COLUMNS) {
+            COLUMNS.put(column, "doc." + column);
+        }
+    }
+
+    /**
+     * Used to resolve the user filters.
+     */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    /**
+     * Used to check if the user filters specify only the user alias.
+     */
+    @Inject
+    @Named("compact")
+    private EntityReferenceSerializer<String> compactEntityReferenceSerializer;
+
+    /**
+     * Used to check the rights of the current user on the listed files.
+     */
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Override
+    public ListingPage<DocumentReference> getChildFiles(DocumentReference folderReference, ListingRequest request)
+    {
+        ListingQuery query = createQuery(folderReference, request)
+            .from("BaseObject tagObj").from("DBStringListProperty tagsProp")
+            .where("tagObj.className = 'XWiki.TagClass' and tagObj.name = doc.fullName and tagObj.id = tagsProp.id.id"
+                + " and tagsProp.id.name = 'tags' and :tag in elements(tagsProp.list)")
+            .bind("tag", folderReference.getName());
+        return getPage(query, request);
+    }
+
+    @Override
+    public ListingPage<DocumentReference> getAllFiles(DocumentReference driveReference, ListingRequest request)
+    {
+        return getPage(createQuery(driveReference, request), request);
+    }
+
+    @Override
+    public ListingPage<DocumentReference> getOrphanFiles(DocumentReference driveReference, ListingRequest request)
+    {
+        // A file can have multiple parent folders, which are declared using tags, and one of these parent folders,
+        // usually the first, is set as wiki page parent so that a tree widget can still display the hierarchy nicely.
+        ListingQuery query = createQuery(driveReference, request);
+        return getOrphanPage(query, this.orphanIndex.getOrphanFiles(driveReference.getLastSpaceReference()),
+            driveReference, request);
+    }
+
+    @Override
+    public boolean hasOrphanFiles(DocumentReference driveReference)
+    {
+        return this.orphanIndex.hasOrphanFiles(driveReference.getLastSpaceReference());
+    }
+
+    @Override
+    public Map<DocumentReference, FileRow> getRows(Collection<DocumentReference> fileReferences)
+    {
+        Map<DocumentReference, FileRow> rows = new HashMap<DocumentReference, FileRow>();
+        for (Map.Entry<SpaceReference, List<String>> entry : groupByDrive(fileReferences).entrySet()) {
+            try {
+                addRows(entry.getKey(), entry.getValue(), rows);
+            } catch (QueryException e) {
+                this.logger.error("Failed to retrieve the files {} from [{}].", entry.getValue(), entry.getKey(), e);
+            }
+        }
+
+        // Keep the given order.
+        Map<DocumentReference, FileRow> orderedRows = new LinkedHashMap<DocumentReference, FileRow>();
+        for (DocumentReference fileReference : fileReferences) {
+            FileRow row = rows.get(fileReference);
+            if (row != null) {
+                orderedRows.put(fileReference, row);
+            }
+        }
+        return orderedRows;
+    }
+
+    /**
+     * Retrieves the data of the given files using three queries: one for the documents, one for the attachments and one
+     * for the tags (the parent folders). The paths of the parent folders are taken from the folder index.
+     * 
+     * @param driveReference a drive
+     * @param fileNames the names of some files from the specified drive
+     * @param rows where to add the data of the files that the current user is allowed to view
+     * @throws QueryException if a query fails
+     */
+    private void addRows(SpaceReference driveReference, List<String> fileNames, Map<DocumentReference, FileRow> rows)
+        throws QueryException
+    {
+        Map<String, FileRow> rowsByName = new LinkedHashMap<String, FileRow>();
+        for (Object[] result : executeRowsQuery(SELECT_DOCUMENTS, driveReference, fileNames)) {
+            DocumentReference fileReference = new DocumentReference((String) result[0], driveReference);
+            if (this.authorization.hasAccess(Right.VIEW, fileReference)) {
+                FileRow row = new FileRow();
+                row.setReference(fileReference);
+                row.setCreationDate((Date) result[1]);
+                row.setDate((Date) result[2]);
+                row.setCreator((String) result[3]);
+                row.setAuthor((String) result[4]);
+                row.setVersion((String) result[5]);
+                // The description is computed from the document content so it has to be rendered.
+                row.setHasDescription(StringUtils.isNotBlank((String) result[6]));
+                row.setCanDelete(this.authorization.hasAccess(Right.DELETE, fileReference));
+                rowsByName.put(fileReference.getName(), row);
+            }
+        }
+        if (rowsByName.isEmpty()) {
+            return;
+        }
+
+        List<String> visibleFileNames = new ArrayList<String>(rowsByName.keySet());
+        Set<String> filesWithContent = new HashSet<String>();
+        for (Object[] result : executeRowsQuery(SELECT_ATTACHMENTS, driveReference, visibleFileNames)) {
+            // The attachments are ordered by name so we take the first one, like the file sheet does.
+            if (filesWithContent.add((String) result[0])) {
+                FileRow row = rowsByName.get(result[0]);
+                row.setName((String) result[1]);
+                row.setSize(((Number) result[2]).longValue());
+                // The media type is not stored for the attachments uploaded with older versions.
+                row.setMediaType(StringUtils.defaultIfEmpty((String) result[3],
+                    URLConnection.guessContentTypeFromName(row.getName())));
+            }
+        }
+
+        Map<String, List<List<String>>> paths = new HashMap<String, List<List<String>>>();
+        for (Object[] result : executeRowsQuery(SELECT_TAGS, driveReference, visibleFileNames)) {
+            List<String> path = getPath(new DocumentReference((String) result[1], driveReference));
+            if (path != null) {
+                List<List<String>> filePaths = paths.get(result[0]);
+                if (filePaths == null) {
+                    filePaths = new ArrayList<List<String>>();
+                    paths.put((String) result[0], filePaths);
+                }
+                filePaths.add(path);
+            }
+        }
+
+        for (FileRow row : rowsByName.values()) {
+            if (paths.containsKey(row.getReference().getName())) {
+                row.setPaths(paths.get(row.getReference().getName()));
+            }
+            rows.put(row.getReference(), row);
+        }
+    }
+
+    /**
+     * @param statement the query statement
+     * @param driveReference a drive
+     * @param fileNames the names of the files to retrieve
+     * @return the query results
+     * @throws QueryException if the query fails
+     */
+    private List<Object[]> executeRowsQuery(String statement, SpaceReference driveReference, List<String> fileNames)
+        throws QueryException
+    {
+        Query query = this.queryManager.createQuery(statement, Query.HQL);
+        query.bindValue("space", this.localEntityReferenceSerializer.serialize(driveReference));
+        query.bindValue("names", fileNames);
+        query.setWiki(driveReference.getWikiReference().getName());
+        return query.execute();
+    }
+
+    /**
+     * @param folderReference a folder reference
+     * @return the path of the specified folder, starting with the folder and ending with its top most ancestor that the
+     *         current user is allowed to view, or {@code null} if the specified document is neither a folder nor a
+     *         drive or if the current user is not allowed to view it
+     */
+    private List<String> getPath(DocumentReference folderReference)
+    {
+        // The folder hierarchy is indexed so we don't have to load the ancestors.
+        List<DocumentReference> ancestors = this.folderIndex.getAncestors(folderReference);
+        if (ancestors == null || !this.authorization.hasAccess(Right.VIEW, folderReference)) {
+            return null;
+        }
+
+        List<String> path = new ArrayList<String>(ancestors.size() + 1);
+        path.add(folderReference.getName());
+        for (int i = ancestors.size() - 1; i >= 0; i--) {
+            // The index doesn't check the access rights so we stop at the first ancestor that can't be viewed.
+            if (!this.authorization.hasAccess(Right.VIEW, ancestors.get(i))) {
+                break;
+            }
+            path.add(ancestors.get(i).getName());
+        }
+        return path;
+    }
+
+    /**
+     * Creates the query that lists the files from the drive of the given document, applying the filters and the sort
+     * order specified by the request.
+     * 
+     * @param reference a document from the drive
+     * @param request the listing request
+     * @return the query
+     */
+    private ListingQuery createQuery(DocumentReference reference, ListingRequest request)
+    {
+        ListingQuery query = new ListingQuery(reference.getLastSpaceReference()).from("BaseObject fileObj")
+            .where("fileObj.className = 'FileManagerCode.FileClass' and fileObj.name = doc.fullName");
+
+        for (Map.Entry<String, String> filter : request.getFilters().entrySet()) {
+            String expression = COLUMNS.get(filter.getKey());
+            if (expression != null) {
+                addFilter(query, filter.getKey(), expression, filter.getValue());
+                joinAttachments(query, expression);
+            }
+        }
+
+        String sort = COLUMNS.get(request.getSort());
+        if (sort != null) {
+            // The user columns are empty for the documents created by guests, which is null on some databases.
+            query.sort(sort, USER_COLUMNS.contains(request.getSort()), request.isDescending());
+            joinAttachments(query, sort);
+        }
+
+        return query;
+    }
+
+    /**
+     * Joins the attachments if the given expression needs them.
+     * 
+     * @param query the listing query
+     * @param expression a query expression
+     */
+    private void joinAttachments(ListingQuery query, String expression)
+    {
+        if (expression.startsWith(ATTACHMENT_PREFIX)) {
+            query.from("XWikiAttachment attach").where("attach.docId = doc.id");
+        }
+    }
+
+    /**
+     * @param query the listing query
+     * @param column the filtered column
+     * @param expression the query expression of the filtered column
+     * @param value the filter value
+     */
+    private void addFilter(ListingQuery query, String column, String expression, String value)
+    {
+        if (COLUMN_NAME.equals(column)) {
+            addPartialMatchFilter(query, column, expression, value);
+        } else if (USER_COLUMNS.contains(column)) {
+            DocumentReference userReference = this.currentDocumentReferenceResolver.resolve(value);
+            if (value.equals(this.compactEntityReferenceSerializer.serialize(userReference, userReference))) {
+                // Only the user alias is specified.
+                addPartialMatchFilter(query, column, expression, value);
+            } else {
+                // The user reference is specified.
+                query.where(expression + " = :" + column).bind(column, value);
+            }
+        } else {
+            addDateFilter(query, column, expression, value);
+        }
+    }
+
+    /**
+     * @param query the listing query
+     * @param column the filtered column
+     * @param expression the query expression of the filtered column
+     * @param value the filter value
+     */
+    private void addPartialMatchFilter(ListingQuery query, String column, String expression, String value)
+    {
+        query.where("lower(" + expression + ") like :" + column).bind(column, PERCENT + value.toLowerCase() + PERCENT);
+    }
+
+    /**
+     * @param query the listing query
+     * @param column the filtered column
+     * @param expression the query expression of the filtered column
+     * @param value the filter value
+     */
+    private void addDateFilter(ListingQuery query, String column, String expression, String value)
+    {
+        Matcher matcher = DATE_PATTERN.matcher(value);
+        if (matcher.matches()) {
+            for (int i = 0; i < DATE_FIELDS.length; i++) {
+                String fieldValue = matcher.group(i + 1);
+                if (!"*".equals(fieldValue) && fieldValue.length() < 10) {
+                    String parameter = column + StringUtils.capitalize(DATE_FIELDS[i]);
+                    query.where(DATE_FIELDS[i] + '(' + expression + ") = :" + parameter).bind(parameter,
+                        Integer.valueOf(fieldValue));
+                }
+            }
+            return;
+        }
+
+        matcher = PERIOD_PATTERN.matcher(value);
+        if (matcher.matches()) {
+            int amount = Integer.parseInt(matcher.group(1));
+            ZonedDateTime now = ZonedDateTime.now();
+            ZonedDateTime start;
+            ZonedDateTime end;
+            switch (matcher.group(2)) {
+                case "d":
+                    // If amount > 1 then the range starts at the beginning of the day, amount days before the current
+                    // day, and continues up to the current second (so it includes today). Today (0) and Yesterday (1)
+                    // are just one day.
+                    start = now.minusDays(amount).truncatedTo(ChronoUnit.DAYS);
+                    end = amount > 1 ? now : start.plusDays(1);
+                    break;
+                case "w":
+                    // The current week is not included, unless amount is 0 (This week).
+                    start = now.minusWeeks(amount).with(DayOfWeek.MONDAY).truncatedTo(ChronoUnit.DAYS);
+                    end = start.plusWeeks(Math.max(amount, 1));
+                    break;
+                case "m":
+                    // The current month is not included, unless amount is 0 (This month).
+                    start = now.minusMonths(amount).withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+                    end = start.plusMonths(Math.max(amount, 1));
+                    break;
+                default:
+                    // The current year is not included, unless amount is 0 (This year).
+                    start = now.minusYears(amount).withDayOfYear(1).truncatedTo(ChronoUnit.DAYS);
+                    end = start.plusYears(Math.max(amount, 1));
+                    break;
+            }
+            query.where(String.format("%1$s >= :%2$sStart and %1$s < :%2$sEnd", expression, column))
+                .bind(column + "Start", Date.from(start.toInstant())).bind(column + "End", Date.from(end.toInstant()));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.listing.FolderChildren;
+import org.xwiki.filemanager.listing.FolderListingService;
+import org.xwiki.filemanager.listing.ListingPage;
+import org.xwiki.filemanager.listing.ListingRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+
+/**
+ * Default {@link FolderListingService} implementation.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Singleton
+public class DefaultFolderListingService extends AbstractListingService implements FolderListingService
+{
+    /**
+     * Joins the folder objects.
+     */
+    static final String JOIN_FOLDERS =
+        "folderObj.name = doc.fullName and folderObj.className = 'FileManagerCode.FolderClass'";
+
+    /**
+     * Matches the documents that don't have a parent folder. We need a nested query because the parent is stored as a
+     * string.
+     */
+    static final String HAS_NO_PARENT = "(doc.parent = '' or (doc.parent <> :parent and doc.parent not in"
+        + " (select parentDoc.fullName from XWikiDocument parentDoc, BaseObject parentObj"
+        + " where parentDoc.space = :space and parentObj.name = parentDoc.fullName"
+        + " and parentObj.className = 'FileManagerCode.FolderClass')))";
+
+    /**
+     * The statement used to select the folders, among the given ones, that have child files.
+     */
+    private static final String SELECT_FOLDERS_WITH_FILES = "select distinct tag from XWikiDocument doc,"
+        + " BaseObject fileObj, BaseObject tagObj, DBStringListProperty tags join tags.list tag"
+        + " where doc.space = :space and fileObj.name = doc.fullName"
+        + " and fileObj.className = 'FileManagerCode.FileClass' and tagObj.name = doc.fullName"
+        + " and tagObj.className = 'XWiki.TagClass' and tags.id.id = tagObj.id and tags.id.name = 'tags'"
+        + " and tag in (:folders)";
+
+    /**
+     * The maximum number of folders checked with a single query.
+     */
+    private static final int FOLDER_BATCH_SIZE = 1000;
+
+    /**
+     * The folder objects.
+     */
+    private static final String FROM_FOLDERS = "BaseObject folderObj";
+
+    /**
+     * The parent query parameter.
+     */
+    private static final String PARAMETER_PARENT = "parent";
+
+    @Override
+    public ListingPage<DocumentReference> getChildFolders(DocumentReference parentReference, ListingRequest request)
+    {
+        ListingQuery query = new ListingQuery(parentReference.getLastSpaceReference()).from(FROM_FOLDERS)
+            .where(JOIN_FOLDERS).where("doc.parent = :parent")
+            .bind(PARAMETER_PARENT, this.localEntityReferenceSerializer.serialize(parentReference));
+        return getPage(query, request);
+    }
+
+    @Override
+    public ListingPage<DocumentReference> getOrphanFolders(DocumentReference driveReference, ListingRequest request)
+    {
+        SpaceReference spaceReference = driveReference.getLastSpaceReference();
+        ListingQuery query = new ListingQuery(spaceReference).from(FROM_FOLDERS).where(JOIN_FOLDERS);
+        return getOrphanPage(query, this.orphanIndex.getOrphanFolders(spaceReference), driveReference, request);
+    }
+
+    @Override
+    public boolean hasOrphanFolders(DocumentReference driveReference)
+    {
+        return this.orphanIndex.hasOrphanFolders(driveReference.getLastSpaceReference());
+    }
+
+    @Override
+    public Map<DocumentReference, FolderChildren> getChildren(Collection<DocumentReference> folderReferences)
+    {
+        Set<DocumentReference> foldersWithFiles = new HashSet<DocumentReference>();
+        for (Map.Entry<SpaceReference, List<String>> entry : groupByDrive(folderReferences).entrySet()) {
+            foldersWithFiles.addAll(getFoldersWithFiles(entry.getKey(), entry.getValue()));
+        }
+
+        Map<DocumentReference, FolderChildren> children = new LinkedHashMap<DocumentReference, FolderChildren>();
+        for (DocumentReference folderReference : folderReferences) {
+            // The folder hierarchy is indexed.
+            children.put(folderReference, new FolderChildren(this.folderIndex.hasChildFolders(folderReference),
+                foldersWithFiles.contains(folderReference)));
+        }
+        return children;
+    }
+
+    /**
+     * @param driveReference a drive
+     * @param folderNames the names of some folders from the specified drive
+     * @return the folders, among the given ones, that have child files
+     */
+    private Set<DocumentReference> getFoldersWithFiles(SpaceReference driveReference, List<String> folderNames)
+    {
+        Set<DocumentReference> foldersWithFiles = new HashSet<DocumentReference>();
+        for (int start = 0; start < folderNames.size(); start += FOLDER_BATCH_SIZE) {
+            List<String> batch = folderNames.subList(start, Math.min(start + FOLDER_BATCH_SIZE, folderNames.size()));
+            try {
+                Query query = this.queryManager.createQuery(SELECT_FOLDERS_WITH_FILES, Query.HQL);
+                query.bindValue("space", this.localEntityReferenceSerializer.serialize(driveReference));
+                query.bindValue("folders", batch);
+                query.setWiki(driveReference.getWikiReference().getName());
+                for (Object folderName : query.execute()) {
+                    foldersWithFiles.add(new DocumentReference((String) folderName, driveReference));
+                }
+            } catch (QueryException e) {
+                this.logger.error("Failed to check if the folders {} from [{}] have child files.", batch,
+                    driveReference, e);
+            }
+        }
+        return foldersWithFiles;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.Date;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Identifies an item of a listing by the value of the sort column and the document id, which are used to retrieve
+ * the next (or previous) page by keyset. The cursor also holds the index of the item, so that the offset of the pages
+ * retrieved by keyset is known, but the index is not used to retrieve the pages.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+final class ListingCursor
+{
+    /**
+     * Separates the parts of a serialized cursor. The sort value is the last part so it can contain the separator.
+     */
+    private static final String SEPARATOR = ":";
+
+    /**
+     * The type of a string sort value.
+     */
+    private static final String TYPE_STRING = "s";
+
+    /**
+     * The type of an integer sort value.
+     */
+    private static final String TYPE_INTEGER = "i";
+
+    /**
+     * The type of a long sort value.
+     */
+    private static final String TYPE_LONG = "l";
+
+    /**
+     * The type of a date sort value.
+     */
+    private static final String TYPE_DATE = "d";
+
+    /**
+     * The type of a {@code null} sort value.
+     */
+    private static final String TYPE_NULL = "n";
+
+    /**
+     * The index of the item.
+     */
+    private final long position;
+
+    /**
+     * The id of the document.
+     */
+    private final long documentId;
+
+    /**
+     * The value of the sort column.
+     */
+    private final Object sortValue;
+
+    /**
+     * Creates a new cursor.
+     * 
+     * @param position the index of the item
+     * @param documentId the id of the document
+     * @param sortValue the value of the sort column
+     */
+    ListingCursor(long position, long documentId, Object sortValue)
+    {
+        this.position = position;
+        this.documentId = documentId;
+        this.sortValue = sortValue;
+    }
+
+    /**
+     * @return the index of the item
+     */
+    long getPosition()
+    {
+        return this.position;
+    }
+
+    /**
+     * @return the id of the document
+     */
+    long getDocumentId()
+    {
+        return this.documentId;
+    }
+
+    /**
+     * @return the value of the sort column
+     */
+    Object getSortValue()
+    {
+        return this.sortValue;
+    }
+
+    /**
+     * @return the serialized cursor, {@code null} if the type of the sort value is not supported
+     */
+    String serialize()
+    {
+        String type;
+        String value;
+        if (this.sortValue == null) {
+            type = TYPE_NULL;
+            value = "";
+        } else if (this.sortValue instanceof Date) {
+            type = TYPE_DATE;
+            value = String.valueOf(((Date) this.sortValue).getTime());
+        } else if (this.sortValue instanceof Integer) {
+            type = TYPE_INTEGER;
+            value = this.sortValue.toString();
+        } else if (this.sortValue instanceof Long) {
+            type = TYPE_LONG;
+            value = this.sortValue.toString();
+        } else if (this.sortValue instanceof String) {
+            type = TYPE_STRING;
+            value = (String) this.sortValue;
+        } else {
+            return null;
+        }
+        return StringUtils.join(new Object[] {this.position, this.documentId, type, value}, SEPARATOR);
+    }
+
+    /**
+     * @param cursor a serialized cursor
+     * @return the parsed cursor, {@code null} if the given cursor is not valid
+     */
+    static ListingCursor parse(String cursor)
+    {
+        String[] parts = StringUtils.splitPreserveAllTokens(cursor, SEPARATOR, 4);
+        if (parts == null || parts.length < 3) {
+            return null;
+        }
+
+        String value = parts.length > 3 ? parts[3] : "";
+        Object sortValue;
+        try {
+            if (TYPE_STRING.equals(parts[2])) {
+                sortValue = value;
+            } else if (TYPE_INTEGER.equals(parts[2])) {
+                sortValue = Integer.valueOf(value);
+            } else if (TYPE_LONG.equals(parts[2])) {
+                sortValue = Long.valueOf(value);
+            } else if (TYPE_DATE.equals(parts[2])) {
+                sortValue = new Date(Long.parseLong(value));
+            } else if (TYPE_NULL.equals(parts[2])) {
+                sortValue = null;
+            } else {
+                return null;
+            }
+            return new ListingCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]), sortValue);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.SpaceReference;
+
+/**
+ * The HQL query used to list the documents of a drive. The documents are sorted by a column and then by id, so that the
+ * pages can be retrieved by keyset.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+final class ListingQuery
+{
+    /**
+     * The entities to select from.
+     */
+    private final List<String> from = new ArrayList<String>();
+
+    /**
+     * The conditions that the listed documents must satisfy.
+     */
+    private final List<String> where = new ArrayList<String>();
+
+    /**
+     * The query parameters.
+     */
+    private final Map<String, Object> parameters = new HashMap<String, Object>();
+
+    /**
+     * The drive.
+     */
+    private final SpaceReference spaceReference;
+
+    /**
+     * The expression used to sort the documents.
+     */
+    private String sort = "doc.name";
+
+    /**
+     * Whether the documents are sorted in descending order.
+     */
+    private boolean descending;
+
+    /**
+     * Whether the sort expression can be {@code null}.
+     */
+    private boolean nullable;
+
+    /**
+     * Creates a new query that lists the documents from the specified drive.
+     * 
+     * @param spaceReference the drive
+     */
+    ListingQuery(SpaceReference spaceReference)
+    {
+        this.spaceReference = spaceReference;
+        this.from.add("XWikiDocument doc");
+        this.where.add("doc.space = :space");
+    }
+
+    /**
+     * @param entities the entities to select from, in addition to the documents
+     * @return this query
+     */
+    ListingQuery from(String entities)
+    {
+        if (!this.from.contains(entities)) {
+            this.from.add(entities);
+        }
+        return this;
+    }
+
+    /**
+     * @param condition a condition that the listed documents must satisfy
+     * @return this query
+     */
+    ListingQuery where(String condition)
+    {
+        if (!this.where.contains(condition)) {
+            this.where.add(condition);
+        }
+        return this;
+    }
+
+    /**
+     * @param name the parameter name
+     * @param value the parameter value
+     * @return this query
+     */
+    ListingQuery bind(String name, Object value)
+    {
+        this.parameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * @param expression the expression used to sort the documents
+     * @param nullable {@code true} if the sort expression can be {@code null}, {@code false} otherwise
+     * @param descending {@code true} to sort the documents in descending order, {@code false} otherwise
+     * @return this query
+     */
+    ListingQuery sort(String expression, boolean nullable, boolean descending)
+    {
+        this.sort = expression;
+        this.nullable = nullable;
+        this.descending = descending;
+        return this;
+    }
+
+    /**
+     * @return the drive
+     */
+    SpaceReference getSpaceReference()
+    {
+        return this.spaceReference;
+    }
+
+    /**
+     * @return the query parameters
+     */
+    Map<String, Object> getParameters()
+    {
+        return this.parameters;
+    }
+
+    /**
+     * @return the expression used to sort the documents
+     */
+    String getSort()
+    {
+        return this.sort;
+    }
+
+    /**
+     * @return {@code true} if the sort expression can be {@code null}, {@code false} otherwise
+     */
+    boolean isNullable()
+    {
+        return this.nullable;
+    }
+
+    /**
+     * @return {@code true} if the documents are sorted in descending order, {@code false} otherwise
+     */
+    boolean isDescending()
+    {
+        return this.descending;
+    }
+
+    /**
+     * @return the from and where clauses of this query
+     */
+    String getStatement()
+    {
+        return "from " + StringUtils.join(this.from, ", ") + " where " + StringUtils.join(this.where, " and ");
+    }
+}
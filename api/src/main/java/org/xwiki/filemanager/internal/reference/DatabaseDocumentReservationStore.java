@@ -0,0 +1,352 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.reference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.filemanager.internal.FileManagerDatabase;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Keeps the document reservations in the database of the main wiki, so that they are shared by all the nodes of a
+ * cluster. The current reservations are checked before reserving documents, and the expired reservations are taken
+ * over. The expired reservations are removed periodically. The last document name suffixes are kept in a
+ * separate table.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named("database")
+@Singleton
+public class DatabaseDocumentReservationStore implements DocumentReservationStore, Initializable
+{
+    /**
+     * The tables used by this store.
+     */
+    private static final String[] TABLES = {"filemanager_reservations", "filemanager_name_suffixes"};
+
+    /**
+     * The statement used to select the current reservations of some documents.
+     */
+    private static final String SELECT =
+        "select FMR_DOCUMENT, FMR_EXPIRY from filemanager_reservations where FMR_DOCUMENT in (:documents)";
+
+    /**
+     * The statement used to select the owner of a reservation that hasn't expired.
+     */
+    private static final String SELECT_OWNER = "select FMR_OWNER from filemanager_reservations"
+        + " where FMR_DOCUMENT = :document and FMR_EXPIRY > :now";
+
+    /**
+     * The statement used to take over an expired reservation. The condition makes sure the reservation hasn't been
+     * taken over by another node since it was read.
+     */
+    private static final String UPDATE = "update filemanager_reservations set FMR_OWNER = :owner, FMR_EXPIRY = :expiry"
+        + " where FMR_DOCUMENT = :document and FMR_EXPIRY <= :now";
+
+    /**
+     * The statement used to remove all the expired reservations.
+     */
+    private static final String DELETE_ALL_EXPIRED = "delete from filemanager_reservations where FMR_EXPIRY <= :now";
+
+    /**
+     * The statement used to reserve a document.
+     */
+    private static final String INSERT = "insert into filemanager_reservations (FMR_DOCUMENT, FMR_OWNER, FMR_EXPIRY)"
+        + " values (:document, :owner, :expiry)";
+
+    /**
+     * The statement used to release a reservation.
+     */
+    private static final String DELETE = "delete from filemanager_reservations where FMR_DOCUMENT = :document";
+
+    /**
+     * The statement used to select the last suffix added to a base document name.
+     */
+    private static final String SELECT_SUFFIX =
+        "select FMS_SUFFIX from filemanager_name_suffixes where FMS_DOCUMENT = :document";
+
+    /**
+     * The statement used to record the first suffix added to a base document name.
+     */
+    private static final String INSERT_SUFFIX =
+        "insert into filemanager_name_suffixes (FMS_DOCUMENT, FMS_SUFFIX) values (:document, :suffix)";
+
+    /**
+     * The statement used to update the last suffix added to a base document name, only if the new suffix is bigger.
+     */
+    private static final String UPDATE_SUFFIX = "update filemanager_name_suffixes set FMS_SUFFIX = :suffix"
+        + " where FMS_DOCUMENT = :document and FMS_SUFFIX < :suffix";
+
+    /**
+     * How often the expired reservations are removed, in milliseconds.
+     */
+    private static final long PURGE_INTERVAL = 600000;
+
+    /**
+     * The maximum number of reservations selected with a single query.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The document query parameter.
+     */
+    private static final String PARAMETER_DOCUMENT = "document";
+
+    /**
+     * The current time query parameter.
+     */
+    private static final String PARAMETER_NOW = "now";
+
+    /**
+     * The expiry date query parameter.
+     */
+    private static final String PARAMETER_EXPIRY = "expiry";
+
+    /**
+     * Used to log messages.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to access the reservation table.
+     */
+    @Inject
+    private FileManagerDatabase database;
+
+    /**
+     * Used to serialize the document references.
+     */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * The time when the expired reservations have been removed last time.
+     */
+    private long lastPurge;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.database.checkTables(TABLES);
+    }
+
+    @Override
+    public boolean reserve(DocumentReference documentReference, DocumentReference ownerReference, long leaseDuration)
+    {
+        return !reserveAll(Collections.singleton(documentReference), ownerReference, leaseDuration).isEmpty();
+    }
+
+    @Override
+    public Set<DocumentReference> reserveAll(Collection<DocumentReference> documentReferences,
+        DocumentReference ownerReference, long leaseDuration)
+    {
+        Map<String, DocumentReference> documents = new LinkedHashMap<String, DocumentReference>();
+        for (DocumentReference documentReference : documentReferences) {
+            documents.put(this.serializer.serialize(documentReference), documentReference);
+        }
+        String owner = serialize(ownerReference);
+        long now = System.currentTimeMillis();
+        try {
+            maybePurge(now);
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to remove the expired reservations. Root cause: [{}]", e.getMessage());
+        }
+        try {
+            // Reserve all the documents in a single transaction.
+            return reserve(documents, owner, now, leaseDuration);
+        } catch (XWikiException e) {
+            // Another node reserved one of the documents in the mean time.
+            this.logger.debug("Failed to reserve {}.", documents.keySet(), e);
+        }
+        Set<DocumentReference> reservedReferences = new LinkedHashSet<DocumentReference>();
+        if (documents.size() > 1) {
+            // Reserve the documents one by one so that only the documents reserved by the other node are skipped.
+            for (Map.Entry<String, DocumentReference> document : documents.entrySet()) {
+                try {
+                    reservedReferences.addAll(reserve(Collections.singletonMap(document.getKey(),
+                        document.getValue()), owner, now, leaseDuration));
+                } catch (XWikiException e) {
+                    this.logger.debug("Failed to reserve [{}].", document.getKey(), e);
+                }
+            }
+        }
+        return reservedReferences;
+    }
+
+    @Override
+    public boolean isReservedBy(DocumentReference documentReference, DocumentReference ownerReference)
+    {
+        String document = this.serializer.serialize(documentReference);
+        try {
+            List<?> owners = this.database.executeRead(session -> session.createNativeQuery(SELECT_OWNER)
+                .setParameter(PARAMETER_DOCUMENT, document).setParameter(PARAMETER_NOW, System.currentTimeMillis())
+                .getResultList());
+            // The guest reservations may have a null owner, depending on the database.
+            return !owners.isEmpty() && serialize(ownerReference).equals(StringUtils.defaultString(
+                (String) owners.get(0)));
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to check the reservation of [{}]. Root cause: [{}]", document, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void release(DocumentReference documentReference)
+    {
+        String document = this.serializer.serialize(documentReference);
+        try {
+            this.database.executeWrite(session -> session.createNativeQuery(DELETE)
+                .setParameter(PARAMETER_DOCUMENT, document).executeUpdate());
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to release the reservation of [{}].", document, e);
+        }
+    }
+
+    @Override
+    public int getLastSuffix(DocumentReference baseReference)
+    {
+        String document = this.serializer.serialize(baseReference);
+        try {
+            return this.database.executeRead(session -> {
+                List<?> suffix = session.createNativeQuery(SELECT_SUFFIX).setParameter(PARAMETER_DOCUMENT, document)
+                    .getResultList();
+                return suffix.isEmpty() ? 0 : ((Number) suffix.get(0)).intValue();
+            });
+        } catch (XWikiException e) {
+            // The generated names are checked anyway.
+            this.logger.warn("Failed to get the last suffix of [{}]. Root cause: [{}]", document, e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public void setLastSuffix(DocumentReference baseReference, int suffix)
+    {
+        String document = this.serializer.serialize(baseReference);
+        try {
+            this.database.executeWrite(session -> {
+                List<?> lastSuffix = session.createNativeQuery(SELECT_SUFFIX)
+                    .setParameter(PARAMETER_DOCUMENT, document).getResultList();
+                String statement = lastSuffix.isEmpty() ? INSERT_SUFFIX : UPDATE_SUFFIX;
+                return session.createNativeQuery(statement).setParameter(PARAMETER_DOCUMENT, document)
+                    .setParameter("suffix", suffix).executeUpdate();
+            });
+        } catch (XWikiException e) {
+            // Another node recorded a suffix for the same base name in the mean time.
+            this.logger.debug("Failed to set the last suffix of [{}].", document, e);
+        }
+    }
+
+    /**
+     * Reserves the specified documents in a single transaction, skipping the documents that are already reserved.
+     * 
+     * @param documents the documents to reserve, indexed by their serialized reference
+     * @param owner the serialized owner reference
+     * @param now the current time
+     * @param leaseDuration the duration of the reservations, in milliseconds
+     * @return the documents that have been reserved
+     * @throws XWikiException if another node reserved one of the documents in the mean time
+     */
+    private Set<DocumentReference> reserve(Map<String, DocumentReference> documents, String owner, long now,
+        long leaseDuration) throws XWikiException
+    {
+        return this.database.executeWrite(session -> {
+            // Check the current reservations first, so that the documents reserved already don't cause errors.
+            Map<String, Long> reservations = new HashMap<String, Long>();
+            List<String> names = new ArrayList<String>(documents.keySet());
+            for (int start = 0; start < names.size(); start += BATCH_SIZE) {
+                for (Object[] reservation : (List<Object[]>) session.createNativeQuery(SELECT)
+                    .setParameterList("documents", names.subList(start, Math.min(start + BATCH_SIZE, names.size())))
+                    .getResultList()) {
+                    reservations.put((String) reservation[0], ((Number) reservation[1]).longValue());
+                }
+            }
+            Set<DocumentReference> reservedReferences = new LinkedHashSet<DocumentReference>();
+            for (Map.Entry<String, DocumentReference> document : documents.entrySet()) {
+                Long expiry = reservations.get(document.getKey());
+                if (expiry == null || expiry <= now) {
+                    // Take over the expired reservations, unless another node took them over in the mean time.
+                    NativeQuery<?> query = session.createNativeQuery(expiry == null ? INSERT : UPDATE)
+                        .setParameter(PARAMETER_DOCUMENT, document.getKey()).setParameter("owner", owner)
+                        .setParameter(PARAMETER_EXPIRY, now + leaseDuration);
+                    if (expiry != null) {
+                        query.setParameter(PARAMETER_NOW, now);
+                    }
+                    if (query.executeUpdate() == 1) {
+                        reservedReferences.add(document.getValue());
+                    }
+                }
+            }
+            return reservedReferences;
+        });
+    }
+
+    /**
+     * Removes the expired reservations if they haven't been removed recently by this node.
+     * 
+     * @param now the current time
+     * @throws XWikiException if the expired reservations can't be removed
+     */
+    private void maybePurge(long now) throws XWikiException
+    {
+        synchronized (this) {
+            if (now - this.lastPurge < PURGE_INTERVAL) {
+                return;
+            }
+            this.lastPurge = now;
+        }
+        this.database.executeWrite(
+            session -> session.createNativeQuery(DELETE_ALL_EXPIRED).setParameter(PARAMETER_NOW, now).executeUpdate());
+    }
+
+    /**
+     * @param ownerReference a user reference
+     * @return the serialized user reference, the empty string for guest
+     */
+    private String serialize(DocumentReference ownerReference)
+    {
+        return ownerReference != null ? this.serializer.serialize(ownerReference) : "";
+    }
+}
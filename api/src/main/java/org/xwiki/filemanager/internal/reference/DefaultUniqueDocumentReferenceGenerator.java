@@ -19,66 +19,255 @@
  */
 package org.xwiki.filemanager.internal.reference;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.xwiki.bridge.DocumentAccessBridge;
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
-import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.manager.ComponentLifecycleException;
-import org.xwiki.component.phase.Disposable;
-import org.xwiki.component.phase.Initializable;
-import org.xwiki.component.phase.InitializationException;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
 import org.xwiki.filemanager.reference.UniqueDocumentReferenceGenerator;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
 
 /**
- * Implements {@link UniqueDocumentReferenceGenerator} using a cache to reserve document references for a period of
- * time.
+ * Implements {@link UniqueDocumentReferenceGenerator} using the configured {@link DocumentReservationStore} to reserve
+ * the generated document references, on behalf of the current user, until the documents are created or the reservation
+ * lease expires.
+ * <p>
+ * The references are generated under a lock that depends on the space, so that references can be generated in
+ * different spaces (drives) at the same time. The candidate names are checked in batches, with a single query. When
+ * generating references for multiple document names at once, the names are checked together. The numeric suffixes
+ * added to a document name continue from the last suffix recorded in the {@link DocumentReservationStore}.
  * 
  * @version $Id$
  * @since 2.0RC1
  */
 @Component
 @Singleton
-public class DefaultUniqueDocumentReferenceGenerator
-    implements UniqueDocumentReferenceGenerator, Initializable, Disposable
+public class DefaultUniqueDocumentReferenceGenerator implements UniqueDocumentReferenceGenerator
 {
     /**
-     * Used to check if a document exists.
+     * The number of locks used to generate references. References in spaces that use different locks can be generated
+     * at the same time.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * The maximum number of candidate names checked with a single query.
+     */
+    private static final int BATCH_SIZE = 20;
+
+    /**
+     * The statement used to select the existing documents among the candidates.
+     */
+    private static final String SELECT_EXISTING_DOCUMENTS =
+        "select distinct doc.name from XWikiDocument doc where doc.space = :space and doc.name in (:names)";
+
+    /**
+     * The statement used to select the names that start with a base name and that may have a numeric suffix, longest
+     * and biggest first, so that the first one with a numeric suffix has the biggest suffix.
+     */
+    private static final String SELECT_SUFFIXED_NAMES = "select doc.name from XWikiDocument doc"
+        + " where doc.space = :space and doc.translation = 0 and doc.name like :prefix escape '!'"
+        + " and length(doc.name) < :maxLength order by length(doc.name) desc, doc.name desc";
+
+    /**
+     * The space query parameter.
+     */
+    private static final String PARAMETER_SPACE = "space";
+
+    /**
+     * The maximum number of names checked with a single query, when generating multiple references at once.
+     */
+    private static final int MAX_QUERY_NAMES = 1000;
+
+    /**
+     * The maximum length of the numeric suffixes that are taken into account (bigger numbers don't fit an integer).
+     */
+    private static final int MAX_SUFFIX_LENGTH = 10;
+
+    /**
+     * Used to check which of the candidate documents exist.
      */
     @Inject
-    private DocumentAccessBridge documentAccessBridge;
+    private QueryManager queryManager;
+
+    /**
+     * Used to serialize the space reference in the query.
+     */
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    /**
+     * Used to reserve the generated document references.
+     */
+    @Inject
+    private Provider<DocumentReservationStore> reservationStoreProvider;
 
     /**
-     * Used to create the cache.
+     * Used to get the reservation lease duration.
      */
     @Inject
-    private CacheManager cacheManager;
+    private FileManagerConfiguration configuration;
+
+    /**
+     * Used to get the user that owns the reservations.
+     */
+    @Inject
+    private DocumentAccessBridge documentAccessBridge;
+
+    /**
+     * The locks used to generate references, the space determines which lock is used.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
 
     /**
-     * Used to cache (reserve) document references.
+     * Creates the locks.
      */
-    private Cache<Boolean> documentReferenceCache;
+    public DefaultUniqueDocumentReferenceGenerator()
+    {
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public DocumentReference generate(SpaceReference spaceReference, Iterator<String> documentNameSequence)
+    {
+        synchronized (getLock(spaceReference)) {
+            return reserve(spaceReference, documentNameSequence);
+        }
+    }
 
     @Override
-    public synchronized DocumentReference generate(SpaceReference spaceReference, Iterator<String> documentNameSequence)
+    public DocumentReference generate(SpaceReference spaceReference, String documentName)
     {
+        synchronized (getLock(spaceReference)) {
+            return generateWithSuffix(spaceReference, documentName);
+        }
+    }
+
+    @Override
+    public List<DocumentReference> generateAll(SpaceReference spaceReference, List<String> documentNames)
+    {
+        List<DocumentReference> references = new ArrayList<DocumentReference>(documentNames.size());
+        synchronized (getLock(spaceReference)) {
+            // Check all the document names at once. Most of the time they are available.
+            Map<String, DocumentReference> candidates = new LinkedHashMap<String, DocumentReference>();
+            for (String documentName : documentNames) {
+                candidates.put(documentName, new DocumentReference(documentName, spaceReference));
+            }
+            Set<String> existingNames = getExistingNames(spaceReference, new ArrayList<>(candidates.values()));
+            List<DocumentReference> availableReferences = new ArrayList<DocumentReference>();
+            for (DocumentReference reference : candidates.values()) {
+                if (!existingNames.contains(reference.getName())) {
+                    availableReferences.add(reference);
+                }
+            }
+            // Reserve the available references at once.
+            Set<String> reservedNames = new HashSet<String>();
+            for (DocumentReference reference : this.reservationStoreProvider.get().reserveAll(availableReferences,
+                this.documentAccessBridge.getCurrentUserReference(), this.configuration.getReservationLease())) {
+                reservedNames.add(reference.getName());
+            }
+
+            // Add a numeric suffix to the names that are not available or that are used multiple times.
+            for (String documentName : documentNames) {
+                if (reservedNames.remove(documentName)) {
+                    references.add(candidates.get(documentName));
+                } else {
+                    references.add(generateWithSuffix(spaceReference, documentName));
+                }
+            }
+        }
+        return references;
+    }
+
+    /**
+     * @param spaceReference a space reference
+     * @return the lock used to generate references in the specified space
+     */
+    private Object getLock(SpaceReference spaceReference)
+    {
+        return this.locks[(spaceReference.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    /**
+     * Generates a unique reference starting from the last numeric suffix added to the given document name, so that the
+     * number of checked names doesn't depend on the number of documents that use the same name. The last suffix is
+     * kept in the reservation store, so that it is shared by the nodes of a cluster. When the reservation store
+     * doesn't know the last suffix yet, it is initialized from the biggest suffix used by the existing documents.
+     * 
+     * @param spaceReference the space where the generated document name must be unique
+     * @param documentName the document name to use as base
+     * @return the reference to the first document in the sequence that doesn't exist and isn't reserved
+     */
+    private DocumentReference generateWithSuffix(SpaceReference spaceReference, String documentName)
+    {
+        DocumentReservationStore store = this.reservationStoreProvider.get();
+        DocumentReference baseReference = new DocumentReference(documentName, spaceReference);
+        int lastSuffix = store.getLastSuffix(baseReference);
+        if (lastSuffix == 0) {
+            lastSuffix = getBiggestSuffix(spaceReference, documentName);
+            if (lastSuffix > 0) {
+                store.setLastSuffix(baseReference, lastSuffix);
+            }
+        }
+
+        DocumentNameSequence documentNameSequence = new DocumentNameSequence(documentName);
+        documentNameSequence.setFirstSuffix(lastSuffix + 1);
+        DocumentReference reference = reserve(spaceReference, documentNameSequence);
+        if (reference != null) {
+            int suffix = getSuffix(reference.getName(), documentName);
+            if (suffix > lastSuffix) {
+                store.setLastSuffix(baseReference, suffix);
+            }
+        }
+        return reference;
+    }
+
+    /**
+     * Iterates the given sequence of document names until it finds one that doesn't exist and that isn't reserved, and
+     * reserves it.
+     * 
+     * @param spaceReference the space where the generated document name must be unique
+     * @param documentNameSequence the sequence of document names
+     * @return the reference to the first document in the given sequence that doesn't exist and isn't reserved
+     */
+    private DocumentReference reserve(SpaceReference spaceReference, Iterator<String> documentNameSequence)
+    {
+        DocumentReservationStore store = this.reservationStoreProvider.get();
+        DocumentReference ownerReference = this.documentAccessBridge.getCurrentUserReference();
+        long leaseDuration = this.configuration.getReservationLease();
         while (documentNameSequence.hasNext()) {
-            String name = documentNameSequence.next();
-            DocumentReference reference = new DocumentReference(name, spaceReference);
-            String key = reference.toString();
-            if (this.documentReferenceCache.get(key) == null) {
-                // The reference is not reserved.
-                this.documentReferenceCache.set(key, true);
-                if (!exists(reference)) {
+            // Collect the next candidates.
+            List<DocumentReference> candidates = new ArrayList<DocumentReference>();
+            while (documentNameSequence.hasNext() && candidates.size() < BATCH_SIZE) {
+                candidates.add(new DocumentReference(documentNameSequence.next(), spaceReference));
+            }
+
+            Set<String> existingNames = getExistingNames(spaceReference, candidates);
+            for (DocumentReference reference : candidates) {
+                // The reservation fails if the reference has been reserved already (possibly by another node).
+                if (!existingNames.contains(reference.getName())
+                    && store.reserve(reference, ownerReference, leaseDuration)) {
                     return reference;
                 }
             }
@@ -86,39 +275,73 @@ public class DefaultUniqueDocumentReferenceGenerator
         return null;
     }
 
-    private boolean exists(DocumentReference documentReference)
+    /**
+     * @param name a document name
+     * @param base a base document name
+     * @return the numeric suffix added to the base name, {@code 0} if the given name doesn't have a numeric suffix
+     */
+    private int getSuffix(String name, String base)
     {
-        try {
-            return this.documentAccessBridge.exists(documentReference);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        String suffix = name.substring(Math.min(base.length(), name.length()));
+        if (name.startsWith(base) && suffix.length() > 0 && suffix.length() < MAX_SUFFIX_LENGTH
+            && StringUtils.isNumeric(suffix)) {
+            return Integer.parseInt(suffix);
         }
+        return 0;
     }
 
-    @Override
-    public void initialize() throws InitializationException
+    /**
+     * @param spaceReference the space where the documents are
+     * @param base a base document name
+     * @return the biggest numeric suffix added to the base name by the existing documents, {@code 0} if there's none
+     */
+    private int getBiggestSuffix(SpaceReference spaceReference, String base)
     {
-        // Initialize the cache.
-        CacheConfiguration cacheConfiguration = new CacheConfiguration();
-        cacheConfiguration.setConfigurationId("unique.documentReference");
-        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
-        lru.setMaxEntries(1000);
-        // Discard after 1 hour.
-        lru.setTimeToLive(3600);
-        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
-
         try {
-            this.documentReferenceCache = this.cacheManager.createNewCache(cacheConfiguration);
-        } catch (CacheException e) {
-            throw new InitializationException("Failed to initialize the document reference cache.", e);
+            Query query = this.queryManager.createQuery(SELECT_SUFFIXED_NAMES, Query.HQL);
+            query.bindValue(PARAMETER_SPACE, this.localEntityReferenceSerializer.serialize(spaceReference));
+            // Escape the wildcards of the base name.
+            query.bindValue("prefix", base.replaceAll("[!%_]", "!$0") + '%');
+            query.bindValue("maxLength", base.length() + MAX_SUFFIX_LENGTH);
+            query.setWiki(spaceReference.getWikiReference().getName());
+            for (String name : query.<String>execute()) {
+                int suffix = getSuffix(name, base);
+                if (suffix > 0) {
+                    return suffix;
+                }
+            }
+            return 0;
+        } catch (QueryException e) {
+            throw new RuntimeException("Failed to get the biggest suffix of [" + base + "] in [" + spaceReference
+                + "].", e);
         }
     }
 
-    @Override
-    public void dispose() throws ComponentLifecycleException
+    /**
+     * @param spaceReference the space where the candidate documents are
+     * @param candidates the candidate document references
+     * @return the names of the candidate documents that exist
+     */
+    private Set<String> getExistingNames(SpaceReference spaceReference, List<DocumentReference> candidates)
     {
-        if (this.documentReferenceCache != null) {
-            this.documentReferenceCache.dispose();
+        Set<String> existingNames = new HashSet<String>();
+        for (int start = 0; start < candidates.size(); start += MAX_QUERY_NAMES) {
+            List<String> names = new ArrayList<String>();
+            for (DocumentReference reference : candidates.subList(start,
+                Math.min(start + MAX_QUERY_NAMES, candidates.size()))) {
+                names.add(reference.getName());
+            }
+            try {
+                Query query = this.queryManager.createQuery(SELECT_EXISTING_DOCUMENTS, Query.HQL);
+                query.bindValue(PARAMETER_SPACE, this.localEntityReferenceSerializer.serialize(spaceReference));
+                query.bindValue("names", names);
+                query.setWiki(spaceReference.getWikiReference().getName());
+                existingNames.addAll(query.<String>execute());
+            } catch (QueryException e) {
+                throw new RuntimeException("Failed to check if the documents " + names + " exist in ["
+                    + spaceReference + "].", e);
+            }
         }
+        return existingNames;
     }
 }
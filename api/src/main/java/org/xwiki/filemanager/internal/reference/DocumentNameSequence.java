@@ -50,6 +50,12 @@ public class DocumentNameSequence implements Iterator<String>
      */
     private int randomCounter;
 
+    /**
+     * The first numeric suffix used after the base name. It is bigger than {@code 1} when the numeric suffixes that are
+     * already used are known, in order to not iterate them.
+     */
+    private int firstSuffix = 1;
+
     /**
      * Creates a new sequence based on the specified document name. Each item in the sequence (except the first) will be
      * constructed from this base name by adding a suffix, which is either a counter, a random name of an {@link UUID}.
@@ -73,11 +79,11 @@ public class DocumentNameSequence implements Iterator<String>
     {
         String name = this.base;
         if (this.consecutiveCounter == 0) {
-            this.consecutiveCounter++;
-        } else if (this.consecutiveCounter < 100) {
+            this.consecutiveCounter = this.firstSuffix;
+        } else if (this.consecutiveCounter < this.firstSuffix + 99) {
             name += this.consecutiveCounter++;
         } else if (this.randomCounter < 5) {
-            name += 100 + (int) (Math.random() * 100000);
+            name += this.firstSuffix + 99 + (int) (Math.random() * 100000);
             this.randomCounter++;
         } else {
             name += UUID.randomUUID();
@@ -86,6 +92,18 @@ public class DocumentNameSequence implements Iterator<String>
         return name;
     }
 
+    /**
+     * Sets the first numeric suffix added to the base name, i.e. the sequence continues with {@code base + firstSuffix}
+     * after the base name. This must be called before iterating the sequence.
+     * 
+     * @param firstSuffix the first numeric suffix, must be positive
+     * @since 2.2
+     */
+    public void setFirstSuffix(int firstSuffix)
+    {
+        this.firstSuffix = firstSuffix;
+    }
+
     @Override
     public void remove()
     {
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.reference;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Releases the reservation of a file or folder document when the document is created, so that the reservations don't
+ * have to wait for their lease to expire.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named(DocumentReservationListener.NAME)
+@Singleton
+public class DocumentReservationListener implements EventListener
+{
+    /**
+     * The name of the event listener.
+     */
+    public static final String NAME = "FileManagerDocumentReservationListener";
+
+    /**
+     * The class used to mark the file documents.
+     */
+    private static final EntityReference FILE_CLASS_REFERENCE = new EntityReference("FileClass", EntityType.DOCUMENT,
+        new EntityReference("FileManagerCode", EntityType.SPACE));
+
+    /**
+     * The class used to mark the folder documents.
+     */
+    private static final EntityReference FOLDER_CLASS_REFERENCE = new EntityReference("FolderClass",
+        EntityType.DOCUMENT, new EntityReference("FileManagerCode", EntityType.SPACE));
+
+    /**
+     * Used to release the reservations.
+     */
+    @Inject
+    private Provider<DocumentReservationStore> storeProvider;
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent());
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        // Only the file and folder documents are created from generated references.
+        if (document.getXObject(FILE_CLASS_REFERENCE) != null || document.getXObject(FOLDER_CLASS_REFERENCE) != null) {
+            this.storeProvider.get().release(document.getDocumentReference());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.reference;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
+
+/**
+ * Provides the configured {@link DocumentReservationStore}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Singleton
+public class DocumentReservationStoreProvider implements Provider<DocumentReservationStore>, Initializable
+{
+    /**
+     * Used to log messages.
+     */
+    @Inject
+    private Logger logger;
+
+    /**
+     * Used to get the configured reservation store.
+     */
+    @Inject
+    private FileManagerConfiguration configuration;
+
+    /**
+     * Used to lookup the configured reservation store.
+     */
+    @Inject
+    private ComponentManager componentManager;
+
+    /**
+     * The configured reservation store.
+     */
+    private DocumentReservationStore store;
+
+    @Override
+    public void initialize()
+    {
+        String hint = this.configuration.getReservationStore();
+        try {
+            this.store = this.componentManager.getInstance(DocumentReservationStore.class, hint);
+        } catch (ComponentLookupException e) {
+            // The reservations are not shared by the cluster nodes anymore.
+            this.logger.error(
+                "Failed to lookup the document reservation store [{}]. Using the in-memory store instead.", hint, e);
+            this.store = new MemoryDocumentReservationStore();
+        }
+    }
+
+    @Override
+    public DocumentReservationStore get()
+    {
+        return this.store;
+    }
+}
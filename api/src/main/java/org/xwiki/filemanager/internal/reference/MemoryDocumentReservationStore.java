@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.reference;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keeps the document reservations in memory. Suited for a single node. The number of reservations is not limited: the
+ * expired reservations are removed periodically. Only the last suffixes of the most recently used base names are kept:
+ * a forgotten suffix is found again by checking the generated names.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Component
+@Named(MemoryDocumentReservationStore.HINT)
+@Singleton
+public class MemoryDocumentReservationStore implements DocumentReservationStore
+{
+    /**
+     * The component hint.
+     */
+    public static final String HINT = "memory";
+
+    /**
+     * How often the expired reservations are removed, in milliseconds.
+     */
+    private static final long PURGE_INTERVAL = 60000;
+
+    /**
+     * The maximum number of base names whose last suffix is kept.
+     */
+    private static final int MAX_SUFFIXES = 10000;
+
+    /**
+     * The reservations, indexed by document reference.
+     */
+    private final ConcurrentMap<DocumentReference, Reservation> reservations =
+        new ConcurrentHashMap<DocumentReference, Reservation>();
+
+    /**
+     * The time when the expired reservations have been removed last time.
+     */
+    private volatile long lastPurge = System.currentTimeMillis();
+
+    /**
+     * Whether the expired reservations are being removed.
+     */
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    /**
+     * The last numeric suffix added to each base name, the least recently used base names are removed first.
+     */
+    private final Map<DocumentReference, Integer> suffixes =
+        Collections.synchronizedMap(new LinkedHashMap<DocumentReference, Integer>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DocumentReference, Integer> eldest)
+            {
+                return size() > MAX_SUFFIXES;
+            }
+        });
+
+    /**
+     * A document reservation.
+     */
+    private static final class Reservation
+    {
+        /**
+         * The user that made the reservation.
+         */
+        private final DocumentReference ownerReference;
+
+        /**
+         * The time when the reservation expires.
+         */
+        private final long expiry;
+
+        /**
+         * Creates a new reservation.
+         * 
+         * @param ownerReference the user that made the reservation
+         * @param expiry the time when the reservation expires
+         */
+        Reservation(DocumentReference ownerReference, long expiry)
+        {
+            this.ownerReference = ownerReference;
+            this.expiry = expiry;
+        }
+    }
+
+    @Override
+    public boolean reserve(DocumentReference documentReference, DocumentReference ownerReference, long leaseDuration)
+    {
+        long now = System.currentTimeMillis();
+        maybePurge(now);
+
+        AtomicBoolean reserved = new AtomicBoolean();
+        this.reservations.compute(documentReference, (reference, reservation) -> {
+            if (reservation != null && reservation.expiry > now) {
+                return reservation;
+            }
+            reserved.set(true);
+            return new Reservation(ownerReference, now + leaseDuration);
+        });
+        return reserved.get();
+    }
+
+    @Override
+    public Set<DocumentReference> reserveAll(Collection<DocumentReference> documentReferences,
+        DocumentReference ownerReference, long leaseDuration)
+    {
+        Set<DocumentReference> reservedReferences = new LinkedHashSet<DocumentReference>();
+        for (DocumentReference documentReference : documentReferences) {
+            if (reserve(documentReference, ownerReference, leaseDuration)) {
+                reservedReferences.add(documentReference);
+            }
+        }
+        return reservedReferences;
+    }
+
+    @Override
+    public boolean isReservedBy(DocumentReference documentReference, DocumentReference ownerReference)
+    {
+        Reservation reservation = this.reservations.get(documentReference);
+        return reservation != null && reservation.expiry > System.currentTimeMillis()
+            && Objects.equals(reservation.ownerReference, ownerReference);
+    }
+
+    @Override
+    public void release(DocumentReference documentReference)
+    {
+        this.reservations.remove(documentReference);
+    }
+
+    @Override
+    public int getLastSuffix(DocumentReference baseReference)
+    {
+        Integer suffix = this.suffixes.get(baseReference);
+        return suffix != null ? suffix : 0;
+    }
+
+    @Override
+    public void setLastSuffix(DocumentReference baseReference, int suffix)
+    {
+        this.suffixes.merge(baseReference, suffix, Math::max);
+    }
+
+    /**
+     * Removes the expired reservations if they haven't been removed recently.
+     * 
+     * @param now the current time
+     */
+    private void maybePurge(long now)
+    {
+        if (now - this.lastPurge >= PURGE_INTERVAL && this.purging.compareAndSet(false, true)) {
+            try {
+                this.reservations.values().removeIf(reservation -> reservation.expiry <= now);
+                this.lastPurge = now;
+            } finally {
+                this.purging.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.xwiki.job.event.status.JobStatus.State;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * An active (unfinished) file system job, as stored in the {@link ActiveJobStore}. The state and the progress of the
+ * job are updated when its lease is renewed, which allows to display the jobs that run on other cluster nodes.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class ActiveJob implements Serializable
+{
+    /**
+     * Serialization identifier.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The job id.
+     */
+    private final String id;
+
+    /**
+     * The job type.
+     */
+    private final String type;
+
+    /**
+     * The user that triggered the job.
+     */
+    private final DocumentReference userReference;
+
+    /**
+     * The drives targeted by the job.
+     */
+    private final Set<SpaceReference> driveReferences;
+
+    /**
+     * The job state.
+     */
+    private final State state;
+
+    /**
+     * The job progress.
+     */
+    private final double progress;
+
+    /**
+     * Creates a new active job that hasn't started yet.
+     * 
+     * @param id the job id
+     * @param type the job type
+     * @param userReference the user that triggered the job
+     * @param driveReferences the drives targeted by the job
+     */
+    public ActiveJob(String id, String type, DocumentReference userReference, Set<SpaceReference> driveReferences)
+    {
+        this(id, type, userReference, driveReferences, State.NONE, 0);
+    }
+
+    /**
+     * Creates a new active job.
+     * 
+     * @param id the job id
+     * @param type the job type
+     * @param userReference the user that triggered the job
+     * @param driveReferences the drives targeted by the job
+     * @param state the job state
+     * @param progress the job progress, between 0 and 1
+     */
+    public ActiveJob(String id, String type, DocumentReference userReference, Set<SpaceReference> driveReferences,
+        State state, double progress)
+    {
+        this.id = id;
+        this.type = type;
+        this.userReference = userReference;
+        this.driveReferences = new LinkedHashSet<SpaceReference>(driveReferences);
+        this.state = state;
+        this.progress = progress;
+    }
+
+    /**
+     * @return the job id
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the job type
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return the user that triggered the job
+     */
+    public DocumentReference getUserReference()
+    {
+        return userReference;
+    }
+
+    /**
+     * @return the drives targeted by the job
+     */
+    public Set<SpaceReference> getDriveReferences()
+    {
+        return Collections.unmodifiableSet(driveReferences);
+    }
+
+    /**
+     * @return the job state, {@link State#NONE} if the job hasn't started yet
+     */
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return the job progress, between 0 and 1
+     */
+    public double getProgress()
+    {
+        return progress;
+    }
+}
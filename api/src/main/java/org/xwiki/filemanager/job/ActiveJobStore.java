@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Stores the active (unfinished) file system jobs and the drive locks held by the running jobs. The store used is
+ * configured with {@code filemanager.job.activeStore}: the {@code memory} store is enough for a single node while in a
+ * cluster the store must be shared by all the nodes (e.g. the {@code database} store) so that the active jobs can be
+ * retrieved from any node and so that jobs running on different nodes don't modify the same drive at the same time.
+ * <p>
+ * The store is not responsible for removing the finished jobs, which is done by the file manager when a job finishes
+ * on the node where it runs. The active jobs and their drive locks are leases though: the node where the jobs run
+ * renews them periodically, so the jobs and the locks left by a node that stopped unexpectedly expire and the store
+ * ignores them (the locks of the expired jobs can be taken by other jobs).
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Role
+@Unstable
+public interface ActiveJobStore
+{
+    /**
+     * Adds a new active job, replacing the previous active job with the same id.
+     * 
+     * @param job the active job
+     * @param leaseDuration how long the job stays active if its lease is not renewed, in milliseconds
+     */
+    void add(ActiveJob job, long leaseDuration);
+
+    /**
+     * Renews the lease of the given active jobs and of the drive locks they hold, and updates their state and
+     * progress. The jobs that have been removed in the mean time are not added back. The expired jobs and drive locks
+     * may be removed at the same time.
+     * 
+     * @param jobs the active jobs to renew
+     * @param leaseDuration how long the jobs and their drive locks stay active if their lease is not renewed again,
+     *            in milliseconds
+     */
+    void renew(Collection<ActiveJob> jobs, long leaseDuration);
+
+    /**
+     * Removes an active job and releases the drive locks it holds.
+     * 
+     * @param jobId the job id
+     */
+    void remove(String jobId);
+
+    /**
+     * @param jobId the job id
+     * @return the specified active job, {@code null} if the job is not active or if its lease has expired
+     */
+    ActiveJob getJob(String jobId);
+
+    /**
+     * @return the ids of the active jobs, in the order they have been added
+     */
+    List<String> getJobs();
+
+    /**
+     * @param driveReference a drive reference
+     * @return the ids of the active jobs that target the specified drive, in the order they have been added
+     */
+    List<String> getJobsByDrive(SpaceReference driveReference);
+
+    /**
+     * Locks the specified drives for the given job, if none of them is locked by another job. Either all the drives are
+     * locked or none. This method doesn't wait for the drives to be unlocked. The expired locks are ignored.
+     * 
+     * @param jobId the id of the job that wants to modify the specified drives
+     * @param driveReferences the drives to lock
+     * @param leaseDuration how long the drives stay locked if the lease is not renewed, in milliseconds
+     * @return {@code true} if the drives have been locked, {@code false} if some of them are locked by another job
+     */
+    boolean lockDrives(String jobId, Set<SpaceReference> driveReferences, long leaseDuration);
+
+    /**
+     * Releases the drive locks held by the specified job.
+     * 
+     * @param jobId the job id
+     */
+    void unlockDrives(String jobId);
+}
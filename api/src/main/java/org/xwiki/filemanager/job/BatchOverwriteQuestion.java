@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Question asked once, before a copy or move operation starts, when one or more files with the same name are found in
+ * the destination. Each conflict can be answered individually using {@link #getQuestions()}, or all conflicts can be
+ * answered at once using {@link #setOverwriteAll(boolean)}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class BatchOverwriteQuestion
+{
+    /**
+     * The name conflicts found in the destination.
+     */
+    private final List<OverwriteQuestion> questions;
+
+    /**
+     * Whether to overwrite or not all the files with the same name, including those that are found while the operation
+     * is running, in case the destination changes in the mean time. {@code null} if each conflict is answered
+     * individually.
+     */
+    private Boolean overwriteAll;
+
+    /**
+     * Ask whether to overwrite or not the files that exist in the destination with the files being copied or moved.
+     * 
+     * @param questions the name conflicts found in the destination
+     */
+    public BatchOverwriteQuestion(List<OverwriteQuestion> questions)
+    {
+        this.questions = Collections.unmodifiableList(questions);
+    }
+
+    /**
+     * @return the read-only list of name conflicts, each of them can be answered individually
+     */
+    public List<OverwriteQuestion> getQuestions()
+    {
+        return questions;
+    }
+
+    /**
+     * @return {@code true} to overwrite all the files with the same name, {@code false} to keep all the existing files,
+     *         {@code null} if each conflict has been answered individually
+     */
+    public Boolean getOverwriteAll()
+    {
+        return overwriteAll;
+    }
+
+    /**
+     * Answers all the name conflicts at once, including those that may be found while the operation is running.
+     * 
+     * @param overwrite {@code true} to overwrite all the files with the same name, {@code false} to keep the existing
+     *            files
+     */
+    public void setOverwriteAll(boolean overwrite)
+    {
+        this.overwriteAll = overwrite;
+        for (OverwriteQuestion question : this.questions) {
+            question.setOverwrite(overwrite);
+            question.setAskAgain(false);
+        }
+    }
+}
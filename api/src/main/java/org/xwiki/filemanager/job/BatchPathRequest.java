@@ -20,9 +20,13 @@
 package org.xwiki.filemanager.job;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import org.xwiki.filemanager.Path;
 import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -53,7 +57,8 @@ public class BatchPathRequest extends AbstractRequest
     }
 
     /**
-     * Sets the paths that are targeted by this request.
+     * Sets the paths that are targeted by this request. Use a {@link PathList} when the request targets many paths,
+     * since the request is kept and serialized with the job status.
      * 
      * @param paths the collection of paths that are targeted by this request
      */
@@ -61,4 +66,38 @@ public class BatchPathRequest extends AbstractRequest
     {
         setProperty(PROPERTY_PATHS, paths);
     }
+
+    /**
+     * @return the drives (spaces) that are targeted by this request
+     * @since 2.2
+     */
+    public Set<SpaceReference> getDriveReferences()
+    {
+        Set<SpaceReference> driveReferences = new LinkedHashSet<SpaceReference>();
+        Collection<Path> paths = getPaths();
+        if (paths != null) {
+            for (Path path : paths) {
+                addDriveReference(path, driveReferences);
+            }
+        }
+        return driveReferences;
+    }
+
+    /**
+     * Adds the drive of the given path to the specified set.
+     * 
+     * @param path a path
+     * @param driveReferences the set of drives to update
+     * @since 2.2
+     */
+    protected void addDriveReference(Path path, Set<SpaceReference> driveReferences)
+    {
+        if (path != null) {
+            DocumentReference reference =
+                path.getFileReference() != null ? path.getFileReference() : path.getFolderReference();
+            if (reference != null) {
+                driveReferences.add(reference.getLastSpaceReference());
+            }
+        }
+    }
 }
@@ -27,6 +27,8 @@ import org.xwiki.filemanager.Path;
 import org.xwiki.job.JobException;
 import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.security.authorization.AccessDeniedException;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -54,6 +56,20 @@ public interface FileManager
      */
     String move(Collection<Path> paths, Path destination) throws JobException;
 
+    /**
+     * Schedules a job to move the specified files and folders to the given destination. An interactive job asks the
+     * user whether to overwrite the files with the same name that exist in the destination (see
+     * {@link #answerOverwrite(String, Collection, Boolean)}). A job that is not interactive keeps the existing files.
+     * 
+     * @param paths the files and folders to move
+     * @param destination where to move the specified files and folders
+     * @param interactive whether the job asks questions or not
+     * @return the id of the move job that has been scheduled
+     * @throws JobException if scheduling the move job fails
+     * @since 2.2
+     */
+    String move(Collection<Path> paths, Path destination, boolean interactive) throws JobException;
+
     /**
      * Schedules a job to copy the specified files and folders to the given destination.
      * 
@@ -64,6 +80,20 @@ public interface FileManager
      */
     String copy(Collection<Path> paths, Path destination) throws JobException;
 
+    /**
+     * Schedules a job to copy the specified files and folders to the given destination. An interactive job asks the
+     * user whether to overwrite the files with the same name that exist in the destination (see
+     * {@link #answerOverwrite(String, Collection, Boolean)}). A job that is not interactive keeps the existing files.
+     * 
+     * @param paths the files and folders to copy
+     * @param destination where to copy the specified files and folders
+     * @param interactive whether the job asks questions or not
+     * @return the id of the copy job that has been scheduled
+     * @throws JobException if scheduling the copy job fails
+     * @since 2.2
+     */
+    String copy(Collection<Path> paths, Path destination, boolean interactive) throws JobException;
+
     /**
      * Schedules a job to delete the specified files and folders.
      * 
@@ -92,14 +122,113 @@ public interface FileManager
      */
     String pack(Collection<Path> paths, AttachmentReference outputFileReference) throws JobException;
 
+    /**
+     * Computes what a move job would do if it was scheduled now, without modifying anything.
+     * 
+     * @param paths the files and folders to move
+     * @param destination where to move the specified files and folders
+     * @return the plan of the move operation
+     * @throws JobException if the move job can't be created
+     * @since 2.2
+     */
+    OperationPlan planMove(Collection<Path> paths, Path destination) throws JobException;
+
+    /**
+     * Computes what a copy job would do if it was scheduled now, without modifying anything.
+     * 
+     * @param paths the files and folders to copy
+     * @param destination where to copy the specified files and folders
+     * @return the plan of the copy operation
+     * @throws JobException if the copy job can't be created
+     * @since 2.2
+     */
+    OperationPlan planCopy(Collection<Path> paths, Path destination) throws JobException;
+
+    /**
+     * Computes what a delete job would do if it was scheduled now, without modifying anything.
+     * 
+     * @param paths the files and folders to delete
+     * @return the plan of the delete operation
+     * @throws JobException if the delete job can't be created
+     * @since 2.2
+     */
+    OperationPlan planDelete(Collection<Path> paths) throws JobException;
+
     /**
      * @param jobId the job whose status to return
      * @return the status of the specified job
      */
     JobStatus getJobStatus(String jobId);
 
+    /**
+     * Asks the specified job to stop. The job stops before processing the next file or folder, leaving the files and
+     * folders it has already processed in a consistent state. A job that waits to be executed stops before processing
+     * anything. Note that if other requests have been merged into the specified job then they are canceled too. Only
+     * the user that triggered the job or an administrator of all the drives targeted by the job can cancel it.
+     * 
+     * @param jobId the job to cancel
+     * @return {@code true} if the job has been asked to stop, {@code false} if the job is not found, is finished or
+     *         can't be canceled
+     * @throws AccessDeniedException if the current user is not allowed to cancel the specified job
+     * @since 2.2
+     */
+    boolean cancel(String jobId) throws AccessDeniedException;
+
+    /**
+     * Answers the overwrite question asked by the specified job. The question is either an {@link OverwriteQuestion},
+     * asked for a name conflict found while the job runs, or a {@link BatchOverwriteQuestion}, asked before the job
+     * starts for all the name conflicts found in the destination. Only the user that triggered the job or an
+     * administrator of all the drives targeted by the job can answer it.
+     * 
+     * @param jobId the job that waits for an answer
+     * @param overwrite the positions of the name conflicts for which the existing file is overwritten; the existing
+     *            file is kept for the other conflicts. The single conflict of an {@link OverwriteQuestion} has the
+     *            position 0
+     * @param overwriteAll {@code true} to overwrite all the existing files, {@code false} to keep all the existing
+     *            files, including those found later while the job runs; {@code null} to answer each conflict using
+     *            the given positions
+     * @return {@code true} if the question has been answered, {@code false} if the job is not found or doesn't wait
+     *         for an overwrite answer
+     * @throws AccessDeniedException if the current user is not allowed to answer the question
+     * @since 2.2
+     */
+    boolean answerOverwrite(String jobId, Collection<Integer> overwrite, Boolean overwriteAll)
+        throws AccessDeniedException;
+
+    /**
+     * Returns what changed in the status of the specified job since the given cursor. If nothing changed then this
+     * method waits for a change, at most the given amount of time, which allows clients to long-poll the job status
+     * instead of retrieving the entire status at fixed intervals.
+     * 
+     * @param jobId the job whose status to return
+     * @param cursor the cursor of the previous update, {@code null} to get the full status
+     * @param timeout the maximum number of milliseconds to wait for a change
+     * @return what changed in the status of the specified job since the given cursor, {@code null} if the job is not
+     *         found
+     * @throws InterruptedException if interrupted while waiting for a change
+     * @since 2.2
+     */
+    JobStatusUpdate getJobStatusUpdate(String jobId, String cursor, long timeout) throws InterruptedException;
+
     /**
      * @return the list of jobs that are running or are pending for execution
      */
     List<String> getActiveJobs();
+
+    /**
+     * @param driveReference a drive reference
+     * @return the list of jobs that are running or are pending for execution and that target the specified drive
+     * @since 2.2
+     */
+    List<String> getActiveJobs(SpaceReference driveReference);
+
+    /**
+     * Use this to display the jobs that run on other nodes of the cluster, whose status is not available locally.
+     * 
+     * @param jobId the job id
+     * @return the specified active job, with the state and the progress published by the node that runs it,
+     *         {@code null} if there's no such job or if it's finished
+     * @since 2.2
+     */
+    ActiveJob getActiveJob(String jobId);
 }
@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.xwiki.job.Request;
+import org.xwiki.job.event.status.CancelableJobStatus;
 import org.xwiki.job.event.status.JobProgress;
 import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.logging.LogLevel;
@@ -31,13 +32,14 @@ import org.xwiki.logging.event.LogEvent;
 import org.xwiki.stability.Unstable;
 
 /**
- * Base class to implement a {@link JobStatus} that wraps another {@link JobStatus}.
+ * Base class to implement a {@link JobStatus} that wraps another {@link JobStatus}. The wrapped job status can be
+ * canceled through this adapter if it is a {@link CancelableJobStatus}.
  * 
  * @version $Id$
  * @since 2.0.5
  */
 @Unstable
-public class JobStatusAdapter implements JobStatus
+public class JobStatusAdapter implements CancelableJobStatus
 {
     /**
      * The job status that is being wrapped and extended.
@@ -114,4 +116,39 @@ public class JobStatusAdapter implements JobStatus
     {
         return this.jobStatus.getLog(level);
     }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @since 2.2
+     */
+    @Override
+    public boolean isCancelable()
+    {
+        return this.jobStatus instanceof CancelableJobStatus && ((CancelableJobStatus) this.jobStatus).isCancelable();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @since 2.2
+     */
+    @Override
+    public void cancel()
+    {
+        if (this.jobStatus instanceof CancelableJobStatus) {
+            ((CancelableJobStatus) this.jobStatus).cancel();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @since 2.2
+     */
+    @Override
+    public boolean isCanceled()
+    {
+        return this.jobStatus instanceof CancelableJobStatus && ((CancelableJobStatus) this.jobStatus).isCanceled();
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.event.LogEvent;
+import org.xwiki.stability.Unstable;
+
+/**
+ * What changed in the status of a file system job since a client has last seen it. The client passes back the
+ * {@link #getCursor() cursor} of the previous update in order to get only what changed since then, instead of the full
+ * job status (which includes the request paths and the entire log).
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class JobStatusUpdate
+{
+    /**
+     * The job status.
+     */
+    private final JobStatus jobStatus;
+
+    /**
+     * Identifies the job status state described by this update.
+     */
+    private final String cursor;
+
+    /**
+     * Whether the client doesn't know anything about the job status yet.
+     */
+    private final boolean full;
+
+    /**
+     * The log events logged since the previous update.
+     */
+    private final List<LogEvent> logEvents;
+
+    /**
+     * Creates a new job status update.
+     * 
+     * @param jobStatus the job status
+     * @param cursor identifies the job status state described by this update
+     * @param full {@code true} if the client doesn't know anything about the job status yet, {@code false} otherwise
+     * @param logEvents the log events logged since the previous update
+     */
+    public JobStatusUpdate(JobStatus jobStatus, String cursor, boolean full, List<LogEvent> logEvents)
+    {
+        this.jobStatus = jobStatus;
+        this.cursor = cursor;
+        this.full = full;
+        this.logEvents = logEvents;
+    }
+
+    /**
+     * @return the job status; use it to read the state, the progress and the question, and the request only if this is
+     *         a {@link #isFull() full} update
+     */
+    public JobStatus getJobStatus()
+    {
+        return jobStatus;
+    }
+
+    /**
+     * @return the value to pass back in order to get the next update
+     */
+    public String getCursor()
+    {
+        return cursor;
+    }
+
+    /**
+     * @return {@code true} if the client doesn't know anything about the job status yet (it didn't pass a valid
+     *         cursor), in which case it needs the entire job status, {@code false} otherwise
+     */
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    /**
+     * @return the log events logged since the previous update
+     */
+    public List<LogEvent> getLogEvents()
+    {
+        return Collections.unmodifiableList(logEvents);
+    }
+}
@@ -19,7 +19,10 @@
  */
 package org.xwiki.filemanager.job;
 
+import java.util.Set;
+
 import org.xwiki.filemanager.Path;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -59,4 +62,12 @@ public class MoveRequest extends BatchPathRequest
     {
         setProperty(PROPERTY_DESTINATION, destination);
     }
+
+    @Override
+    public Set<SpaceReference> getDriveReferences()
+    {
+        Set<SpaceReference> driveReferences = super.getDriveReferences();
+        addDriveReference(getDestination(), driveReferences);
+        return driveReferences;
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The result of a dry run of a file system job: describes what the job would do if it was executed now, without
+ * modifying anything. This can be used to show the cost of an operation before starting it.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class OperationPlan
+{
+    /**
+     * The documents that would be moved, renamed, copied or deleted.
+     */
+    private final Collection<DocumentReference> documents = new LinkedHashSet<DocumentReference>();
+
+    /**
+     * The files and folders the current user is not allowed to process, or the copies the current user is not allowed
+     * to create.
+     */
+    private final Collection<DocumentReference> forbidden = new LinkedHashSet<DocumentReference>();
+
+    /**
+     * The name conflicts with the content of the destination folder.
+     */
+    private final List<OverwriteQuestion> conflicts = new ArrayList<OverwriteQuestion>();
+
+    /**
+     * The number of bytes that would be copied or deleted.
+     */
+    private long bytes;
+
+    /**
+     * @return the documents that would be moved, renamed, copied or deleted
+     */
+    public Collection<DocumentReference> getDocuments()
+    {
+        return Collections.unmodifiableCollection(documents);
+    }
+
+    /**
+     * @param reference a document that would be moved, renamed, copied or deleted
+     */
+    public void addDocument(DocumentReference reference)
+    {
+        this.documents.add(reference);
+    }
+
+    /**
+     * @return the files and folders the current user is not allowed to process; the operation would skip them
+     */
+    public Collection<DocumentReference> getForbidden()
+    {
+        return Collections.unmodifiableCollection(forbidden);
+    }
+
+    /**
+     * @param reference a file or folder the current user is not allowed to process
+     */
+    public void addForbidden(DocumentReference reference)
+    {
+        this.forbidden.add(reference);
+    }
+
+    /**
+     * @return the name conflicts with the content of the destination folder; the operation would ask whether to
+     *         overwrite the existing files
+     */
+    public List<OverwriteQuestion> getConflicts()
+    {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    /**
+     * @param conflicts name conflicts with the content of the destination folder
+     */
+    public void addConflicts(Collection<OverwriteQuestion> conflicts)
+    {
+        this.conflicts.addAll(conflicts);
+    }
+
+    /**
+     * @return the number of bytes that would be copied or deleted
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @param bytes a number of bytes that would be copied or deleted
+     */
+    public void addBytes(long bytes)
+    {
+        this.bytes += bytes;
+    }
+}
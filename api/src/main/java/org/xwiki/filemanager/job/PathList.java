@@ -0,0 +1,232 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.filemanager.Path;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A list of paths stored in a compact form. Each {@link Path} holds two document references, and each document
+ * reference holds its entire reference chain, which makes a request that targets many paths big, both in memory and
+ * when the job status (which includes the request) is serialized. This list stores the drives (spaces) only once and
+ * the names of the files and folders in a table without duplicates, each path being a set of indexes in these tables.
+ * The {@link Path} instances are created on demand.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class PathList extends AbstractList<Path> implements Serializable
+{
+    /**
+     * Serialization identifier.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of indexes used to store a path: the drive and the name of the folder and the drive and the name of
+     * the file.
+     */
+    private static final int PATH_SIZE = 4;
+
+    /**
+     * The index used for missing references.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The drives that hold the files and folders from this list.
+     */
+    private final List<SpaceReference> drives = new ArrayList<SpaceReference>();
+
+    /**
+     * The names of the files and folders from this list, without duplicates.
+     */
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * The paths, each path being stored as {@link #PATH_SIZE} indexes in the tables of drives and names.
+     */
+    private int[] paths = new int[0];
+
+    /**
+     * The number of paths.
+     */
+    private int size;
+
+    /**
+     * Used to find the index of a drive. Rebuilt after deserialization.
+     */
+    private transient Map<SpaceReference, Integer> driveIndex;
+
+    /**
+     * Used to find the index of a name. Rebuilt after deserialization.
+     */
+    private transient Map<String, Integer> nameIndex;
+
+    /**
+     * Creates an empty list of paths.
+     */
+    public PathList()
+    {
+    }
+
+    /**
+     * Creates a list that holds the given paths.
+     * 
+     * @param paths the paths to add to the list
+     */
+    public PathList(Collection<Path> paths)
+    {
+        this.paths = new int[paths.size() * PATH_SIZE];
+        addAll(paths);
+    }
+
+    @Override
+    public Path get(int index)
+    {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        int offset = index * PATH_SIZE;
+        return new Path(getReference(offset), getReference(offset + 2));
+    }
+
+    @Override
+    public int size()
+    {
+        return this.size;
+    }
+
+    @Override
+    public boolean add(Path path)
+    {
+        if (this.paths.length < (this.size + 1) * PATH_SIZE) {
+            this.paths = Arrays.copyOf(this.paths, Math.max(PATH_SIZE, this.paths.length * 2));
+        }
+        int offset = this.size * PATH_SIZE;
+        setReference(offset, path != null ? path.getFolderReference() : null);
+        setReference(offset + 2, path != null ? path.getFileReference() : null);
+        this.size++;
+        this.modCount++;
+        return true;
+    }
+
+    /**
+     * @return the drives that hold the files and folders from this list
+     */
+    public List<SpaceReference> getDriveReferences()
+    {
+        return new ArrayList<SpaceReference>(this.drives);
+    }
+
+    /**
+     * @param offset the position where the reference is stored
+     * @return the document reference stored at the given position
+     */
+    private DocumentReference getReference(int offset)
+    {
+        int drive = this.paths[offset];
+        return drive == NONE ? null
+            : new DocumentReference(this.names.get(this.paths[offset + 1]), this.drives.get(drive));
+    }
+
+    /**
+     * Stores a document reference at the given position.
+     * 
+     * @param offset the position where to store the reference
+     * @param reference the reference to store
+     */
+    private void setReference(int offset, DocumentReference reference)
+    {
+        if (reference == null) {
+            this.paths[offset] = NONE;
+            this.paths[offset + 1] = NONE;
+        } else {
+            this.paths[offset] = indexOf(reference.getLastSpaceReference(), this.drives, getDriveIndex());
+            this.paths[offset + 1] = indexOf(reference.getName(), this.names, getNameIndex());
+        }
+    }
+
+    /**
+     * @param value a value
+     * @param table the table of values
+     * @param index maps the values from the table to their position
+     * @param <T> the type of value
+     * @return the position of the given value in the table, the value being added to the table if needed
+     */
+    private <T> int indexOf(T value, List<T> table, Map<T, Integer> index)
+    {
+        Integer position = index.get(value);
+        if (position == null) {
+            position = table.size();
+            table.add(value);
+            index.put(value, position);
+        }
+        return position;
+    }
+
+    /**
+     * @return the map used to find the index of a drive
+     */
+    private Map<SpaceReference, Integer> getDriveIndex()
+    {
+        if (this.driveIndex == null) {
+            this.driveIndex = createIndex(this.drives);
+        }
+        return this.driveIndex;
+    }
+
+    /**
+     * @return the map used to find the index of a name
+     */
+    private Map<String, Integer> getNameIndex()
+    {
+        if (this.nameIndex == null) {
+            this.nameIndex = createIndex(this.names);
+        }
+        return this.nameIndex;
+    }
+
+    /**
+     * @param table a table of values
+     * @param <T> the type of value
+     * @return a map from the values of the given table to their position
+     */
+    private <T> Map<T, Integer> createIndex(List<T> table)
+    {
+        Map<T, Integer> index = new HashMap<T, Integer>();
+        for (int i = 0; i < table.size(); i++) {
+            index.put(table.get(i), i);
+        }
+        return index;
+    }
+}
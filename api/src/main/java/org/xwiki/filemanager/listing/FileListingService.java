@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.listing;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Lists the files of a drive, one page at a time. The files can be sorted and filtered by the following columns:
+ * {@code name}, {@code size}, {@code creationDate}, {@code date}, {@code creator} and {@code author}. The date filters
+ * accept either a date pattern such as {@code *.5.2024} (day, month, year) or a relative period such as {@code -2w}
+ * (the last two weeks; use {@code d}, {@code w}, {@code m} or {@code y}). The user filters match the user reference
+ * exactly if it is specified completely, otherwise they match the user alias partially.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Role
+@Unstable
+public interface FileListingService
+{
+    /**
+     * @param folderReference a folder reference
+     * @param request specifies which page to return
+     * @return the requested page of files from the specified folder
+     */
+    ListingPage<DocumentReference> getChildFiles(DocumentReference folderReference, ListingRequest request);
+
+    /**
+     * @param driveReference the drive home page
+     * @param request specifies which page to return
+     * @return the requested page of files from the specified drive
+     */
+    ListingPage<DocumentReference> getAllFiles(DocumentReference driveReference, ListingRequest request);
+
+    /**
+     * @param driveReference the drive home page
+     * @param request specifies which page to return
+     * @return the requested page of files from the specified drive that don't have a parent folder
+     */
+    ListingPage<DocumentReference> getOrphanFiles(DocumentReference driveReference, ListingRequest request);
+
+    /**
+     * @param driveReference the drive home page
+     * @return {@code true} if the specified drive has files that don't have a parent folder, {@code false} otherwise
+     */
+    boolean hasOrphanFiles(DocumentReference driveReference);
+
+    /**
+     * Retrieves the data displayed for the given files, for a whole page of files at once, using a constant number of
+     * queries (instead of loading each file document and its parent folders).
+     * 
+     * @param fileReferences a page of files
+     * @return the data of the given files, in the given order; the files that don't exist or that the current user
+     *         is not allowed to view are missing
+     */
+    Map<DocumentReference, FileRow> getRows(Collection<DocumentReference> fileReferences);
+}
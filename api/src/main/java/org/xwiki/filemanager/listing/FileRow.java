@@ -0,0 +1,297 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.listing;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * The data displayed for a file in a listing, retrieved in bulk for an entire page of files so that the file documents
+ * and their parent folders don't have to be loaded one by one.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class FileRow
+{
+    /**
+     * The file document.
+     */
+    private DocumentReference reference;
+
+    /**
+     * The file name, i.e. the name of the attachment that holds the file content, {@code null} if the file has no
+     * attachment.
+     */
+    private String name;
+
+    /**
+     * The file size, in bytes.
+     */
+    private long size;
+
+    /**
+     * The media type of the file content, {@code null} if unknown.
+     */
+    private String mediaType;
+
+    /**
+     * The date when the file was created.
+     */
+    private Date creationDate;
+
+    /**
+     * The date when the file was last modified.
+     */
+    private Date date;
+
+    /**
+     * The user that created the file.
+     */
+    private String creator;
+
+    /**
+     * The user that last modified the file.
+     */
+    private String author;
+
+    /**
+     * The file version.
+     */
+    private String version;
+
+    /**
+     * Whether the file has a description.
+     */
+    private boolean hasDescription;
+
+    /**
+     * The paths of the file, one for each parent folder. Each path starts with the parent folder and ends with the top
+     * most ancestor folder.
+     */
+    private List<List<String>> paths = Collections.emptyList();
+
+    /**
+     * Whether the current user can delete (and thus rename or move) the file.
+     */
+    private boolean canDelete;
+
+    /**
+     * @return the file document
+     */
+    public DocumentReference getReference()
+    {
+        return this.reference;
+    }
+
+    /**
+     * @param reference the file document
+     */
+    public void setReference(DocumentReference reference)
+    {
+        this.reference = reference;
+    }
+
+    /**
+     * @return the file name, i.e. the name of the attachment that holds the file content, {@code null} if the file has
+     *         no attachment, in which case the title of the file document should be displayed instead
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @param name the file name
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @return the file size, in bytes
+     */
+    public long getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param size the file size, in bytes
+     */
+    public void setSize(long size)
+    {
+        this.size = size;
+    }
+
+    /**
+     * @return the media type of the file content, {@code null} if unknown
+     */
+    public String getMediaType()
+    {
+        return this.mediaType;
+    }
+
+    /**
+     * @param mediaType the media type of the file content
+     */
+    public void setMediaType(String mediaType)
+    {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return the date when the file was created
+     */
+    public Date getCreationDate()
+    {
+        return this.creationDate;
+    }
+
+    /**
+     * @param creationDate the date when the file was created
+     */
+    public void setCreationDate(Date creationDate)
+    {
+        this.creationDate = creationDate;
+    }
+
+    /**
+     * @return the date when the file was last modified
+     */
+    public Date getDate()
+    {
+        return this.date;
+    }
+
+    /**
+     * @param date the date when the file was last modified
+     */
+    public void setDate(Date date)
+    {
+        this.date = date;
+    }
+
+    /**
+     * @return the user that created the file
+     */
+    public String getCreator()
+    {
+        return this.creator;
+    }
+
+    /**
+     * @param creator the user that created the file
+     */
+    public void setCreator(String creator)
+    {
+        this.creator = creator;
+    }
+
+    /**
+     * @return the user that last modified the file
+     */
+    public String getAuthor()
+    {
+        return this.author;
+    }
+
+    /**
+     * @param author the user that last modified the file
+     */
+    public void setAuthor(String author)
+    {
+        this.author = author;
+    }
+
+    /**
+     * @return the file version
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * @param version the file version
+     */
+    public void setVersion(String version)
+    {
+        this.version = version;
+    }
+
+    /**
+     * The description is not part of the row because it has to be rendered from the file document. Check this first to
+     * avoid loading the file document when there's nothing to render.
+     * 
+     * @return {@code true} if the file has a description, {@code false} otherwise
+     */
+    public boolean hasDescription()
+    {
+        return this.hasDescription;
+    }
+
+    /**
+     * @param hasDescription whether the file has a description
+     */
+    public void setHasDescription(boolean hasDescription)
+    {
+        this.hasDescription = hasDescription;
+    }
+
+    /**
+     * @return the paths of the file, one for each parent folder; each path starts with the parent folder and ends with
+     *         the top most ancestor folder
+     */
+    public List<List<String>> getPaths()
+    {
+        return this.paths;
+    }
+
+    /**
+     * @param paths the paths of the file
+     */
+    public void setPaths(List<List<String>> paths)
+    {
+        this.paths = paths;
+    }
+
+    /**
+     * @return {@code true} if the current user can delete (and thus rename or move) the file, {@code false} otherwise
+     */
+    public boolean canDelete()
+    {
+        return this.canDelete;
+    }
+
+    /**
+     * @param canDelete whether the current user can delete the file
+     */
+    public void setCanDelete(boolean canDelete)
+    {
+        this.canDelete = canDelete;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.listing;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Indicates whether a folder has child folders and child files, without listing them.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class FolderChildren
+{
+    /**
+     * Whether the folder has child folders.
+     */
+    private final boolean folders;
+
+    /**
+     * Whether the folder has child files.
+     */
+    private final boolean files;
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param folders whether the folder has child folders
+     * @param files whether the folder has child files
+     */
+    public FolderChildren(boolean folders, boolean files)
+    {
+        this.folders = folders;
+        this.files = files;
+    }
+
+    /**
+     * @return {@code true} if the folder has child folders, {@code false} otherwise
+     */
+    public boolean hasFolders()
+    {
+        return this.folders;
+    }
+
+    /**
+     * @return {@code true} if the folder has child files, {@code false} otherwise
+     */
+    public boolean hasFiles()
+    {
+        return this.files;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.listing;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Lists the folders of a drive, one page at a time. The folders are sorted by name.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Role
+@Unstable
+public interface FolderListingService
+{
+    /**
+     * @param parentReference a folder or a drive
+     * @param request specifies which page to return
+     * @return the requested page of child folders
+     */
+    ListingPage<DocumentReference> getChildFolders(DocumentReference parentReference, ListingRequest request);
+
+    /**
+     * @param driveReference the drive home page
+     * @param request specifies which page to return
+     * @return the requested page of folders from the specified drive that don't have a parent folder
+     */
+    ListingPage<DocumentReference> getOrphanFolders(DocumentReference driveReference, ListingRequest request);
+
+    /**
+     * @param driveReference the drive home page
+     * @return {@code true} if the specified drive has folders that don't have a parent folder, {@code false} otherwise
+     */
+    boolean hasOrphanFolders(DocumentReference driveReference);
+
+    /**
+     * Checks whether the given folders have child folders and child files, for a whole page of folders at once, using a
+     * constant number of queries (instead of one query per folder).
+     * 
+     * @param folderReferences the folders to check (e.g. a page of folders)
+     * @return whether each of the given folders has child folders and child files
+     */
+    Map<DocumentReference, FolderChildren> getChildren(Collection<DocumentReference> folderReferences);
+}
@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.listing;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A page of a listing.
+ * 
+ * @param <T> the type of items
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class ListingPage<T>
+{
+    /**
+     * The items from this page.
+     */
+    private final List<T> items;
+
+    /**
+     * The total number of items.
+     */
+    private final long totalCount;
+
+    /**
+     * The index of the first item from this page.
+     */
+    private final long offset;
+
+    /**
+     * The cursor of the first item from this page.
+     */
+    private final String previousCursor;
+
+    /**
+     * The cursor of the last item from this page.
+     */
+    private final String nextCursor;
+
+    /**
+     * Creates a new page.
+     * 
+     * @param items the items from this page
+     * @param totalCount the total number of items
+     * @param offset the index of the first item from this page
+     * @param previousCursor the cursor of the first item from this page
+     * @param nextCursor the cursor of the last item from this page
+     */
+    public ListingPage(List<T> items, long totalCount, long offset, String previousCursor, String nextCursor)
+    {
+        this.items = items;
+        this.totalCount = totalCount;
+        this.offset = offset;
+        this.previousCursor = previousCursor;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return the items from this page
+     */
+    public List<T> getItems()
+    {
+        return Collections.unmodifiableList(this.items);
+    }
+
+    /**
+     * @return the total number of items
+     */
+    public long getTotalCount()
+    {
+        return this.totalCount;
+    }
+
+    /**
+     * @return the index of the first item from this page
+     */
+    public long getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @return the value to pass as {@link ListingRequest#setBefore(String)} in order to get the previous page,
+     *         {@code null} if this page is empty
+     */
+    public String getPreviousCursor()
+    {
+        return this.previousCursor;
+    }
+
+    /**
+     * @return the value to pass as {@link ListingRequest#setAfter(String)} in order to get the next page, {@code null}
+     *         if this page is empty
+     */
+    public String getNextCursor()
+    {
+        return this.nextCursor;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.listing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Specifies which page of a listing to return. The pages are retrieved by keyset: pass the {@link #setAfter(String)
+ * cursor} of the last item from the current page to get the next page, or the {@link #setBefore(String) cursor} of the
+ * first item to get the previous page. This way the database doesn't have to scan and discard all the items that come
+ * before the requested page. The {@link #setOffset(int) offset} is used only when no cursor is specified (e.g. to jump
+ * to an arbitrary page). The items are counted only for the first page retrieved: pass back the {@link
+ * #setTotalCount(long) total count} when retrieving the other pages by cursor to avoid counting them again.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Unstable
+public class ListingRequest
+{
+    /**
+     * The default maximum number of items per page.
+     */
+    public static final int DEFAULT_LIMIT = 15;
+
+    /**
+     * The index of the first item to return, when no cursor is specified.
+     */
+    private int offset;
+
+    /**
+     * The maximum number of items to return.
+     */
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * The cursor of the item that comes before the requested page.
+     */
+    private String after;
+
+    /**
+     * The cursor of the item that comes after the requested page.
+     */
+    private String before;
+
+    /**
+     * The column used to sort the items.
+     */
+    private String sort;
+
+    /**
+     * Whether the items are sorted in descending order.
+     */
+    private boolean descending;
+
+    /**
+     * The total number of items, known from a previous page, or a negative value if unknown.
+     */
+    private long totalCount = -1;
+
+    /**
+     * The values used to filter the items, indexed by column.
+     */
+    private final Map<String, String> filters = new HashMap<String, String>();
+
+    /**
+     * @return the index of the first item to return, used only when no cursor is specified
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @param offset the index of the first item to return, used only when no cursor is specified
+     */
+    public void setOffset(int offset)
+    {
+        this.offset = Math.max(offset, 0);
+    }
+
+    /**
+     * @return the maximum number of items to return, {@code 0} (or less) to return all the remaining items
+     */
+    public int getLimit()
+    {
+        return this.limit;
+    }
+
+    /**
+     * @param limit the maximum number of items to return, {@code 0} (or less) to return all the remaining items
+     */
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the cursor of the item that comes before the requested page
+     */
+    public String getAfter()
+    {
+        return this.after;
+    }
+
+    /**
+     * @param after the cursor of the item that comes before the requested page (usually the
+     *            {@link ListingPage#getNextCursor() last item of the current page})
+     */
+    public void setAfter(String after)
+    {
+        this.after = after;
+    }
+
+    /**
+     * @return the cursor of the item that comes after the requested page
+     */
+    public String getBefore()
+    {
+        return this.before;
+    }
+
+    /**
+     * @param before the cursor of the item that comes after the requested page (usually the
+     *            {@link ListingPage#getPreviousCursor() first item of the current page})
+     */
+    public void setBefore(String before)
+    {
+        this.before = before;
+    }
+
+    /**
+     * @return the column used to sort the items, {@code null} for the default order
+     */
+    public String getSort()
+    {
+        return this.sort;
+    }
+
+    /**
+     * @param sort the column used to sort the items
+     */
+    public void setSort(String sort)
+    {
+        this.sort = sort;
+    }
+
+    /**
+     * @return {@code true} if the items are sorted in descending order, {@code false} otherwise
+     */
+    public boolean isDescending()
+    {
+        return this.descending;
+    }
+
+    /**
+     * @param descending {@code true} to sort the items in descending order, {@code false} otherwise
+     */
+    public void setDescending(boolean descending)
+    {
+        this.descending = descending;
+    }
+
+    /**
+     * @return the total number of items known from a previous page, or a negative value if unknown
+     */
+    public long getTotalCount()
+    {
+        return this.totalCount;
+    }
+
+    /**
+     * Sets the total number of items returned with a previous page. It is used instead of counting the items again
+     * when a cursor is specified, so it must be retrieved with the same sort and filters.
+     * 
+     * @param totalCount the total number of items, or a negative value if unknown
+     */
+    public void setTotalCount(long totalCount)
+    {
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * @return the values used to filter the items, indexed by column
+     */
+    public Map<String, String> getFilters()
+    {
+        return this.filters;
+    }
+
+    /**
+     * Filters the items by the value of a column.
+     * 
+     * @param column the column to filter
+     * @param value the filter value, {@code null} or empty to remove the filter
+     */
+    public void setFilter(String column, String value)
+    {
+        if (value == null || value.isEmpty()) {
+            this.filters.remove(column);
+        } else {
+            this.filters.put(column, value);
+        }
+    }
+}
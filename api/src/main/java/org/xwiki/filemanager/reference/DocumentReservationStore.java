@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.reference;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Stores the reservations of the document references generated by the {@link UniqueDocumentReferenceGenerator}. A
+ * reservation is a lease: it is released when the document is created or when the lease expires. The store used is
+ * configured with {@code filemanager.reference.reservationStore}: the {@code memory} store is enough for a single node
+ * while in a cluster the store must be shared by all the nodes (e.g. the {@code database} store) so that two nodes
+ * don't generate the same reference. The reservations are owned by the user that reserves them, so that a reserved
+ * reference can't be used by another user.
+ * <p>
+ * The store also keeps the last numeric suffix added to each base document name, so that the generator can continue
+ * from it instead of looking for the suffixes that are already used.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@Role
+@Unstable
+public interface DocumentReservationStore
+{
+    /**
+     * Reserves a document reference, if it isn't already reserved.
+     * 
+     * @param documentReference the document reference to reserve
+     * @param ownerReference the user that reserves the document reference, {@code null} for guest
+     * @param leaseDuration how long the reservation lasts if it isn't released, in milliseconds
+     * @return {@code true} if the reference has been reserved, {@code false} if it is already reserved
+     */
+    boolean reserve(DocumentReference documentReference, DocumentReference ownerReference, long leaseDuration);
+
+    /**
+     * Reserves multiple document references at once (e.g. in a single transaction), skipping those that are already
+     * reserved.
+     * 
+     * @param documentReferences the document references to reserve
+     * @param ownerReference the user that reserves the document references, {@code null} for guest
+     * @param leaseDuration how long the reservations last if they aren't released, in milliseconds
+     * @return the document references that have been reserved
+     */
+    Set<DocumentReference> reserveAll(Collection<DocumentReference> documentReferences,
+        DocumentReference ownerReference, long leaseDuration);
+
+    /**
+     * @param documentReference a document reference
+     * @param ownerReference a user reference, {@code null} for guest
+     * @return {@code true} if the specified document reference is reserved by the given user and the reservation hasn't
+     *         expired, {@code false} otherwise
+     */
+    boolean isReservedBy(DocumentReference documentReference, DocumentReference ownerReference);
+
+    /**
+     * Releases the reservation of a document reference, if any.
+     * 
+     * @param documentReference the document reference to release
+     */
+    void release(DocumentReference documentReference);
+
+    /**
+     * @param baseReference the reference of a document whose name is used as base to generate document names, by adding
+     *            a numeric suffix
+     * @return the last numeric suffix added to the given base name, {@code 0} if there's none
+     */
+    int getLastSuffix(DocumentReference baseReference);
+
+    /**
+     * Records the numeric suffix added to a base document name, if it is bigger than the last one.
+     * 
+     * @param baseReference the reference of a document whose name is used as base to generate document names
+     * @param suffix the numeric suffix added to the base name
+     */
+    void setLastSuffix(DocumentReference baseReference, int suffix);
+}
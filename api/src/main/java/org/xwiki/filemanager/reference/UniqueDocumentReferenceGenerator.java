@@ -19,7 +19,9 @@
  */
 package org.xwiki.filemanager.reference;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
@@ -47,4 +49,36 @@ public interface UniqueDocumentReferenceGenerator
      *         space, or that isn't already reserved
      */
     DocumentReference generate(SpaceReference spaceReference, Iterator<String> documentNameSequence);
+
+    /**
+     * Generates a unique reference for a document with the given name, adding a numeric suffix to the name if a
+     * document with the same name exists already or is reserved. The numeric suffixes continue from the last suffix
+     * added to the given name, so the cost doesn't depend on the number of documents that use the same name.
+     * 
+     * @param spaceReference the space where the generated document name must be unique
+     * @param documentName the document name to use as is, if possible, or as base for the generated name
+     * @return the reference to a document that doesn't exist already in the specified space, and that isn't already
+     *         reserved
+     * @since 2.2
+     */
+    DocumentReference generate(SpaceReference spaceReference, String documentName);
+
+    /**
+     * Generates unique references for multiple documents at once (e.g. when uploading multiple files), as if
+     * {@link #generate(SpaceReference, String)} was called for each document name. The generated references are
+     * different from each other.
+     * 
+     * @param spaceReference the space where the generated document names must be unique
+     * @param documentNames the names of the documents that need a unique reference
+     * @return the generated references, in the order of the given document names
+     * @since 2.2
+     */
+    default List<DocumentReference> generateAll(SpaceReference spaceReference, List<String> documentNames)
+    {
+        List<DocumentReference> references = new ArrayList<DocumentReference>(documentNames.size());
+        for (String documentName : documentNames) {
+            references.add(generate(spaceReference, documentName));
+        }
+        return references;
+    }
 }
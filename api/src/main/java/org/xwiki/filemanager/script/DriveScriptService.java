@@ -20,32 +20,52 @@
 package org.xwiki.filemanager.script;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
+import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Path;
 import org.xwiki.filemanager.internal.PackFileResolver;
-import org.xwiki.filemanager.internal.reference.DocumentNameSequence;
-import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.internal.job.RebuildOrphanIndexJob;
+import org.xwiki.filemanager.job.ActiveJob;
 import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.job.JobStatusUpdate;
+import org.xwiki.filemanager.job.OperationPlan;
+import org.xwiki.filemanager.listing.FileListingService;
+import org.xwiki.filemanager.listing.FileRow;
+import org.xwiki.filemanager.listing.FolderChildren;
+import org.xwiki.filemanager.listing.FolderListingService;
+import org.xwiki.filemanager.listing.ListingPage;
+import org.xwiki.filemanager.listing.ListingRequest;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
 import org.xwiki.filemanager.reference.UniqueDocumentReferenceGenerator;
+import org.xwiki.job.DefaultRequest;
+import org.xwiki.job.Job;
 import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
 import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.resource.temporary.TemporaryResourceReference;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 
 /**
  * Exposes simplified APIs to execute batch jobs on a file system drive.
@@ -98,12 +118,48 @@ public class DriveScriptService implements ScriptService
     @Inject
     private UniqueDocumentReferenceGenerator uniqueDocRefGenerator;
 
+    /**
+     * Used to check the reserved references.
+     */
+    @Inject
+    private Provider<DocumentReservationStore> reservationStoreProvider;
+
     /**
      * Used to resolve the temporary resource that holds a packed file.
      */
     @Inject
     private PackFileResolver packFileResolver;
 
+    /**
+     * Used to retrieve the ancestors of a folder.
+     */
+    @Inject
+    private FileSystem fileSystem;
+
+    /**
+     * Used to list the folders.
+     */
+    @Inject
+    private FolderListingService folderListingService;
+
+    /**
+     * Used to list the files.
+     */
+    @Inject
+    private FileListingService fileListingService;
+
+    /**
+     * Used to rebuild the orphan index.
+     */
+    @Inject
+    private JobExecutor jobExecutor;
+
+    /**
+     * Used to check if the current user can rebuild the orphan index.
+     */
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
     /**
      * Schedules a job to move the specified files and folders to the given destination.
      * 
@@ -142,6 +198,52 @@ public class DriveScriptService implements ScriptService
         }
     }
 
+    /**
+     * Schedules a job to move the specified files and folders to the given destination. An interactive job asks
+     * whether to overwrite the files with the same name that exist in the destination (see
+     * {@link #answerOverwrite(String, Collection, Boolean)}).
+     * 
+     * @param paths the files and folders to move
+     * @param destination where to move the specified files and folders
+     * @param interactive whether the job asks questions or not
+     * @return the id of the move job that has been scheduled
+     * @since 2.2
+     */
+    public String move(Collection<String> paths, String destination, boolean interactive)
+    {
+        setError(null);
+
+        try {
+            return fileManager.move(asPath(paths), asPath(destination), interactive);
+        } catch (JobException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Schedules a job to copy the specified files and folders to the given destination. An interactive job asks
+     * whether to overwrite the files with the same name that exist in the destination (see
+     * {@link #answerOverwrite(String, Collection, Boolean)}).
+     * 
+     * @param paths the files and folders to copy
+     * @param destination where to copy the specified files and folders
+     * @param interactive whether the job asks questions or not
+     * @return the id of the copy job that has been scheduled
+     * @since 2.2
+     */
+    public String copy(Collection<String> paths, String destination, boolean interactive)
+    {
+        setError(null);
+
+        try {
+            return fileManager.copy(asPath(paths), asPath(destination), interactive);
+        } catch (JobException e) {
+            setError(e);
+            return null;
+        }
+    }
+
     /**
      * Schedules a job to delete the specified files and folders.
      * 
@@ -160,6 +262,66 @@ public class DriveScriptService implements ScriptService
         }
     }
 
+    /**
+     * Computes what a move job would do if it was scheduled now, without modifying anything. Use this to show the cost
+     * of the operation (documents, bytes, name conflicts, rights issues) before starting it.
+     * 
+     * @param paths the files and folders to move
+     * @param destination where to move the specified files and folders
+     * @return the plan of the move operation
+     * @since 2.2
+     */
+    public OperationPlan planMove(Collection<String> paths, String destination)
+    {
+        setError(null);
+
+        try {
+            return fileManager.planMove(asPath(paths), asPath(destination));
+        } catch (JobException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Computes what a copy job would do if it was scheduled now, without modifying anything.
+     * 
+     * @param paths the files and folders to copy
+     * @param destination where to copy the specified files and folders
+     * @return the plan of the copy operation
+     * @since 2.2
+     */
+    public OperationPlan planCopy(Collection<String> paths, String destination)
+    {
+        setError(null);
+
+        try {
+            return fileManager.planCopy(asPath(paths), asPath(destination));
+        } catch (JobException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Computes what a delete job would do if it was scheduled now, without modifying anything.
+     * 
+     * @param paths the files and folders to delete
+     * @return the plan of the delete operation
+     * @since 2.2
+     */
+    public OperationPlan planDelete(Collection<String> paths)
+    {
+        setError(null);
+
+        try {
+            return fileManager.planDelete(asPath(paths));
+        } catch (JobException e) {
+            setError(e);
+            return null;
+        }
+    }
+
     /**
      * Schedules a job to pack the specified files and folders into a single ZIP archive.
      * <p>
@@ -212,17 +374,104 @@ public class DriveScriptService implements ScriptService
     }
 
     /**
-     * @return the list of file system jobs that are running or that are pending for execution on the current drive
+     * Asks the specified job to stop. Only the user that triggered the job or an administrator of all the drives
+     * targeted by the job can cancel it.
+     * 
+     * @param jobId the job to cancel
+     * @return {@code true} if the job has been asked to stop, {@code false} if the job is not found, is finished, can't
+     *         be canceled or if the current user is not allowed to cancel it (check {@link #getLastError()})
+     * @since 2.2
      */
-    public List<String> getActiveJobs()
+    public boolean cancel(String jobId)
+    {
+        setError(null);
+
+        try {
+            return fileManager.cancel(jobId);
+        } catch (AccessDeniedException e) {
+            setError(e);
+            return false;
+        }
+    }
+
+    /**
+     * Answers the overwrite question asked by the specified job.
+     * 
+     * @param jobId the job that waits for an answer
+     * @param overwrite the positions of the name conflicts for which the existing file is overwritten; the values
+     *            that are not numbers are ignored
+     * @param overwriteAll {@code true} to overwrite all the existing files, {@code false} to keep all the existing
+     *            files, {@code null} to answer each conflict using the given positions
+     * @return {@code true} if the question has been answered, {@code false} if the job is not found, doesn't wait for
+     *         an overwrite answer or if the current user is not allowed to answer it (check {@link #getLastError()})
+     * @since 2.2
+     */
+    public boolean answerOverwrite(String jobId, Collection<String> overwrite, Boolean overwriteAll)
     {
-        List<String> activeJobs = new ArrayList<String>();
-        for (String jobId : fileManager.getActiveJobs()) {
-            if (jobTargetsDrive(jobId)) {
-                activeJobs.add(jobId);
+        setError(null);
+
+        List<Integer> positions = new LinkedList<Integer>();
+        if (overwrite != null) {
+            for (String position : overwrite) {
+                try {
+                    positions.add(Integer.valueOf(position));
+                } catch (NumberFormatException e) {
+                    // Ignore the invalid position.
+                }
             }
         }
-        return activeJobs;
+
+        try {
+            return fileManager.answerOverwrite(jobId, positions, overwriteAll);
+        } catch (AccessDeniedException e) {
+            setError(e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns what changed in the status of the specified job since the given cursor, waiting for a change at most the
+     * given amount of time. Use this to long-poll the job status.
+     * 
+     * @param jobId the job whose status to return
+     * @param cursor the cursor of the previous update, {@code null} to get the full status
+     * @param timeout the maximum number of milliseconds to wait for a change
+     * @return what changed in the status of the specified job since the given cursor, {@code null} if the job is not
+     *         found
+     * @since 2.2
+     */
+    public JobStatusUpdate getJobStatusUpdate(String jobId, String cursor, long timeout)
+    {
+        setError(null);
+
+        try {
+            return fileManager.getJobStatusUpdate(jobId, cursor, timeout);
+        } catch (InterruptedException e) {
+            setError(e);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the list of file system jobs that are running or that are pending for execution on the current drive
+     */
+    public List<String> getActiveJobs()
+    {
+        return fileManager.getActiveJobs(getCurrentDriveReference());
+    }
+
+    /**
+     * Use this to display the jobs that run on other nodes of the cluster, whose status is not available locally.
+     * 
+     * @param jobId the job id
+     * @return the specified active job, with the state and the progress published by the node that runs it,
+     *         {@code null} if there's no such job or if it's finished
+     * @since 2.2
+     */
+    public ActiveJob getActiveJob(String jobId)
+    {
+        return fileManager.getActiveJob(jobId);
     }
 
     /**
@@ -234,7 +483,213 @@ public class DriveScriptService implements ScriptService
      */
     public DocumentReference getUniqueReference(String name)
     {
-        return this.uniqueDocRefGenerator.generate(getCurrentDriveReference(), new DocumentNameSequence(name));
+        return this.uniqueDocRefGenerator.generate(getCurrentDriveReference(), name);
+    }
+
+    /**
+     * Generates unique references for multiple files or folders at once, e.g. before uploading multiple files, which is
+     * faster than calling {@link #getUniqueReference(String)} for each file.
+     * 
+     * @param names the names of the files or folders for which to generate references
+     * @return the unique file or folder references, in the order of the given names
+     * @since 2.2
+     */
+    public List<DocumentReference> getUniqueReferences(List<String> names)
+    {
+        return this.uniqueDocRefGenerator.generateAll(getCurrentDriveReference(), names);
+    }
+
+    /**
+     * Use this to create a file or folder with a reference that has been reserved before, e.g. with
+     * {@link #getUniqueReferences(List)} before uploading multiple files.
+     * 
+     * @param name the name of a document from the current drive
+     * @return the reference to the specified document, if it is reserved by the current user, {@code null} otherwise
+     * @since 2.2
+     */
+    public DocumentReference getReservedReference(String name)
+    {
+        DocumentReference reference = new DocumentReference(name, getCurrentDriveReference());
+        if (this.reservationStoreProvider.get().isReservedBy(reference,
+            this.documentAccessBridge.getCurrentUserReference())) {
+            return reference;
+        }
+        return null;
+    }
+
+    /**
+     * Releases a reserved reference that is not going to be used (e.g. because the current user is not allowed to
+     * create the document), so that it can be generated again before the reservation lease expires. The reservations
+     * are released automatically when the documents are created.
+     * 
+     * @param reference the reference to release, if it is reserved by the current user
+     * @since 2.2
+     */
+    public void releaseReservedReference(DocumentReference reference)
+    {
+        DocumentReservationStore store = this.reservationStoreProvider.get();
+        if (reference != null && store.isReservedBy(reference, this.documentAccessBridge.getCurrentUserReference())) {
+            store.release(reference);
+        }
+    }
+
+    /**
+     * Returns the materialized path of a folder without loading the ancestor folders. The path is cut at the ancestors
+     * that the current user is not allowed to view.
+     * 
+     * @param folderReference a folder (or drive) reference
+     * @return the references of the ancestors of the specified folder that are below the ancestors that the current
+     *         user is not allowed to view, starting with the top most ancestor and ending with the direct parent;
+     *         {@code null} if the specified document is neither a folder nor a drive or if the current user is not
+     *         allowed to view it
+     * @since 2.2
+     */
+    public List<DocumentReference> getAncestors(DocumentReference folderReference)
+    {
+        List<DocumentReference> ancestors = this.fileSystem.getAncestorReferences(folderReference);
+        if (ancestors == null || !this.authorization.hasAccess(Right.VIEW, folderReference)) {
+            return null;
+        }
+
+        // The folder index doesn't check the access rights.
+        int start = ancestors.size();
+        while (start > 0 && this.authorization.hasAccess(Right.VIEW, ancestors.get(start - 1))) {
+            start--;
+        }
+        return new ArrayList<DocumentReference>(ancestors.subList(start, ancestors.size()));
+    }
+
+    /**
+     * @return a new listing request, to be passed to the listing methods
+     * @since 2.2
+     */
+    public ListingRequest createListingRequest()
+    {
+        return new ListingRequest();
+    }
+
+    /**
+     * @param parentReference a folder or a drive
+     * @param request specifies which page to return
+     * @return the requested page of child folders
+     * @since 2.2
+     */
+    public ListingPage<DocumentReference> getChildFolders(DocumentReference parentReference, ListingRequest request)
+    {
+        return this.folderListingService.getChildFolders(parentReference, request);
+    }
+
+    /**
+     * @param driveReference the drive home page
+     * @param request specifies which page to return
+     * @return the requested page of folders from the specified drive that don't have a parent folder
+     * @since 2.2
+     */
+    public ListingPage<DocumentReference> getOrphanFolders(DocumentReference driveReference, ListingRequest request)
+    {
+        return this.folderListingService.getOrphanFolders(driveReference, request);
+    }
+
+    /**
+     * @param folderReferences a page of folders
+     * @return whether each of the given folders has child folders and child files
+     * @since 2.2
+     */
+    public Map<DocumentReference, FolderChildren> getFolderChildren(Collection<DocumentReference> folderReferences)
+    {
+        return this.folderListingService.getChildren(folderReferences);
+    }
+
+    /**
+     * @param folderReference a folder reference
+     * @param request specifies which page to return, how to sort and how to filter the files
+     * @return the requested page of files from the specified folder
+     * @since 2.2
+     */
+    public ListingPage<DocumentReference> getChildFiles(DocumentReference folderReference, ListingRequest request)
+    {
+        return this.fileListingService.getChildFiles(folderReference, request);
+    }
+
+    /**
+     * @param driveReference the drive home page
+     * @param request specifies which page to return, how to sort and how to filter the files
+     * @return the requested page of files from the specified drive
+     * @since 2.2
+     */
+    public ListingPage<DocumentReference> getAllFiles(DocumentReference driveReference, ListingRequest request)
+    {
+        return this.fileListingService.getAllFiles(driveReference, request);
+    }
+
+    /**
+     * @param driveReference the drive home page
+     * @param request specifies which page to return, how to sort and how to filter the files
+     * @return the requested page of files from the specified drive that don't have a parent folder
+     * @since 2.2
+     */
+    public ListingPage<DocumentReference> getOrphanFiles(DocumentReference driveReference, ListingRequest request)
+    {
+        return this.fileListingService.getOrphanFiles(driveReference, request);
+    }
+
+    /**
+     * @param fileReferences a page of files
+     * @return the data displayed for the given files, in the given order; the files that don't exist or that the
+     *         current user is not allowed to view are missing
+     * @since 2.2
+     */
+    public Map<DocumentReference, FileRow> getFileRows(Collection<DocumentReference> fileReferences)
+    {
+        return this.fileListingService.getRows(fileReferences);
+    }
+
+    /**
+     * @param driveReference the drive home page
+     * @return {@code true} if the specified drive has folders that don't have a parent folder, {@code false} otherwise
+     * @since 2.2
+     */
+    public boolean hasOrphanFolders(DocumentReference driveReference)
+    {
+        return this.folderListingService.hasOrphanFolders(driveReference);
+    }
+
+    /**
+     * @param driveReference the drive home page
+     * @return {@code true} if the specified drive has files that don't have a parent folder, {@code false} otherwise
+     * @since 2.2
+     */
+    public boolean hasOrphanFiles(DocumentReference driveReference)
+    {
+        return this.fileListingService.hasOrphanFiles(driveReference);
+    }
+
+    /**
+     * Schedules a job to reload the orphan folders and files of the specified drive from the database. Use this to
+     * repair the orphan index if the drive documents have been modified without firing the document events (e.g.
+     * directly in the database). Requires administration right on the drive.
+     * 
+     * @param driveReference the drive home page
+     * @return the id of the rebuild job that has been scheduled
+     * @since 2.2
+     */
+    public List<String> rebuildOrphanIndex(DocumentReference driveReference)
+    {
+        setError(null);
+
+        try {
+            this.authorization.checkAccess(Right.ADMIN, driveReference);
+
+            SpaceReference spaceReference = driveReference.getLastSpaceReference();
+            DefaultRequest request = new DefaultRequest();
+            request.setId(Arrays.asList(FileManager.JOB_ID_PREFIX, "rebuildOrphanIndex", spaceReference.toString()));
+            request.setProperty(RebuildOrphanIndexJob.PROPERTY_DRIVES, Collections.singletonList(spaceReference));
+            Job job = this.jobExecutor.execute(RebuildOrphanIndexJob.JOB_TYPE, request);
+            return job.getRequest().getId();
+        } catch (AccessDeniedException | JobException e) {
+            setError(e);
+            return null;
+        }
     }
 
     /**
@@ -310,25 +765,4 @@ public class DriveScriptService implements ScriptService
         }
         return paths;
     }
-
-    /**
-     * @param jobId specifies a file system job
-     * @return {@code true} if the specified job targets the current drive, {@code false} otherwise
-     */
-    private boolean jobTargetsDrive(String jobId)
-    {
-        JobStatus jobStatus = getJobStatus(jobId);
-        SpaceReference currentDriveReference = getCurrentDriveReference();
-        if (jobStatus != null) {
-            Collection<Path> paths = ((BatchPathRequest) jobStatus.getRequest()).getPaths();
-            if (paths != null && paths.size() > 0) {
-                Path firstPath = paths.iterator().next();
-                DocumentReference reference =
-                    firstPath.getFileReference() != null ? firstPath.getFileReference() : firstPath
-                        .getFolderReference();
-                return reference != null && reference.getLastSpaceReference().equals(currentDriveReference);
-            }
-        }
-        return false;
-    }
 }
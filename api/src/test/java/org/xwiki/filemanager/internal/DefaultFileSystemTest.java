@@ -19,13 +19,22 @@
  */
 package org.xwiki.filemanager.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.Descendant;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectComponentManager;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
@@ -36,8 +45,13 @@ import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -57,6 +71,13 @@ class DefaultFileSystemTest
     @MockComponent
     private Provider<XWikiContext> xcontextProvider;
 
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    @Named(FolderIndex.NAME)
+    private FolderIndex folderIndex;
+
     /**
      * {@link DefaultFileSystem} looks up the {@link File} and {@link Folder} implementations from the component
      * manager, so we register them here.
@@ -177,4 +198,78 @@ class DefaultFileSystemTest
 
         verify(this.wiki).copyDocument(source, target, null, false, true, true, this.xcontext);
     }
+
+    @Test
+    void getDescendants() throws Exception
+    {
+        DocumentReference projectsReference = new DocumentReference("wiki", "Drive", "Projects");
+        DocumentReference concertoReference = new DocumentReference("wiki", "Drive", "Concerto");
+        DocumentReference specsReference = new DocumentReference("wiki", "Drive", "Specs");
+        when(this.folderIndex.getChildFolders(projectsReference)).thenReturn(Arrays.asList(concertoReference));
+        when(this.folderIndex.getChildFolders(concertoReference))
+            .thenReturn(Arrays.asList(specsReference, projectsReference));
+        when(this.folderIndex.getChildFolders(specsReference)).thenReturn(Collections.emptyList());
+
+        Query query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(query);
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Projects", "key.pub"},
+            new Object[] {"Concerto", "pom.xml"}, new Object[] {"Specs", "key.pub"}));
+
+        DocumentReference keyReference = new DocumentReference("wiki", "Drive", "key.pub");
+        DocumentReference pomReference = new DocumentReference("wiki", "Drive", "pom.xml");
+        assertEquals(
+            Arrays.asList(new Descendant(concertoReference, projectsReference, true, 1),
+                new Descendant(specsReference, concertoReference, true, 2),
+                new Descendant(keyReference, specsReference, false, 3),
+                new Descendant(pomReference, concertoReference, false, 2),
+                new Descendant(keyReference, projectsReference, false, 1)),
+            this.fileSystem.getDescendants(projectsReference));
+
+        // The child files of all the folders are retrieved with a single query.
+        verify(query).bindValue("folders", Arrays.asList("Projects", "Concerto", "Specs"));
+        verify(query).execute();
+    }
+
+    @Test
+    void getChildFoldersByName() throws Exception
+    {
+        DocumentReference projectsReference = new DocumentReference("wiki", "Drive", "Projects");
+        DocumentReference concertoReference = new DocumentReference("wiki", "Drive", "Concerto");
+        DocumentReference specsReference = new DocumentReference("wiki", "Drive", "Specs");
+        when(this.folderIndex.getChildFolders(projectsReference))
+            .thenReturn(Arrays.asList(concertoReference, specsReference));
+
+        Query query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(query);
+        when(query.execute()).thenReturn(
+            Arrays.<Object>asList(new Object[] {"Concerto", "Concerto 2"}, new Object[] {"Specs", ""}));
+
+        Map<String, DocumentReference> expected = new HashMap<>();
+        expected.put("Concerto 2", concertoReference);
+        expected.put("Specs", specsReference);
+        assertEquals(expected, this.fileSystem.getChildFoldersByName(projectsReference));
+
+        verify(query).bindValue("names", Arrays.asList("Concerto", "Specs"));
+    }
+
+    @Test
+    void getChildFilesByName() throws Exception
+    {
+        Query query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(query);
+        // The attachments are ordered by name.
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"pom", "a.xml"},
+            new Object[] {"readme", "README.md"}, new Object[] {"pom", "pom.xml"}));
+
+        Map<String, DocumentReference> expected = new HashMap<>();
+        expected.put("a.xml", new DocumentReference("wiki", "Drive", "pom"));
+        expected.put("README.md", new DocumentReference("wiki", "Drive", "readme"));
+        assertEquals(expected,
+            this.fileSystem.getChildFilesByName(new DocumentReference("wiki", "Drive", "Projects")));
+
+        // The child files are retrieved with a single query, without loading them.
+        verify(query).bindValue("folder", "Projects");
+        verify(query).execute();
+        verify(this.wiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
 }
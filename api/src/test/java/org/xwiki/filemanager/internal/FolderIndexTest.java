@@ -0,0 +1,219 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link FolderIndex}.
+ *
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class FolderIndexTest
+{
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private FolderIndex folderIndex;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    @Named("explicit")
+    private DocumentReferenceResolver<String> explicitDocumentReferenceResolver;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    private Map<String, Object> cacheContent = new HashMap<>();
+
+    private Query query;
+
+    @BeforeComponent
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> this.cacheContent.get(invocation.getArgument(0)));
+        doAnswer(invocation -> this.cacheContent.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> this.cacheContent.remove(invocation.getArgument(0))).when(cache).remove(anyString());
+        when(this.cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(cache);
+
+        this.query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+        when(this.query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"WebHome", "Main.WebHome"},
+            new Object[] {"Projects", "Drive.WebHome"}, new Object[] {"Concerto", "Drive.Projects"},
+            new Object[] {"Specs", "Drive.Concerto"}, new Object[] {"Alice", "Drive.Bob"},
+            new Object[] {"Bob", "Drive.Alice"}));
+
+        when(this.localEntityReferenceSerializer.serialize(any(SpaceReference.class))).thenReturn("Drive");
+        when(this.explicitDocumentReferenceResolver.resolve(anyString(), any(DocumentReference.class)))
+            .thenAnswer(invocation -> {
+                String[] parts = ((String) invocation.getArgument(0)).split("\\.");
+                return new DocumentReference("wiki", parts[0], parts[1]);
+            });
+    }
+
+    @Test
+    void getAncestors() throws Exception
+    {
+        assertEquals(Arrays.asList(ref("WebHome"), ref("Projects"), ref("Concerto")),
+            this.folderIndex.getAncestors(ref("Specs")));
+        assertEquals(Arrays.asList(), this.folderIndex.getAncestors(ref("WebHome")));
+
+        // Cycles are ignored.
+        assertEquals(Arrays.asList(ref("Alice")), this.folderIndex.getAncestors(ref("Bob")));
+
+        // Not a folder.
+        assertNull(this.folderIndex.getAncestors(ref("readme.txt")));
+
+        // The hierarchy is loaded only once.
+        verify(this.query, times(1)).execute();
+        verify(this.query).bindValue("space", "Drive");
+        verify(this.query).setWiki("wiki");
+    }
+
+    @Test
+    void hasChildFolders() throws Exception
+    {
+        assertTrue(this.folderIndex.hasChildFolders(ref("Projects")));
+        assertFalse(this.folderIndex.hasChildFolders(ref("Specs")));
+        assertFalse(this.folderIndex.hasChildFolders(ref("readme.txt")));
+
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    void updateFromEvents() throws Exception
+    {
+        assertEquals(Arrays.asList(ref("WebHome"), ref("Projects"), ref("Concerto")),
+            this.folderIndex.getAncestors(ref("Specs")));
+
+        // Move the Concerto folder directly under the drive.
+        XWikiDocument concerto = mock(XWikiDocument.class, "concerto");
+        when(concerto.getDocumentReference()).thenReturn(ref("Concerto"));
+        when(concerto.getParent()).thenReturn("Drive.WebHome");
+        when(concerto.getXObject(FolderIndex.FOLDER_CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        this.folderIndex.onEvent(new DocumentUpdatedEvent(), concerto, null);
+
+        assertEquals(Arrays.asList(ref("WebHome"), ref("Concerto")), this.folderIndex.getAncestors(ref("Specs")));
+
+        // Delete the Concerto folder.
+        XWikiDocument deletedConcerto = mock(XWikiDocument.class, "deletedConcerto");
+        when(deletedConcerto.getDocumentReference()).thenReturn(ref("Concerto"));
+        this.folderIndex.onEvent(new DocumentDeletedEvent(), deletedConcerto, null);
+
+        assertNull(this.folderIndex.getAncestors(ref("Concerto")));
+        assertEquals(Arrays.asList(), this.folderIndex.getAncestors(ref("Specs")));
+
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    void queryFailureIsNotCached() throws Exception
+    {
+        when(this.query.execute()).thenThrow(new QueryException("Database unavailable", this.query, null))
+            .thenReturn(Arrays.<Object>asList(new Object[] {"Projects", "Drive.WebHome"}));
+
+        assertNull(this.folderIndex.getAncestors(ref("Projects")));
+        assertEquals("Failed to load the [FileManagerFolderIndex] index of [" + ref("Projects").getLastSpaceReference()
+            + "].", this.logCapture.getMessage(0));
+
+        // The hierarchy is loaded again.
+        assertEquals(Arrays.asList(ref("WebHome")), this.folderIndex.getAncestors(ref("Projects")));
+        verify(this.query, times(2)).execute();
+    }
+
+    @Test
+    void hierarchyChangedWhileLoadingIsNotCached() throws Exception
+    {
+        XWikiDocument concerto = mock(XWikiDocument.class);
+        when(concerto.getDocumentReference()).thenReturn(ref("Concerto"));
+        when(concerto.getParent()).thenReturn("Drive.WebHome");
+        when(concerto.getXObject(FolderIndex.FOLDER_CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        when(this.query.execute()).thenAnswer(invocation -> {
+            // The Concerto folder is moved after the query has been executed.
+            this.folderIndex.onEvent(new DocumentUpdatedEvent(), concerto, null);
+            return Arrays.<Object>asList(new Object[] {"Concerto", "Drive.Projects"});
+        }).thenReturn(Arrays.<Object>asList(new Object[] {"Concerto", "Drive.WebHome"}));
+
+        // The hierarchy that misses the change is used only by the current call.
+        assertEquals(Arrays.asList(ref("Projects")), this.folderIndex.getAncestors(ref("Concerto")));
+
+        assertEquals(Arrays.asList(ref("WebHome")), this.folderIndex.getAncestors(ref("Concerto")));
+        assertEquals(Arrays.asList(ref("WebHome")), this.folderIndex.getAncestors(ref("Concerto")));
+        verify(this.query, times(2)).execute();
+    }
+
+    private DocumentReference ref(String name)
+    {
+        return new DocumentReference("wiki", "Drive", name);
+    }
+}
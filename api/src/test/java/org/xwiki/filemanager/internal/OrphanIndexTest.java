@@ -0,0 +1,224 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link OrphanIndex}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class OrphanIndexTest
+{
+    private static final String FOLDER_CLASS = "FileManagerCode.FolderClass";
+
+    private static final String FILE_CLASS = "FileManagerCode.FileClass";
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private OrphanIndex orphanIndex;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    @Named("explicit")
+    private DocumentReferenceResolver<String> explicitDocumentReferenceResolver;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    private Map<String, Object> cacheContent = new HashMap<>();
+
+    private Query query;
+
+    private SpaceReference driveReference = new DocumentReference("wiki", "Drive", "WebHome").getLastSpaceReference();
+
+    @BeforeComponent
+    @SuppressWarnings("unchecked")
+    void configure() throws Exception
+    {
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> this.cacheContent.get(invocation.getArgument(0)));
+        doAnswer(invocation -> this.cacheContent.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache)
+            .set(anyString(), any());
+        doAnswer(invocation -> this.cacheContent.remove(invocation.getArgument(0))).when(cache).remove(anyString());
+        when(this.cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(cache);
+
+        this.query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+        when(this.query.execute()).thenReturn(Arrays.<Object>asList(
+            new Object[] {"WebHome", "", "FileManagerCode.DriveClass"},
+            new Object[] {"Projects", "Drive.WebHome", FOLDER_CLASS}, new Object[] {"Lost", "", FOLDER_CLASS},
+            new Object[] {"Stray", "Other.Folder", FOLDER_CLASS}, new Object[] {"Specs", "Drive.Lost", FOLDER_CLASS},
+            new Object[] {"a.txt", "Drive.Projects", FILE_CLASS}, new Object[] {"b.txt", "Drive.Missing", FILE_CLASS}));
+
+        when(this.localEntityReferenceSerializer.serialize(any(SpaceReference.class))).thenReturn("Drive");
+        when(this.explicitDocumentReferenceResolver.resolve(anyString(), any(DocumentReference.class)))
+            .thenAnswer(invocation -> {
+                String[] parts = ((String) invocation.getArgument(0)).split("\\.");
+                return new DocumentReference("wiki", parts[0], parts[1]);
+            });
+    }
+
+    @Test
+    void getOrphans() throws Exception
+    {
+        assertEquals(Arrays.asList("Lost", "Stray"), this.orphanIndex.getOrphanFolders(this.driveReference));
+        assertEquals(Arrays.asList("b.txt"), this.orphanIndex.getOrphanFiles(this.driveReference));
+        assertTrue(this.orphanIndex.hasOrphanFolders(this.driveReference));
+        assertTrue(this.orphanIndex.hasOrphanFiles(this.driveReference));
+
+        // The orphans are loaded only once.
+        verify(this.query, times(1)).execute();
+        verify(this.query).bindValue("space", "Drive");
+        verify(this.query).setWiki("wiki");
+    }
+
+    @Test
+    void updateFromEvents() throws Exception
+    {
+        assertEquals(Arrays.asList("b.txt"), this.orphanIndex.getOrphanFiles(this.driveReference));
+
+        // Delete the Projects folder.
+        XWikiDocument projects = mock(XWikiDocument.class, "projects");
+        when(projects.getDocumentReference()).thenReturn(ref("Projects"));
+        this.orphanIndex.onEvent(new DocumentDeletedEvent(), projects, null);
+
+        assertEquals(Arrays.asList("a.txt", "b.txt"), this.orphanIndex.getOrphanFiles(this.driveReference));
+
+        // Create the Missing folder.
+        XWikiDocument missing = mock(XWikiDocument.class, "missing");
+        when(missing.getDocumentReference()).thenReturn(ref("Missing"));
+        when(missing.getParent()).thenReturn("");
+        when(missing.getXObject(FolderIndex.FOLDER_CLASS_REFERENCE)).thenReturn(mock(BaseObject.class));
+        this.orphanIndex.onEvent(new DocumentCreatedEvent(), missing, null);
+
+        assertEquals(Arrays.asList("a.txt"), this.orphanIndex.getOrphanFiles(this.driveReference));
+        assertEquals(Arrays.asList("Lost", "Missing", "Stray"),
+            this.orphanIndex.getOrphanFolders(this.driveReference));
+
+        // Delete the Lost folder, which makes its child folder orphan.
+        XWikiDocument lost = mock(XWikiDocument.class, "lost");
+        when(lost.getDocumentReference()).thenReturn(ref("Lost"));
+        this.orphanIndex.onEvent(new DocumentDeletedEvent(), lost, null);
+
+        assertEquals(Arrays.asList("Missing", "Specs", "Stray"),
+            this.orphanIndex.getOrphanFolders(this.driveReference));
+
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    void rebuild() throws Exception
+    {
+        assertTrue(this.orphanIndex.hasOrphanFiles(this.driveReference));
+
+        when(this.query.execute()).thenReturn(Arrays.<Object>asList(
+            new Object[] {"a.txt", "Drive.WebHome", FILE_CLASS},
+            new Object[] {"WebHome", "", "FileManagerCode.DriveClass"}));
+        this.orphanIndex.rebuild(this.driveReference);
+
+        assertFalse(this.orphanIndex.hasOrphanFiles(this.driveReference));
+        assertFalse(this.orphanIndex.hasOrphanFolders(this.driveReference));
+        verify(this.query, times(2)).execute();
+    }
+
+    @Test
+    void getOrphansFromNestedDrive() throws Exception
+    {
+        SpaceReference nestedDriveReference = new SpaceReference("Drive", this.driveReference);
+        when(this.localEntityReferenceSerializer.serialize(nestedDriveReference)).thenReturn("Drive.Drive");
+
+        this.orphanIndex.getOrphanFiles(nestedDriveReference);
+
+        // The space is matched using its local reference, not its name.
+        verify(this.query).bindValue("space", "Drive.Drive");
+    }
+
+    @Test
+    void queryFailureIsNotCached() throws Exception
+    {
+        when(this.query.execute()).thenThrow(new QueryException("Database unavailable", this.query, null))
+            .thenReturn(Arrays.<Object>asList(new Object[] {"a.txt", "", FILE_CLASS}));
+
+        assertFalse(this.orphanIndex.hasOrphanFiles(this.driveReference));
+        assertEquals("Failed to load the [FileManagerOrphanIndex] index of [" + this.driveReference + "].",
+            this.logCapture.getMessage(0));
+
+        // The orphans are loaded again.
+        assertEquals(Arrays.asList("a.txt"), this.orphanIndex.getOrphanFiles(this.driveReference));
+        verify(this.query, times(2)).execute();
+    }
+
+    private DocumentReference ref(String name)
+    {
+        return new DocumentReference(name, this.driveReference);
+    }
+}
@@ -23,17 +23,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.filemanager.Descendant;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Folder;
-import org.xwiki.filemanager.internal.reference.DocumentNameSequence;
+import org.xwiki.filemanager.job.BatchOverwriteQuestion;
 import org.xwiki.filemanager.job.OverwriteQuestion;
 import org.xwiki.filemanager.reference.UniqueDocumentReferenceGenerator;
 import org.xwiki.job.Job;
@@ -136,6 +140,66 @@ public abstract class AbstractJobTest
             }
 
         }).when(this.fileSystem).copy(any(DocumentReference.class), any(DocumentReference.class));
+
+        // Compute the ancestors from the mocked folders.
+        when(this.fileSystem.getAncestorReferences(any(DocumentReference.class))).thenAnswer(invocation -> {
+            Folder folder = this.fileSystem.getFolder(invocation.getArgument(0));
+            if (folder == null) {
+                return null;
+            }
+            List<DocumentReference> ancestors = new ArrayList<>();
+            Folder parent = folder.getParentReference() != null
+                ? this.fileSystem.getFolder(folder.getParentReference()) : null;
+            while (parent != null && !ancestors.contains(parent.getReference())) {
+                ancestors.add(0, parent.getReference());
+                parent = parent.getParentReference() != null
+                    ? this.fileSystem.getFolder(parent.getParentReference()) : null;
+            }
+            return ancestors;
+        });
+
+        // Compute the sub-tree from the mocked folders.
+        when(this.fileSystem.getDescendants(any(DocumentReference.class))).thenAnswer(invocation -> {
+            List<Descendant> descendants = new ArrayList<>();
+            addDescendants(invocation.getArgument(0), 1, descendants);
+            return descendants;
+        });
+
+        // Index the children by name from the mocked files and folders.
+        when(this.fileSystem.getChildFilesByName(any(DocumentReference.class))).thenAnswer(invocation -> {
+            Map<String, DocumentReference> childFiles = new HashMap<>();
+            Folder folder = this.fileSystem.getFolder(invocation.getArgument(0));
+            if (folder != null) {
+                for (DocumentReference childReference : folder.getChildFileReferences()) {
+                    childFiles.put(this.fileSystem.getFile(childReference).getName(), childReference);
+                }
+            }
+            return childFiles;
+        });
+        when(this.fileSystem.getChildFoldersByName(any(DocumentReference.class))).thenAnswer(invocation -> {
+            Map<String, DocumentReference> childFolders = new HashMap<>();
+            Folder folder = this.fileSystem.getFolder(invocation.getArgument(0));
+            if (folder != null) {
+                for (DocumentReference childReference : folder.getChildFolderReferences()) {
+                    childFolders.put(this.fileSystem.getFolder(childReference).getName(), childReference);
+                }
+            }
+            return childFolders;
+        });
+    }
+
+    private void addDescendants(DocumentReference folderReference, int depth, List<Descendant> descendants)
+    {
+        Folder folder = this.fileSystem.getFolder(folderReference);
+        if (folder != null) {
+            for (DocumentReference childFolderReference : folder.getChildFolderReferences()) {
+                descendants.add(new Descendant(childFolderReference, folderReference, true, depth));
+                addDescendants(childFolderReference, depth + 1, descendants);
+            }
+            for (DocumentReference childFileReference : folder.getChildFileReferences()) {
+                descendants.add(new Descendant(childFileReference, folderReference, false, depth));
+            }
+        }
     }
 
     /**
@@ -234,6 +298,24 @@ public abstract class AbstractJobTest
     }
 
     protected void answerOverwriteQuestion(final Job job, final boolean overwrite, final boolean askAgain)
+    {
+        answerQuestion(job, question -> {
+            if (question instanceof BatchOverwriteQuestion) {
+                BatchOverwriteQuestion batchQuestion = (BatchOverwriteQuestion) question;
+                if (askAgain) {
+                    batchQuestion.getQuestions().forEach(conflict -> conflict.setOverwrite(overwrite));
+                } else {
+                    batchQuestion.setOverwriteAll(overwrite);
+                }
+            } else {
+                OverwriteQuestion overwriteQuestion = (OverwriteQuestion) question;
+                overwriteQuestion.setOverwrite(overwrite);
+                overwriteQuestion.setAskAgain(askAgain);
+            }
+        });
+    }
+
+    protected void answerQuestion(final Job job, final Consumer<Object> answer)
     {
         new Thread(() -> {
             for (int i = 0; i < 5; i++) {
@@ -241,9 +323,7 @@ public abstract class AbstractJobTest
                     Thread.sleep(20);
                     JobStatus status = job.getStatus();
                     if (status != null && status.getState() == State.WAITING) {
-                        OverwriteQuestion question = (OverwriteQuestion) status.getQuestion();
-                        question.setOverwrite(overwrite);
-                        question.setAskAgain(askAgain);
+                        answer.accept(status.getQuestion());
                         status.answered();
                         return;
                     }
@@ -276,8 +356,7 @@ public abstract class AbstractJobTest
     {
         UniqueDocumentReferenceGenerator generator =
             this.componentManager.getInstance(UniqueDocumentReferenceGenerator.class);
-        when(generator.generate(base.getLastSpaceReference(), new DocumentNameSequence(base.getName())))
-            .thenReturn(result);
+        when(generator.generate(base.getLastSpaceReference(), base.getName())).thenReturn(result);
         // We suppose the new reference can be used.
         when(this.fileSystem.canEdit(result)).thenReturn(true);
     }
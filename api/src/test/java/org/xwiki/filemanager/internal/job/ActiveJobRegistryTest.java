@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.filemanager.job.ActiveJob;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.status.JobStatus.State;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ActiveJobRegistry}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+@ComponentList(MemoryActiveJobStore.class)
+class ActiveJobRegistryTest
+{
+    @InjectMockComponents
+    private ActiveJobRegistry registry;
+
+    @MockComponent
+    private FileManagerConfiguration configuration;
+
+    @MockComponent
+    private ObservationManager observationManager;
+
+    @MockComponent
+    private JobExecutor jobExecutor;
+
+    private DocumentReference alice = new DocumentReference("wiki", "XWiki", "alice");
+
+    private DocumentReference bob = new DocumentReference("wiki", "XWiki", "bob");
+
+    private SpaceReference drive = new SpaceReference("Drive", new WikiReference("wiki"));
+
+    private SpaceReference otherDrive = new SpaceReference("OtherDrive", new WikiReference("wiki"));
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.getActiveJobStore()).thenReturn(MemoryActiveJobStore.HINT);
+        when(this.configuration.getJobLease()).thenReturn(60000L);
+    }
+
+    @Test
+    void indexActiveJobs()
+    {
+        this.registry.add(createRequest(new BatchPathRequest(), "abc", DeleteJob.JOB_TYPE, this.alice, this.drive));
+        MoveRequest moveRequest = createRequest(new MoveRequest(), "def", MoveJob.JOB_TYPE, this.bob, this.drive);
+        moveRequest.setDestination(new Path(new DocumentReference("Projects", this.otherDrive)));
+        this.registry.add(moveRequest);
+
+        assertEquals(Arrays.asList("abc", "def"), this.registry.getJobs());
+        assertEquals(Arrays.asList("abc", "def"), this.registry.getJobsByDrive(this.drive));
+        assertEquals(Arrays.asList("def"), this.registry.getJobsByDrive(this.otherDrive));
+    }
+
+    @Test
+    void getActiveJob()
+    {
+        this.registry.add(createRequest(new BatchPathRequest(), "abc", DeleteJob.JOB_TYPE, this.alice, this.drive));
+
+        ActiveJob job = this.registry.getJob("abc");
+        assertEquals(DeleteJob.JOB_TYPE, job.getType());
+        assertEquals(this.alice, job.getUserReference());
+        assertEquals(Collections.singleton(this.drive), job.getDriveReferences());
+        assertEquals(State.NONE, job.getState());
+
+        assertNull(this.registry.getJob("def"));
+    }
+
+    @Test
+    void removeFinishedJobs()
+    {
+        this.registry.add(createRequest(new BatchPathRequest(), "abc", DeleteJob.JOB_TYPE, this.alice, this.drive));
+
+        List<String> jobId = Arrays.asList(FileManager.JOB_ID_PREFIX, "abc");
+        this.registry.onEvent(new JobFinishedEvent(jobId, null, null), null, null);
+
+        assertTrue(this.registry.getJobs().isEmpty());
+        assertTrue(this.registry.getJobsByDrive(this.drive).isEmpty());
+    }
+
+    @Test
+    void ignoreUnknownJobs()
+    {
+        this.registry.add(createRequest(new BatchPathRequest(), "xyz", DeleteJob.JOB_TYPE, this.alice, this.drive));
+
+        this.registry.onEvent(new JobFinishedEvent(Arrays.asList(FileManager.JOB_ID_PREFIX, "abc"), null, null),
+            null, null);
+        this.registry.onEvent(new JobFinishedEvent(Arrays.asList("foo", "xyz"), null, null), null, null);
+
+        assertEquals(Arrays.asList("xyz"), this.registry.getJobs());
+    }
+
+    @Test
+    void lockDrives() throws Exception
+    {
+        this.registry.lockDrives("abc", Collections.singleton(this.drive), 0);
+        // Locking the same drives again for the same job doesn't fail.
+        this.registry.lockDrives("abc", Collections.singleton(this.drive), 0);
+        this.registry.lockDrives("def", Collections.singleton(this.otherDrive), 0);
+
+        assertThrows(JobException.class, () -> this.registry.lockDrives("xyz",
+            new LinkedHashSet<>(Arrays.asList(this.otherDrive, this.drive)), 0));
+
+        this.registry.unlockDrives("abc");
+        verify(this.observationManager).notify(any(DriveUnlockedEvent.class), eq("abc"), isNull());
+
+        // The other drive is still locked.
+        assertThrows(JobException.class, () -> this.registry.lockDrives("xyz",
+            new LinkedHashSet<>(Arrays.asList(this.otherDrive, this.drive)), 0));
+
+        // Finished jobs release their locks.
+        this.registry.onEvent(new JobFinishedEvent(Arrays.asList(FileManager.JOB_ID_PREFIX, "def"), null, null),
+            null, null);
+        this.registry.lockDrives("xyz", new LinkedHashSet<>(Arrays.asList(this.otherDrive, this.drive)), 0);
+    }
+
+    @Test
+    void waitForDrivesToBeUnlocked() throws Exception
+    {
+        this.registry.lockDrives("abc", Collections.singleton(this.drive), 0);
+
+        Thread unlock = new Thread(() -> {
+            this.registry.unlockDrives("abc");
+            this.registry.onEvent(new DriveUnlockedEvent(), "abc", null);
+        });
+        unlock.start();
+
+        this.registry.lockDrives("def", Collections.singleton(this.drive), 10000);
+        unlock.join();
+    }
+
+    private <T extends BatchPathRequest> T createRequest(T request, String id, String jobType,
+        DocumentReference userReference, SpaceReference driveReference)
+    {
+        request.setId(Arrays.asList(FileManager.JOB_ID_PREFIX, id));
+        request.setPaths(Collections.singletonList(new Path(new DocumentReference("Folder", driveReference))));
+        request.setProperty(DefaultFileManager.PROPERTY_USER_REFERENCE, userReference);
+        request.setProperty(DefaultFileManager.PROPERTY_JOB_TYPE, jobType);
+        return request;
+    }
+}
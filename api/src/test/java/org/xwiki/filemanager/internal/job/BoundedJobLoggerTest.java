@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.logging.LogLevel;
+import org.xwiki.logging.LogQueue;
+import org.xwiki.logging.event.LogEvent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link BoundedJobLogger}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class BoundedJobLoggerTest
+{
+    private LogQueue log = new LogQueue();
+
+    @Test
+    void limitSimilarMessages()
+    {
+        BoundedJobLogger logger = new BoundedJobLogger(this.log, 0, 3);
+        for (int i = 0; i < 10; i++) {
+            logger.info("Packing file [{}]", i);
+        }
+        logger.warn("Failed to pack file [{}].", "a.txt", new IOException("Disk full"));
+        logger.warn("Failed to pack file [{}].", "b.txt", new IllegalStateException("Closed"));
+        assertEquals(5, this.log.size());
+        assertEquals("Packing file [2]", this.log.getLogEvent(2).getFormattedMessage());
+        // The error is preserved.
+        assertEquals("Disk full", this.log.getLogEvent(3).getThrowable().getMessage());
+
+        logger.logSummary();
+        assertEquals(6, this.log.size());
+        assertEquals(LogLevel.INFO, this.log.getLogEvent(5).getLevel());
+        assertEquals("[7] more messages similar to [Packing file [{}]] have been omitted.",
+            this.log.getLogEvent(5).getFormattedMessage());
+    }
+
+    @Test
+    void limitLogSize()
+    {
+        BoundedJobLogger logger = new BoundedJobLogger(this.log, 4, 0);
+        for (int i = 0; i < 3; i++) {
+            logger.info("Packing file [{}]", i);
+            logger.info("Packing folder [{}]", i);
+        }
+        assertEquals(4, this.log.size());
+
+        logger.logSummary();
+        assertEquals(6, this.log.size());
+        assertEquals("[1] more messages similar to [Packing file [{}]] have been omitted.",
+            this.log.getLogEvent(4).getFormattedMessage());
+        assertEquals("[1] more messages similar to [Packing folder [{}]] have been omitted.",
+            this.log.getLogEvent(5).getFormattedMessage());
+    }
+
+    @Test
+    void countErrors()
+    {
+        BoundedJobLogger logger = new BoundedJobLogger(this.log, 0, 2);
+        logger.info("Deleting file [{}]", "a.txt");
+        for (int i = 0; i < 5; i++) {
+            logger.warn("Failed to delete file [{}].", i);
+        }
+        logger.error("Failed to delete folder [{}].", "Projects");
+        assertEquals(4, this.log.size());
+        // The omitted errors are counted.
+        assertEquals(6, logger.getErrorCount());
+
+        logger.logSummary();
+        // The summary is not counted.
+        assertEquals(6, logger.getErrorCount());
+    }
+
+    @Test
+    void limitThreadLog()
+    {
+        LogQueue threadLog = new LogQueue();
+        for (int i = 0; i < 3; i++) {
+            threadLog.warn("Failed to delete file [{}].", i);
+        }
+
+        BoundedLogListener listener = new BoundedLogListener("test", new BoundedJobLogger(this.log, 0, 2));
+        for (LogEvent logEvent : threadLog) {
+            listener.onEvent(logEvent, null, null);
+        }
+        assertEquals(2, this.log.size());
+        assertEquals("Failed to delete file [1].", this.log.getLogEvent(1).getFormattedMessage());
+        assertEquals(3, listener.getLogger().getErrorCount());
+    }
+}
@@ -19,23 +19,41 @@
  */
 package org.xwiki.filemanager.internal.job;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.inject.Named;
+import javax.inject.Provider;
 
 import org.junit.jupiter.api.Test;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
 import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.filemanager.job.OperationPlan;
 import org.xwiki.job.Job;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -51,12 +69,43 @@ class CopyJobTest extends AbstractJobTest
     @InjectMockComponents
     private CopyJob copyJob;
 
+    @MockComponent
+    private FileManagerConfiguration configuration;
+
+    @MockComponent
+    @Named(CopyExecutor.NAME)
+    private CopyExecutor copyExecutor;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
     @Override
     protected Job getJob()
     {
         return this.copyJob;
     }
 
+    /**
+     * Runs the copy tasks on a separate thread. The tasks are executed one at a time, when submitted, because the
+     * mocked file system is stubbed while copying and Mockito doesn't support concurrent stubbing.
+     */
+    private ExecutorService mockCopyThreads()
+    {
+        when(this.configuration.getCopyThreads()).thenReturn(2);
+        when(this.xcontextProvider.get()).thenReturn(mock(XWikiContext.class));
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        when(this.copyExecutor.submit(any())).thenAnswer(invocation -> {
+            Future<?> result = threads.submit(invocation.<Callable<?>>getArgument(0));
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                // The job reports the failure when it gets the result.
+            }
+            return result;
+        });
+        return threads;
+    }
+
     @Test
     void copyFolder() throws Exception
     {
@@ -102,6 +151,98 @@ class CopyJobTest extends AbstractJobTest
         verify(fileSystem).save(specsCopy);
     }
 
+    @Test
+    void copyFolderInParallel() throws Exception
+    {
+        ExecutorService threads = mockCopyThreads();
+        try {
+            File pom = mockFile("pom.xml", "Concerto1");
+            Folder specs = mockFolder("Specs", "Concerto1");
+            Folder docs = mockFolder("Docs", "Concerto1");
+            Folder concerto = mockFolder("Concerto1", "Concerto", null, Arrays.asList("Specs", "Docs"),
+                Arrays.asList("pom.xml"));
+            Folder projects = mockFolder("Projects");
+
+            generateReference(ref("Concerto"), ref("Concerto"));
+            generateReference(pom.getReference(), ref("pom.xml1"));
+            generateReference(specs.getReference(), ref("Specs1"));
+            generateReference(docs.getReference(), ref("Docs1"));
+
+            MoveRequest request = new MoveRequest();
+            request.setPaths(Collections.singleton(new Path(concerto.getReference())));
+            request.setDestination(new Path(projects.getReference()));
+
+            execute(request);
+
+            // The sub-trees are copied by the shared copy threads and the child files by the job thread.
+            verify(this.copyExecutor, times(2)).submit(any());
+            verify(fileSystem).copy(pom.getReference(), ref("pom.xml1"));
+            verify(fileSystem).copy(specs.getReference(), ref("Specs1"));
+            verify(fileSystem).copy(docs.getReference(), ref("Docs1"));
+            verify(fileSystem.getFolder(ref("Specs1"))).setParentReference(ref("Concerto"));
+            verify(fileSystem.getFolder(ref("Docs1"))).setParentReference(ref("Concerto"));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void copyFolderInParallelWithFailingSubTree() throws Exception
+    {
+        ExecutorService threads = mockCopyThreads();
+        try {
+            Folder specs = mockFolder("Specs", "Concerto1");
+            Folder docs = mockFolder("Docs", "Concerto1");
+            Folder concerto = mockFolder("Concerto1", "Concerto", null, Arrays.asList("Specs", "Docs"),
+                Collections.emptyList());
+            Folder projects = mockFolder("Projects");
+
+            generateReference(ref("Concerto"), ref("Concerto"));
+            generateReference(specs.getReference(), ref("Specs1"));
+            generateReference(docs.getReference(), ref("Docs1"));
+            doThrow(new RuntimeException("Disk full")).when(fileSystem).copy(docs.getReference(), ref("Docs1"));
+
+            MoveRequest request = new MoveRequest();
+            request.setPaths(Collections.singleton(new Path(concerto.getReference())));
+            request.setDestination(new Path(projects.getReference()));
+
+            execute(request);
+
+            // The error is reported in the job log and doesn't stop the copy of the other sub-trees.
+            assertEquals("Failed to copy a sub-tree.", this.logCapture.getMessage(0));
+            verify(fileSystem).copy(specs.getReference(), ref("Specs1"));
+            verify(fileSystem.getFolder(ref("Specs1"))).setParentReference(ref("Concerto"));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void copyFolderOnJobThreadWhenCopyThreadsAreBusy() throws Exception
+    {
+        when(this.configuration.getCopyThreads()).thenReturn(2);
+        when(this.copyExecutor.submit(any())).thenThrow(new RejectedExecutionException());
+
+        Folder specs = mockFolder("Specs", "Concerto1");
+        Folder docs = mockFolder("Docs", "Concerto1");
+        Folder concerto = mockFolder("Concerto1", "Concerto", null, Arrays.asList("Specs", "Docs"),
+            Collections.emptyList());
+        Folder projects = mockFolder("Projects");
+
+        generateReference(ref("Concerto"), ref("Concerto"));
+        generateReference(specs.getReference(), ref("Specs1"));
+        generateReference(docs.getReference(), ref("Docs1"));
+
+        MoveRequest request = new MoveRequest();
+        request.setPaths(Collections.singleton(new Path(concerto.getReference())));
+        request.setDestination(new Path(projects.getReference()));
+
+        execute(request);
+
+        verify(fileSystem).copy(specs.getReference(), ref("Specs1"));
+        verify(fileSystem).copy(docs.getReference(), ref("Docs1"));
+    }
+
     @Test
     void copyFolderAs() throws Exception
     {
@@ -357,4 +498,64 @@ class CopyJobTest extends AbstractJobTest
         assertEquals("You are not allowed to overwrite the file [" + pom.getReference() + "].",
             this.logCapture.getMessage(0));
     }
+
+    @Test
+    void plan() throws Exception
+    {
+        File pom = mockFile("pom.xml", "Concerto");
+        when(pom.getSize()).thenReturn(3L);
+        Folder specs = mockFolder("Specs", "Concerto", Collections.emptyList(), Arrays.asList("spec.pdf"));
+        when(fileSystem.canView(specs.getReference())).thenReturn(false);
+        mockFile("spec.pdf", "Specs");
+        Folder concerto = mockFolder("Concerto", null, Arrays.asList("Specs"), Arrays.asList("pom.xml"));
+
+        // The destination has a folder with the same name, which is going to be merged.
+        File existingPom = mockFile("pom.xml2", "pom.xml", Arrays.asList("Concerto2"));
+        mockFolder("Concerto2", "Concerto", "Projects", Collections.emptyList(), Arrays.asList("pom.xml2"));
+        Folder projects = mockFolder("Projects", null, Arrays.asList("Concerto2"), Collections.emptyList());
+
+        MoveRequest request = new MoveRequest();
+        request.setPaths(Collections.singleton(new Path(concerto.getReference())));
+        request.setDestination(new Path(projects.getReference()));
+
+        this.copyJob.initialize(request);
+        OperationPlan plan = this.copyJob.plan();
+
+        // The plan assumes the existing file is overwritten. The folders are merged so the folder isn't copied.
+        assertEquals(Arrays.asList(existingPom.getReference(), pom.getReference()),
+            new ArrayList<>(plan.getDocuments()));
+        assertEquals(Arrays.asList(specs.getReference()), new ArrayList<>(plan.getForbidden()));
+        assertEquals(3L, plan.getBytes());
+        assertEquals(1, plan.getConflicts().size());
+        assertEquals(pom.getReference(), plan.getConflicts().get(0).getSource());
+        assertEquals(existingPom.getReference(), plan.getConflicts().get(0).getDestination());
+        assertEquals("You are not allowed to copy the folder [" + specs.getReference() + "].",
+            this.logCapture.getMessage(0));
+
+        // Nothing is copied or deleted.
+        verify(fileSystem, never()).copy(any(DocumentReference.class), any(DocumentReference.class));
+        verify(fileSystem, never()).delete(any(DocumentReference.class));
+    }
+
+    @Test
+    void planCopyWithoutEditRight() throws Exception
+    {
+        File readme = mockFile("readme.txt", "Concerto");
+        // The copy is created in the same drive, using the file name.
+        when(fileSystem.canEdit(readme.getReference())).thenReturn(false);
+        mockFolder("Concerto");
+        Folder projects = mockFolder("Projects");
+
+        MoveRequest request = new MoveRequest();
+        request.setPaths(Collections.singleton(new Path(ref("Concerto"), readme.getReference())));
+        request.setDestination(new Path(projects.getReference()));
+
+        this.copyJob.initialize(request);
+        OperationPlan plan = this.copyJob.plan();
+
+        assertEquals(Collections.emptyList(), new ArrayList<>(plan.getDocuments()));
+        assertEquals(Arrays.asList(readme.getReference()), new ArrayList<>(plan.getForbidden()));
+        assertEquals("You are not allowed to create the file [" + readme.getReference() + "].",
+            this.logCapture.getMessage(0));
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.filemanager.internal.FileManagerDatabase;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DatabaseActiveJobStore}. The drive locks table is simulated in memory.
+ *
+ * @version $Id$
+ * @since 2.2
+ */
+class DatabaseActiveJobStoreTest
+{
+    private static final long LEASE = 60000;
+
+    private static final String DRIVE = "wiki:Drive";
+
+    private SpaceReference drive = new SpaceReference("Drive", new WikiReference("wiki"));
+
+    private FileManagerDatabase database = mock(FileManagerDatabase.class);
+
+    private Session session = mock(Session.class);
+
+    /**
+     * The rows of the drive locks table: the job and the expiry date of each locked drive.
+     */
+    private Map<String, Object[]> locks = new HashMap<>();
+
+    /**
+     * Called when the locks are selected, before the result is returned.
+     */
+    private Runnable onSelect;
+
+    private DatabaseActiveJobStore firstStore = createStore();
+
+    private DatabaseActiveJobStore secondStore = createStore();
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.database.executeWrite(any())).thenAnswer(invocation -> {
+            try {
+                return invocation.<HibernateCallback<?>>getArgument(0).doInHibernate(this.session);
+            } catch (Exception e) {
+                throw new XWikiException(0, 0, "Rolled back", e);
+            }
+        });
+        when(this.session.createNativeQuery(anyString()))
+            .thenAnswer(invocation -> createQuery(invocation.getArgument(0)));
+    }
+
+    @Test
+    void takeOverExpiredLock()
+    {
+        this.locks.put(DRIVE, new Object[] {"old", 0L});
+
+        assertTrue(this.firstStore.lockDrives("abc", Collections.singleton(this.drive), LEASE));
+        assertEquals("abc", this.locks.get(DRIVE)[0]);
+
+        // Renew our own lock.
+        assertTrue(this.firstStore.lockDrives("abc", Collections.singleton(this.drive), LEASE));
+        assertFalse(this.secondStore.lockDrives("def", Collections.singleton(this.drive), LEASE));
+        assertEquals("abc", this.locks.get(DRIVE)[0]);
+    }
+
+    @Test
+    void competeForExpiredLock()
+    {
+        this.locks.put(DRIVE, new Object[] {"old", 0L});
+        // The second store reads the expired lock and then the first store takes it over before the second store
+        // updates it.
+        this.onSelect = () -> {
+            this.onSelect = null;
+            assertTrue(this.firstStore.lockDrives("abc", Collections.singleton(this.drive), LEASE));
+        };
+
+        assertFalse(this.secondStore.lockDrives("def", Collections.singleton(this.drive), LEASE));
+        assertEquals("abc", this.locks.get(DRIVE)[0]);
+    }
+
+    private DatabaseActiveJobStore createStore()
+    {
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(this.drive)).thenReturn(DRIVE);
+
+        DatabaseActiveJobStore store = new DatabaseActiveJobStore();
+        ReflectionUtils.setFieldValue(store, "database", this.database);
+        ReflectionUtils.setFieldValue(store, "serializer", serializer);
+        ReflectionUtils.setFieldValue(store, "logger", mock(Logger.class));
+        return store;
+    }
+
+    private NativeQuery<?> createQuery(String statement)
+    {
+        Map<String, Object> parameters = new HashMap<>();
+        return mock(NativeQuery.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if (method.startsWith("setParameter")) {
+                parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+                return invocation.getMock();
+            } else if ("getResultList".equals(method)) {
+                return selectLocks((Collection<String>) parameters.get("drives"));
+            } else if ("executeUpdate".equals(method)) {
+                return updateLock(statement, parameters);
+            }
+            return null;
+        });
+    }
+
+    private List<Object[]> selectLocks(Collection<String> drives)
+    {
+        List<Object[]> rows = new ArrayList<>();
+        for (String drive : drives) {
+            Object[] lock = this.locks.get(drive);
+            if (lock != null) {
+                rows.add(new Object[] {drive, lock[0], lock[1]});
+            }
+        }
+        if (this.onSelect != null) {
+            this.onSelect.run();
+        }
+        return rows;
+    }
+
+    private int updateLock(String statement, Map<String, Object> parameters)
+    {
+        String drive = (String) parameters.get("drive");
+        Object[] lock = this.locks.get(drive);
+        Object[] newLock = new Object[] {parameters.get("job"), parameters.get("expiry")};
+        if (statement.startsWith("insert")) {
+            if (lock != null) {
+                throw new IllegalStateException("Duplicate key [" + drive + "]");
+            }
+        } else if (lock == null || !(lock[0].equals(parameters.get("job"))
+            || (Long) lock[1] <= (Long) parameters.get("now"))) {
+            return 0;
+        }
+        this.locks.put(drive, newLock);
+        return 1;
+    }
+}
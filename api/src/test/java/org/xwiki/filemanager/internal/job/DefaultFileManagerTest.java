@@ -26,7 +26,8 @@ import static org.mockito.Mockito.*;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Queue;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -34,14 +35,25 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.job.BatchOverwriteQuestion;
 import org.xwiki.filemanager.job.BatchPathRequest;
 import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.job.JobStatusUpdate;
 import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.filemanager.job.OverwriteQuestion;
 import org.xwiki.filemanager.job.PackRequest;
-import org.xwiki.job.JobManager;
+import org.xwiki.job.DefaultRequest;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.event.status.CancelableJobStatus;
+import org.xwiki.job.event.status.JobProgress;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LogQueue;
 import org.xwiki.model.reference.AttachmentReference;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.observation.EventListener;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 /**
@@ -56,20 +68,21 @@ public class DefaultFileManagerTest
     public MockitoComponentMockingRule<FileManager> mocker = new MockitoComponentMockingRule<FileManager>(
         DefaultFileManager.class);
 
-    private JobManager jobManager;
+    private FileManagerJobScheduler jobScheduler;
 
-    private Queue<String> activeJobQueue;
+    private ActiveJobRegistry activeJobRegistry;
 
     private DocumentReference currentUserReference = new DocumentReference("wiki", "Users", "mflorea");
 
-    @SuppressWarnings("unchecked")
     @Before
     public void configure() throws Exception
     {
-        jobManager = mocker.getInstance(JobManager.class);
+        jobScheduler = mocker.getInstance(FileManagerJobScheduler.class, FileManagerJobScheduler.NAME);
+        // A new job is scheduled for each request by default.
+        when(jobScheduler.schedule(anyString(), any(BatchPathRequest.class)))
+            .thenAnswer(invocation -> invocation.<BatchPathRequest>getArgument(1).getId());
 
-        activeJobQueue = (Queue<String>) mock(EventListener.class, withSettings().extraInterfaces(Queue.class));
-        mocker.registerComponent(EventListener.class, "ActiveFileSystemJobQueue", activeJobQueue);
+        activeJobRegistry = mocker.getInstance(ActiveJobRegistry.class, ActiveJobRegistry.NAME);
 
         DocumentAccessBridge documentAccessBridge = mocker.getInstance(DocumentAccessBridge.class);
         when(documentAccessBridge.getCurrentUserReference()).thenReturn(currentUserReference);
@@ -84,7 +97,7 @@ public class DefaultFileManagerTest
         String jobId = mocker.getComponentUnderTest().move(paths, destination);
 
         ArgumentCaptor<MoveRequest> request = ArgumentCaptor.forClass(MoveRequest.class);
-        verify(jobManager).addJob(eq(MoveJob.JOB_TYPE), request.capture());
+        verify(jobScheduler).schedule(eq(MoveJob.JOB_TYPE), request.capture());
         assertEquals(Arrays.asList(FileManager.JOB_ID_PREFIX, jobId), request.getValue().getId());
         assertArrayEquals(paths.toArray(), request.getValue().getPaths().toArray());
         assertEquals(destination, request.getValue().getDestination());
@@ -92,7 +105,7 @@ public class DefaultFileManagerTest
         assertEquals(MoveJob.JOB_TYPE, request.getValue().getProperty("job.type"));
         assertFalse(request.getValue().isInteractive());
 
-        verify(activeJobQueue).offer(jobId);
+        verify(activeJobRegistry).add(request.getValue());
     }
 
     @Test
@@ -104,7 +117,7 @@ public class DefaultFileManagerTest
         String jobId = mocker.getComponentUnderTest().copy(paths, destination);
 
         ArgumentCaptor<MoveRequest> request = ArgumentCaptor.forClass(MoveRequest.class);
-        verify(jobManager).addJob(eq(CopyJob.JOB_TYPE), request.capture());
+        verify(jobScheduler).schedule(eq(CopyJob.JOB_TYPE), request.capture());
         assertEquals(Arrays.asList(FileManager.JOB_ID_PREFIX, jobId), request.getValue().getId());
         assertArrayEquals(paths.toArray(), request.getValue().getPaths().toArray());
         assertEquals(destination, request.getValue().getDestination());
@@ -112,7 +125,7 @@ public class DefaultFileManagerTest
         assertEquals(CopyJob.JOB_TYPE, request.getValue().getProperty("job.type"));
         assertFalse(request.getValue().isInteractive());
 
-        verify(activeJobQueue).offer(jobId);
+        verify(activeJobRegistry).add(request.getValue());
     }
 
     @Test
@@ -122,14 +135,14 @@ public class DefaultFileManagerTest
         String jobId = mocker.getComponentUnderTest().delete(paths);
 
         ArgumentCaptor<BatchPathRequest> request = ArgumentCaptor.forClass(BatchPathRequest.class);
-        verify(jobManager).addJob(eq(DeleteJob.JOB_TYPE), request.capture());
+        verify(jobScheduler).schedule(eq(DeleteJob.JOB_TYPE), request.capture());
         assertEquals(Arrays.asList(FileManager.JOB_ID_PREFIX, jobId), request.getValue().getId());
         assertArrayEquals(paths.toArray(), request.getValue().getPaths().toArray());
         assertEquals(currentUserReference, request.getValue().getProperty("user.reference"));
         assertEquals(DeleteJob.JOB_TYPE, request.getValue().getProperty("job.type"));
         assertFalse(request.getValue().isInteractive());
 
-        verify(activeJobQueue).offer(jobId);
+        verify(activeJobRegistry).add(request.getValue());
     }
 
     @Test
@@ -141,7 +154,7 @@ public class DefaultFileManagerTest
         String jobId = mocker.getComponentUnderTest().pack(paths, outputFileReference);
 
         ArgumentCaptor<PackRequest> request = ArgumentCaptor.forClass(PackRequest.class);
-        verify(jobManager).addJob(eq(PackJob.JOB_TYPE), request.capture());
+        verify(jobScheduler).schedule(eq(PackJob.JOB_TYPE), request.capture());
         assertEquals(Arrays.asList(FileManager.JOB_ID_PREFIX, jobId), request.getValue().getId());
         assertArrayEquals(paths.toArray(), request.getValue().getPaths().toArray());
         assertEquals(outputFileReference, request.getValue().getOutputFileReference());
@@ -149,6 +162,223 @@ public class DefaultFileManagerTest
         assertEquals(PackJob.JOB_TYPE, request.getValue().getProperty("job.type"));
         assertFalse(request.getValue().isInteractive());
 
-        verify(activeJobQueue).offer(jobId);
+        verify(activeJobRegistry).add(request.getValue());
+    }
+
+    @Test
+    public void mergedRequest() throws Exception
+    {
+        List<String> mergedJobId = Arrays.asList(FileManager.JOB_ID_PREFIX, "merged");
+        when(jobScheduler.schedule(eq(DeleteJob.JOB_TYPE), any(BatchPathRequest.class))).thenReturn(mergedJobId);
+
+        // The id of the job that performs the request is returned.
+        assertEquals("merged", mocker.getComponentUnderTest().delete(Collections.singleton(new Path(null))));
+
+        // The request has been merged into an active job.
+        ArgumentCaptor<BatchPathRequest> request = ArgumentCaptor.forClass(BatchPathRequest.class);
+        verify(activeJobRegistry).add(request.capture());
+        verify(activeJobRegistry).remove(request.getValue().getId().get(1));
+    }
+
+    @Test
+    public void cancel() throws Exception
+    {
+        List<String> jobStatusId = Arrays.asList(FileManager.JOB_ID_PREFIX, "test");
+        CancelableJobStatus jobStatus = mock(CancelableJobStatus.class);
+        when(jobStatus.isCancelable()).thenReturn(true);
+        when(jobStatus.getState()).thenReturn(JobStatus.State.WAITING);
+        when(jobStatus.getQuestion()).thenReturn(new Object());
+        BatchPathRequest request = new BatchPathRequest();
+        request.setProperty("user.reference", currentUserReference);
+        Job job = mock(Job.class);
+        when(job.getStatus()).thenReturn(jobStatus);
+        when(job.getRequest()).thenReturn(request);
+        JobExecutor jobExecutor = mocker.getInstance(JobExecutor.class);
+        when(jobExecutor.getJob(jobStatusId)).thenReturn(job);
+
+        assertTrue(mocker.getComponentUnderTest().cancel("test"));
+
+        verify(jobStatus).cancel();
+        verify(jobStatus).answered();
+        verify(jobScheduler).cancel(jobStatusId);
+
+        // Finished jobs can't be canceled.
+        when(jobStatus.getState()).thenReturn(JobStatus.State.FINISHED);
+        assertFalse(mocker.getComponentUnderTest().cancel("test"));
+
+        // Unknown jobs can't be canceled.
+        assertFalse(mocker.getComponentUnderTest().cancel("unknown"));
+    }
+
+    @Test
+    public void cancelJobTriggeredByOtherUser() throws Exception
+    {
+        List<String> jobStatusId = Arrays.asList(FileManager.JOB_ID_PREFIX, "test");
+        CancelableJobStatus jobStatus = mock(CancelableJobStatus.class);
+        when(jobStatus.isCancelable()).thenReturn(true);
+        when(jobStatus.getState()).thenReturn(JobStatus.State.RUNNING);
+        BatchPathRequest request = new BatchPathRequest();
+        request.setProperty("user.reference", new DocumentReference("wiki", "Users", "alice"));
+        DocumentReference folderReference = new DocumentReference("wiki", "Drive", "Folder");
+        request.setPaths(Collections.singleton(new Path(folderReference)));
+        Job job = mock(Job.class);
+        when(job.getStatus()).thenReturn(jobStatus);
+        when(job.getRequest()).thenReturn(request);
+        JobExecutor jobExecutor = mocker.getInstance(JobExecutor.class);
+        when(jobExecutor.getJob(jobStatusId)).thenReturn(job);
+
+        ContextualAuthorizationManager authorization = mocker.getInstance(ContextualAuthorizationManager.class);
+        AccessDeniedException accessDenied =
+            new AccessDeniedException(Right.ADMIN, currentUserReference, folderReference.getLastSpaceReference());
+        doThrow(accessDenied).when(authorization).checkAccess(Right.ADMIN, folderReference.getLastSpaceReference());
+
+        try {
+            mocker.getComponentUnderTest().cancel("test");
+            fail();
+        } catch (AccessDeniedException e) {
+            assertSame(accessDenied, e);
+        }
+        verify(jobStatus, never()).cancel();
+
+        // The drive administrators can cancel the job.
+        doNothing().when(authorization).checkAccess(Right.ADMIN, folderReference.getLastSpaceReference());
+        assertTrue(mocker.getComponentUnderTest().cancel("test"));
+        verify(jobStatus).cancel();
+    }
+
+    @Test
+    public void interactiveMove() throws Exception
+    {
+        mocker.getComponentUnderTest().move(Collections.singleton(new Path(null)), new Path(null), true);
+
+        ArgumentCaptor<MoveRequest> request = ArgumentCaptor.forClass(MoveRequest.class);
+        verify(jobScheduler).schedule(eq(MoveJob.JOB_TYPE), request.capture());
+        assertTrue(request.getValue().isInteractive());
+    }
+
+    @Test
+    public void answerBatchOverwriteQuestion() throws Exception
+    {
+        DocumentReference source = new DocumentReference("wiki", "Drive", "readme.txt");
+        List<OverwriteQuestion> conflicts = Arrays.asList(new OverwriteQuestion(source, source),
+            new OverwriteQuestion(source, source), new OverwriteQuestion(source, source));
+        BatchOverwriteQuestion question = new BatchOverwriteQuestion(conflicts);
+        JobStatus jobStatus = mockWaitingJob(question, currentUserReference);
+
+        assertTrue(mocker.getComponentUnderTest().answerOverwrite("test", Arrays.asList(0, 2), null));
+
+        assertTrue(conflicts.get(0).isOverwrite());
+        assertFalse(conflicts.get(1).isOverwrite());
+        assertTrue(conflicts.get(2).isOverwrite());
+        assertNull(question.getOverwriteAll());
+        verify(jobStatus).answered();
+
+        assertTrue(mocker.getComponentUnderTest().answerOverwrite("test", null, false));
+        assertFalse(question.getOverwriteAll());
+
+        // Only waiting jobs can be answered.
+        when(jobStatus.getState()).thenReturn(JobStatus.State.RUNNING);
+        assertFalse(mocker.getComponentUnderTest().answerOverwrite("test", null, true));
+        assertFalse(question.getOverwriteAll());
+    }
+
+    @Test
+    public void answerOverwriteQuestion() throws Exception
+    {
+        DocumentReference source = new DocumentReference("wiki", "Drive", "readme.txt");
+        OverwriteQuestion question = new OverwriteQuestion(source, source);
+        JobStatus jobStatus = mockWaitingJob(question, currentUserReference);
+
+        assertTrue(mocker.getComponentUnderTest().answerOverwrite("test", Collections.singleton(0), null));
+        assertTrue(question.isOverwrite());
+        assertTrue(question.isAskAgain());
+
+        assertTrue(mocker.getComponentUnderTest().answerOverwrite("test", null, false));
+        assertFalse(question.isOverwrite());
+        assertFalse(question.isAskAgain());
+        verify(jobStatus, times(2)).answered();
+
+        // Other questions are not answered.
+        when(jobStatus.getQuestion()).thenReturn(new Object());
+        assertFalse(mocker.getComponentUnderTest().answerOverwrite("test", null, true));
+    }
+
+    @Test
+    public void answerOverwriteQuestionOfOtherUser() throws Exception
+    {
+        DocumentReference source = new DocumentReference("wiki", "Drive", "readme.txt");
+        OverwriteQuestion question = new OverwriteQuestion(source, source);
+        JobStatus jobStatus = mockWaitingJob(question, new DocumentReference("wiki", "Users", "alice"));
+
+        try {
+            mocker.getComponentUnderTest().answerOverwrite("test", null, true);
+            fail();
+        } catch (AccessDeniedException e) {
+            // The request doesn't target any drive so only its owner can answer it.
+        }
+        assertFalse(question.isOverwrite());
+        verify(jobStatus, never()).answered();
+    }
+
+    private JobStatus mockWaitingJob(Object question, DocumentReference userReference) throws Exception
+    {
+        JobStatus jobStatus = mock(JobStatus.class);
+        when(jobStatus.getState()).thenReturn(JobStatus.State.WAITING);
+        when(jobStatus.getQuestion()).thenReturn(question);
+        MoveRequest request = new MoveRequest();
+        request.setProperty("user.reference", userReference);
+        Job job = mock(Job.class);
+        when(job.getStatus()).thenReturn(jobStatus);
+        when(job.getRequest()).thenReturn(request);
+        JobExecutor jobExecutor = mocker.getInstance(JobExecutor.class);
+        when(jobExecutor.getJob(Arrays.asList(FileManager.JOB_ID_PREFIX, "test"))).thenReturn(job);
+        return jobStatus;
+    }
+
+    @Test
+    public void getJobStatusUpdate() throws Exception
+    {
+        List<String> jobStatusId = Arrays.asList(FileManager.JOB_ID_PREFIX, "test");
+        JobStatus jobStatus = mock(JobStatus.class);
+        when(jobStatus.getState()).thenReturn(JobStatus.State.RUNNING);
+        JobProgress progress = mock(JobProgress.class);
+        when(jobStatus.getProgress()).thenReturn(progress);
+        LogQueue log = new LogQueue();
+        log.error("first");
+        when(jobStatus.getLogTail()).thenReturn(log);
+        Job job = mock(Job.class);
+        when(job.getStatus()).thenReturn(jobStatus);
+        JobExecutor jobExecutor = mocker.getInstance(JobExecutor.class);
+        when(jobExecutor.getJob(jobStatusId)).thenReturn(job);
+
+        JobStatusUpdate update = mocker.getComponentUnderTest().getJobStatusUpdate("test", null, 0);
+        assertSame(jobStatus, update.getJobStatus());
+        assertTrue(update.isFull());
+        assertEquals(1, update.getLogEvents().size());
+
+        // Nothing changed.
+        String cursor = update.getCursor();
+        update = mocker.getComponentUnderTest().getJobStatusUpdate("test", cursor, 0);
+        assertFalse(update.isFull());
+        assertEquals(cursor, update.getCursor());
+        assertTrue(update.getLogEvents().isEmpty());
+
+        // Wait for a change, at most the maximum timeout.
+        DefaultRequest request = new DefaultRequest();
+        request.setId(jobStatusId);
+        when(jobStatus.getRequest()).thenReturn(request);
+        JobStatusWatcher jobStatusWatcher = mocker.getInstance(JobStatusWatcher.class, JobStatusWatcher.NAME);
+        update = mocker.getComponentUnderTest().getJobStatusUpdate("test", cursor, 60000);
+        assertEquals(cursor, update.getCursor());
+        verify(jobStatusWatcher).awaitChange(eq(jobStatusId), eq(30000L), any(BooleanSupplier.class));
+
+        // Only the new log events are returned.
+        log.error("second");
+        when(progress.getOffset()).thenReturn(0.5);
+        update = mocker.getComponentUnderTest().getJobStatusUpdate("test", cursor, 1000);
+        assertFalse(update.isFull());
+        assertNotEquals(cursor, update.getCursor());
+        assertEquals(1, update.getLogEvents().size());
+        assertEquals("second", update.getLogEvents().get(0).getFormattedMessage());
     }
 }
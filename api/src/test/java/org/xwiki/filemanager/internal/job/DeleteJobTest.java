@@ -19,6 +19,7 @@
  */
 package org.xwiki.filemanager.internal.job;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 
@@ -27,12 +28,15 @@ import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
 import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.OperationPlan;
 import org.xwiki.job.Job;
+import org.xwiki.job.event.status.CancelableJobStatus;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -84,6 +88,32 @@ class DeleteJobTest extends AbstractJobTest
         verify(fileSystem).delete(projects.getReference());
     }
 
+    @Test
+    void cancelDeleteFolder() throws Exception
+    {
+        Folder specs = mockFolder("Specs", "Resilience");
+        File readme = mockFile("readme.txt", "Resilience");
+        Folder resilience = mockFolder("Resilience", "Projects", Arrays.asList("Specs"), Arrays.asList("readme.txt"));
+        Folder projects = mockFolder("Projects", null, Arrays.asList("Resilience"), Collections.<String> emptyList());
+
+        // Cancel the job after the first file is deleted.
+        doAnswer(invocation -> {
+            ((CancelableJobStatus) this.deleteJob.getStatus()).cancel();
+            return null;
+        }).when(fileSystem).delete(readme.getReference());
+
+        BatchPathRequest request = new BatchPathRequest();
+        request.setPaths(Collections.singleton(new Path(projects.getReference())));
+
+        execute(request);
+
+        verify(fileSystem).delete(readme.getReference());
+        // The ancestors of the deleted file are kept, otherwise their descendants would become orphans.
+        verify(fileSystem, never()).delete(specs.getReference());
+        verify(fileSystem, never()).delete(resilience.getReference());
+        verify(fileSystem, never()).delete(projects.getReference());
+    }
+
     @Test
     void deleteProtectedFolder() throws Exception
     {
@@ -159,4 +189,35 @@ class DeleteJobTest extends AbstractJobTest
 
         verify(fileSystem).delete(index.getReference());
     }
+
+    @Test
+    void plan() throws Exception
+    {
+        Folder resilience = mockFolder("Resilience", "Projects", Collections.emptyList(), Arrays.asList("readme.txt"));
+        when(fileSystem.canDelete(resilience.getReference())).thenReturn(false);
+        mockFile("readme.txt", "Resilience");
+        // The key is removed from the deleted folder but it's kept in the other parent folder.
+        File key = mockFile("key.pub", "Projects", "Other");
+        File pom = mockFile("pom.xml", "Projects");
+        when(pom.getSize()).thenReturn(5L);
+        Folder projects =
+            mockFolder("Projects", null, Arrays.asList("Resilience"), Arrays.asList("key.pub", "pom.xml"));
+
+        BatchPathRequest request = new BatchPathRequest();
+        request.setPaths(Collections.singleton(new Path(projects.getReference())));
+
+        this.deleteJob.initialize(request);
+        OperationPlan plan = this.deleteJob.plan();
+
+        // The children are deleted first. The deleted folder is kept because it still has a child folder.
+        assertEquals(Arrays.asList(pom.getReference(), key.getReference()), new ArrayList<>(plan.getDocuments()));
+        assertEquals(Arrays.asList(resilience.getReference()), new ArrayList<>(plan.getForbidden()));
+        assertEquals(5L, plan.getBytes());
+        assertEquals("You are not allowed to delete the folder [" + resilience.getReference() + "].",
+            this.logCapture.getMessage(0));
+
+        // Nothing is deleted.
+        verify(fileSystem, never()).delete(any(DocumentReference.class));
+        verify(fileSystem, never()).save(any(File.class));
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link FileManagerJobMetrics}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class FileManagerJobMetricsTest
+{
+    @InjectMockComponents
+    private FileManagerJobMetrics metrics;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    private SpaceReference drive = new SpaceReference("Drive", new WikiReference("wiki"));
+
+    private List<String> jobId = Arrays.asList(FileManager.JOB_ID_PREFIX, "abc");
+
+    private BatchPathRequest request = new BatchPathRequest();
+
+    @BeforeEach
+    void configure()
+    {
+        when(this.serializer.serialize(this.drive)).thenReturn("wiki:Drive");
+
+        this.request.setId(this.jobId);
+        this.request.setPaths(Collections.singletonList(new Path(new DocumentReference("Folder", this.drive))));
+        this.request.setProperty(DefaultFileManager.PROPERTY_SCHEDULE_DATE, System.currentTimeMillis() - 5000);
+    }
+
+    @Test
+    void recordJob()
+    {
+        DeleteJob job = mock(DeleteJob.class);
+        when(job.getProcessedDocuments()).thenReturn(12L);
+        when(job.getProcessedBytes()).thenReturn(1024L);
+        when(job.getQuestionWaitTime()).thenReturn(0L);
+        when(job.getErrorCount()).thenReturn(1L);
+
+        this.metrics.onEvent(new JobStartedEvent(this.jobId, DeleteJob.JOB_TYPE, this.request), job, null);
+        this.metrics.onEvent(new JobFinishedEvent(this.jobId, DeleteJob.JOB_TYPE, this.request), job, null);
+
+        List<JobMetrics> jobMetrics = this.metrics.getJobMetrics();
+        assertEquals(1, jobMetrics.size());
+        JobMetrics deleteMetrics = jobMetrics.get(0);
+        assertEquals(DeleteJob.JOB_TYPE, deleteMetrics.getJobType());
+        assertEquals("wiki:Drive", deleteMetrics.getDrive());
+        assertEquals(1, deleteMetrics.getJobCount());
+        assertEquals(12, deleteMetrics.getDocumentCount());
+        assertEquals(1024, deleteMetrics.getByteCount());
+        assertEquals(1, deleteMetrics.getErrorCount());
+        assertEquals(1, deleteMetrics.getQueueWait().getCount());
+        assertTrue(deleteMetrics.getQueueWait().getMax() >= 5000);
+        assertEquals(1, deleteMetrics.getRunTime().getCount());
+        assertEquals(0, deleteMetrics.getQuestionWait().getCount());
+
+        this.metrics.reset();
+        assertTrue(this.metrics.getJobMetrics().isEmpty());
+    }
+
+    @Test
+    void ignoreOtherJobs()
+    {
+        List<String> otherJobId = Arrays.asList("extension", "install");
+        this.metrics.onEvent(new JobStartedEvent(otherJobId, "install", this.request), null, null);
+        this.metrics.onEvent(new JobFinishedEvent(otherJobId, "install", this.request), null, null);
+
+        assertTrue(this.metrics.getJobMetrics().isEmpty());
+    }
+
+    @Test
+    void histogramBuckets()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(700);
+        histogram.record(7200000);
+
+        long[] counts = histogram.getCounts();
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[4]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(4, histogram.getCount());
+        assertEquals(7200000, histogram.getMax());
+    }
+}
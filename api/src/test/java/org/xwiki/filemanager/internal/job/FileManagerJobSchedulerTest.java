@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.filemanager.job.PackRequest;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.Request;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link FileManagerJobScheduler}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class FileManagerJobSchedulerTest
+{
+    @InjectMockComponents
+    private FileManagerJobScheduler scheduler;
+
+    @MockComponent
+    private JobExecutor jobExecutor;
+
+    @MockComponent
+    private FileManagerConfiguration configuration;
+
+    @MockComponent
+    @Named("context")
+    private Provider<ComponentManager> componentManagerProvider;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.configuration.getMaxHeavyJobsPerUser()).thenReturn(2);
+        when(this.configuration.getMaxHeavyJobsPerDrive()).thenReturn(1);
+
+        ComponentManager componentManager = mock(ComponentManager.class);
+        when(this.componentManagerProvider.get()).thenReturn(componentManager);
+        when(componentManager.getInstance(any(), anyString())).thenAnswer(invocation -> {
+            Job job = mock(Job.class);
+            // Return the request the job has been initialized with.
+            Request[] request = new Request[1];
+            doAnswer(initialize -> {
+                request[0] = initialize.getArgument(0);
+                return null;
+            }).when(job).initialize(any(Request.class));
+            when(job.getRequest()).thenAnswer(getRequest -> request[0]);
+            return job;
+        });
+    }
+
+    @Test
+    void executeShortOperationsRightAway() throws Exception
+    {
+        MoveRequest request = createRequest(new MoveRequest(), "alice", "Drive", "1");
+        this.scheduler.schedule(MoveJob.JOB_TYPE, request);
+
+        verify(this.jobExecutor).execute(MoveJob.JOB_TYPE, request);
+    }
+
+    @Test
+    void limitHeavyJobsPerDrive() throws Exception
+    {
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "alice", "Drive", "1"));
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "bob", "Drive", "2"));
+
+        assertNull(this.scheduler.getWaitingJob(getJobId("1")));
+        Job second = this.scheduler.getWaitingJob(getJobId("2"));
+        verify(this.jobExecutor, never()).execute(second);
+
+        // A job on a different drive is not blocked.
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "bob", "OtherDrive", "3"));
+        assertNull(this.scheduler.getWaitingJob(getJobId("3")));
+
+        this.scheduler.onEvent(new JobFinishedEvent(getJobId("1"), PackJob.JOB_TYPE, null), null, null);
+
+        assertNull(this.scheduler.getWaitingJob(getJobId("2")));
+        verify(this.jobExecutor).execute(second);
+    }
+
+    @Test
+    void limitHeavyJobsPerUser() throws Exception
+    {
+        this.scheduler.schedule(CopyJob.JOB_TYPE, createRequest(new MoveRequest(), "alice", "A", "1"));
+        this.scheduler.schedule(CopyJob.JOB_TYPE, createRequest(new MoveRequest(), "alice", "B", "2"));
+        this.scheduler.schedule(CopyJob.JOB_TYPE, createRequest(new MoveRequest(), "alice", "C", "3"));
+        this.scheduler.schedule(CopyJob.JOB_TYPE, createRequest(new MoveRequest(), "bob", "D", "4"));
+
+        assertNull(this.scheduler.getWaitingJob(getJobId("1")));
+        assertNull(this.scheduler.getWaitingJob(getJobId("2")));
+        Job third = this.scheduler.getWaitingJob(getJobId("3"));
+        assertNotNull(third);
+        // Other users are not blocked.
+        assertNull(this.scheduler.getWaitingJob(getJobId("4")));
+
+        this.scheduler.onEvent(new JobFinishedEvent(getJobId("2"), CopyJob.JOB_TYPE, null), null, null);
+
+        verify(this.jobExecutor).execute(third);
+    }
+
+    @Test
+    void executeCanceledJobsRightAway() throws Exception
+    {
+        this.scheduler.schedule(CopyJob.JOB_TYPE, createRequest(new MoveRequest(), "alice", "A", "1"));
+        this.scheduler.schedule(CopyJob.JOB_TYPE, createRequest(new MoveRequest(), "bob", "A", "2"));
+
+        Job second = this.scheduler.getWaitingJob(getJobId("2"));
+        assertNotNull(second);
+
+        this.scheduler.cancel(getJobId("2"));
+
+        // The canceled job doesn't wait for its turn anymore. It still waits for the running jobs of its group and for
+        // the drive locks, but then it stops before processing anything.
+        assertNull(this.scheduler.getWaitingJob(getJobId("2")));
+        verify(this.jobExecutor).execute(second);
+    }
+
+    @Test
+    void preferUsersWithLessRunningJobs() throws Exception
+    {
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "alice", "Drive", "1"));
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "alice", "Other", "2"));
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "alice", "Drive", "3"));
+        this.scheduler.schedule(PackJob.JOB_TYPE, createRequest(new PackRequest(), "bob", "Drive", "4"));
+
+        this.scheduler.onEvent(new JobFinishedEvent(getJobId("1"), PackJob.JOB_TYPE, null), null, null);
+
+        // Alice still has a running job so Bob goes first although he scheduled his job later.
+        assertNull(this.scheduler.getWaitingJob(getJobId("4")));
+        assertNotNull(this.scheduler.getWaitingJob(getJobId("3")));
+    }
+
+    @Test
+    void mergeWaitingRequests() throws Exception
+    {
+        Path destination = new Path(new DocumentReference("wiki", "Drive", "Projects"));
+        MoveRequest first = createRequest(new MoveRequest(), "alice", "Drive", "1");
+        first.setDestination(destination);
+        assertEquals(getJobId("1"), this.scheduler.schedule(MoveJob.JOB_TYPE, first));
+
+        MoveRequest second = createRequest(new MoveRequest(), "alice", "Drive", "2");
+        second.getPaths().add(new Path(new DocumentReference("wiki", "Drive", "Other")));
+        second.setDestination(destination);
+        // The request is merged into the first job.
+        assertEquals(getJobId("1"), this.scheduler.schedule(MoveJob.JOB_TYPE, second));
+
+        assertEquals(Arrays.asList(new Path(new DocumentReference("wiki", "Drive", "Folder")),
+            new Path(new DocumentReference("wiki", "Drive", "Other"))), first.getPaths());
+        assertEquals(Arrays.asList("2"), first.getProperty(DefaultFileManager.PROPERTY_MERGED_JOB_IDS));
+
+        // Different destination.
+        MoveRequest third = createRequest(new MoveRequest(), "alice", "Drive", "3");
+        third.setDestination(new Path(new DocumentReference("wiki", "Drive", "Other")));
+        assertEquals(getJobId("3"), this.scheduler.schedule(MoveJob.JOB_TYPE, third));
+
+        // Different user.
+        MoveRequest fourth = createRequest(new MoveRequest(), "bob", "Drive", "4");
+        fourth.setDestination(destination);
+        assertEquals(getJobId("4"), this.scheduler.schedule(MoveJob.JOB_TYPE, fourth));
+
+        // The first job has started so it can't be extended anymore.
+        this.scheduler.onEvent(new JobStartedEvent(getJobId("1"), MoveJob.JOB_TYPE, first), null, null);
+
+        MoveRequest fifth = createRequest(new MoveRequest(), "alice", "Drive", "5");
+        fifth.setDestination(destination);
+        assertEquals(getJobId("5"), this.scheduler.schedule(MoveJob.JOB_TYPE, fifth));
+        assertEquals(2, first.getPaths().size());
+    }
+
+    @Test
+    void doNotMergeRenames() throws Exception
+    {
+        Path destination = new Path(new DocumentReference("wiki", "Drive", "Projects"),
+            new DocumentReference("wiki", "Drive", "NewName"));
+        MoveRequest first = createRequest(new MoveRequest(), "alice", "Drive", "1");
+        first.setDestination(destination);
+        assertEquals(getJobId("1"), this.scheduler.schedule(MoveJob.JOB_TYPE, first));
+
+        MoveRequest second = createRequest(new MoveRequest(), "alice", "Drive", "2");
+        second.setDestination(destination);
+        assertEquals(getJobId("2"), this.scheduler.schedule(MoveJob.JOB_TYPE, second));
+    }
+
+    private <T extends BatchPathRequest> T createRequest(T request, String user, String drive, String id)
+    {
+        request.setId(getJobId(id));
+        request.setPaths(
+            new LinkedList<>(Collections.singletonList(new Path(new DocumentReference("wiki", drive, "Folder")))));
+        request.setProperty(DefaultFileManager.PROPERTY_USER_REFERENCE,
+            new DocumentReference("wiki", "XWiki", user));
+        return request;
+    }
+
+    private List<String> getJobId(String id)
+    {
+        return Arrays.asList(FileManager.JOB_ID_PREFIX, id);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.job.DefaultRequest;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.status.PushLevelProgressEvent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link JobStatusWatcher}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class JobStatusWatcherTest
+{
+    @InjectMockComponents
+    private JobStatusWatcher watcher;
+
+    private List<String> jobId = Arrays.asList(FileManager.JOB_ID_PREFIX, "abc");
+
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void awaitChangeReturnsRightAwayIfChanged() throws Exception
+    {
+        long start = System.currentTimeMillis();
+        assertTrue(this.watcher.awaitChange(this.jobId, 10000, () -> true));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    void awaitChangeTimesOut() throws Exception
+    {
+        assertFalse(this.watcher.awaitChange(this.jobId, 100, () -> false));
+    }
+
+    @Test
+    void awaitChangeWakesUpOnJobEvent() throws Exception
+    {
+        AtomicBoolean changed = new AtomicBoolean();
+        Future<Boolean> waiter = this.executor.submit(() -> this.watcher.awaitChange(this.jobId, 20000, changed::get));
+
+        DefaultRequest request = new DefaultRequest();
+        request.setId(this.jobId);
+        Job job = mock(Job.class);
+        when(job.getRequest()).thenReturn(request);
+
+        changed.set(true);
+        this.watcher.onEvent(new PushLevelProgressEvent(), job, null);
+
+        // Much less than the wait timeout.
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void awaitChangeWakesUpOnExplicitNotification() throws Exception
+    {
+        AtomicBoolean changed = new AtomicBoolean();
+        Future<Boolean> waiter = this.executor.submit(() -> this.watcher.awaitChange(this.jobId, 20000, changed::get));
+
+        changed.set(true);
+        this.watcher.notifyChange(this.jobId);
+
+        assertTrue(waiter.get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.job.ActiveJob;
+import org.xwiki.job.event.status.JobStatus.State;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MemoryActiveJobStore}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class MemoryActiveJobStoreTest
+{
+    private static final long LEASE = 60000;
+
+    private MemoryActiveJobStore store = new MemoryActiveJobStore();
+
+    private DocumentReference alice = new DocumentReference("wiki", "XWiki", "alice");
+
+    private SpaceReference drive = new SpaceReference("Drive", new WikiReference("wiki"));
+
+    @Test
+    void expireJobs()
+    {
+        this.store.add(createJob("abc"), 0);
+        this.store.add(createJob("def"), LEASE);
+
+        assertNull(this.store.getJob("abc"));
+        assertEquals(Arrays.asList("def"), this.store.getJobs());
+        assertEquals(Arrays.asList("def"), this.store.getJobsByDrive(this.drive));
+    }
+
+    @Test
+    void renewJobs()
+    {
+        this.store.add(createJob("abc"), LEASE);
+        this.store.renew(Collections.singleton(
+            new ActiveJob("abc", DeleteJob.JOB_TYPE, this.alice, Collections.singleton(this.drive), State.RUNNING,
+                0.5)), LEASE);
+        // Removed jobs are not added back.
+        this.store.renew(Collections.singleton(createJob("def")), LEASE);
+
+        ActiveJob job = this.store.getJob("abc");
+        assertEquals(State.RUNNING, job.getState());
+        assertEquals(0.5, job.getProgress());
+        assertEquals(Arrays.asList("abc"), this.store.getJobs());
+    }
+
+    @Test
+    void expireDriveLocks()
+    {
+        assertTrue(this.store.lockDrives("abc", Collections.singleton(this.drive), 0));
+        // The lock of the first job has expired.
+        assertTrue(this.store.lockDrives("def", Collections.singleton(this.drive), LEASE));
+        assertFalse(this.store.lockDrives("abc", Collections.singleton(this.drive), LEASE));
+
+        // The locks of the renewed jobs are renewed.
+        this.store.renew(Collections.singleton(createJob("def")), LEASE);
+        assertFalse(this.store.lockDrives("abc", Collections.singleton(this.drive), LEASE));
+    }
+
+    private ActiveJob createJob(String id)
+    {
+        return new ActiveJob(id, DeleteJob.JOB_TYPE, this.alice, Collections.singleton(this.drive));
+    }
+}
@@ -19,15 +19,21 @@
  */
 package org.xwiki.filemanager.internal.job;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 import org.xwiki.filemanager.File;
 import org.xwiki.filemanager.Folder;
 import org.xwiki.filemanager.Path;
+import org.xwiki.filemanager.job.BatchOverwriteQuestion;
 import org.xwiki.filemanager.job.MoveRequest;
+import org.xwiki.filemanager.job.OperationPlan;
+import org.xwiki.filemanager.job.OverwriteQuestion;
 import org.xwiki.job.Job;
+import org.xwiki.job.JobGroupPath;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.junit5.mockito.ComponentTest;
 import org.xwiki.test.junit5.mockito.InjectMockComponents;
@@ -210,6 +216,46 @@ class MoveJobTest extends AbstractJobTest
         verify(fileSystem).delete(pom.getReference());
     }
 
+    @Test
+    void overwriteFilesAnsweringUpFront() throws Exception
+    {
+        File pom = mockFile("pom.xml", "api");
+        File readme = mockFile("readme.txt", "api");
+        Folder api = mockFolder("api", null, Collections.<String>emptyList(), Arrays.asList("pom.xml", "readme.txt"));
+
+        File otherPom = mockFile("pom.xml1", "pom.xml", Arrays.asList("root"));
+        File otherReadme = mockFile("readme.txt1", "readme.txt", Arrays.asList("root"));
+        Folder root =
+            mockFolder("root", null, Collections.<String>emptyList(), Arrays.asList("pom.xml1", "readme.txt1"));
+
+        MoveRequest request = new MoveRequest();
+        request.setPaths(Arrays.asList(new Path(root.getReference(), otherPom.getReference()),
+            new Path(root.getReference(), otherReadme.getReference())));
+        request.setDestination(new Path(api.getReference()));
+
+        request.setInteractive(true);
+        Job job = getJob();
+        List<Object> questions = new ArrayList<>();
+        answerQuestion(job, question -> {
+            questions.add(question);
+            for (OverwriteQuestion conflict : ((BatchOverwriteQuestion) question).getQuestions()) {
+                conflict.setOverwrite(conflict.getSource().equals(otherPom.getReference()));
+            }
+        });
+
+        job.initialize(request);
+        job.run();
+
+        // All the conflicts are asked at once, before the files are moved.
+        assertEquals(1, questions.size());
+        assertEquals(2, ((BatchOverwriteQuestion) questions.get(0)).getQuestions().size());
+
+        verify(fileSystem).delete(pom.getReference());
+        verify(fileSystem).save(otherPom);
+        verify(fileSystem, never()).delete(readme.getReference());
+        verify(fileSystem, never()).save(otherReadme);
+    }
+
     @Test
     void overwriteProtectedFile() throws Exception
     {
@@ -446,4 +492,62 @@ class MoveJobTest extends AbstractJobTest
         verify(newFile).setName(readme.getName());
         verify(fileSystem).save(newFile);
     }
+
+    @Test
+    void plan() throws Exception
+    {
+        mockFolder("Concerto", "Projects");
+        Folder projects = mockFolder("Projects", null, Arrays.asList("Concerto"), Collections.<String>emptyList());
+
+        // The moved folder is merged with the existing folder that has the same name.
+        Folder specs = mockFolder("Specs", "ConcertoNew");
+        when(fileSystem.canEdit(specs.getReference())).thenReturn(false);
+        File readme = mockFile("readme.txt", "ConcertoNew");
+        Folder concertoNew =
+            mockFolder("ConcertoNew", "Concerto", null, Arrays.asList("Specs"), Arrays.asList("readme.txt"));
+
+        MoveRequest request = new MoveRequest();
+        request.setPaths(Collections.singleton(new Path(concertoNew.getReference())));
+        request.setDestination(new Path(projects.getReference()));
+
+        this.moveJob.initialize(request);
+        OperationPlan plan = this.moveJob.plan();
+
+        // The merged folder is not deleted because it still has a child folder.
+        assertEquals(Arrays.asList(readme.getReference()), new ArrayList<>(plan.getDocuments()));
+        assertEquals(Arrays.asList(specs.getReference()), new ArrayList<>(plan.getForbidden()));
+        assertEquals("You are not allowed to move the folder [" + specs.getReference() + "].",
+            this.logCapture.getMessage(0));
+
+        // Nothing is moved.
+        verify(fileSystem, never()).save(any(File.class));
+        verify(fileSystem, never()).save(any(Folder.class));
+        verify(fileSystem, never()).delete(any(DocumentReference.class));
+        assertEquals(Arrays.asList("ConcertoNew"), getParents(readme));
+    }
+
+    @Test
+    void getGroupPath() throws Exception
+    {
+        MoveRequest request = new MoveRequest();
+        request.setPaths(Collections.singleton(new Path(ref("Concerto"))));
+        request.setDestination(new Path(ref("Projects")));
+        this.moveJob.initialize(request);
+
+        assertEquals(new JobGroupPath(Arrays.asList("file-manager", "wiki", "Drive")),
+            this.moveJob.getGroupPath());
+
+        // Move to a different drive.
+        request.setDestination(new Path(new DocumentReference("wiki", "OtherDrive", "Projects")));
+        this.moveJob.initialize(request);
+
+        assertEquals(new JobGroupPath(Arrays.asList("file-manager", "wiki")),
+            this.moveJob.getGroupPath());
+
+        // Move to a different wiki.
+        request.setDestination(new Path(new DocumentReference("dev", "Drive", "Projects")));
+        this.moveJob.initialize(request);
+
+        assertEquals(new JobGroupPath(Arrays.asList("file-manager")), this.moveJob.getGroupPath());
+    }
 }
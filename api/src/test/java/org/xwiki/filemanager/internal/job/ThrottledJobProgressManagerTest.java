@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.job;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.job.event.status.JobProgressManager;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link ThrottledJobProgressManager}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class ThrottledJobProgressManagerTest
+{
+    private JobProgressManager delegate = mock(JobProgressManager.class);
+
+    private Object source = new Object();
+
+    @Test
+    void publishOnlyTheFinalProgress()
+    {
+        ThrottledJobProgressManager progressManager =
+            new ThrottledJobProgressManager(this.delegate, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+        progressManager.pushLevelProgress(2, this.source);
+        progressManager.pushLevelProgress(4, this.source);
+        for (int i = 0; i < 4; i++) {
+            progressManager.stepPropress(this.source);
+        }
+        progressManager.popLevelProgress(this.source);
+        progressManager.stepPropress(this.source);
+        progressManager.stepPropress(this.source);
+
+        verify(this.delegate).pushLevelProgress(1000, this.source);
+        verify(this.delegate, never()).stepPropress(this.source);
+
+        progressManager.popLevelProgress(this.source);
+
+        verify(this.delegate, times(1000)).stepPropress(this.source);
+        verify(this.delegate).popLevelProgress(this.source);
+    }
+
+    @Test
+    void publishEveryItems()
+    {
+        ThrottledJobProgressManager progressManager =
+            new ThrottledJobProgressManager(this.delegate, Long.MAX_VALUE, 2);
+
+        progressManager.pushLevelProgress(2, this.source);
+        progressManager.pushLevelProgress(4, this.source);
+        progressManager.stepPropress(this.source);
+        verify(this.delegate, never()).stepPropress(this.source);
+
+        // Half of the first step of the outer level.
+        progressManager.stepPropress(this.source);
+        verify(this.delegate, times(250)).stepPropress(this.source);
+
+        // The levels that the job didn't pop are popped when the job finishes.
+        progressManager.close(this.source);
+        verify(this.delegate, times(1000)).stepPropress(this.source);
+        verify(this.delegate).popLevelProgress(this.source);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.internal.FolderIndex;
+import org.xwiki.filemanager.internal.OrphanIndex;
+import org.xwiki.filemanager.listing.FileRow;
+import org.xwiki.filemanager.listing.ListingPage;
+import org.xwiki.filemanager.listing.ListingRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultFileListingService}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class DefaultFileListingServiceTest
+{
+    @InjectMockComponents
+    private DefaultFileListingService listingService;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    @MockComponent
+    @Named("current")
+    private DocumentReferenceResolver<String> currentDocumentReferenceResolver;
+
+    @MockComponent
+    @Named("compact")
+    private EntityReferenceSerializer<String> compactEntityReferenceSerializer;
+
+    @MockComponent
+    @Named(OrphanIndex.NAME)
+    private OrphanIndex orphanIndex;
+
+    @MockComponent
+    @Named(FolderIndex.NAME)
+    private FolderIndex folderIndex;
+
+    @MockComponent
+    private ContextualAuthorizationManager authorization;
+
+    private Query countQuery = mock(Query.class, "count");
+
+    private Query selectQuery = mock(Query.class, "select");
+
+    private DocumentReference folderReference = new DocumentReference("wiki", "Drive", "Folder");
+
+    private DocumentReference driveReference = new DocumentReference("wiki", "Drive", "WebHome");
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.queryManager.createQuery(startsWith("select count"), eq(Query.HQL))).thenReturn(this.countQuery);
+        when(this.queryManager.createQuery(startsWith("select doc.name"), eq(Query.HQL))).thenReturn(this.selectQuery);
+        when(this.countQuery.execute()).thenReturn(Arrays.<Object>asList(1L));
+    }
+
+    @Test
+    void getChildFilesSortedBySize() throws Exception
+    {
+        when(this.selectQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"a.txt", 512L, 9L}));
+
+        ListingRequest request = new ListingRequest();
+        request.setSort("size");
+        request.setDescending(true);
+        request.setAfter("14:4:l:1024");
+        ListingPage<DocumentReference> page = this.listingService.getChildFiles(this.folderReference, request);
+
+        assertEquals(Arrays.asList(new DocumentReference("a.txt", this.folderReference.getLastSpaceReference())),
+            page.getItems());
+        assertEquals(15, page.getOffset());
+        assertEquals("15:9:l:512", page.getNextCursor());
+
+        verify(this.queryManager, times(2)).createQuery(contains("XWikiAttachment attach"), eq(Query.HQL));
+        verify(this.queryManager).createQuery(contains(" and (attach.filesize < :keysetValue or"
+            + " (attach.filesize = :keysetValue and doc.id < :keysetId)) order by attach.filesize desc, doc.id desc"),
+            eq(Query.HQL));
+        verify(this.selectQuery).bindValue("tag", "Folder");
+        verify(this.selectQuery).bindValue("keysetValue", 1024L);
+    }
+
+    @Test
+    void getChildFilesAfterNullSortValue() throws Exception
+    {
+        when(this.selectQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"a.txt", null, 9L}));
+
+        ListingRequest request = new ListingRequest();
+        request.setSort("author");
+        request.setAfter("3:4:n:");
+        ListingPage<DocumentReference> page = this.listingService.getChildFiles(this.folderReference, request);
+
+        assertEquals(4, page.getOffset());
+        assertEquals("4:9:n:", page.getNextCursor());
+
+        verify(this.queryManager).createQuery(contains(" and ((doc.author is null and doc.id > :keysetId) or"
+            + " doc.author is not null) order by case when doc.author is null then 0 else 1 end, doc.author, doc.id"),
+            eq(Query.HQL));
+        verify(this.selectQuery, never()).bindValue(eq("keysetValue"), any());
+        verify(this.selectQuery).bindValue("keysetId", 4L);
+    }
+
+    @Test
+    void getChildFilesBeforeNullSortValue() throws Exception
+    {
+        when(this.selectQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"a.txt", "XWiki.Alice", 9L}));
+
+        ListingRequest request = new ListingRequest();
+        request.setSort("author");
+        request.setDescending(true);
+        request.setAfter("3:4:s:XWiki.Bob");
+        this.listingService.getChildFiles(this.folderReference, request);
+
+        // The files without author come last in descending order.
+        verify(this.queryManager).createQuery(contains(" and ((doc.author < :keysetValue or (doc.author = :keysetValue"
+            + " and doc.id < :keysetId)) or doc.author is null) order by case when doc.author is null then 0 else 1"
+            + " end desc, doc.author desc, doc.id desc"), eq(Query.HQL));
+    }
+
+    @Test
+    void getAllFilesWithFilters() throws Exception
+    {
+        DocumentReference driveReference = new DocumentReference("wiki", "Drive", "WebHome");
+        DocumentReference aliceReference = new DocumentReference("wiki", "XWiki", "alice");
+        when(this.currentDocumentReferenceResolver.resolve("ali")).thenReturn(aliceReference);
+        when(this.compactEntityReferenceSerializer.serialize(aliceReference, aliceReference)).thenReturn("ali");
+
+        ListingRequest request = new ListingRequest();
+        request.setFilter("name", "Report");
+        request.setFilter("author", "ali");
+        request.setFilter("date", "*.5.2024");
+        this.listingService.getAllFiles(driveReference, request);
+
+        verify(this.countQuery).bindValue("name", "%report%");
+        verify(this.countQuery).bindValue("author", "%ali%");
+        verify(this.countQuery).bindValue("dateMonth", 5);
+        verify(this.countQuery).bindValue("dateYear", 2024);
+        verify(this.queryManager, times(2)).createQuery(contains("lower(doc.author) like :author"), eq(Query.HQL));
+        verify(this.queryManager, times(2)).createQuery(contains("month(doc.date) = :dateMonth"), eq(Query.HQL));
+    }
+
+    @Test
+    void getOrphanFilesModifiedRecently() throws Exception
+    {
+        when(this.orphanIndex.getOrphanFiles(this.driveReference.getLastSpaceReference()))
+            .thenReturn(Arrays.asList("a.txt", "b.txt"));
+
+        ListingRequest request = new ListingRequest();
+        request.setFilter("creationDate", "-2w");
+        this.listingService.getOrphanFiles(this.driveReference, request);
+
+        verify(this.countQuery).bindValue("orphans", Arrays.asList("a.txt", "b.txt"));
+        verify(this.countQuery).bindValue(eq("creationDateStart"), any(Date.class));
+        verify(this.countQuery).bindValue(eq("creationDateEnd"), any(Date.class));
+        verify(this.queryManager, times(2)).createQuery(contains("doc.name in (:orphans)"), eq(Query.HQL));
+        verify(this.queryManager, never()).createQuery(contains(DefaultFolderListingService.HAS_NO_PARENT),
+            eq(Query.HQL));
+    }
+
+    @Test
+    void getOrphanFilesWithoutOrphans() throws Exception
+    {
+        when(this.orphanIndex.getOrphanFiles(this.driveReference.getLastSpaceReference()))
+            .thenReturn(Collections.<String>emptyList());
+
+        ListingPage<DocumentReference> page = this.listingService.getOrphanFiles(this.driveReference,
+            new ListingRequest());
+
+        assertTrue(page.getItems().isEmpty());
+        assertEquals(0, page.getTotalCount());
+        verify(this.queryManager, never()).createQuery(anyString(), eq(Query.HQL));
+    }
+
+    @Test
+    void getOrphanFilesFromLargeDrive() throws Exception
+    {
+        List<String> orphanNames = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            orphanNames.add("file" + i);
+        }
+        when(this.orphanIndex.getOrphanFiles(this.driveReference.getLastSpaceReference())).thenReturn(orphanNames);
+        when(this.localEntityReferenceSerializer.serialize(this.driveReference)).thenReturn("Drive.WebHome");
+
+        this.listingService.getOrphanFiles(this.driveReference, new ListingRequest());
+
+        // Too many orphans to pass them to the query.
+        verify(this.countQuery).bindValue("parent", "Drive.WebHome");
+        verify(this.countQuery, never()).bindValue(eq("orphans"), any());
+        verify(this.queryManager, times(2)).createQuery(contains(DefaultFolderListingService.HAS_NO_PARENT),
+            eq(Query.HQL));
+    }
+
+    @Test
+    void getRows() throws Exception
+    {
+        SpaceReference space = this.driveReference.getLastSpaceReference();
+        DocumentReference readme = new DocumentReference("readme", space);
+        DocumentReference logo = new DocumentReference("logo", space);
+        DocumentReference secret = new DocumentReference("secret", space);
+        DocumentReference projects = new DocumentReference("Projects", space);
+        DocumentReference hidden = new DocumentReference("Hidden", space);
+        DocumentReference archive = new DocumentReference("Archive", space);
+        when(this.localEntityReferenceSerializer.serialize(space)).thenReturn("Drive");
+
+        when(this.authorization.hasAccess(Right.VIEW, readme)).thenReturn(true);
+        when(this.authorization.hasAccess(Right.VIEW, logo)).thenReturn(true);
+        when(this.authorization.hasAccess(Right.DELETE, logo)).thenReturn(true);
+        when(this.authorization.hasAccess(Right.VIEW, projects)).thenReturn(true);
+        when(this.authorization.hasAccess(Right.VIEW, archive)).thenReturn(true);
+        when(this.authorization.hasAccess(Right.VIEW, this.driveReference)).thenReturn(true);
+
+        Date date = new Date();
+        Query documentsQuery = mock(Query.class, "documents");
+        when(this.queryManager.createQuery(startsWith("select doc.name, doc.creationDate"), eq(Query.HQL)))
+            .thenReturn(documentsQuery);
+        when(documentsQuery.execute()).thenReturn(Arrays.<Object>asList(
+            new Object[] {"readme", date, date, "XWiki.Alice", "XWiki.Bob", "2.1", "Read me **first**."},
+            new Object[] {"logo", date, date, "XWiki.Alice", "XWiki.Alice", "1.1", ""},
+            new Object[] {"secret", date, date, "XWiki.Admin", "XWiki.Admin", "1.1", ""}));
+
+        Query attachmentsQuery = mock(Query.class, "attachments");
+        when(this.queryManager.createQuery(startsWith("select doc.name, attach.filename"), eq(Query.HQL)))
+            .thenReturn(attachmentsQuery);
+        when(attachmentsQuery.execute()).thenReturn(Arrays.<Object>asList(
+            new Object[] {"logo", "logo.png", 2048L, "image/png"}, new Object[] {"logo", "logo.svg", 512L, null},
+            new Object[] {"readme", "readme.txt", 128L, null}));
+
+        Query tagsQuery = mock(Query.class, "tags");
+        when(this.queryManager.createQuery(startsWith("select doc.name, tag"), eq(Query.HQL))).thenReturn(tagsQuery);
+        when(tagsQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"logo", "Projects"},
+            new Object[] {"logo", "someTag"}, new Object[] {"readme", "WebHome"}, new Object[] {"readme", "Hidden"},
+            new Object[] {"readme", "Archive"}));
+        when(this.folderIndex.getAncestors(projects)).thenReturn(Collections.singletonList(this.driveReference));
+        when(this.folderIndex.getAncestors(this.driveReference)).thenReturn(Collections.emptyList());
+        when(this.folderIndex.getAncestors(hidden)).thenReturn(Collections.singletonList(this.driveReference));
+        when(this.folderIndex.getAncestors(archive)).thenReturn(Arrays.asList(this.driveReference, hidden));
+        // Not a folder.
+        when(this.folderIndex.getAncestors(new DocumentReference("someTag", space))).thenReturn(null);
+
+        Map<DocumentReference, FileRow> rows = this.listingService.getRows(Arrays.asList(secret, logo, readme));
+
+        // The order is preserved and the files that can't be viewed are skipped.
+        assertEquals(Arrays.asList(logo, readme), Arrays.asList(rows.keySet().toArray()));
+
+        FileRow logoRow = rows.get(logo);
+        assertEquals("logo.png", logoRow.getName());
+        assertEquals(2048L, logoRow.getSize());
+        assertEquals("image/png", logoRow.getMediaType());
+        assertEquals("1.1", logoRow.getVersion());
+        assertEquals(Collections.singletonList(Arrays.asList("Projects", "WebHome")), logoRow.getPaths());
+        assertTrue(logoRow.canDelete());
+
+        FileRow readmeRow = rows.get(readme);
+        assertEquals("readme.txt", readmeRow.getName());
+        assertEquals("text/plain", readmeRow.getMediaType());
+        assertEquals("XWiki.Bob", readmeRow.getAuthor());
+        // The description has to be rendered from the file document.
+        assertTrue(readmeRow.hasDescription());
+        assertFalse(logoRow.hasDescription());
+        // The folders that can't be viewed are skipped and the paths are cut at the ancestors that can't be viewed.
+        assertEquals(Arrays.asList(Arrays.asList("WebHome"), Arrays.asList("Archive")), readmeRow.getPaths());
+        assertFalse(readmeRow.canDelete());
+
+        // The attachments and the tags are retrieved only for the files that can be viewed.
+        verify(attachmentsQuery).bindValue("names", Arrays.asList("readme", "logo"));
+        verify(documentsQuery).bindValue("names", Arrays.asList("secret", "logo", "readme"));
+        verify(tagsQuery).setWiki("wiki");
+    }
+}
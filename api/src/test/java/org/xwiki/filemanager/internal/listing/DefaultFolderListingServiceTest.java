@@ -0,0 +1,231 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.internal.FolderIndex;
+import org.xwiki.filemanager.internal.OrphanIndex;
+import org.xwiki.filemanager.listing.FolderChildren;
+import org.xwiki.filemanager.listing.ListingPage;
+import org.xwiki.filemanager.listing.ListingRequest;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultFolderListingService}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+@ComponentTest
+class DefaultFolderListingServiceTest
+{
+    @InjectMockComponents
+    private DefaultFolderListingService listingService;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localEntityReferenceSerializer;
+
+    @MockComponent
+    @Named(FolderIndex.NAME)
+    private FolderIndex folderIndex;
+
+    @MockComponent
+    @Named(OrphanIndex.NAME)
+    private OrphanIndex orphanIndex;
+
+    private Query countQuery = mock(Query.class, "count");
+
+    private Query selectQuery = mock(Query.class, "select");
+
+    private DocumentReference parentReference = new DocumentReference("wiki", "Drive", "Parent");
+
+    private SpaceReference driveReference = this.parentReference.getLastSpaceReference();
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.queryManager.createQuery(startsWith("select count"), eq(Query.HQL))).thenReturn(this.countQuery);
+        when(this.queryManager.createQuery(startsWith("select doc.name"), eq(Query.HQL))).thenReturn(this.selectQuery);
+        when(this.countQuery.execute()).thenReturn(Arrays.<Object>asList(40L));
+        when(this.localEntityReferenceSerializer.serialize(this.driveReference)).thenReturn("Drive");
+        when(this.localEntityReferenceSerializer.serialize(this.parentReference)).thenReturn("Drive.Parent");
+    }
+
+    @Test
+    void getFirstPage() throws Exception
+    {
+        when(this.selectQuery.execute())
+            .thenReturn(Arrays.<Object>asList(new Object[] {"a", "a", 7L}, new Object[] {"b", "b", 3L}));
+
+        ListingRequest request = new ListingRequest();
+        request.setLimit(2);
+        ListingPage<DocumentReference> page = this.listingService.getChildFolders(this.parentReference, request);
+
+        assertEquals(Arrays.asList(new DocumentReference("a", this.driveReference),
+            new DocumentReference("b", this.driveReference)), page.getItems());
+        assertEquals(40, page.getTotalCount());
+        assertEquals(0, page.getOffset());
+        assertEquals("0:7:s:a", page.getPreviousCursor());
+        // The items are counted when the total count is unknown.
+        assertEquals(40, page.getTotalCount());
+        assertEquals("1:3:s:b", page.getNextCursor());
+
+        verify(this.selectQuery).bindValue("space", "Drive");
+        verify(this.selectQuery).bindValue("parent", "Drive.Parent");
+        verify(this.selectQuery).setWiki("wiki");
+        verify(this.selectQuery).setOffset(0);
+        verify(this.selectQuery).setLimit(2);
+    }
+
+    @Test
+    void getNextPage() throws Exception
+    {
+        when(this.selectQuery.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"c", "c", 5L}));
+
+        ListingRequest request = new ListingRequest();
+        request.setAfter("1:3:s:b");
+        request.setTotalCount(3);
+        ListingPage<DocumentReference> page = this.listingService.getChildFolders(this.parentReference, request);
+
+        assertEquals(Collections.singletonList(new DocumentReference("c", this.driveReference)), page.getItems());
+        assertEquals(2, page.getOffset());
+        // The total count passed back from the previous page is reused.
+        assertEquals(3, page.getTotalCount());
+        verify(this.queryManager, never()).createQuery(startsWith("select count"), eq(Query.HQL));
+        assertEquals("2:5:s:c", page.getNextCursor());
+
+        verify(this.queryManager).createQuery(
+            "select doc.name, doc.name, doc.id from XWikiDocument doc, BaseObject folderObj"
+                + " where doc.space = :space and " + DefaultFolderListingService.JOIN_FOLDERS
+                + " and doc.parent = :parent and (doc.name > :keysetValue or (doc.name = :keysetValue"
+                + " and doc.id > :keysetId)) order by doc.name, doc.id",
+            Query.HQL);
+        verify(this.selectQuery).bindValue("keysetValue", "b");
+        verify(this.selectQuery).bindValue("keysetId", 3L);
+        verify(this.selectQuery, never()).setOffset(anyInt());
+    }
+
+    @Test
+    void getPreviousPage() throws Exception
+    {
+        // The previous page is retrieved in reverse order.
+        when(this.selectQuery.execute())
+            .thenReturn(Arrays.<Object>asList(new Object[] {"b", "b", 3L}, new Object[] {"a", "a", 7L}));
+
+        when(this.orphanIndex.getOrphanFolders(this.driveReference)).thenReturn(Arrays.asList("a", "b", "c"));
+
+        ListingRequest request = new ListingRequest();
+        request.setBefore("2:5:s:c");
+        request.setLimit(2);
+        ListingPage<DocumentReference> page = this.listingService.getOrphanFolders(this.parentReference, request);
+
+        assertEquals(Arrays.asList(new DocumentReference("a", this.driveReference),
+            new DocumentReference("b", this.driveReference)), page.getItems());
+        assertEquals(0, page.getOffset());
+        assertEquals("0:7:s:a", page.getPreviousCursor());
+
+        verify(this.selectQuery).bindValue("keysetValue", "c");
+        verify(this.selectQuery).bindValue("orphans", Arrays.asList("a", "b", "c"));
+        verify(this.queryManager).createQuery(
+            endsWith("(doc.name < :keysetValue or (doc.name = :keysetValue"
+                + " and doc.id < :keysetId)) order by doc.name desc, doc.id desc"),
+            eq(Query.HQL));
+    }
+
+    @Test
+    void getPageWithInvalidCursor() throws Exception
+    {
+        when(this.selectQuery.execute()).thenReturn(Collections.emptyList());
+
+        ListingRequest request = new ListingRequest();
+        request.setAfter("invalid");
+        request.setOffset(30);
+        ListingPage<DocumentReference> page = this.listingService.getChildFolders(this.parentReference, request);
+
+        assertTrue(page.getItems().isEmpty());
+        assertEquals(30, page.getOffset());
+        verify(this.selectQuery).setOffset(30);
+        verify(this.selectQuery, never()).bindValue(eq("keysetValue"), any());
+    }
+
+    @Test
+    void getChildren() throws Exception
+    {
+        DocumentReference alice = new DocumentReference("wiki", "Drive", "Alice");
+        DocumentReference bob = new DocumentReference("wiki", "Drive", "Bob");
+        DocumentReference carol = new DocumentReference("wiki", "Other", "Carol");
+
+        when(this.folderIndex.hasChildFolders(alice)).thenReturn(true);
+        when(this.localEntityReferenceSerializer.serialize(carol.getLastSpaceReference())).thenReturn("Other");
+
+        Query filesQuery = mock(Query.class, "files");
+        when(this.queryManager.createQuery(startsWith("select distinct tag"), eq(Query.HQL))).thenReturn(filesQuery);
+        when(filesQuery.execute()).thenReturn(Arrays.<Object>asList("Bob"), Collections.emptyList());
+
+        Map<DocumentReference, FolderChildren> children =
+            this.listingService.getChildren(Arrays.asList(alice, bob, carol));
+
+        assertEquals(Arrays.asList(alice, bob, carol), Arrays.asList(children.keySet().toArray()));
+        assertTrue(children.get(alice).hasFolders());
+        assertFalse(children.get(alice).hasFiles());
+        assertFalse(children.get(bob).hasFolders());
+        assertTrue(children.get(bob).hasFiles());
+        assertFalse(children.get(carol).hasFolders());
+        assertFalse(children.get(carol).hasFiles());
+
+        // One query per drive.
+        verify(this.queryManager, times(2)).createQuery(startsWith("select distinct tag"), eq(Query.HQL));
+        verify(filesQuery).bindValue("folders", Arrays.asList("Alice", "Bob"));
+        verify(filesQuery).bindValue("folders", Collections.singletonList("Carol"));
+        verify(filesQuery).bindValue("space", "Other");
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.listing;
+
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link ListingCursor}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class ListingCursorTest
+{
+    @Test
+    void serializeAndParse()
+    {
+        for (Object value : new Object[] {"a:b", "", 13, 42L, new Date(1000), null}) {
+            ListingCursor cursor = ListingCursor.parse(new ListingCursor(5, -3, value).serialize());
+            assertEquals(5, cursor.getPosition());
+            assertEquals(-3, cursor.getDocumentId());
+            assertEquals(value, cursor.getSortValue());
+        }
+    }
+
+    @Test
+    void parseInvalidCursor()
+    {
+        assertNull(ListingCursor.parse(null));
+        assertNull(ListingCursor.parse("5"));
+        assertNull(ListingCursor.parse("5:x:s:a"));
+        assertNull(ListingCursor.parse("5:3:x:a"));
+        assertNull(ListingCursor.parse("5:3:i:a"));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.reference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.filemanager.internal.FileManagerDatabase;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DatabaseDocumentReservationStore}. The reservations table is simulated in memory.
+ *
+ * @version $Id$
+ * @since 2.2
+ */
+class DatabaseDocumentReservationStoreTest
+{
+    private static final long LEASE = 60000;
+
+    private DocumentReference first = new DocumentReference("wiki", "Drive", "first.txt");
+
+    private DocumentReference second = new DocumentReference("wiki", "Drive", "second.txt");
+
+    private DocumentReference alice = new DocumentReference("wiki", "XWiki", "alice");
+
+    private FileManagerDatabase database = mock(FileManagerDatabase.class);
+
+    private Session session = mock(Session.class);
+
+    /**
+     * The rows of the reservations table: the owner and the expiry date of each reserved document.
+     */
+    private Map<String, Object[]> reservations = new HashMap<>();
+
+    /**
+     * Called when the reservations are selected, before the result is returned.
+     */
+    private Runnable onSelect;
+
+    private DatabaseDocumentReservationStore store = new DatabaseDocumentReservationStore();
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        when(this.database.executeWrite(any())).thenAnswer(invocation -> {
+            try {
+                return invocation.<HibernateCallback<?>>getArgument(0).doInHibernate(this.session);
+            } catch (Exception e) {
+                throw new XWikiException(0, 0, "Rolled back", e);
+            }
+        });
+        when(this.session.createNativeQuery(anyString()))
+            .thenAnswer(invocation -> createQuery(invocation.getArgument(0)));
+
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any())).thenAnswer(invocation -> invocation.getArgument(0).toString());
+        ReflectionUtils.setFieldValue(this.store, "database", this.database);
+        ReflectionUtils.setFieldValue(this.store, "serializer", serializer);
+        ReflectionUtils.setFieldValue(this.store, "logger", mock(Logger.class));
+    }
+
+    @Test
+    void reserveAllWhenAnotherNodeInsertsAReservation()
+    {
+        // Another node reserves the first document after the reservations are checked.
+        this.onSelect = () -> {
+            this.onSelect = null;
+            this.reservations.put(this.first.toString(), new Object[] {"bob", Long.MAX_VALUE});
+        };
+
+        // The second document is still reserved.
+        assertEquals(Collections.singleton(this.second),
+            this.store.reserveAll(Arrays.asList(this.first, this.second), this.alice, LEASE));
+        assertEquals("bob", this.reservations.get(this.first.toString())[0]);
+    }
+
+    @Test
+    void reserveAllWhenAnotherNodeTakesOverAReservation()
+    {
+        this.reservations.put(this.first.toString(), new Object[] {"bob", 0L});
+        // Another node takes over the expired reservation after the reservations are checked.
+        this.onSelect = () -> {
+            this.onSelect = null;
+            this.reservations.put(this.first.toString(), new Object[] {"carol", Long.MAX_VALUE});
+        };
+
+        assertEquals(Collections.singleton(this.second),
+            this.store.reserveAll(Arrays.asList(this.first, this.second), this.alice, LEASE));
+        assertEquals("carol", this.reservations.get(this.first.toString())[0]);
+    }
+
+    @Test
+    void takeOverExpiredReservation()
+    {
+        this.reservations.put(this.first.toString(), new Object[] {"bob", 0L});
+
+        assertEquals(Collections.singleton(this.first),
+            this.store.reserveAll(Collections.singleton(this.first), this.alice, LEASE));
+        assertEquals(this.alice.toString(), this.reservations.get(this.first.toString())[0]);
+    }
+
+    private NativeQuery<?> createQuery(String statement)
+    {
+        Map<String, Object> parameters = new HashMap<>();
+        return mock(NativeQuery.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if (method.startsWith("setParameter")) {
+                parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+                return invocation.getMock();
+            } else if ("getResultList".equals(method)) {
+                return selectReservations((Collection<String>) parameters.get("documents"));
+            } else if ("executeUpdate".equals(method)) {
+                return updateReservation(statement, parameters);
+            }
+            return null;
+        });
+    }
+
+    private List<Object[]> selectReservations(Collection<String> documents)
+    {
+        List<Object[]> rows = new ArrayList<>();
+        for (String document : documents) {
+            Object[] reservation = this.reservations.get(document);
+            if (reservation != null) {
+                rows.add(new Object[] {document, reservation[1]});
+            }
+        }
+        if (this.onSelect != null) {
+            this.onSelect.run();
+        }
+        return rows;
+    }
+
+    private int updateReservation(String statement, Map<String, Object> parameters)
+    {
+        if (statement.startsWith("delete")) {
+            // Keep the expired reservations.
+            return 0;
+        }
+        String document = (String) parameters.get("document");
+        Object[] reservation = this.reservations.get(document);
+        if (statement.startsWith("insert")) {
+            if (reservation != null) {
+                throw new IllegalStateException("Duplicate key [" + document + "]");
+            }
+        } else if (reservation == null || (Long) reservation[1] > (Long) parameters.get("now")) {
+            return 0;
+        }
+        this.reservations.put(document, new Object[] {parameters.get("owner"), parameters.get("expiry")});
+        return 1;
+    }
+}
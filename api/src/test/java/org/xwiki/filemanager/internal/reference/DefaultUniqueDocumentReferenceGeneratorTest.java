@@ -19,22 +19,32 @@
  */
 package org.xwiki.filemanager.internal.reference;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.xwiki.bridge.DocumentAccessBridge;
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.filemanager.internal.FileManagerConfiguration;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
 import org.xwiki.filemanager.reference.UniqueDocumentReferenceGenerator;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
-import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -50,23 +60,33 @@ public class DefaultUniqueDocumentReferenceGeneratorTest
     public MockitoComponentMockingRule<UniqueDocumentReferenceGenerator> mocker =
         new MockitoComponentMockingRule<UniqueDocumentReferenceGenerator>(DefaultUniqueDocumentReferenceGenerator.class);
 
-    private DocumentAccessBridge documentAccessBridge;
+    private Query existingDocumentsQuery = mock(Query.class, "existingDocuments");
 
-    @SuppressWarnings("unchecked")
-    private Cache<Boolean> documentReferenceCache = mock(Cache.class);
+    private Query suffixedNamesQuery = mock(Query.class, "suffixedNames");
 
-    @BeforeComponent
-    public void initializeCache() throws Exception
-    {
-        CacheManager cacheManager = this.mocker.registerMockComponent(CacheManager.class);
-        when(cacheManager.<Boolean>createNewCache(any(CacheConfiguration.class))).thenReturn(
-            this.documentReferenceCache);
-    }
+    private MemoryDocumentReservationStore reservationStore = new MemoryDocumentReservationStore();
+
+    private DocumentReference alice = new DocumentReference("gang", "XWiki", "alice");
 
     @Before
     public void configure() throws Exception
     {
-        this.documentAccessBridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
+        when(queryManager.createQuery(startsWith("select distinct"), any())).thenReturn(this.existingDocumentsQuery);
+        when(queryManager.createQuery(startsWith("select doc.name"), any())).thenReturn(this.suffixedNamesQuery);
+
+        EntityReferenceSerializer<String> localEntityReferenceSerializer =
+            this.mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localEntityReferenceSerializer.serialize(any(SpaceReference.class))).thenReturn("Drive");
+
+        // The store is injected through a provider.
+        this.mocker.registerComponent(DocumentReservationStore.class, this.reservationStore);
+
+        FileManagerConfiguration configuration = this.mocker.getInstance(FileManagerConfiguration.class);
+        when(configuration.getReservationLease()).thenReturn(60000L);
+
+        DocumentAccessBridge documentAccessBridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(documentAccessBridge.getCurrentUserReference()).thenReturn(this.alice);
     }
 
     @Test
@@ -75,24 +95,124 @@ public class DefaultUniqueDocumentReferenceGeneratorTest
         DocumentReference baseReference = new DocumentReference("gang", "Drive", "foo");
         SpaceReference spaceReference = baseReference.getLastSpaceReference();
 
-        when(this.documentAccessBridge.exists(baseReference)).thenReturn(true);
-        when(this.documentReferenceCache.get("gang:Drive.foo")).thenReturn(null, true);
-        when(this.documentReferenceCache.get("gang:Drive.foo1")).thenReturn(null, true);
+        // The last suffix has been recorded previously, possibly by another node.
+        this.reservationStore.setLastSuffix(baseReference, 12);
+        when(this.existingDocumentsQuery.execute()).thenReturn(Arrays.<Object>asList("foo"));
 
         // Make sure we use a different sequence for each call, as if they are made by two different threads.
-        DocumentReference firstReference =
-            this.mocker.getComponentUnderTest().generate(spaceReference, new DocumentNameSequence("foo"));
-        DocumentReference secondReference =
-            this.mocker.getComponentUnderTest().generate(spaceReference, new DocumentNameSequence("foo"));
+        DocumentReference firstReference = this.mocker.getComponentUnderTest().generate(spaceReference, "foo");
+        DocumentReference secondReference = this.mocker.getComponentUnderTest().generate(spaceReference, "foo");
+
+        // Only the generated references are reserved, on behalf of the current user.
+        assertTrue(this.reservationStore.isReservedBy(firstReference, this.alice));
+        assertTrue(this.reservationStore.isReservedBy(secondReference, this.alice));
+        assertTrue(this.reservationStore.reserve(new DocumentReference("foo15", spaceReference), null, 60000));
 
-        verify(this.documentReferenceCache).set("gang:Drive.foo", true);
-        verify(this.documentReferenceCache).set("gang:Drive.foo1", true);
-        verify(this.documentReferenceCache).set("gang:Drive.foo2", true);
+        // The last suffix is updated.
+        assertEquals(14, this.reservationStore.getLastSuffix(baseReference));
+
+        // The candidate names are checked in batches.
+        verify(this.existingDocumentsQuery, times(2)).execute();
+        verify(this.existingDocumentsQuery, times(2)).bindValue("space", "Drive");
+        verify(this.existingDocumentsQuery, times(2)).setWiki("gang");
 
         assertEquals(spaceReference, firstReference.getLastSpaceReference());
-        assertEquals("foo1", firstReference.getName());
+        assertEquals("foo13", firstReference.getName());
 
         assertEquals(spaceReference, secondReference.getLastSpaceReference());
-        assertEquals("foo2", secondReference.getName());
+        assertEquals("foo14", secondReference.getName());
+    }
+
+    @Test
+    public void generateWithoutLastSuffix() throws Exception
+    {
+        DocumentReference baseReference = new DocumentReference("gang", "Drive", "foo");
+
+        when(this.existingDocumentsQuery.execute()).thenReturn(Arrays.<Object>asList("foo"));
+        // The biggest suffix comes first.
+        when(this.suffixedNamesQuery.execute()).thenReturn(Arrays.<Object>asList("foobar", "foo12", "foo9", "foo"));
+
+        assertEquals(new DocumentReference("foo13", baseReference.getLastSpaceReference()),
+            this.mocker.getComponentUnderTest().generate(baseReference.getLastSpaceReference(), "foo"));
+        assertEquals(13, this.reservationStore.getLastSuffix(baseReference));
+
+        // The names are checked starting from the biggest suffix.
+        verify(this.existingDocumentsQuery).bindValue(eq("names"), argThat(names -> ((List<?>) names).size() == 20
+            && ((List<?>) names).get(0).equals("foo") && ((List<?>) names).get(1).equals("foo13")));
+        verify(this.suffixedNamesQuery).bindValue("prefix", "foo%");
+        verify(this.suffixedNamesQuery).bindValue("maxLength", 13);
+
+        // The biggest suffix is retrieved only once.
+        this.mocker.getComponentUnderTest().generate(baseReference.getLastSpaceReference(), "foo");
+        verify(this.suffixedNamesQuery).execute();
+    }
+
+    @Test
+    public void generateAll() throws Exception
+    {
+        SpaceReference spaceReference = new SpaceReference("gang", "Drive");
+
+        // The names are checked together.
+        when(this.existingDocumentsQuery.execute()).thenReturn(Arrays.<Object>asList("bar"));
+
+        List<DocumentReference> references = this.mocker.getComponentUnderTest().generateAll(spaceReference,
+            Arrays.asList("foo", "bar", "foo"));
+
+        assertEquals(Arrays.asList(new DocumentReference("foo", spaceReference),
+            new DocumentReference("bar1", spaceReference), new DocumentReference("foo1", spaceReference)),
+            references);
+        verify(this.existingDocumentsQuery).bindValue("names", Arrays.asList("foo", "bar"));
+        verify(this.existingDocumentsQuery, times(3)).execute();
+        for (DocumentReference reference : references) {
+            assertTrue(this.reservationStore.isReservedBy(reference, this.alice));
+        }
+    }
+
+    @Test
+    public void generateFromCustomSequence() throws Exception
+    {
+        SpaceReference spaceReference = new SpaceReference("gang", "Drive");
+
+        when(this.existingDocumentsQuery.execute()).thenReturn(Arrays.<Object>asList("a", "b"));
+
+        DocumentReference reference = this.mocker.getComponentUnderTest().generate(spaceReference,
+            Arrays.asList("a", "b", "c", "d").iterator());
+
+        assertEquals(new DocumentReference("c", spaceReference), reference);
+        verify(this.existingDocumentsQuery).bindValue("names", Arrays.asList("a", "b", "c", "d"));
+        // The last suffixes are used only for document names.
+        assertEquals(0, this.reservationStore.getLastSuffix(new DocumentReference("a", spaceReference)));
+    }
+
+    @Test
+    public void generateSkipsReservedReferences() throws Exception
+    {
+        SpaceReference spaceReference = new SpaceReference("gang", "Drive");
+
+        // Reserved by another node, for instance.
+        this.reservationStore.reserve(new DocumentReference("a", spaceReference), null, 60000);
+        when(this.existingDocumentsQuery.execute()).thenReturn(Collections.emptyList());
+
+        DocumentReference reference = this.mocker.getComponentUnderTest().generate(spaceReference,
+            Arrays.asList("a", "b").iterator());
+
+        assertEquals(new DocumentReference("b", spaceReference), reference);
+    }
+
+    @Test
+    public void generateAfterRelease() throws Exception
+    {
+        SpaceReference spaceReference = new SpaceReference("gang", "Drive");
+
+        when(this.existingDocumentsQuery.execute()).thenReturn(Collections.emptyList());
+
+        DocumentReference reference = this.mocker.getComponentUnderTest().generate(spaceReference,
+            Arrays.asList("a", "b").iterator());
+        assertEquals(new DocumentReference("a", spaceReference), reference);
+
+        this.reservationStore.release(reference);
+
+        assertEquals(reference, this.mocker.getComponentUnderTest().generate(spaceReference,
+            Arrays.asList("a", "b").iterator()));
     }
 }
@@ -56,6 +56,23 @@ public class DocumentNameSequenceTest
         assertTrue(names.get(105).matches("foo[a-f0-9]+{8}-[a-f0-9]+{4}-[a-f0-9]+{4}-[a-f0-9]+{4}-[a-f0-9]+{12}"));
     }
 
+    @Test
+    public void iterateFromSuffix()
+    {
+        DocumentNameSequence sequence = new DocumentNameSequence("foo");
+        sequence.setFirstSuffix(500);
+
+        assertEquals("foo", sequence.next());
+        assertEquals("foo500", sequence.next());
+        assertEquals("foo501", sequence.next());
+        for (int i = 0; i < 96; i++) {
+            sequence.next();
+        }
+        assertEquals("foo598", sequence.next());
+        // Random number
+        assertTrue(Integer.parseInt(sequence.next().substring(3)) >= 599);
+    }
+
     @Test
     public void remove()
     {
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.internal.reference;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MemoryDocumentReservationStore}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class MemoryDocumentReservationStoreTest
+{
+    private MemoryDocumentReservationStore store = new MemoryDocumentReservationStore();
+
+    private DocumentReference reference = new DocumentReference("wiki", "Drive", "file.txt");
+
+    private DocumentReference alice = new DocumentReference("wiki", "XWiki", "alice");
+
+    @Test
+    void reserveAndRelease()
+    {
+        assertTrue(this.store.reserve(this.reference, this.alice, 60000));
+        assertFalse(this.store.reserve(this.reference, this.alice, 60000));
+        assertTrue(this.store.reserve(new DocumentReference("wiki", "Drive", "other.txt"), this.alice, 60000));
+
+        this.store.release(this.reference);
+
+        assertTrue(this.store.reserve(this.reference, this.alice, 60000));
+        // The other reservation is kept.
+        assertFalse(this.store.reserve(new DocumentReference("wiki", "Drive", "other.txt"), this.alice, 60000));
+    }
+
+    @Test
+    void reserveAfterLeaseExpires() throws Exception
+    {
+        assertTrue(this.store.reserve(this.reference, this.alice, 1));
+        Thread.sleep(10);
+        assertTrue(this.store.reserve(this.reference, this.alice, 60000));
+        assertFalse(this.store.reserve(this.reference, this.alice, 60000));
+    }
+
+    @Test
+    void reserveAll()
+    {
+        DocumentReference other = new DocumentReference("wiki", "Drive", "other.txt");
+        assertTrue(this.store.reserve(other, null, 60000));
+
+        assertEquals(Collections.singleton(this.reference),
+            this.store.reserveAll(Arrays.asList(this.reference, other), this.alice, 60000));
+    }
+
+    @Test
+    void isReservedBy() throws Exception
+    {
+        assertFalse(this.store.isReservedBy(this.reference, this.alice));
+
+        assertTrue(this.store.reserve(this.reference, this.alice, 1));
+        assertTrue(this.store.isReservedBy(this.reference, this.alice));
+        assertFalse(this.store.isReservedBy(this.reference, null));
+
+        Thread.sleep(10);
+        assertFalse(this.store.isReservedBy(this.reference, this.alice));
+    }
+
+    @Test
+    void keepLastSuffix()
+    {
+        assertEquals(0, this.store.getLastSuffix(this.reference));
+
+        this.store.setLastSuffix(this.reference, 5);
+        // Smaller suffixes are ignored.
+        this.store.setLastSuffix(this.reference, 3);
+
+        assertEquals(5, this.store.getLastSuffix(this.reference));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.filemanager.job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.filemanager.Path;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link PathList}.
+ * 
+ * @version $Id$
+ * @since 2.2
+ */
+class PathListTest
+{
+    private SpaceReference drive = new SpaceReference("Drive", new WikiReference("wiki"));
+
+    private SpaceReference otherDrive = new SpaceReference("OtherDrive", new WikiReference("wiki"));
+
+    private DocumentReference projects = new DocumentReference("Projects", this.drive);
+
+    private List<Path> paths = Arrays.asList(new Path(this.projects),
+        new Path(this.projects, new DocumentReference("readme.txt", this.drive)),
+        new Path(null, new DocumentReference("Projects", this.otherDrive)), new Path(null));
+
+    @Test
+    void storePaths()
+    {
+        PathList pathList = new PathList(this.paths);
+
+        assertEquals(this.paths, pathList);
+        assertEquals(Arrays.asList(this.drive, this.otherDrive), pathList.getDriveReferences());
+
+        Path path = new Path(new DocumentReference("Archive", this.drive));
+        pathList.add(path);
+        assertEquals(5, pathList.size());
+        assertTrue(pathList.contains(path));
+    }
+
+    @Test
+    void serialize() throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(output)) {
+            objectOutput.writeObject(new PathList(this.paths));
+        }
+
+        PathList pathList;
+        try (ObjectInputStream objectInput =
+            new ObjectInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            pathList = (PathList) objectInput.readObject();
+        }
+        assertEquals(this.paths, pathList);
+
+        // The indexes are rebuilt after deserialization.
+        pathList.add(this.paths.get(1));
+        assertEquals(Arrays.asList(this.drive, this.otherDrive), pathList.getDriveReferences());
+        assertEquals(this.paths.get(1), pathList.get(4));
+    }
+}
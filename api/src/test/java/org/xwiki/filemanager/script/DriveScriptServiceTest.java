@@ -21,6 +21,7 @@ package org.xwiki.filemanager.script;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -28,16 +29,19 @@ import org.junit.Test;
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.filemanager.FileSystem;
 import org.xwiki.filemanager.Path;
-import org.xwiki.filemanager.internal.reference.DocumentNameSequence;
-import org.xwiki.filemanager.job.BatchPathRequest;
+import org.xwiki.filemanager.internal.reference.MemoryDocumentReservationStore;
 import org.xwiki.filemanager.job.FileManager;
+import org.xwiki.filemanager.reference.DocumentReservationStore;
 import org.xwiki.filemanager.reference.UniqueDocumentReferenceGenerator;
-import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import static org.junit.Assert.*;
@@ -86,32 +90,40 @@ public class DriveScriptServiceTest
         assertEquals("abc", drive.move(Arrays.asList("Concerto/pom.xml", "/readme.txt", "Resilience"), "Projects"));
     }
 
+    @Test
+    public void cancel() throws Exception
+    {
+        when(this.fileManager.cancel("abc")).thenReturn(true);
+        assertTrue(this.drive.cancel("abc"));
+
+        AccessDeniedException accessDenied =
+            new AccessDeniedException(Right.ADMIN, newReference("alice"), this.driveReference);
+        when(this.fileManager.cancel("xyz")).thenThrow(accessDenied);
+        assertFalse(this.drive.cancel("xyz"));
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        verify(execution.getContext()).setProperty("scriptservice.drive.error", accessDenied);
+    }
+
+    @Test
+    public void answerOverwrite() throws Exception
+    {
+        when(this.fileManager.answerOverwrite("abc", Arrays.asList(0, 2), null)).thenReturn(true);
+        assertTrue(this.drive.answerOverwrite("abc", Arrays.asList("0", "two", "2"), null));
+
+        AccessDeniedException accessDenied =
+            new AccessDeniedException(Right.ADMIN, newReference("alice"), this.driveReference);
+        when(this.fileManager.answerOverwrite("xyz", Arrays.<Integer>asList(), true)).thenThrow(accessDenied);
+        assertFalse(this.drive.answerOverwrite("xyz", null, true));
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        verify(execution.getContext()).setProperty("scriptservice.drive.error", accessDenied);
+    }
+
     @Test
     public void getActiveJobs()
     {
-        when(fileManager.getActiveJobs()).thenReturn(Arrays.asList("a", "b", "c", "d", "e"));
-
-        JobStatus bJobStatus = mock(JobStatus.class, "b");
-        when(fileManager.getJobStatus("b")).thenReturn(bJobStatus);
-        when(bJobStatus.getRequest()).thenReturn(new BatchPathRequest());
-
-        JobStatus cJobStatus = mock(JobStatus.class, "c");
-        when(fileManager.getJobStatus("c")).thenReturn(cJobStatus);
-        BatchPathRequest cRequest = new BatchPathRequest();
-        cRequest.setPaths(Arrays.asList(newPath("foo")));
-        when(cJobStatus.getRequest()).thenReturn(cRequest);
-
-        JobStatus dJobStatus = mock(JobStatus.class, "d");
-        when(fileManager.getJobStatus("d")).thenReturn(dJobStatus);
-        BatchPathRequest dRequest = new BatchPathRequest();
-        dRequest.setPaths(Arrays.asList(new Path(new DocumentReference("math", "Drive", "video.mp4"))));
-        when(dJobStatus.getRequest()).thenReturn(dRequest);
-
-        JobStatus eJobStatus = mock(JobStatus.class, "e");
-        when(fileManager.getJobStatus("e")).thenReturn(eJobStatus);
-        BatchPathRequest eRequest = new BatchPathRequest();
-        eRequest.setPaths(Arrays.asList(newPath(null, "bar")));
-        when(eJobStatus.getRequest()).thenReturn(eRequest);
+        when(fileManager.getActiveJobs(this.driveReference)).thenReturn(Arrays.asList("c", "e"));
 
         assertEquals(Arrays.asList("c", "e"), this.drive.getActiveJobs());
     }
@@ -122,12 +134,76 @@ public class DriveScriptServiceTest
         UniqueDocumentReferenceGenerator uniqueDocRefGenerator =
             this.mocker.getInstance(UniqueDocumentReferenceGenerator.class);
         DocumentReference expectedReference = newReference("bar");
-        when(uniqueDocRefGenerator.generate(this.driveReference, new DocumentNameSequence("foo"))).thenReturn(
-            expectedReference);
+        when(uniqueDocRefGenerator.generate(this.driveReference, "foo")).thenReturn(expectedReference);
 
         assertEquals(expectedReference, this.drive.getUniqueReference("foo"));
     }
 
+    @Test
+    public void getUniqueReferences() throws Exception
+    {
+        UniqueDocumentReferenceGenerator uniqueDocRefGenerator =
+            this.mocker.getInstance(UniqueDocumentReferenceGenerator.class);
+        List<DocumentReference> expectedReferences = Arrays.asList(newReference("foo1"), newReference("bar"));
+        when(uniqueDocRefGenerator.generateAll(this.driveReference, Arrays.asList("foo", "bar")))
+            .thenReturn(expectedReferences);
+
+        assertEquals(expectedReferences, this.drive.getUniqueReferences(Arrays.asList("foo", "bar")));
+    }
+
+    @Test
+    public void getReservedReference() throws Exception
+    {
+        // The store is injected through a provider.
+        MemoryDocumentReservationStore store = new MemoryDocumentReservationStore();
+        this.mocker.registerComponent(DocumentReservationStore.class, store);
+        DocumentReference alice = new DocumentReference("wiki", "XWiki", "alice");
+        DocumentAccessBridge dab = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(dab.getCurrentUserReference()).thenReturn(alice);
+
+        store.reserve(newReference("foo"), alice, 60000);
+        store.reserve(newReference("bar"), null, 60000);
+
+        assertEquals(newReference("foo"), this.drive.getReservedReference("foo"));
+        // Reserved by another user.
+        assertNull(this.drive.getReservedReference("bar"));
+        // Not reserved.
+        assertNull(this.drive.getReservedReference("baz"));
+
+        this.drive.releaseReservedReference(newReference("bar"));
+        this.drive.releaseReservedReference(newReference("foo"));
+        assertFalse(store.reserve(newReference("bar"), alice, 60000));
+        assertTrue(store.reserve(newReference("foo"), alice, 60000));
+    }
+
+    @Test
+    public void getAncestors() throws Exception
+    {
+        DocumentReference root = newReference("WebHome");
+        DocumentReference projects = newReference("Projects");
+        DocumentReference concerto = newReference("Concerto");
+        DocumentReference sources = newReference("Sources");
+        FileSystem fileSystem = this.mocker.getInstance(FileSystem.class);
+        when(fileSystem.getAncestorReferences(sources)).thenReturn(Arrays.asList(root, projects, concerto));
+        when(fileSystem.getAncestorReferences(concerto)).thenReturn(Arrays.asList(root, projects));
+
+        ContextualAuthorizationManager authorization = this.mocker.getInstance(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(Right.VIEW, root)).thenReturn(true);
+        when(authorization.hasAccess(Right.VIEW, concerto)).thenReturn(true);
+        when(authorization.hasAccess(Right.VIEW, sources)).thenReturn(true);
+
+        // The path is cut at the ancestors that can't be viewed.
+        assertEquals(Arrays.asList(concerto), this.drive.getAncestors(sources));
+        assertEquals(Arrays.asList(), this.drive.getAncestors(concerto));
+
+        // The folder itself can't be viewed.
+        when(authorization.hasAccess(Right.VIEW, concerto)).thenReturn(false);
+        assertNull(this.drive.getAncestors(concerto));
+
+        // Not a folder.
+        assertNull(this.drive.getAncestors(newReference("readme")));
+    }
+
     private DocumentReference newReference(String name)
     {
         return new DocumentReference(name, driveReference);